@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.crypto.Crypto;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Synthetic transactions and blocks used by the benchmarks.  The data is
+ * built without a database, so the ecBlock fields and fees are always set
+ * explicitly.
+ */
+final class BenchmarkData {
+
+    static final String SECRET_PHRASE = "benchmark secret phrase";
+    static final byte[] PUBLIC_KEY = Crypto.getPublicKey(SECRET_PHRASE);
+
+    /**
+     * Create a signed ordinary payment
+     *
+     * @param   recipientId             Recipient account
+     * @param   amountNQT               Payment amount
+     * @param   timestamp               Transaction timestamp
+     * @param   message                 Plain message or null
+     * @return                          Signed transaction
+     */
+    static TransactionImpl newPayment(long recipientId, long amountNQT, int timestamp, String message) {
+        try {
+            TransactionImpl.BuilderImpl builder = new TransactionImpl.BuilderImpl((byte)1, PUBLIC_KEY, amountNQT,
+                    Constants.ONE_NXT, (short)1440, Attachment.ORDINARY_PAYMENT)
+                    .recipientId(recipientId)
+                    .timestamp(timestamp)
+                    .ecBlockHeight(0)
+                    .ecBlockId(Genesis.GENESIS_BLOCK_ID);
+            if (message != null) {
+                builder.appendix(new Appendix.Message(message));
+            }
+            return builder.build(SECRET_PHRASE);
+        } catch (NxtException.NotValidException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Create a signed block containing ordinary payments
+     *
+     * @param   transactionCount        Number of transactions
+     * @return                          Signed block
+     */
+    static BlockImpl newBlock(int transactionCount) {
+        int timestamp = 100000;
+        List<TransactionImpl> transactions = new ArrayList<>(transactionCount);
+        for (int i = 0; i < transactionCount; i++) {
+            transactions.add(newPayment(i + 1, Constants.ONE_NXT, timestamp - i, null));
+        }
+        transactions.sort(Comparator.comparingLong(TransactionImpl::getId));
+        MessageDigest digest = Crypto.sha256();
+        long totalAmountNQT = 0;
+        long totalFeeNQT = 0;
+        int payloadLength = 0;
+        for (TransactionImpl transaction : transactions) {
+            digest.update(transaction.bytes());
+            totalAmountNQT += transaction.getAmountNQT();
+            totalFeeNQT += transaction.getFeeNQT();
+            payloadLength += transaction.getFullSize();
+        }
+        byte[] generationSignature = new byte[32];
+        try {
+            return new BlockImpl(3, timestamp, Genesis.GENESIS_BLOCK_ID, totalAmountNQT, totalFeeNQT, payloadLength,
+                    digest.digest(), PUBLIC_KEY, generationSignature, new byte[32], transactions, SECRET_PHRASE,
+                    0L, null);
+        } catch (NxtException.NotValidException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private BenchmarkData() {} // never
+}
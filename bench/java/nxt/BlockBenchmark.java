@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.util.JSON;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block parsing and serialization as performed for every block received from a peer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BlockBenchmark {
+
+    @Param({"0", "50", "255"})
+    private int transactionCount;
+
+    private BlockImpl block;
+    private JSONObject blockJSON;
+
+    @Setup
+    public void setup() {
+        block = BenchmarkData.newBlock(transactionCount);
+        blockJSON = (JSONObject)JSONValue.parse(JSON.toString(block.getJSONObject()));
+    }
+
+    @Benchmark
+    public BlockImpl parseBlock() throws NxtException.NotValidException, BlockchainProcessor.BlockOutOfOrderException {
+        return BlockImpl.parseBlock(blockJSON);
+    }
+
+    @Benchmark
+    public JSONObject getJSONObject() {
+        return block.getJSONObject();
+    }
+}
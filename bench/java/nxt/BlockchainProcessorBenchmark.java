@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Block processing against a testnet database in a temporary directory.
+ *
+ * The blocks are forged when the benchmark starts.  The testnet base target is
+ * raised so every block can be forged with nonce 0 and each block after the first
+ * one contains transactionCount payments.  Each invocation pushes the blocks again
+ * and the chain is popped off to the genesis block before the next invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockchainProcessorBenchmark {
+
+    /** Seconds between forged blocks */
+    private static final int BLOCK_SPACING = 30;
+
+    @Param({"500"})
+    private int blockCount;
+
+    @Param({"10"})
+    private int transactionCount;
+
+    private final List<JSONObject> blocks = new ArrayList<>();
+    private BlockchainProcessorImpl blockchainProcessor;
+    private BlockImpl genesisBlock;
+    private Path dbDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, NxtException {
+        dbDir = Files.createTempDirectory("nxt_bench");
+        String dbUrl = "jdbc:h2:" + dbDir.resolve("nxt").toAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE";
+        Properties properties = new Properties();
+        properties.setProperty("nxt.isTestnet", "true");
+        properties.setProperty("nxt.testDbUrl", dbUrl);
+        properties.setProperty("nxt.testBlockStoreDir", dbDir.resolve("blocks").toAbsolutePath().toString());
+        properties.setProperty("nxt.testnetBlockTime", Integer.toString(BLOCK_SPACING));
+        properties.setProperty("nxt.testnetBaseTargetMultiplier", "40000000");
+        properties.setProperty("nxt.isOffline", "true");
+        properties.setProperty("nxt.enableAPIServer", "false");
+        properties.setProperty("nxt.disableGenerateBlocksThread", "true");
+        properties.setProperty("nxt.trimDerivedTables", "false");
+        Nxt.init(properties);
+        blockchainProcessor = BlockchainProcessorImpl.getInstance();
+        blockchainProcessor.setGetMoreBlocks(false);
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        genesisBlock = blockchain.getBlockAtHeight(0);
+        int timestamp = Nxt.getEpochTime() - (blockCount + 1) * BLOCK_SPACING;
+        for (int height = 1; height <= blockCount; height++) {
+            timestamp += BLOCK_SPACING;
+            // the generator only has a balance once it has forged the first block
+            for (int i = 0; height > 1 && i < transactionCount; i++) {
+                Transaction transaction = Nxt.newTransactionBuilder(BenchmarkData.PUBLIC_KEY, Constants.ONE_NXT,
+                        Constants.ONE_NXT, (short)1440, Attachment.ORDINARY_PAYMENT)
+                        .recipientId(i + 1)
+                        .timestamp(timestamp - i)
+                        .build(BenchmarkData.SECRET_PHRASE);
+                Nxt.getTransactionProcessor().broadcast(transaction);
+            }
+            blockchainProcessor.generateBlock(BenchmarkData.SECRET_PHRASE, BenchmarkData.PUBLIC_KEY, 0, timestamp);
+        }
+        if (blockchain.getHeight() != blockCount) {
+            throw new IllegalStateException("Forged only " + blockchain.getHeight() + " blocks");
+        }
+        // parse the blocks again to get the value types of a block received from a peer
+        for (int height = 1; height <= blockCount; height++) {
+            blocks.add((JSONObject)JSONValue.parse(blockchain.getBlockAtHeight(height).getJSONObject().toJSONString()));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void popOff() {
+        blockchainProcessor.popOffTo(genesisBlock);
+        TransactionProcessorImpl.getInstance().clearUnconfirmedTransactions();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() throws IOException {
+        Nxt.shutdown();
+        try (Stream<Path> paths = Files.walk(dbDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int pushBlocks() throws NxtException {
+        for (JSONObject block : blocks) {
+            blockchainProcessor.processPeerBlock(block);
+        }
+        int height = BlockchainImpl.getInstance().getHeight();
+        if (height != blockCount) {
+            throw new IllegalStateException("Blocks not accepted, height " + height);
+        }
+        return height;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.util.MiningPlot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proof of capacity calculations performed for every pushed block
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeneratorBenchmark {
+
+    private final long accountId = 0x1234567890abcdefL;
+    private final byte[] generationSignature = new byte[32];
+    private byte[] scoopData;
+    private long nonce;
+    private int height;
+
+    @Setup
+    public void setup() {
+        ThreadLocalRandom.current().nextBytes(generationSignature);
+        scoopData = new MiningPlot(accountId, 0).getScoop(0);
+        height = 500000;
+    }
+
+    @Benchmark
+    public int calculateScoopNum() {
+        return Generator.calculateScoopNum(generationSignature, height++);
+    }
+
+    @Benchmark
+    public BigInteger calculateUnscaledPOCTimeFromScoop() {
+        return Generator.calculateUnscaledPOCTime(accountId, nonce, generationSignature, scoopData);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BigInteger calculateUnscaledPOCTime() {
+        return Generator.calculateUnscaledPOCTime(accountId, nonce++, generationSignature, (int)(nonce & 4095));
+    }
+
+    @Benchmark
+    public byte[] calculateGenerationSignature() {
+        return Generator.calculateGenerationSignature(generationSignature, accountId);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.db.DbIterator;
+import nxt.db.DbUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Finishing a poll with a large number of votes.  The database is created in a
+ * temporary directory since the full text search index needs a database path.
+ *
+ * The poll and its votes are inserted directly into the database and the poll
+ * finishes at the current height.  ACCOUNT polls are finished from the running
+ * tally, which is loaded before each invocation as it would have been while the
+ * votes were cast.  NQT polls read the voter balances in batches.  The
+ * countVotesPerVoter benchmark evaluates each vote separately for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PollBenchmark {
+
+    private static final long POLL_ID = 1;
+    private static final long FIRST_VOTER_ID = 1000;
+
+    @Param({"100000"})
+    private int voteCount;
+
+    @Param({"ACCOUNT", "NQT"})
+    private String votingModel;
+
+    private Poll poll;
+    private Path dbDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        dbDir = Files.createTempDirectory("nxt_bench");
+        String dbUrl = "jdbc:h2:" + dbDir.resolve("nxt").toAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE";
+        Properties properties = new Properties();
+        properties.setProperty("nxt.dbUrl", dbUrl);
+        properties.setProperty("nxt.testDbUrl", dbUrl);
+        properties.setProperty("nxt.isOffline", "true");
+        properties.setProperty("nxt.enableAPIServer", "false");
+        properties.setProperty("nxt.disableGenerateBlocksThread", "true");
+        properties.setProperty("nxt.trimDerivedTables", "false");
+        properties.setProperty("nxt.processPolls", "true");
+        Nxt.init(properties);
+        VoteWeighting.VotingModel model = VoteWeighting.VotingModel.valueOf(votingModel);
+        int height = Nxt.getBlockchain().getHeight();
+        try (Connection con = Db.db.beginTransaction()) {
+            try (PreparedStatement pstmt = con.prepareStatement("INSERT INTO poll (id, account_id, name, description, "
+                    + "options, min_num_options, max_num_options, min_range_value, max_range_value, timestamp, "
+                    + "finish_height, voting_model, min_balance, min_balance_model, holding_id, height) "
+                    + "VALUES (?, ?, 'benchmark', NULL, ?, 1, 3, 0, 1, 0, ?, ?, NULL, ?, NULL, ?)")) {
+                int i = 0;
+                pstmt.setLong(++i, POLL_ID);
+                pstmt.setLong(++i, FIRST_VOTER_ID);
+                DbUtils.setArray(pstmt, ++i, new String[] {"first", "second", "third"});
+                pstmt.setInt(++i, height);
+                pstmt.setByte(++i, model.getCode());
+                pstmt.setByte(++i, model.getMinBalanceModel().getCode());
+                pstmt.setInt(++i, height);
+                pstmt.executeUpdate();
+            }
+            try (PreparedStatement pstmt = con.prepareStatement("INSERT INTO vote (id, poll_id, voter_id, vote_bytes, height) "
+                    + "VALUES (?, ?, ?, ?, ?)")) {
+                for (int n = 0; n < voteCount; n++) {
+                    pstmt.setLong(1, n + 1);
+                    pstmt.setLong(2, POLL_ID);
+                    pstmt.setLong(3, FIRST_VOTER_ID + n);
+                    pstmt.setBytes(4, new byte[] {1, (byte)(n % 2), Constants.NO_VOTE_VALUE});
+                    pstmt.setInt(5, height);
+                    pstmt.addBatch();
+                    if (n % 1000 == 999) {
+                        pstmt.executeBatch();
+                    }
+                }
+                pstmt.executeBatch();
+            }
+            try (PreparedStatement pstmt = con.prepareStatement("INSERT INTO account (id, balance, unconfirmed_balance, "
+                    + "forged_balance, height) VALUES (?, ?, ?, 0, ?)")) {
+                for (int n = 0; n < voteCount; n++) {
+                    long balance = (n + 1) * Constants.ONE_NXT;
+                    pstmt.setLong(1, FIRST_VOTER_ID + n);
+                    pstmt.setLong(2, balance);
+                    pstmt.setLong(3, balance);
+                    pstmt.setInt(4, height);
+                    pstmt.addBatch();
+                    if (n % 1000 == 999) {
+                        pstmt.executeBatch();
+                    }
+                }
+                pstmt.executeBatch();
+            }
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        poll = Poll.getPoll(POLL_ID);
+    }
+
+    @Setup(Level.Invocation)
+    public void beginTransaction() {
+        Db.db.beginTransaction();
+        if (poll.getVoteWeighting().isBalanceIndependent()) {
+            try (DbIterator<Vote> votes = Vote.getVotes(POLL_ID, 0, 0)) {
+                Poll.tallyVote(votes.next());
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void rollbackTransaction() {
+        Db.db.rollbackTransaction();
+        Db.db.endTransaction();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() throws IOException {
+        Nxt.shutdown();
+        try (Stream<Path> paths = Files.walk(dbDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long finishPoll() {
+        Poll.checkPolls(Nxt.getBlockchain().getHeight());
+        List<Poll.OptionResult> results = poll.getResults();
+        if (results == null || results.get(0) == null) {
+            throw new IllegalStateException("Poll " + POLL_ID + " has not been finished");
+        }
+        return results.get(0).getWeight();
+    }
+
+    @Benchmark
+    public long countVotesPerVoter() {
+        VoteWeighting voteWeighting = poll.getVoteWeighting();
+        int height = Nxt.getBlockchain().getHeight();
+        long weight = 0;
+        try (DbIterator<Vote> votes = Vote.getVotes(POLL_ID, 0, -1)) {
+            for (Vote vote : votes) {
+                weight += voteWeighting.getVotingModel().calcWeight(voteWeighting, vote.getVoterId(), height);
+            }
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.util.JSON;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transaction serialization as performed for peer relay and block processing
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransactionBenchmark {
+
+    @Param({"", "benchmark message"})
+    private String message;
+
+    private TransactionImpl transaction;
+    private byte[] transactionBytes;
+    private JSONObject transactionJSON;
+
+    @Setup
+    public void setup() {
+        transaction = BenchmarkData.newPayment(1, Constants.ONE_NXT, 100000, message.isEmpty() ? null : message);
+        transactionBytes = transaction.getBytes();
+        transactionJSON = (JSONObject)JSONValue.parse(JSON.toString(transaction.getJSONObject()));
+    }
+
+    @Benchmark
+    public TransactionImpl parseBytes() throws NxtException.NotValidException {
+        return TransactionImpl.newTransactionBuilder(transactionBytes).build();
+    }
+
+    @Benchmark
+    public TransactionImpl parseJSON() throws NxtException.NotValidException {
+        return TransactionImpl.parseTransaction(transactionJSON);
+    }
+
+    @Benchmark
+    public byte[] bytes() throws NxtException.NotValidException {
+        return TransactionImpl.newTransactionBuilder(transactionBytes).build().bytes();
+    }
+
+    @Benchmark
+    public JSONObject getJSONObject() {
+        return transaction.getJSONObject();
+    }
+}
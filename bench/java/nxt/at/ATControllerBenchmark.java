@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.at;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Automated transaction execution.  The machine code is a tight arithmetic
+ * loop, so every invocation runs the maximum number of steps allowed per block.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ATControllerBenchmark {
+
+    private static final int HEIGHT = 500000;
+
+    private AT_Machine_State state;
+
+    @Setup
+    public void setup() {
+        ByteBuffer code = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+        code.put(OpCode.e_op_code_INC_DAT).putInt(0);
+        code.put(OpCode.e_op_code_ADD_DAT).putInt(1).putInt(0);
+        code.put(OpCode.e_op_code_JMP_ADR).putInt(0);
+        ByteBuffer creationBytes = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        creationBytes.putShort(AT_Constants.getInstance().AT_VERSION(HEIGHT));
+        creationBytes.putShort((short)0);
+        creationBytes.putShort((short)1);     // code pages
+        creationBytes.putShort((short)1);     // data pages
+        creationBytes.putShort((short)1);     // call stack pages
+        creationBytes.putShort((short)1);     // user stack pages
+        creationBytes.putLong(0);             // minimum activation amount
+        creationBytes.put((byte)code.capacity());
+        creationBytes.put(code.array());
+        creationBytes.put((byte)0);           // data length
+        state = new AT_Machine_State(new byte[AT_Constants.AT_ID_SIZE], new byte[AT_Constants.AT_ID_SIZE],
+                creationBytes.array(), HEIGHT);
+        AT_Controller.resetMachine(state);
+    }
+
+    @Benchmark
+    public int runSteps() {
+        state.getMachineState().pc = 0;
+        state.setG_balance(Long.MAX_VALUE / 2);
+        return AT_Controller.runSteps(state);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plot generation as performed when verifying a block deadline
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MiningPlotBenchmark {
+
+    private long accountId;
+    private long nonce;
+    private MiningPlot plot;
+
+    @Setup
+    public void setup() {
+        accountId = 0x1234567890abcdefL;
+        nonce = 42;
+        plot = new MiningPlot(accountId, nonce);
+    }
+
+    @Benchmark
+    public MiningPlot generatePlot() {
+        return new MiningPlot(accountId, nonce++);
+    }
+
+    @Benchmark
+    public byte[] getScoop() {
+        return plot.getScoop((int)(nonce++ & (MiningPlot.SCOOPS_PER_PLOT - 1)));
+    }
+}
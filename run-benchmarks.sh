@@ -0,0 +1,29 @@
+#!/bin/sh
+# Run the JMH benchmarks in bench/java and write the results as JSON to
+# bench-results/, so they can be compared between releases.
+#
+# The JMH jars (jmh-core, jmh-generator-annprocess, jopt-simple and
+# commons-math3) must be copied to benchlib/.  Arguments are passed to JMH,
+# for example to run a single benchmark:
+#   ./run-benchmarks.sh GeneratorBenchmark
+CP="conf/:bench-classes/:lib/*:benchlib/*"
+SP="src/java/:bench/java/"
+
+if [ -z "$(ls benchlib/jmh-core-*.jar 2>/dev/null)" ]; then
+    echo "JMH jars not found in benchlib/"
+    exit 1
+fi
+
+/bin/rm -rf bench-classes
+/bin/mkdir -p bench-classes/ bench-results/
+
+find src/java/nxt/ bench/java/ -name "*.java" > sources.tmp
+javac -encoding utf8 -sourcepath "${SP}" -classpath "${CP}" -processor org.openjdk.jmh.generators.BenchmarkProcessor \
+    -d bench-classes/ @sources.tmp || exit 1
+rm -f sources.tmp
+
+VERSION=$(grep -o 'VERSION = "[^"]*"' src/java/nxt/Nxt.java | cut -d'"' -f2)
+RESULTS="bench-results/nxt-${VERSION}-$(date +%Y%m%d-%H%M%S).json"
+
+java -classpath "${CP}" org.openjdk.jmh.Main -rf json -rff "${RESULTS}" "$@" || exit 1
+echo "results written to ${RESULTS}"
@@ -4,7 +4,7 @@ SP=src/java/:test/java/
 
 if [ $# -eq 0 ]; then
 TESTS="nxt.crypto.Curve25519Test nxt.crypto.ReedSolomonTest nxt.peer.HallmarkTest nxt.TokenTest nxt.FakeForgingTest
-nxt.FastForgingTest nxt.ManualForgingTest"
+nxt.FastForgingTest nxt.ManualForgingTest nxt.GeneratorStateTest nxt.GenerateBlockTest nxt.peer.CompactBlockTest nxt.ChainIndexTest nxt.AccountLedgerTest nxt.util.ColumnFileTest nxt.TaggedDataTest nxt.peer.PeerRequestSchedulerTest nxt.peer.PeerScoreTest nxt.peer.PeerDbTest nxt.BlockPayloadCacheTest nxt.BlockFileTest"
 else
 TESTS=$@
 fi
@@ -42,6 +42,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -668,6 +669,11 @@ public final class Account {
             super.trim(Math.max(0, height - Constants.MAX_DIVIDEND_PAYMENT_ROLLBACK));
         }
 
+        @Override
+        public boolean trim(int height, int limit) {
+            return super.trim(Math.max(0, height - Constants.MAX_DIVIDEND_PAYMENT_ROLLBACK), limit);
+        }
+
         @Override
         public void checkAvailable(int height) {
             if (height + Constants.MAX_DIVIDEND_PAYMENT_ROLLBACK < Nxt.getBlockchainProcessor().getMinRollbackHeight()) {
@@ -1068,6 +1074,52 @@ public final class Account {
         return accountCurrency == null ? 0 : accountCurrency.units;
     }
 
+    /**
+     * Return the balances of a group of accounts at a given height using a single query
+     *
+     * @param   accountIds              Account identifiers
+     * @param   height                  Balance height
+     * @return                          Balances in the order of the account identifiers
+     */
+    public static long[] getBalancesNQT(long[] accountIds, int height) {
+        return getBalances(accountTable.getLongValues(DbClause.EMPTY_CLAUSE, "id", accountIds, "balance", height), accountIds);
+    }
+
+    /**
+     * Return the asset balances of a group of accounts at a given height using a single query
+     *
+     * @param   accountIds              Account identifiers
+     * @param   assetId                 Asset identifier
+     * @param   height                  Balance height
+     * @return                          Balances in the order of the account identifiers
+     */
+    public static long[] getAssetBalancesQNT(long[] accountIds, long assetId, int height) {
+        return getBalances(accountAssetTable.getLongValues(new DbClause.LongClause("asset_id", assetId),
+                "account_id", accountIds, "quantity", height), accountIds);
+    }
+
+    /**
+     * Return the currency units of a group of accounts at a given height using a single query
+     *
+     * @param   accountIds              Account identifiers
+     * @param   currencyId              Currency identifier
+     * @param   height                  Balance height
+     * @return                          Units in the order of the account identifiers
+     */
+    public static long[] getCurrencyUnits(long[] accountIds, long currencyId, int height) {
+        return getBalances(accountCurrencyTable.getLongValues(new DbClause.LongClause("currency_id", currencyId),
+                "account_id", accountIds, "units", height), accountIds);
+    }
+
+    private static long[] getBalances(Map<Long, Long> balances, long[] accountIds) {
+        long[] result = new long[accountIds.length];
+        for (int i = 0; i < accountIds.length; i++) {
+            Long value = balances.get(accountIds[i]);
+            result[i] = value == null ? 0 : value;
+        }
+        return result;
+    }
+
     public static long getUnconfirmedCurrencyUnits(long accountId, long currencyId) {
         AccountCurrency accountCurrency = accountCurrencyTable.get(accountCurrencyDbKeyFactory.newKey(accountId, currencyId));
         return accountCurrency == null ? 0 : accountCurrency.unconfirmedUnits;
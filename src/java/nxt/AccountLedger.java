@@ -16,20 +16,25 @@
 
 package nxt;
 
+import nxt.db.DbCursor;
 import nxt.db.DbUtils;
 import nxt.db.DerivedDbTable;
+import nxt.db.TransactionalDb;
 import nxt.util.Convert;
 import nxt.util.Listener;
 import nxt.util.Listeners;
 import nxt.util.Logger;
+import nxt.util.ThreadPool;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -38,6 +43,17 @@ import java.util.TreeSet;
 
 /**
  * Maintain a ledger of changes to selected accounts
+ *
+ * Ledger entries are collected while a block is applied.  When the block database
+ * transaction commits, they are given their ledger identifiers, the ADD_ENTRY
+ * listeners are notified and the entries are queued for the ledger writer thread,
+ * which inserts them with batched statements.  A failed write is retried.
+ *
+ * The account_ledger_height table records the height up to which all entries have
+ * been written.  The ledger writer adds a row with each write and a rollback removes
+ * the rows above the rollback height, so the two never update the same row.  Entries
+ * lost in a crash are rebuilt at the next start by applying the blocks after that
+ * height again in a database transaction which is rolled back.
  */
 public class AccountLedger {
 
@@ -65,6 +81,58 @@ public class AccountLedger {
     /** Pending ledger entries */
     private static final List<LedgerEntry> pendingEntries = new ArrayList<>();
 
+    /** Ledger entries for the blocks applied in the current database transaction */
+    private static final List<LedgerEntry> transactionEntries = new ArrayList<>();
+
+    /** Height of the last block applied in the current database transaction */
+    private static int transactionHeight = -1;
+
+    /** Maximum number of committed database transactions waiting for the ledger writer */
+    private static final int writeQueueSize = Math.max(Nxt.getIntProperty("nxt.ledgerWriteQueueSize", 100), 1);
+
+    /** Committed ledger entries waiting for the ledger writer */
+    private static final Deque<LedgerBatch> writeQueue = new ArrayDeque<>();
+
+    /** Ledger writer is writing entries removed from the queue */
+    private static boolean writing;
+
+    /** Ledger writer is stopping */
+    private static boolean stopping;
+
+    /** Ledger writer thread */
+    private static Thread writerThread;
+
+    /** Delay before a failed write is retried (milliseconds) */
+    private static final long writeRetryDelay = 10000;
+
+    /** Ledger identifier for the next entry */
+    private static long nextLedgerId;
+
+    /** Ledger entries are being rebuilt */
+    private static boolean rebuilding;
+
+    /** Rebuilt ledger entries */
+    private static final List<LedgerEntry> rebuiltEntries = new ArrayList<>();
+
+    /** Queue committed ledger entries when the database transaction commits */
+    private static final TransactionalDb.TransactionCallback ledgerCallback = new TransactionalDb.TransactionCallback() {
+
+        @Override
+        public void commit() {
+            if (transactionHeight >= 0) {
+                addEntries(transactionHeight, new ArrayList<>(transactionEntries));
+            }
+            transactionEntries.clear();
+            transactionHeight = -1;
+        }
+
+        @Override
+        public void rollback() {
+            transactionEntries.clear();
+            transactionHeight = -1;
+        }
+    };
+
     /**
      * Process nxt.ledgerAccounts
      */
@@ -105,13 +173,101 @@ public class AccountLedger {
         }
 
         /**
-         * Insert an entry into the table
+         * Insert committed ledger entries and advance the ledger height
+         *
+         * This is called by the ledger writer thread in its own database transaction.
+         * The new ledger height is added as a new row and the older rows are deleted.
          *
-         * @param   ledgerEntry             Ledger entry
+         * @param   batches                 Ledger batches in commit order
+         * @return                          TRUE if the entries have been written
          */
-        public void insert(LedgerEntry ledgerEntry) {
-            try (Connection con = db.getConnection()) {
-                ledgerEntry.save(con);
+        public boolean insert(List<LedgerBatch> batches) {
+            db.beginTransaction();
+            try (Connection con = db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement("INSERT INTO account_ledger "
+                         + "(db_id, account_id, event_type, event_id, holding_type, holding_id, change, balance, "
+                         + "block_id, height, timestamp) "
+                         + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                 PreparedStatement pstmtHeight = con.prepareStatement("INSERT INTO account_ledger_height (height) VALUES (?)");
+                 PreparedStatement pstmtTrim = con.prepareStatement("DELETE FROM account_ledger_height WHERE height < ?")) {
+                int count = 0;
+                for (LedgerBatch batch : batches) {
+                    for (LedgerEntry ledgerEntry : batch.entries) {
+                        ledgerEntry.save(pstmt);
+                        pstmt.addBatch();
+                        if (++count % 500 == 0) {
+                            pstmt.executeBatch();
+                        }
+                    }
+                }
+                if (count % 500 != 0) {
+                    pstmt.executeBatch();
+                }
+                int height = batches.get(batches.size() - 1).height;
+                pstmtHeight.setInt(1, height);
+                pstmtHeight.executeUpdate();
+                pstmtTrim.setInt(1, height);
+                pstmtTrim.executeUpdate();
+                db.commitTransaction();
+                return true;
+            } catch (SQLException e) {
+                db.rollbackTransaction();
+                Logger.logErrorMessage("Unable to write account ledger entries, will retry in "
+                        + writeRetryDelay / 1000 + " seconds", e);
+                return false;
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        /**
+         * Roll back the account ledger table
+         *
+         * @param   height                  Rollback height
+         */
+        @Override
+        public void rollback(int height) {
+            discardEntries(height);
+            super.rollback(height);
+            setLedgerHeight(height);
+        }
+
+        /**
+         * Truncate the account ledger table
+         */
+        @Override
+        public void truncate() {
+            discardEntries(-1);
+            super.truncate();
+            setLedgerHeight(-1);
+        }
+
+        /**
+         * Lower the ledger height after a rollback
+         *
+         * The rows above the rollback height are deleted.  If no row is left, all entries
+         * up to the rollback height had been written and a row for that height is added.
+         * The ledger writer only adds rows at or below the rollback height meanwhile, so
+         * this does not wait for the ledger writer transaction.
+         *
+         * @param   height                  Rollback height
+         */
+        private void setLedgerHeight(int height) {
+            try (Connection con = db.getConnection();
+                 PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM account_ledger_height WHERE height > ?");
+                 PreparedStatement pstmtSelect = con.prepareStatement("SELECT height FROM account_ledger_height LIMIT 1");
+                 PreparedStatement pstmtInsert = con.prepareStatement("INSERT INTO account_ledger_height (height) VALUES (?)")) {
+                pstmtDelete.setInt(1, height);
+                if (pstmtDelete.executeUpdate() == 0) {
+                    return;
+                }
+                try (ResultSet rs = pstmtSelect.executeQuery()) {
+                    if (rs.next()) {
+                        return;
+                    }
+                }
+                pstmtInsert.setInt(1, height);
+                pstmtInsert.executeUpdate();
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             }
@@ -141,14 +297,240 @@ public class AccountLedger {
     /**
      * Initialization
      *
-     * We don't do anything but we need to be called from Nxt.init() in order to
-     * register our table
+     * Start the ledger writer and rebuild the entries which were committed but not
+     * written when the server stopped
      */
     static void init() {
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement()) {
+            if (!ledgerEnabled) {
+                stmt.executeUpdate("DELETE FROM account_ledger_height");
+                return;
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT MAX(db_id) FROM account_ledger")) {
+                rs.next();
+                nextLedgerId = rs.getLong(1) + 1;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        writerThread = new Thread(AccountLedger::runWriter, "AccountLedgerWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        ThreadPool.runBeforeStart(AccountLedger::catchUp, false);
+    }
+
+    /**
+     * Stop the ledger writer after the queued entries have been written
+     */
+    static void shutdown() {
+        Thread thread;
+        synchronized(writeQueue) {
+            thread = writerThread;
+            stopping = true;
+            writeQueue.notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Rebuild ledger entries for blocks after the ledger height
+     */
+    private static void catchUp() {
+        int height = blockchain.getHeight();
+        int ledgerHeight;
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT MAX(height) FROM account_ledger_height")) {
+                rs.next();
+                ledgerHeight = rs.getInt(1);
+                if (rs.wasNull()) {
+                    ledgerHeight = Integer.MAX_VALUE;
+                }
+            }
+            if (ledgerHeight == Integer.MAX_VALUE ||
+                    (ledgerHeight < height && ledgerHeight + 1 < blockchainProcessor.getMinRollbackHeight())) {
+                if (ledgerHeight != Integer.MAX_VALUE) {
+                    Logger.logWarningMessage("Account ledger height " + ledgerHeight + " is below the minimum rollback height, "
+                            + "ledger entries for blocks " + (ledgerHeight + 1) + " to " + height + " are not rebuilt");
+                }
+                stmt.executeUpdate("DELETE FROM account_ledger_height");
+                stmt.executeUpdate("INSERT INTO account_ledger_height (height) VALUES (" + height + ")");
+                return;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        if (ledgerHeight < height) {
+            Logger.logMessage("Rebuilding account ledger entries for blocks " + (ledgerHeight + 1) + " to " + height);
+            rebuildEntries(ledgerHeight);
+        }
+    }
+
+    /**
+     * Rebuild the ledger entries for the blocks above a height.  The blocks are applied
+     * again in a database transaction which is rolled back, so only the ledger entries
+     * are kept.
+     *
+     * @param   height                      Height of the last block with written entries
+     */
+    static void rebuildEntries(int height) {
+        List<LedgerEntry> entries;
+        synchronized(rebuiltEntries) {
+            rebuilding = true;
+            try {
+                BlockchainProcessorImpl.getInstance().replay(height);
+                entries = new ArrayList<>(rebuiltEntries);
+            } finally {
+                rebuilding = false;
+                rebuiltEntries.clear();
+            }
+        }
+        addEntries(blockchain.getHeight(), entries);
+    }
+
+    /**
+     * Assign the ledger identifiers to committed entries, notify the ADD_ENTRY listeners
+     * and queue the entries for the ledger writer
+     *
+     * @param   height                      Height of the last block
+     * @param   entries                     Committed ledger entries
+     */
+    private static void addEntries(int height, List<LedgerEntry> entries) {
+        synchronized(AccountLedger.class) {
+            for (LedgerEntry entry : entries) {
+                entry.ledgerId = nextLedgerId++;
+            }
+        }
+        entries.forEach(entry -> listeners.notify(entry, Event.ADD_ENTRY));
+        queueEntries(new LedgerBatch(height, entries));
+    }
+
+    /**
+     * Queue committed ledger entries for the ledger writer.  The block processing
+     * thread waits if the queue is full.
+     *
+     * @param   batch                       Ledger batch
+     */
+    private static void queueEntries(LedgerBatch batch) {
+        synchronized(writeQueue) {
+            while (writeQueue.size() >= writeQueueSize && !stopping) {
+                try {
+                    writeQueue.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            writeQueue.add(batch);
+            writeQueue.notifyAll();
+        }
+    }
+
+    /**
+     * Discard queued entries for blocks which have been popped off
+     *
+     * @param   height                      Rollback height
+     */
+    private static void discardEntries(int height) {
+        synchronized(writeQueue) {
+            while (writing) {
+                try {
+                    writeQueue.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            writeQueue.removeIf(batch -> {
+                if (batch.height > height) {
+                    batch.entries.removeIf(entry -> entry.getHeight() > height);
+                    batch.height = height;
+                }
+                return batch.height < 0;
+            });
+        }
+    }
+
+    /**
+     * Write queued ledger entries
+     */
+    private static void runWriter() {
+        List<LedgerBatch> batches = new ArrayList<>();
+        while (true) {
+            synchronized(writeQueue) {
+                while (writeQueue.isEmpty()) {
+                    if (stopping) {
+                        return;
+                    }
+                    try {
+                        writeQueue.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batches.addAll(writeQueue);
+                writeQueue.clear();
+                writing = true;
+                writeQueue.notifyAll();
+            }
+            boolean written = false;
+            try {
+                written = accountLedgerTable.insert(batches);
+            } catch (RuntimeException e) {
+                Logger.logErrorMessage("Error in the account ledger writer", e);
+            } finally {
+                synchronized(writeQueue) {
+                    writing = false;
+                    if (!written) {
+                        // Put the entries back, so a rollback can still discard them
+                        for (int i = batches.size() - 1; i >= 0; i--) {
+                            writeQueue.addFirst(batches.get(i));
+                        }
+                    }
+                    writeQueue.notifyAll();
+                }
+            }
+            batches.clear();
+            if (!written && !waitForRetry()) {
+                Logger.logWarningMessage("Account ledger entries not written, they will be rebuilt at the next start");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wait before retrying a failed write
+     *
+     * @return                              FALSE if the ledger writer is stopping
+     */
+    private static boolean waitForRetry() {
+        long retryTime = System.currentTimeMillis() + writeRetryDelay;
+        synchronized(writeQueue) {
+            long delay;
+            while (!stopping && (delay = retryTime - System.currentTimeMillis()) > 0) {
+                try {
+                    writeQueue.wait(delay);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            return !stopping;
+        }
     }
 
     /**
      * Account ledger listener events
+     *
+     * ADD_ENTRY is sent by the block processing thread when the block database transaction
+     * commits.  The ledger writer stores the entry afterwards, so it may not be returned by
+     * getEntry() yet when the listener is notified.
      */
     public enum Event {
         ADD_ENTRY
@@ -253,13 +635,24 @@ public class AccountLedger {
 
     /**
      * Commit pending ledger entries
+     *
+     * The entries are queued for the ledger writer when the database transaction commits
+     *
+     * @param   height                      Block height
      */
-    static void commitEntries() {
-        for (LedgerEntry ledgerEntry : pendingEntries) {
-            accountLedgerTable.insert(ledgerEntry);
-            listeners.notify(ledgerEntry, Event.ADD_ENTRY);
+    static void commitEntries(int height) {
+        if (!ledgerEnabled) {
+            return;
+        }
+        if (rebuilding) {
+            rebuiltEntries.addAll(pendingEntries);
+            pendingEntries.clear();
+            return;
         }
+        transactionEntries.addAll(pendingEntries);
+        transactionHeight = height;
         pendingEntries.clear();
+        Db.db.registerCallback(ledgerCallback);
     }
 
     /**
@@ -310,6 +703,28 @@ public class AccountLedger {
     public static List<LedgerEntry> getEntries(long accountId, LedgerEvent event, long eventId,
                                                 LedgerHolding holding, long holdingId,
                                                 int firstIndex, int lastIndex) {
+        return getEntries(accountId, event, eventId, holding, holdingId, null, firstIndex, lastIndex);
+    }
+
+    /**
+     * Return the ledger entries sorted in descending insert order, starting after a cursor
+     *
+     * The entries are selected by their ledger identifier instead of being skipped with an
+     * offset, so the cost of a page does not depend on its position in the ledger.
+     *
+     * @param   accountId                   Account identifier or zero if no account identifier
+     * @param   event                       Ledger event or null
+     * @param   eventId                     Ledger event identifier or zero if no event identifier
+     * @param   holding                     Ledger holding or null
+     * @param   holdingId                   Ledger holding identifier or zero if no holding identifier
+     * @param   cursor                      Position of the last entry of the previous page or null
+     * @param   firstIndex                  First matching entry index, inclusive
+     * @param   lastIndex                   Last matching entry index, inclusive
+     * @return                              List of ledger entries
+     */
+    public static List<LedgerEntry> getEntries(long accountId, LedgerEvent event, long eventId,
+                                                LedgerHolding holding, long holdingId, DbCursor cursor,
+                                                int firstIndex, int lastIndex) {
         if (!ledgerEnabled) {
             return Collections.emptyList();
         }
@@ -318,7 +733,7 @@ public class AccountLedger {
         // Build the SELECT statement to search the entries
         StringBuilder sb = new StringBuilder(128);
         sb.append("SELECT * FROM account_ledger ");
-        if (accountId != 0 || event != null || holding != null) {
+        if (accountId != 0 || event != null || holding != null || cursor != null) {
             sb.append("WHERE ");
         }
         if (accountId != 0) {
@@ -340,6 +755,12 @@ public class AccountLedger {
             if (holdingId != 0)
                 sb.append("AND holding_id = ? ");
         }
+        if (cursor != null) {
+            if (accountId != 0 || event != null || holding != null) {
+                sb.append("AND ");
+            }
+            sb.append("db_id < ? ");
+        }
         sb.append("ORDER BY db_id DESC ");
         sb.append(DbUtils.limitsClause(firstIndex, lastIndex));
         //
@@ -364,6 +785,9 @@ public class AccountLedger {
                     pstmt.setLong(++i, holdingId);
                 }
             }
+            if (cursor != null) {
+                pstmt.setLong(++i, cursor.getDbId());
+            }
             DbUtils.setLimits(++i, pstmt, firstIndex, lastIndex);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
@@ -843,38 +1267,51 @@ public class AccountLedger {
         }
 
         /**
-         * Save the ledger entry
+         * Set the insert parameters for the ledger entry
          *
-         * @param   con                     Database connection
+         * @param   stmt                    Insert statement
          * @throws  SQLException            Database error occurred
          */
-        private void save(Connection con) throws SQLException {
-            try (PreparedStatement stmt = con.prepareStatement("INSERT INTO account_ledger "
-                    + "(account_id, event_type, event_id, holding_type, holding_id, change, balance, "
-                    + "block_id, height, timestamp) "
-                    + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
-                int i=0;
-                stmt.setLong(++i, accountId);
-                stmt.setByte(++i, (byte) event.getCode());
-                stmt.setLong(++i, eventId);
-                if (holding != null) {
-                    stmt.setByte(++i, (byte)holding.getCode());
-                } else {
-                    stmt.setByte(++i, (byte)-1);
-                }
-                DbUtils.setLong(stmt, ++i, holdingId);
-                stmt.setLong(++i, change);
-                stmt.setLong(++i, balance);
-                stmt.setLong(++i, blockId);
-                stmt.setInt(++i, height);
-                stmt.setInt(++i, timestamp);
-                stmt.executeUpdate();
-                try (ResultSet rs = stmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        ledgerId = rs.getLong(1);
-                    }
-                }
+        private void save(PreparedStatement stmt) throws SQLException {
+            int i=0;
+            stmt.setLong(++i, ledgerId);
+            stmt.setLong(++i, accountId);
+            stmt.setByte(++i, (byte) event.getCode());
+            stmt.setLong(++i, eventId);
+            if (holding != null) {
+                stmt.setByte(++i, (byte)holding.getCode());
+            } else {
+                stmt.setByte(++i, (byte)-1);
             }
+            DbUtils.setLong(stmt, ++i, holdingId);
+            stmt.setLong(++i, change);
+            stmt.setLong(++i, balance);
+            stmt.setLong(++i, blockId);
+            stmt.setInt(++i, height);
+            stmt.setInt(++i, timestamp);
+        }
+    }
+
+    /**
+     * Ledger entries committed in a single database transaction
+     */
+    private static class LedgerBatch {
+
+        /** Height of the last block in the transaction */
+        private int height;
+
+        /** Ledger entries */
+        private final List<LedgerEntry> entries;
+
+        /**
+         * Create a ledger batch
+         *
+         * @param   height                  Height of the last block in the transaction
+         * @param   entries                 Ledger entries
+         */
+        private LedgerBatch(int height, List<LedgerEntry> entries) {
+            this.height = height;
+            this.entries = entries;
         }
     }
 }
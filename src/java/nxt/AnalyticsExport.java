@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt;
+
+import nxt.at.AT_API_Helper;
+import nxt.at.AT_Controller;
+import nxt.at.AT_Exception;
+import nxt.util.ColumnFile;
+import nxt.util.Logger;
+import nxt.util.ThreadPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Columnar export of chain data for offline analytics
+ *
+ * Blocks, transactions, asset trades, account ledger entries and AT state changes are
+ * exported to compressed column files, one file per dataset and height range.  The files
+ * are named &lt;dataset&gt;/&lt;from-height&gt;-&lt;to-height&gt;.col and a range is exported
+ * only once all of its blocks are at least Constants.MAX_ROLLBACK blocks deep, so an
+ * exported file is never invalidated by a blockchain reorganization.
+ *
+ * The export is run by the ExportAnalytics tool or, if nxt.analyticsExportDir is set,
+ * incrementally in the background as new blocks are pushed.
+ */
+public final class AnalyticsExport {
+
+    /** Number of blocks in a height range */
+    public static final int rangeSize = Math.max(Nxt.getIntProperty("nxt.analyticsExportRange", 10000), 1);
+
+    /** Export directory for the incremental export */
+    private static final String exportDir = Nxt.getStringProperty("nxt.analyticsExportDir", "");
+
+    /** Exported datasets */
+    private static final Dataset[] datasets = {
+            new QueryDataset("blocks",
+                    "SELECT height, id, version, timestamp, previous_block_id, generator_id, total_amount, total_fee, "
+                            + "payload_length, base_target, nonce, cumulative_difficulty, generation_signature, payload_hash "
+                            + "FROM block WHERE height >= ? AND height <= ? ORDER BY height"),
+            new QueryDataset("transactions",
+                    "SELECT t.height, t.block_id, t.transaction_index, t.id, t.type, t.subtype, t.version, t.timestamp, "
+                            + "t.block_timestamp, t.deadline, t.sender_id, t.recipient_id, t.amount, t.fee, t.full_hash, "
+                            + "t.referenced_transaction_full_hash, t.phased, t.ec_block_height, t.ec_block_id, "
+                            + "t.has_message, t.has_encrypted_message, t.has_public_key_announcement, "
+                            + "t.has_encrypttoself_message, t.has_prunable_message, t.has_prunable_encrypted_message, "
+                            + "t.has_prunable_attachment, t.attachment_bytes "
+                            + "FROM block b INNER JOIN transaction t ON t.block_id = b.id "
+                            + "WHERE b.height >= ? AND b.height <= ? ORDER BY b.height, t.transaction_index"),
+            new QueryDataset("trades",
+                    "SELECT height, block_id, timestamp, asset_id, ask_order_id, bid_order_id, ask_order_height, "
+                            + "bid_order_height, seller_id, buyer_id, is_buy, quantity, price "
+                            + "FROM trade WHERE height >= ? AND height <= ? ORDER BY height, db_id"),
+            new QueryDataset("ledger",
+                    "SELECT height, block_id, timestamp, account_id, event_type, event_id, holding_type, holding_id, "
+                            + "change, balance FROM account_ledger WHERE height >= ? AND height <= ? ORDER BY height, db_id"),
+            new AtStateDataset()
+    };
+
+    /** Background export service */
+    private static final ExecutorService exportService = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AnalyticsExport");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /** Incremental export is running */
+    private static final AtomicBoolean exportRunning = new AtomicBoolean();
+
+    /** Last height covered by the incremental export */
+    private static volatile int exportedHeight = -1;
+
+    static void init() {
+        if (exportDir.isEmpty()) {
+            return;
+        }
+        Path dir = Paths.get(exportDir);
+        Nxt.getBlockchainProcessor().addListener(block -> {
+            int height = block.getHeight() - Constants.MAX_ROLLBACK;
+            if (height >= exportedHeight + rangeSize && exportRunning.compareAndSet(false, true)) {
+                exportService.submit(() -> {
+                    try {
+                        exportedHeight = export(dir, exportedHeight + 1, height);
+                    } catch (Exception e) {
+                        Logger.logErrorMessage("Unable to export analytics data to " + dir, e);
+                    } finally {
+                        exportRunning.set(false);
+                    }
+                });
+            }
+        }, BlockchainProcessor.Event.BLOCK_PUSHED);
+    }
+
+    static void shutdown() {
+        ThreadPool.shutdownExecutor("exportService", exportService, 5);
+    }
+
+    /**
+     * Export the complete height ranges between two heights
+     *
+     * The starting height is rounded up to the next range boundary and only ranges ending
+     * at or below the ending height are exported.  Ranges which have already been exported
+     * are skipped, so an interrupted export can be resumed by exporting the same heights again.
+     *
+     * @param   dir                     Export directory
+     * @param   fromHeight              First height
+     * @param   toHeight                Last height
+     * @return                          Last height of the last complete range or fromHeight-1 if no range was complete
+     * @throws  IOException             I/O error occurred
+     * @throws  SQLException            Database error occurred
+     */
+    public static int export(Path dir, int fromHeight, int toHeight) throws IOException, SQLException {
+        int rangeStart = (Math.max(fromHeight, 0) + rangeSize - 1) / rangeSize * rangeSize;
+        int lastHeight = rangeStart - 1;
+        for (Dataset dataset : datasets) {
+            Files.createDirectories(dir.resolve(dataset.name));
+        }
+        while (rangeStart + rangeSize - 1 <= toHeight) {
+            int rangeEnd = rangeStart + rangeSize - 1;
+            String fileName = String.format("%010d-%010d.col", rangeStart, rangeEnd);
+            for (Dataset dataset : datasets) {
+                Path path = dir.resolve(dataset.name).resolve(fileName);
+                if (Files.exists(path)) {
+                    continue;
+                }
+                long startTime = System.currentTimeMillis();
+                int rows;
+                try (Connection con = Db.db.getConnection()) {
+                    rows = dataset.export(con, path, rangeStart, rangeEnd);
+                }
+                Logger.logDebugMessage("Exported " + rows + " " + dataset.name + " rows for heights " + rangeStart
+                        + " to " + rangeEnd + " in " + (System.currentTimeMillis() - startTime) + " ms");
+            }
+            lastHeight = rangeEnd;
+            rangeStart += rangeSize;
+        }
+        return lastHeight;
+    }
+
+    /**
+     * Exported dataset
+     */
+    private abstract static class Dataset {
+
+        private final String name;
+
+        private Dataset(String name) {
+            this.name = name;
+        }
+
+        abstract int export(Connection con, Path path, int fromHeight, int toHeight) throws IOException, SQLException;
+    }
+
+    /**
+     * Dataset read by a height range query, with the columns taken from the result set
+     */
+    private static final class QueryDataset extends Dataset {
+
+        private final String sql;
+
+        private QueryDataset(String name, String sql) {
+            super(name);
+            this.sql = sql;
+        }
+
+        @Override
+        int export(Connection con, Path path, int fromHeight, int toHeight) throws IOException, SQLException {
+            try (PreparedStatement pstmt = con.prepareStatement(sql)) {
+                pstmt.setInt(1, fromHeight);
+                pstmt.setInt(2, toHeight);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    int columnCount = meta.getColumnCount();
+                    String[] names = new String[columnCount];
+                    ColumnFile.Type[] types = new ColumnFile.Type[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        names[i] = meta.getColumnLabel(i + 1).toLowerCase();
+                        types[i] = getType(meta.getColumnType(i + 1));
+                    }
+                    Object[] values = new Object[columnCount];
+                    try (ColumnFile.Writer writer = new ColumnFile.Writer(path, names, types)) {
+                        while (rs.next()) {
+                            for (int i = 0; i < columnCount; i++) {
+                                values[i] = rs.getObject(i + 1);
+                            }
+                            writer.addRow(values);
+                        }
+                        writer.commit();
+                        return writer.getRowCount();
+                    }
+                }
+            }
+        }
+
+        private static ColumnFile.Type getType(int sqlType) {
+            switch (sqlType) {
+                case Types.BIGINT:
+                    return ColumnFile.Type.LONG;
+                case Types.INTEGER:
+                case Types.SMALLINT:
+                case Types.TINYINT:
+                    return ColumnFile.Type.INT;
+                case Types.BOOLEAN:
+                case Types.BIT:
+                    return ColumnFile.Type.BOOLEAN;
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                    return ColumnFile.Type.BYTES;
+                default:
+                    return ColumnFile.Type.STRING;
+            }
+        }
+    }
+
+    /**
+     * AT state changes recorded in the block AT bytes
+     *
+     * The at_state table only keeps the latest state of each AT once it has been trimmed,
+     * so the state changes are taken from the blocks instead.  Each row contains the block
+     * height and identifier, the AT identifier and the MD5 digest of the new AT state.
+     */
+    private static final class AtStateDataset extends Dataset {
+
+        private static final String[] names = {"height", "block_id", "at_id", "state_md5"};
+        private static final ColumnFile.Type[] types = {ColumnFile.Type.INT, ColumnFile.Type.LONG,
+                ColumnFile.Type.LONG, ColumnFile.Type.BYTES};
+
+        private AtStateDataset() {
+            super("at_states");
+        }
+
+        @Override
+        int export(Connection con, Path path, int fromHeight, int toHeight) throws IOException, SQLException {
+            try (PreparedStatement pstmt = con.prepareStatement("SELECT height, id, ats FROM block "
+                    + "WHERE height >= ? AND height <= ? AND ats IS NOT NULL ORDER BY height")) {
+                pstmt.setInt(1, fromHeight);
+                pstmt.setInt(2, toHeight);
+                try (ResultSet rs = pstmt.executeQuery();
+                     ColumnFile.Writer writer = new ColumnFile.Writer(path, names, types)) {
+                    while (rs.next()) {
+                        int height = rs.getInt("height");
+                        long blockId = rs.getLong("id");
+                        Map<ByteBuffer, byte[]> ats;
+                        try {
+                            ats = AT_Controller.getATsFromBlock(rs.getBytes("ats"));
+                        } catch (AT_Exception e) {
+                            throw new RuntimeException("Invalid AT bytes in block " + Long.toUnsignedString(blockId), e);
+                        }
+                        for (Map.Entry<ByteBuffer, byte[]> entry : ats.entrySet()) {
+                            writer.addRow(height, blockId, AT_API_Helper.getLong(entry.getKey().array()), entry.getValue());
+                        }
+                    }
+                    writer.commit();
+                    return writer.getRowCount();
+                }
+            }
+        }
+    }
+
+    private AnalyticsExport() {} // never
+}
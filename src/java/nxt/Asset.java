@@ -54,6 +54,11 @@ public final class Asset {
             super.trim(Math.max(0, height - Constants.MAX_DIVIDEND_PAYMENT_ROLLBACK));
         }
 
+        @Override
+        public boolean trim(int height, int limit) {
+            return super.trim(Math.max(0, height - Constants.MAX_DIVIDEND_PAYMENT_ROLLBACK), limit);
+        }
+
         @Override
         public void checkAvailable(int height) {
             if (height + Constants.MAX_DIVIDEND_PAYMENT_ROLLBACK < Nxt.getBlockchainProcessor().getMinRollbackHeight()) {
@@ -17,6 +17,7 @@
 package nxt;
 
 import nxt.db.DbClause;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.DbUtils;
@@ -80,19 +81,39 @@ public final class AssetTransfer {
         return assetTransferTable.getManyBy(new DbClause.LongClause("asset_id", assetId), from, to);
     }
 
+    public static DbIterator<AssetTransfer> getAssetTransfers(long assetId, DbCursor cursor, int from, int to) {
+        DbClause dbClause = new DbClause.LongClause("asset_id", assetId);
+        if (cursor != null) {
+            dbClause = dbClause.and(cursor.getClause());
+        }
+        return assetTransferTable.getManyBy(dbClause, from, to).trackCursor();
+    }
+
     public static DbIterator<AssetTransfer> getAccountAssetTransfers(long accountId, int from, int to) {
+        return getAccountAssetTransfers(accountId, null, from, to);
+    }
+
+    public static DbIterator<AssetTransfer> getAccountAssetTransfers(long accountId, DbCursor cursor, int from, int to) {
         Connection con = null;
         try {
             con = Db.db.getConnection();
-            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM asset_transfer WHERE sender_id = ?"
-                    + " UNION ALL SELECT * FROM asset_transfer WHERE recipient_id = ? AND sender_id <> ? ORDER BY height DESC, db_id DESC"
+            String keyset = cursor != null ? " AND" + DbCursor.getCondition(null) : "";
+            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM asset_transfer WHERE sender_id = ?" + keyset
+                    + " UNION ALL SELECT * FROM asset_transfer WHERE recipient_id = ? AND sender_id <> ?" + keyset
+                    + " ORDER BY height DESC, db_id DESC"
                     + DbUtils.limitsClause(from, to));
-            int i = 0;
-            pstmt.setLong(++i, accountId);
-            pstmt.setLong(++i, accountId);
-            pstmt.setLong(++i, accountId);
-            DbUtils.setLimits(++i, pstmt, from, to);
-            return assetTransferTable.getManyBy(con, pstmt, false);
+            int i = 1;
+            pstmt.setLong(i++, accountId);
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, i);
+            }
+            pstmt.setLong(i++, accountId);
+            pstmt.setLong(i++, accountId);
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, i);
+            }
+            DbUtils.setLimits(i, pstmt, from, to);
+            return assetTransferTable.getManyBy(con, pstmt, false).trackCursor();
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
@@ -100,20 +121,32 @@ public final class AssetTransfer {
     }
 
     public static DbIterator<AssetTransfer> getAccountAssetTransfers(long accountId, long assetId, int from, int to) {
+        return getAccountAssetTransfers(accountId, assetId, null, from, to);
+    }
+
+    public static DbIterator<AssetTransfer> getAccountAssetTransfers(long accountId, long assetId, DbCursor cursor, int from, int to) {
         Connection con = null;
         try {
             con = Db.db.getConnection();
-            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM asset_transfer WHERE sender_id = ? AND asset_id = ?"
-                    + " UNION ALL SELECT * FROM asset_transfer WHERE recipient_id = ? AND sender_id <> ? AND asset_id = ? ORDER BY height DESC, db_id DESC"
+            String keyset = cursor != null ? " AND" + DbCursor.getCondition(null) : "";
+            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM asset_transfer WHERE sender_id = ? AND asset_id = ?" + keyset
+                    + " UNION ALL SELECT * FROM asset_transfer WHERE recipient_id = ? AND sender_id <> ? AND asset_id = ?" + keyset
+                    + " ORDER BY height DESC, db_id DESC"
                     + DbUtils.limitsClause(from, to));
-            int i = 0;
-            pstmt.setLong(++i, accountId);
-            pstmt.setLong(++i, assetId);
-            pstmt.setLong(++i, accountId);
-            pstmt.setLong(++i, accountId);
-            pstmt.setLong(++i, assetId);
-            DbUtils.setLimits(++i, pstmt, from, to);
-            return assetTransferTable.getManyBy(con, pstmt, false);
+            int i = 1;
+            pstmt.setLong(i++, accountId);
+            pstmt.setLong(i++, assetId);
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, i);
+            }
+            pstmt.setLong(i++, accountId);
+            pstmt.setLong(i++, accountId);
+            pstmt.setLong(i++, assetId);
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, i);
+            }
+            DbUtils.setLimits(i, pstmt, from, to);
+            return assetTransferTable.getManyBy(con, pstmt, false).trackCursor();
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
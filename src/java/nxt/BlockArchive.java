@@ -0,0 +1,371 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.crypto.Crypto;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Signed block archive used to bootstrap a new node
+ *
+ * The archive contains the same block records as a {@link BlockFile}, grouped
+ * into chunks of consecutive blocks.  Each chunk ends with a checkpoint consisting
+ * of the height and identifier of the last block in the chunk and a SHA-256 hash
+ * chained over the previous checkpoint hash and the chunk contents.  The checkpoint
+ * list is stored in a trailer at the end of the archive and is signed by the
+ * account creating the archive.
+ *
+ * Chunks are memory-mapped when they are read, so an archive can be larger than
+ * the maximum size of a single mapped buffer.
+ */
+public final class BlockArchive {
+
+    /** Archive magic ("BRSA") */
+    private static final int MAGIC = 0x42525341;
+
+    /** Archive format version */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Archive header size */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    /** Checkpoint entry size */
+    private static final int CHECKPOINT_SIZE = 4 + 8 + 8 + 32;
+
+    /**
+     * Archive checkpoint
+     */
+    public static final class Checkpoint {
+
+        private final int height;
+        private final long blockId;
+        private final long endOffset;
+        private final byte[] hash;
+
+        private Checkpoint(int height, long blockId, long endOffset, byte[] hash) {
+            this.height = height;
+            this.blockId = blockId;
+            this.endOffset = endOffset;
+            this.hash = hash;
+        }
+
+        /**
+         * Return the height of the last block in the chunk
+         *
+         * @return                          Block height
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Return the identifier of the last block in the chunk
+         *
+         * @return                          Block identifier
+         */
+        public long getBlockId() {
+            return blockId;
+        }
+    }
+
+    /**
+     * Block archive writer
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final DataOutputStream out;
+        private final int checkpointInterval;
+        private final String secretPhrase;
+        private final byte[] header;
+        private final List<Checkpoint> checkpoints = new ArrayList<>();
+        private final MessageDigest digest = Crypto.sha256();
+        private byte[] previousHash = new byte[32];
+        private Block lastBlock;
+        private int chunkBlockCount;
+        private int blockCount;
+        private long position;
+
+        /**
+         * Create a new block archive
+         *
+         * @param   path                    Archive path
+         * @param   checkpointInterval      Number of blocks between checkpoints
+         * @param   secretPhrase            Secret phrase used to sign the archive
+         * @throws  IOException             I/O error occurred
+         */
+        public Writer(Path path, int checkpointInterval, String secretPhrase) throws IOException {
+            if (checkpointInterval <= 0) {
+                throw new IllegalArgumentException("Checkpoint interval must be greater than 0");
+            }
+            this.checkpointInterval = checkpointInterval;
+            this.secretPhrase = secretPhrase;
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(Genesis.GENESIS_BLOCK_ID).putInt(checkpointInterval);
+            header = buffer.array();
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1024 * 1024));
+            out.write(header);
+            position = HEADER_SIZE;
+            digest.update(previousHash);
+        }
+
+        /**
+         * Write a block
+         *
+         * @param   block                   Block
+         * @throws  IOException             I/O error occurred
+         */
+        public void write(Block block) throws IOException {
+            byte[] record = BlockFile.encodeBlock(block);
+            byte[] length = ByteBuffer.allocate(4).putInt(record.length).array();
+            out.write(length);
+            out.write(record);
+            digest.update(length);
+            digest.update(record);
+            position += length.length + record.length;
+            lastBlock = block;
+            blockCount++;
+            if (++chunkBlockCount == checkpointInterval) {
+                addCheckpoint();
+            }
+        }
+
+        private void addCheckpoint() {
+            previousHash = digest.digest();
+            checkpoints.add(new Checkpoint(lastBlock.getHeight(), lastBlock.getId(), position, previousHash));
+            digest.update(previousHash);
+            chunkBlockCount = 0;
+        }
+
+        /**
+         * Return the number of blocks written
+         *
+         * @return                          Block count
+         */
+        public int getBlockCount() {
+            return blockCount;
+        }
+
+        /**
+         * Write the final checkpoint and the signed trailer.  No more blocks can be
+         * written after the archive has been finished.
+         *
+         * @throws  IOException             I/O error occurred
+         */
+        public void finish() throws IOException {
+            if (chunkBlockCount > 0) {
+                addCheckpoint();
+            }
+            byte[] checkpointBytes = encodeCheckpoints(checkpoints);
+            byte[] signature = Crypto.sign(signedHash(header, checkpointBytes), secretPhrase);
+            long trailerOffset = position;
+            out.writeInt(checkpoints.size());
+            out.write(checkpointBytes);
+            out.write(Crypto.getPublicKey(secretPhrase));
+            out.write(signature);
+            out.writeLong(trailerOffset);
+        }
+
+        /**
+         * Close the archive
+         *
+         * @throws  IOException             I/O error occurred
+         */
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Block archive reader
+     */
+    public static final class Reader implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final List<Checkpoint> checkpoints;
+        private final byte[] publicKey;
+
+        /**
+         * Open a block archive and verify the trailer signature
+         *
+         * @param   path                    Archive path
+         * @throws  IOException             I/O error occurred or the archive is not valid
+         */
+        public Reader(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                ByteBuffer header = read(0, HEADER_SIZE);
+                if (header.getInt() != MAGIC) {
+                    throw new IOException("Not a block archive");
+                }
+                int version = header.getInt();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported block archive version " + version);
+                }
+                long genesisBlockId = header.getLong();
+                if (genesisBlockId != Genesis.GENESIS_BLOCK_ID) {
+                    throw new IOException("Block archive was created for a different chain, genesis block "
+                            + Long.toUnsignedString(genesisBlockId));
+                }
+                long trailerOffset = read(size - 8, 8).getLong();
+                if (trailerOffset < HEADER_SIZE || trailerOffset > size - 8 - 4) {
+                    throw new IOException("Block archive is incomplete");
+                }
+                ByteBuffer trailer = read(trailerOffset, (int)(size - 8 - trailerOffset));
+                int count = trailer.getInt();
+                if (count < 0 || trailer.remaining() != count * CHECKPOINT_SIZE + 32 + 64) {
+                    throw new IOException("Block archive trailer is not valid");
+                }
+                byte[] checkpointBytes = new byte[count * CHECKPOINT_SIZE];
+                trailer.get(checkpointBytes);
+                publicKey = new byte[32];
+                trailer.get(publicKey);
+                byte[] signature = new byte[64];
+                trailer.get(signature);
+                if (!Crypto.verify(signature, signedHash(header.array(), checkpointBytes), publicKey, true)) {
+                    throw new IOException("Block archive signature verification failed");
+                }
+                checkpoints = Collections.unmodifiableList(decodeCheckpoints(checkpointBytes, trailerOffset));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Block archive is incomplete");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * Return the public key of the account that signed the archive
+         *
+         * @return                          Public key
+         */
+        public byte[] getPublicKey() {
+            return publicKey.clone();
+        }
+
+        /**
+         * Return the archive checkpoints in ascending height order
+         *
+         * @return                          Checkpoint list
+         */
+        public List<Checkpoint> getCheckpoints() {
+            return checkpoints;
+        }
+
+        /**
+         * Read the blocks for a checkpoint.  The chunk is verified against the checkpoint
+         * before the blocks are decoded.
+         *
+         * @param   index                   Checkpoint index
+         * @return                          Blocks in ascending height order
+         * @throws  IOException             I/O error occurred or checkpoint verification failed
+         * @throws  NxtException.NotValidException  Block or transaction is not valid
+         */
+        public List<BlockImpl> readBlocks(int index) throws IOException, NxtException.NotValidException {
+            Checkpoint checkpoint = checkpoints.get(index);
+            long start = index == 0 ? HEADER_SIZE : checkpoints.get(index - 1).endOffset;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, checkpoint.endOffset - start);
+            MessageDigest digest = Crypto.sha256();
+            digest.update(index == 0 ? new byte[32] : checkpoints.get(index - 1).hash);
+            digest.update(buffer.duplicate());
+            if (!Arrays.equals(digest.digest(), checkpoint.hash)) {
+                throw new IOException("Block archive checkpoint verification failed at height " + checkpoint.height);
+            }
+            List<BlockImpl> blocks = new ArrayList<>();
+            while (buffer.hasRemaining()) {
+                int length = buffer.getInt();
+                int next = buffer.position() + length;
+                blocks.add(BlockFile.decodeBlock(buffer));
+                buffer.position(next);
+            }
+            BlockImpl lastBlock = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+            if (lastBlock == null || lastBlock.getHeight() != checkpoint.height || lastBlock.getId() != checkpoint.blockId) {
+                throw new IOException("Block archive checkpoint block does not match at height " + checkpoint.height);
+            }
+            return blocks;
+        }
+
+        /**
+         * Close the archive
+         *
+         * @throws  IOException             I/O error occurred
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static byte[] encodeCheckpoints(List<Checkpoint> checkpoints) {
+        ByteBuffer buffer = ByteBuffer.allocate(checkpoints.size() * CHECKPOINT_SIZE);
+        for (Checkpoint checkpoint : checkpoints) {
+            buffer.putInt(checkpoint.height).putLong(checkpoint.blockId).putLong(checkpoint.endOffset).put(checkpoint.hash);
+        }
+        return buffer.array();
+    }
+
+    private static List<Checkpoint> decodeCheckpoints(byte[] checkpointBytes, long trailerOffset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(checkpointBytes);
+        List<Checkpoint> checkpoints = new ArrayList<>(checkpointBytes.length / CHECKPOINT_SIZE);
+        long previousOffset = HEADER_SIZE;
+        while (buffer.hasRemaining()) {
+            int height = buffer.getInt();
+            long blockId = buffer.getLong();
+            long endOffset = buffer.getLong();
+            byte[] hash = new byte[32];
+            buffer.get(hash);
+            if (endOffset <= previousOffset || endOffset > trailerOffset || endOffset - previousOffset > Integer.MAX_VALUE) {
+                throw new IOException("Block archive checkpoint offset is not valid at height " + height);
+            }
+            checkpoints.add(new Checkpoint(height, blockId, endOffset, hash));
+            previousOffset = endOffset;
+        }
+        return checkpoints;
+    }
+
+    private static byte[] signedHash(byte[] header, byte[] checkpointBytes) {
+        MessageDigest digest = Crypto.sha256();
+        digest.update(header);
+        return digest.digest(checkpointBytes);
+    }
+
+    private BlockArchive() {} // never
+}
@@ -78,6 +78,13 @@ final class BlockDb {
                 return block;
             }
         }
+        // Check the block store
+        if (BlockStore.enabled) {
+            BlockImpl block = BlockStore.findBlock(blockId);
+            if (block != null) {
+                return block;
+            }
+        }
         // Search the database
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE id = ?")) {
@@ -99,6 +106,11 @@ final class BlockDb {
     }
 
     static boolean hasBlock(long blockId, int height) {
+        // Check the chain index
+        if (ChainIndex.isAvailable()) {
+            int blockHeight = ChainIndex.getHeight(blockId);
+            return blockHeight >= 0 && blockHeight <= height;
+        }
         // Check the block cache
         synchronized(blockCache) {
             BlockImpl block = blockCache.get(blockId);
@@ -119,6 +131,13 @@ final class BlockDb {
     }
 
     static long findBlockIdAtHeight(int height) {
+        // Check the chain index
+        if (ChainIndex.isAvailable()) {
+            long blockId = ChainIndex.getBlockId(height);
+            if (blockId != 0) {
+                return blockId;
+            }
+        }
         // Check the cache
         synchronized(blockCache) {
             BlockImpl block = heightMap.get(height);
@@ -149,6 +168,13 @@ final class BlockDb {
                 return block;
             }
         }
+        // Check the block store
+        if (BlockStore.enabled) {
+            BlockImpl block = BlockStore.findBlockAtHeight(height);
+            if (block != null) {
+                return block;
+            }
+        }
         // Search the database
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height = ?")) {
@@ -347,6 +373,9 @@ final class BlockDb {
 	            }
                 BlockImpl lastBlock = findLastBlock();
                 lastBlock.setNextBlockId(0);
+                BlockStore.truncate(lastBlock.getHeight());
+                ChainIndex.truncate(lastBlock.getHeight());
+                BlockPayloadCache.truncate(lastBlock.getHeight());
                 try (PreparedStatement pstmt = con.prepareStatement("UPDATE block SET next_block_id = NULL WHERE id = ?")) {
                     pstmt.setLong(1, lastBlock.getId());
                     pstmt.executeUpdate();
@@ -355,6 +384,7 @@ final class BlockDb {
                 return lastBlock;
             } catch (SQLException e) {
                 Db.db.rollbackTransaction();
+                ChainIndex.invalidate();
                 throw e;
             }
         } catch (SQLException e) {
@@ -394,6 +424,9 @@ final class BlockDb {
                 });
                 stmt.executeUpdate("SET REFERENTIAL_INTEGRITY TRUE");
                 Db.db.commitTransaction();
+                BlockStore.truncate(-1);
+                ChainIndex.truncate(-1);
+                BlockPayloadCache.truncate(-1);
             } catch (SQLException e) {
                 Db.db.rollbackTransaction();
                 throw e;
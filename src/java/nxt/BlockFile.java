@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.util.Convert;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary block file
+ *
+ * The file starts with a header containing the file magic, the format version and
+ * the genesis block identifier.  This is followed by one length-prefixed record for
+ * each block in ascending height order.  A block record contains the block height, the
+ * block header fields and the transaction bytes, so a block read from the file can be
+ * pushed without any further network or database access.
+ */
+public final class BlockFile {
+
+    /** File magic ("BRSB") */
+    private static final int MAGIC = 0x42525342;
+
+    /** File format version */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Block file writer
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final DataOutputStream out;
+        private int blockCount;
+
+        /**
+         * Create a new block file
+         *
+         * @param   path                    File path
+         * @throws  IOException             I/O error occurred
+         */
+        public Writer(Path path) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1024 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(Genesis.GENESIS_BLOCK_ID);
+        }
+
+        /**
+         * Write a block
+         *
+         * @param   block                   Block
+         * @throws  IOException             I/O error occurred
+         */
+        public void write(Block block) throws IOException {
+            byte[] record = encodeBlock(block);
+            out.writeInt(record.length);
+            out.write(record);
+            blockCount++;
+        }
+
+        /**
+         * Return the number of blocks written
+         *
+         * @return                          Block count
+         */
+        public int getBlockCount() {
+            return blockCount;
+        }
+
+        /**
+         * Close the block file
+         *
+         * @throws  IOException             I/O error occurred
+         */
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Block file reader
+     */
+    public static final class Reader implements AutoCloseable {
+
+        private final DataInputStream in;
+
+        /**
+         * Open an existing block file
+         *
+         * @param   path                    File path
+         * @throws  IOException             I/O error occurred or the file is not a block file
+         *                                  for the current chain
+         */
+        public Reader(Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1024 * 1024));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a block file");
+                }
+                int version = in.readInt();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported block file version " + version);
+                }
+                long genesisBlockId = in.readLong();
+                if (genesisBlockId != Genesis.GENESIS_BLOCK_ID) {
+                    throw new IOException("Block file was created for a different chain, genesis block "
+                            + Long.toUnsignedString(genesisBlockId));
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Read the next block
+         *
+         * @return                          Block or null if the end of the file has been reached
+         * @throws  IOException             I/O error occurred
+         * @throws  NxtException.NotValidException  Block or transaction is not valid
+         */
+        public Block read() throws IOException, NxtException.NotValidException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            in.readFully(record);
+            return decodeBlock(ByteBuffer.wrap(record));
+        }
+
+        /**
+         * Close the block file
+         *
+         * @throws  IOException             I/O error occurred
+         */
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Encode a block record
+     *
+     * @param   block                   Block
+     * @return                          Block record
+     * @throws  IOException             I/O error occurred
+     */
+    static byte[] encodeBlock(Block block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(block.getHeight());
+        out.writeInt(block.getVersion());
+        out.writeInt(block.getTimestamp());
+        out.writeLong(block.getPreviousBlockId());
+        out.writeLong(block.getTotalAmountNQT());
+        out.writeLong(block.getTotalFeeNQT());
+        out.writeInt(block.getPayloadLength());
+        writeBytes(out, block.getPayloadHash());
+        writeBytes(out, block.getGeneratorPublicKey());
+        writeBytes(out, block.getGenerationSignature());
+        writeBytes(out, block.getBlockSignature());
+        writeBytes(out, block.getPreviousBlockHash());
+        out.writeLong(block.getNonce());
+        writeBytes(out, block.getBlockATs());
+        List<? extends Transaction> transactions = block.getTransactions();
+        out.writeShort(transactions.size());
+        for (Transaction transaction : transactions) {
+            writeBytes(out, transaction.getBytes());
+            JSONObject prunableAttachments = transaction.getPrunableAttachmentJSON();
+            writeBytes(out, prunableAttachments != null ? Convert.toBytes(prunableAttachments.toJSONString()) : null);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Decode a block record
+     *
+     * @param   buffer                  Buffer positioned at the start of the record
+     * @return                          Block with the height set
+     * @throws  NxtException.NotValidException  Block or transaction is not valid
+     */
+    static BlockImpl decodeBlock(ByteBuffer buffer) throws NxtException.NotValidException {
+        int height = buffer.getInt();
+        int version = buffer.getInt();
+        int timestamp = buffer.getInt();
+        long previousBlockId = buffer.getLong();
+        long totalAmountNQT = buffer.getLong();
+        long totalFeeNQT = buffer.getLong();
+        int payloadLength = buffer.getInt();
+        byte[] payloadHash = readBytes(buffer);
+        byte[] generatorPublicKey = readBytes(buffer);
+        byte[] generationSignature = readBytes(buffer);
+        byte[] blockSignature = readBytes(buffer);
+        byte[] previousBlockHash = readBytes(buffer);
+        long nonce = buffer.getLong();
+        byte[] blockATs = readBytes(buffer);
+        int transactionCount = buffer.getShort() & 0xffff;
+        List<TransactionImpl> transactions = new ArrayList<>(transactionCount);
+        for (int i = 0; i < transactionCount; i++) {
+            byte[] transactionBytes = readBytes(buffer);
+            byte[] prunableBytes = readBytes(buffer);
+            JSONObject prunableAttachments = prunableBytes != null ?
+                    (JSONObject)JSONValue.parse(Convert.toString(prunableBytes)) : null;
+            transactions.add(TransactionImpl.newTransactionBuilder(transactionBytes, prunableAttachments).build());
+        }
+        BlockImpl block = new BlockImpl(version, timestamp, previousBlockId, totalAmountNQT, totalFeeNQT,
+                payloadLength, payloadHash, generatorPublicKey, generationSignature, blockSignature,
+                previousBlockHash, transactions, nonce, blockATs);
+        block.setHeight(height);
+        return block;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) throws NxtException.NotValidException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new NxtException.NotValidException("Byte array length " + length + " exceeds the remaining record length");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private BlockFile() {} // never
+}
@@ -210,6 +210,12 @@ final class BlockImpl implements Block {
         this.nextBlockId = nextBlockId;
     }
 
+    void setChainState(BigInteger cumulativeDifficulty, long baseTarget, long nextBlockId) {
+        this.cumulativeDifficulty = cumulativeDifficulty;
+        this.baseTarget = baseTarget;
+        this.nextBlockId = nextBlockId;
+    }
+
     @Override
     public int getHeight() {
         if (height == -1) {
@@ -368,7 +374,7 @@ final class BlockImpl implements Block {
 
     private volatile boolean hasValidSignature = false;
 
-    private boolean checkSignature() throws BlockchainProcessor.BlockOutOfOrderException {
+    boolean checkSignature() throws BlockchainProcessor.BlockOutOfOrderException {
         if (! hasValidSignature) {
             try {
                 
@@ -548,7 +554,7 @@ final class BlockImpl implements Block {
             long curBaseTarget = avgBaseTarget.longValue();
             long newBaseTarget = BigInteger.valueOf(curBaseTarget)
                     .multiply(BigInteger.valueOf(difTime))
-                    .divide(BigInteger.valueOf(240 * 4)).longValue();
+                    .divide(BigInteger.valueOf(Constants.BLOCK_TIME * 4)).longValue();
 
             if (newBaseTarget < 0 || newBaseTarget > Constants.MAX_BASE_TARGET)
                 newBaseTarget = Constants.MAX_BASE_TARGET;
@@ -583,7 +589,7 @@ final class BlockImpl implements Block {
             } while (blockCounter < 24);
 
             long difTime = this.timestamp - itBlock.getTimestamp();
-            long targetTimespan = 24 * 4 * 60;
+            long targetTimespan = 24 * Constants.BLOCK_TIME;
 
             if (difTime < targetTimespan / 2)
                 difTime = targetTimespan / 2;
@@ -0,0 +1,248 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt;
+
+import nxt.util.JSON;
+import nxt.util.Metrics;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Cache of serialized blocks
+ *
+ * Syncing peers request the same recent block ranges over and over, and each request
+ * used to serialize every block again.  The cache keeps the peer JSON of the most
+ * recently used blocks, both as a JSON object and as the serialized text, together with
+ * the block fields returned by the API.  Entries are keyed by the block identifier.
+ * Since the identifier is derived from the block hash, a cached entry never needs to be
+ * updated, but the entries for blocks removed from the blockchain are discarded so a
+ * popped block is not served from the cache.
+ *
+ * The cached JSON objects are shared and must not be modified by the caller.
+ */
+public final class BlockPayloadCache {
+
+    /** Block payload cache enabled */
+    public static final boolean enabled = Nxt.getBooleanProperty("nxt.enableBlockPayloadCache");
+
+    /** Maximum number of cached blocks */
+    private static final int cacheSize = Math.max(Nxt.getIntProperty("nxt.blockPayloadCacheSize", 360), 1);
+
+    /** Cached blocks in access order */
+    private static final Map<Long, Entry> cache = new LinkedHashMap<Long, Entry>(cacheSize + cacheSize / 3, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    private static final Metrics.Family<Metrics.Counter> lookups =
+            Metrics.counterFamily("nxt_block_payload_cache_lookups_total", "Block payload cache lookups", "result");
+    private static final Metrics.Counter hits = lookups.labels("hit");
+    private static final Metrics.Counter misses = lookups.labels("miss");
+    static {
+        Metrics.gauge("nxt_block_payload_cache_blocks", "Blocks in the block payload cache", () -> {
+            synchronized (cache) {
+                return cache.size();
+            }
+        });
+    }
+
+    /**
+     * Initialize the block payload cache
+     */
+    static void init() {
+        if (enabled) {
+            Nxt.getBlockchainProcessor().addListener(block -> remove(block.getId()),
+                    BlockchainProcessor.Event.BLOCK_POPPED);
+        }
+    }
+
+    /**
+     * Return the peer JSON for a block
+     *
+     * @param   block                   Block
+     * @return                          Shared block JSON, which must not be modified
+     */
+    public static JSONObject getJSONObject(Block block) {
+        return getEntry(block).json;
+    }
+
+    /**
+     * Return the serialized peer JSON for a block
+     *
+     * @param   block                   Block
+     * @return                          Serialized block JSON
+     */
+    public static JSONStreamAware getJSON(Block block) {
+        final char[] jsonChars = getEntry(block).jsonChars;
+        return out -> out.write(jsonChars);
+    }
+
+    /**
+     * Return a serialized peer request containing the block JSON
+     *
+     * The request fields are written in front of the cached block text, so the block
+     * is not serialized again for each request.
+     *
+     * @param   block                   Block
+     * @param   requestType             Request type
+     * @return                          Serialized request
+     */
+    public static JSONStreamAware getRequest(Block block, String requestType) {
+        final char[] jsonChars = getEntry(block).jsonChars;
+        final String prefix = "{\"protocol\":\"B1\",\"requestType\":\"" + requestType + "\",";
+        return out -> {
+            out.write(prefix);
+            out.write(jsonChars, 1, jsonChars.length - 1);
+        };
+    }
+
+    /**
+     * Write a list of serialized blocks as a JSON array
+     *
+     * @param   blocks                  Serialized blocks returned by getJSON()
+     * @param   out                     Writer
+     * @throws  IOException             I/O error occurred
+     */
+    public static void writeJSONArray(Iterable<JSONStreamAware> blocks, Writer out) throws IOException {
+        out.write('[');
+        boolean first = true;
+        for (JSONStreamAware block : blocks) {
+            if (!first) {
+                out.write(',');
+            }
+            block.writeJSONString(out);
+            first = false;
+        }
+        out.write(']');
+    }
+
+    /**
+     * Return the API JSON for a block
+     *
+     * The API fields do not depend on the current blockchain state and are created by
+     * the supplied function the first time they are requested.  A new JSON object is
+     * returned for each call, so the caller can add the fields which do change, such
+     * as the next block identifier.  The values themselves are shared.
+     *
+     * @param   block                   Block
+     * @param   apiJSON                 Function returning the API fields for the block
+     * @return                          New JSON object containing the API fields
+     */
+    public static JSONObject getAPIJSON(Block block, Function<Block, JSONObject> apiJSON) {
+        JSONObject json = new JSONObject();
+        if (!enabled) {
+            json.putAll(apiJSON.apply(block));
+            return json;
+        }
+        Entry entry = getEntry(block);
+        JSONObject fields = entry.apiJSON;
+        if (fields == null) {
+            fields = apiJSON.apply(block);
+            entry.apiJSON = fields;
+        }
+        json.putAll(fields);
+        return json;
+    }
+
+    /**
+     * Remove a block from the cache
+     *
+     * @param   blockId                 Block identifier
+     */
+    static void remove(long blockId) {
+        synchronized (cache) {
+            cache.remove(blockId);
+        }
+    }
+
+    /**
+     * Remove all blocks above the specified height
+     *
+     * @param   height                  Height of the last block to keep
+     */
+    static void truncate(int height) {
+        synchronized (cache) {
+            cache.values().removeIf(entry -> entry.height > height);
+        }
+    }
+
+    /**
+     * Get the cache entry for a block, creating it if the block is not cached
+     *
+     * The block is serialized outside the cache lock.  Two threads missing the same
+     * block serialize it twice, but the entries are identical.  Blocks which are not
+     * in the blockchain, such as the blocks returned by the popOff API, are not cached.
+     *
+     * @param   block                   Block
+     * @return                          Cache entry
+     */
+    private static Entry getEntry(Block block) {
+        Entry entry;
+        if (enabled) {
+            synchronized (cache) {
+                entry = cache.get(block.getId());
+            }
+            if (entry != null) {
+                hits.increment();
+                return entry;
+            }
+            misses.increment();
+        }
+        entry = new Entry(block);
+        if (enabled && Nxt.getBlockchain().hasBlock(block.getId())) {
+            synchronized (cache) {
+                cache.put(block.getId(), entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Cached block
+     */
+    private static final class Entry {
+
+        /** Block height */
+        private final int height;
+
+        /** Peer JSON */
+        private final JSONObject json;
+
+        /** Serialized peer JSON */
+        private final char[] jsonChars;
+
+        /** API fields or null if not created yet */
+        private volatile JSONObject apiJSON;
+
+        private Entry(Block block) {
+            this.height = block.getHeight();
+            this.json = block.getJSONObject();
+            this.jsonChars = JSON.toJSONString(json).toCharArray();
+        }
+    }
+
+    private BlockPayloadCache() {} // never
+}
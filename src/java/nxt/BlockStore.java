@@ -0,0 +1,459 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.util.Logger;
+import nxt.util.ThreadPool;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only flat-file block store
+ *
+ * Blocks are stored in fixed-size segment files which are memory-mapped, so reading
+ * a block does not go through the database.  The index file contains a 16-byte entry
+ * for each height consisting of the block identifier and the block location, where
+ * the location is the segment number in the upper 32 bits and the segment offset in
+ * the lower 32 bits.  The index is kept in memory while the node is running.
+ *
+ * The H2 database remains the authoritative copy of the blockchain.  The store follows
+ * the database: blocks are appended when they are pushed and the store is truncated
+ * when blocks are popped off.  Missing blocks are copied from the database by a
+ * background job, so the store can be enabled on an existing node.  Lookups that
+ * cannot be satisfied by the store fall back to the database.
+ */
+final class BlockStore {
+
+    /** Block store enabled */
+    static final boolean enabled = Nxt.getBooleanProperty("nxt.enableBlockStore");
+
+    /** Segment file size */
+    private static final long SEGMENT_SIZE = (long)Nxt.getIntProperty("nxt.blockStoreSegmentSize", 256) * 1024 * 1024;
+
+    /** Index entry size */
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    /** Number of blocks copied from the database by each synchronization pass */
+    private static final int SYNC_BATCH_SIZE = 1000;
+
+    /** Block store directory */
+    private static Path directory;
+
+    /** Index file */
+    private static FileChannel indexChannel;
+
+    /** Mapped segments */
+    private static final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    /** Block identifiers indexed by height */
+    private static long[] blockIds = new long[0];
+
+    /** Block locations indexed by height */
+    private static long[] locations = new long[0];
+
+    /** Block heights by block identifier */
+    private static final Map<Long, Integer> heights = new HashMap<>();
+
+    /** Number of stored blocks */
+    private static int blockCount;
+
+    /** Current write segment */
+    private static int writeSegment;
+
+    /** Current write offset */
+    private static int writeOffset;
+
+    /**
+     * Open the block store
+     */
+    static void init() {
+        if (!enabled) {
+            return;
+        }
+        String dir = Nxt.getStringProperty(Constants.isTestnet ? "nxt.testBlockStoreDir" : "nxt.blockStoreDir");
+        directory = Paths.get(Nxt.getDbDir(dir != null ? dir : "./nxt_db/blocks"));
+        try {
+            Files.createDirectories(directory);
+            indexChannel = FileChannel.open(directory.resolve("blocks.idx"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            int count = (int)(indexChannel.size() / INDEX_ENTRY_SIZE);
+            ByteBuffer index = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+            while (index.hasRemaining() && indexChannel.read(index, index.position()) >= 0) ;
+            index.flip();
+            blockIds = new long[Math.max(count, 1024)];
+            locations = new long[blockIds.length];
+            for (int height = 0; height < count; height++) {
+                blockIds[height] = index.getLong();
+                locations[height] = index.getLong();
+                heights.put(blockIds[height], height);
+            }
+            blockCount = count;
+            setWritePosition();
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        Logger.logMessage("Block store " + directory + " contains " + blockCount + " blocks");
+        ThreadPool.runBeforeStart(BlockStore::reconcile, false);
+        ThreadPool.scheduleThread("BlockStoreSync", BlockStore::synchronize, 10);
+    }
+
+    /**
+     * Close the block store
+     */
+    static synchronized void shutdown() {
+        if (indexChannel != null) {
+            try {
+                indexChannel.force(false);
+                indexChannel.close();
+            } catch (IOException e) {
+                Logger.logErrorMessage("Unable to close the block store index", e);
+            }
+            segments.forEach(MappedByteBuffer::force);
+            indexChannel = null;
+        }
+    }
+
+    /**
+     * Return the number of blocks in the store
+     *
+     * @return                          Block count
+     */
+    static synchronized int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Find a block
+     *
+     * @param   blockId                 Block identifier
+     * @return                          Block or null if the block is not in the store
+     */
+    static BlockImpl findBlock(long blockId) {
+        Integer height;
+        synchronized (BlockStore.class) {
+            height = heights.get(blockId);
+        }
+        return height != null ? loadBlock(height) : null;
+    }
+
+    /**
+     * Find the block at a height
+     *
+     * @param   height                  Block height
+     * @return                          Block or null if the block is not in the store
+     */
+    static BlockImpl findBlockAtHeight(int height) {
+        return loadBlock(height);
+    }
+
+    /**
+     * Return the blocks following a block
+     *
+     * @param   blockId                 Block identifier
+     * @param   limit                   Maximum number of blocks
+     * @return                          Block list or null if the store can not provide all available blocks
+     */
+    static List<BlockImpl> getBlocksAfter(long blockId, int limit) {
+        int height;
+        synchronized (BlockStore.class) {
+            Integer blockHeight = heights.get(blockId);
+            if (blockHeight == null) {
+                return null;
+            }
+            height = blockHeight;
+            if (height + limit >= blockCount && blockCount <= Nxt.getBlockchain().getHeight()) {
+                return null;
+            }
+        }
+        List<BlockImpl> blocks = new ArrayList<>(limit);
+        for (int i = height + 1; i <= height + limit; i++) {
+            BlockImpl block = loadBlock(i);
+            if (block == null) {
+                break;
+            }
+            blocks.add(block);
+        }
+        if (blocks.isEmpty() || blocks.get(0).getPreviousBlockId() != blockId) {
+            return null;
+        }
+        return blocks;
+    }
+
+    /**
+     * Load a block from its segment.  The record is decoded outside the lock, so the
+     * block identifier is checked in case the block was replaced in the meantime.
+     *
+     * @param   height                  Block height
+     * @return                          Block or null if the block is not in the store
+     */
+    private static BlockImpl loadBlock(int height) {
+        long blockId;
+        long nextBlockId;
+        ByteBuffer buffer;
+        synchronized (BlockStore.class) {
+            if (height < 0 || height >= blockCount) {
+                return null;
+            }
+            blockId = blockIds[height];
+            nextBlockId = height + 1 < blockCount ? blockIds[height + 1] : 0;
+            long location = locations[height];
+            buffer = segments.get((int)(location >>> 32)).duplicate();
+            buffer.position((int)location);
+        }
+        try {
+            buffer.getInt();
+            long baseTarget = buffer.getLong();
+            byte[] cumulativeDifficulty = new byte[buffer.getShort()];
+            buffer.get(cumulativeDifficulty);
+            BlockImpl block = BlockFile.decodeBlock(buffer);
+            if (block.getId() != blockId || block.getHeight() != height) {
+                return null;
+            }
+            block.setChainState(new BigInteger(cumulativeDifficulty), baseTarget, nextBlockId);
+            List<TransactionImpl> transactions = block.getTransactions();
+            for (int i = 0; i < transactions.size(); i++) {
+                transactions.get(i).setBlock(block);
+                transactions.get(i).setIndex(i);
+            }
+            return block;
+        } catch (NxtException.NotValidException | RuntimeException e) {
+            Logger.logDebugMessage("Unable to load block at height " + height + " from the block store: " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Add a pushed block to the store.  This must be called with the blockchain write lock
+     * held after the block has been committed, so the block can not be popped off before
+     * it is stored.  Errors are logged and the missing block is copied from the database
+     * later.
+     *
+     * @param   block                   Block
+     */
+    static void blockPushed(BlockImpl block) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            append(block);
+        } catch (RuntimeException e) {
+            Logger.logErrorMessage("Unable to add block " + block.getStringId() + " to the block store", e);
+        }
+    }
+
+    /**
+     * Append a block to the store
+     *
+     * @param   block                   Block
+     * @return                          TRUE if the block was added, FALSE if it does not follow the last stored block
+     */
+    static synchronized boolean append(BlockImpl block) {
+        if (indexChannel == null || block.getHeight() != blockCount ||
+                (blockCount > 0 && block.getPreviousBlockId() != blockIds[blockCount - 1])) {
+            return false;
+        }
+        try {
+            byte[] blockRecord = BlockFile.encodeBlock(block);
+            byte[] cumulativeDifficulty = block.getCumulativeDifficulty().toByteArray();
+            int length = 8 + 2 + cumulativeDifficulty.length + blockRecord.length;
+            if (4 + length > SEGMENT_SIZE) {
+                throw new IllegalStateException("Block " + block.getStringId() + " is larger than the block store segment size");
+            }
+            if (writeOffset + 4 + length > segment(writeSegment).capacity()) {
+                writeSegment++;
+                writeOffset = 0;
+            }
+            ByteBuffer buffer = segment(writeSegment).duplicate();
+            buffer.position(writeOffset);
+            buffer.putInt(length).putLong(block.getBaseTarget()).putShort((short)cumulativeDifficulty.length)
+                    .put(cumulativeDifficulty).put(blockRecord);
+            long location = ((long)writeSegment << 32) | writeOffset;
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putLong(block.getId()).putLong(location).flip();
+            while (entry.hasRemaining()) {
+                indexChannel.write(entry, (long)blockCount * INDEX_ENTRY_SIZE + entry.position());
+            }
+            if (blockCount == blockIds.length) {
+                blockIds = Arrays.copyOf(blockIds, blockCount * 2);
+                locations = Arrays.copyOf(locations, blockCount * 2);
+            }
+            blockIds[blockCount] = block.getId();
+            locations[blockCount] = location;
+            heights.put(block.getId(), blockCount);
+            blockCount++;
+            writeOffset += 4 + length;
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Remove all blocks above a height
+     *
+     * @param   height                  Height of the last block to keep
+     */
+    static synchronized void truncate(int height) {
+        if (indexChannel == null || height + 1 >= blockCount) {
+            return;
+        }
+        int count = Math.max(height + 1, 0);
+        for (int i = count; i < blockCount; i++) {
+            heights.remove(blockIds[i]);
+        }
+        blockCount = count;
+        try {
+            indexChannel.truncate((long)count * INDEX_ENTRY_SIZE);
+            setWritePosition();
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        Logger.logDebugMessage("Block store truncated to height " + height);
+    }
+
+    /**
+     * Set the write position following the last stored block
+     *
+     * @throws  IOException             I/O error occurred
+     */
+    private static void setWritePosition() throws IOException {
+        if (blockCount == 0) {
+            writeSegment = 0;
+            writeOffset = 0;
+        } else {
+            long location = locations[blockCount - 1];
+            writeSegment = (int)(location >>> 32);
+            writeOffset = (int)location;
+            writeOffset += 4 + segment(writeSegment).getInt(writeOffset);
+        }
+    }
+
+    /**
+     * Return a segment, creating and mapping it if necessary
+     *
+     * @param   index                   Segment number
+     * @return                          Mapped segment
+     * @throws  IOException             I/O error occurred
+     */
+    private static MappedByteBuffer segment(int index) throws IOException {
+        while (segments.size() <= index) {
+            Path path = directory.resolve(String.format("segment-%05d.dat", segments.size()));
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = channel.size() > 0 ? channel.size() : SEGMENT_SIZE;
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+        return segments.get(index);
+    }
+
+    /**
+     * Remove stored blocks which are not in the database.  This can happen if the node
+     * was stopped after blocks were popped off but before the store was updated.
+     */
+    private static void reconcile() {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        blockchain.readLock();
+        try {
+            int height = Math.min(getBlockCount() - 1, blockchain.getHeight());
+            while (height >= 0) {
+                long blockId;
+                synchronized (BlockStore.class) {
+                    blockId = blockIds[height];
+                }
+                if (BlockDb.findBlockIdAtHeight(height) == blockId) {
+                    break;
+                }
+                height--;
+            }
+            truncate(height);
+        } finally {
+            blockchain.readUnlock();
+        }
+    }
+
+    /**
+     * Copy blocks from the database until the store has caught up with the blockchain
+     */
+    private static void synchronize() {
+        try {
+            int startCount = getBlockCount();
+            boolean added = true;
+            while (added && getBlockCount() <= Nxt.getBlockchain().getHeight()) {
+                added = false;
+                try (Connection con = Db.db.getConnection();
+                     PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height >= ? ORDER BY height LIMIT ?")) {
+                    pstmt.setInt(1, getBlockCount());
+                    pstmt.setInt(2, SYNC_BATCH_SIZE);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            if (!appendMainChainBlock(BlockDb.loadBlock(con, rs, true))) {
+                                break;
+                            }
+                            added = true;
+                        }
+                    }
+                }
+            }
+            if (getBlockCount() > startCount) {
+                Logger.logDebugMessage("Copied " + (getBlockCount() - startCount) + " blocks to the block store");
+            }
+        } catch (SQLException e) {
+            Logger.logErrorMessage("Unable to copy blocks to the block store", e);
+        } catch (RuntimeException e) {
+            Logger.logErrorMessage("Block store synchronization failed", e);
+        }
+    }
+
+    /**
+     * Append a block read from the database if it is still on the main chain.  The block
+     * may have been popped off after it was read, so it is checked again with the
+     * blockchain lock held.
+     *
+     * @param   block                   Block
+     * @return                          TRUE if the block was added
+     */
+    private static boolean appendMainChainBlock(BlockImpl block) {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        blockchain.readLock();
+        try {
+            return block.getHeight() <= blockchain.getHeight()
+                    && BlockDb.findBlockIdAtHeight(block.getHeight()) == block.getId() && append(block);
+        } finally {
+            blockchain.readUnlock();
+        }
+    }
+
+    private BlockStore() {} // never
+}
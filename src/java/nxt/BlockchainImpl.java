@@ -16,6 +16,7 @@
 
 package nxt;
 
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import nxt.db.DbUtils;
 import nxt.util.Convert;
@@ -153,8 +154,9 @@ final class BlockchainImpl implements Blockchain {
         Connection con = null;
         try {
             con = Db.db.getConnection();
+            // ORDER BY generator_id lets H2 read block_generator_id_height_idx in order instead of sorting
             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE generator_id = ? "
-                    + (timestamp > 0 ? " AND timestamp >= ? " : " ") + "ORDER BY height DESC"
+                    + (timestamp > 0 ? " AND timestamp >= ? " : " ") + "ORDER BY generator_id, height DESC"
                     + DbUtils.limitsClause(from, to));
             int i = 0;
             pstmt.setLong(++i, accountId);
@@ -190,6 +192,13 @@ final class BlockchainImpl implements Blockchain {
 
     @Override
     public List<Long> getBlockIdsAfter(long blockId, int limit) {
+        // Check the chain index
+        if (ChainIndex.isAvailable()) {
+            List<Long> result = ChainIndex.getBlockIdsAfter(blockId, limit);
+            if (result != null) {
+                return result;
+            }
+        }
         // Check the block cache
         List<Long> result = new ArrayList<>(BlockDb.BLOCK_CACHE_SIZE);
         synchronized(BlockDb.blockCache) {
@@ -243,6 +252,13 @@ final class BlockchainImpl implements Blockchain {
                 return result;
             }
         }
+        // Check the block store
+        if (BlockStore.enabled) {
+            List<BlockImpl> blocks = BlockStore.getBlocksAfter(blockId, limit);
+            if (blocks != null) {
+                return blocks;
+            }
+        }
         // Search the database
         try (Connection con = Db.db.getConnection();
                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block "
@@ -282,6 +298,20 @@ final class BlockchainImpl implements Blockchain {
                 return result;
             }
         }
+        // Check the block store
+        if (BlockStore.enabled) {
+            List<BlockImpl> blocks = BlockStore.getBlocksAfter(blockId, blockList.size());
+            if (blocks != null) {
+                int index = 0;
+                for (BlockImpl block : blocks) {
+                    if (block.getId() != blockList.get(index++)) {
+                        break;
+                    }
+                    result.add(block);
+                }
+                return result;
+            }
+        }
         // Search the database
         try (Connection con = Db.db.getConnection();
                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block "
@@ -392,6 +422,19 @@ final class BlockchainImpl implements Blockchain {
     public DbIterator<TransactionImpl> getTransactions(long accountId, int numberOfConfirmations, byte type, byte subtype,
                                                        int blockTimestamp, boolean withMessage, boolean phasedOnly, boolean nonPhasedOnly,
                                                        int from, int to, boolean includeExpiredPrunable, boolean executedOnly) {
+        return getTransactions(accountId, numberOfConfirmations, type, subtype, blockTimestamp, withMessage, phasedOnly, nonPhasedOnly,
+                null, from, to, includeExpiredPrunable, executedOnly);
+    }
+
+    /**
+     * Transactions are inserted in block order and transaction index order, so the (height, db_id)
+     * position of a row follows the block_timestamp, transaction_index sort order and can be used
+     * as a keyset cursor.
+     */
+    @Override
+    public DbIterator<TransactionImpl> getTransactions(long accountId, int numberOfConfirmations, byte type, byte subtype,
+                                                       int blockTimestamp, boolean withMessage, boolean phasedOnly, boolean nonPhasedOnly,
+                                                       DbCursor cursor, int from, int to, boolean includeExpiredPrunable, boolean executedOnly) {
         if (phasedOnly && nonPhasedOnly) {
             throw new IllegalArgumentException("At least one of phasedOnly or nonPhasedOnly must be false");
         }
@@ -420,6 +463,9 @@ final class BlockchainImpl implements Blockchain {
             if (height < Integer.MAX_VALUE) {
                 buf.append("AND transaction.height <= ? ");
             }
+            if (cursor != null) {
+                buf.append("AND").append(DbCursor.getCondition("transaction"));
+            }
             if (withMessage) {
                 buf.append("AND (has_message = TRUE OR has_encrypted_message = TRUE ");
                 buf.append("OR ((has_prunable_message = TRUE OR has_prunable_encrypted_message = TRUE) AND timestamp > ?)) ");
@@ -449,6 +495,9 @@ final class BlockchainImpl implements Blockchain {
             if (height < Integer.MAX_VALUE) {
                 buf.append("AND transaction.height <= ? ");
             }
+            if (cursor != null) {
+                buf.append("AND").append(DbCursor.getCondition("transaction"));
+            }
             if (withMessage) {
                 buf.append("AND (has_message = TRUE OR has_encrypted_message = TRUE OR has_encrypttoself_message = TRUE ");
                 buf.append("OR ((has_prunable_message = TRUE OR has_prunable_encrypted_message = TRUE) AND timestamp > ?)) ");
@@ -482,6 +531,9 @@ final class BlockchainImpl implements Blockchain {
             if (height < Integer.MAX_VALUE) {
                 pstmt.setInt(++i, height);
             }
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, ++i) - 1;
+            }
             int prunableExpiration = Math.max(0, Constants.INCLUDE_EXPIRED_PRUNABLE && includeExpiredPrunable ?
                                         Nxt.getEpochTime() - Constants.MAX_PRUNABLE_LIFETIME :
                                         Nxt.getEpochTime() - Constants.MIN_PRUNABLE_LIFETIME);
@@ -501,11 +553,14 @@ final class BlockchainImpl implements Blockchain {
             if (height < Integer.MAX_VALUE) {
                 pstmt.setInt(++i, height);
             }
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, ++i) - 1;
+            }
             if (withMessage) {
                 pstmt.setInt(++i, prunableExpiration);
             }
             DbUtils.setLimits(++i, pstmt, from, to);
-            return getTransactions(con, pstmt);
+            return getTransactions(con, pstmt).trackCursor();
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
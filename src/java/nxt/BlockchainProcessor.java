@@ -21,6 +21,8 @@ import nxt.peer.Peer;
 import nxt.util.Observable;
 import org.json.simple.JSONObject;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 public interface BlockchainProcessor extends Observable<Block,BlockchainProcessor.Event> {
@@ -48,6 +50,12 @@ public interface BlockchainProcessor extends Observable<Block,BlockchainProcesso
 
     void processPeerBlock(JSONObject request) throws NxtException;
 
+    void processPeerBlock(JSONObject request, Peer peer) throws NxtException;
+
+    void processBlock(Block block) throws BlockNotAcceptedException;
+
+    int importBlockArchive(Path path) throws IOException, NxtException;
+
     void fullReset();
 
     void scan(int height, boolean validate);
@@ -24,6 +24,7 @@ import nxt.db.DbIterator;
 import nxt.db.DerivedDbTable;
 import nxt.db.FilteringIterator;
 import nxt.db.FullTextTrigger;
+import nxt.db.UndoJournal;
 import nxt.peer.Peer;
 import nxt.peer.Peers;
 import nxt.util.Convert;
@@ -31,15 +32,19 @@ import nxt.util.JSON;
 import nxt.util.Listener;
 import nxt.util.Listeners;
 import nxt.util.Logger;
+import nxt.util.Metrics;
 import nxt.util.ThreadPool;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 import org.json.simple.JSONValue;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
@@ -61,6 +66,7 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -180,6 +186,15 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     -42, 48, -77, 28, 40, 106, -48, 13, 30, -22, -122, 35, 22, 29, 2, -93, 94
             };
 
+    private static final String PUSH_PHASE_METRIC = "nxt_block_push_phase_seconds";
+    private static final String PUSH_PHASE_HELP = "Block push time by processing phase";
+    private static final Metrics.Histogram validateTime = Metrics.histogram(PUSH_PHASE_METRIC, PUSH_PHASE_HELP, "phase", "validate");
+    private static final Metrics.Histogram verifyTime = Metrics.histogram(PUSH_PHASE_METRIC, PUSH_PHASE_HELP, "phase", "verify");
+    private static final Metrics.Histogram acceptTime = Metrics.histogram(PUSH_PHASE_METRIC, PUSH_PHASE_HELP, "phase", "accept");
+    private static final Metrics.Histogram commitTime = Metrics.histogram(PUSH_PHASE_METRIC, PUSH_PHASE_HELP, "phase", "commit");
+    private static final Metrics.Histogram pushTime = Metrics.histogram("nxt_block_push_seconds", "Total block push time");
+    private static final Metrics.Histogram relayTime = Metrics.histogram("nxt_block_relay_seconds", "Peer block header validation time before relay");
+    private static final Metrics.Histogram trimBatchTime = Metrics.histogram("nxt_trim_batch_seconds", "Derived table trim batch time");
 
     private static final BlockchainProcessorImpl instance = new BlockchainProcessorImpl();
 
@@ -192,12 +207,22 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     private final ExecutorService networkService = Executors.newCachedThreadPool();
     private final List<DerivedDbTable> derivedTables = new CopyOnWriteArrayList<>();
     private final boolean trimDerivedTables = Nxt.getBooleanProperty("nxt.trimDerivedTables");
+    private final int trimBatchSize = Math.max(Nxt.getIntProperty("nxt.trimBatchSize", 500), 1);
+    private final ExecutorService trimService = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DerivedTableTrimmer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
     private final int defaultNumberOfForkConfirmations = Nxt.getIntProperty(Constants.isTestnet
             ? "nxt.testnetNumberOfForkConfirmations" : "nxt.numberOfForkConfirmations");
     private final boolean simulateEndlessDownload = Nxt.getBooleanProperty("nxt.simulateEndlessDownload");
+    private final boolean enableEarlyBlockRelay = Nxt.getBooleanProperty("nxt.enableEarlyBlockRelay");
+    private final Set<Long> relayedBlockIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
     private int initialScanHeight;
     private volatile int lastTrimHeight;
+    private volatile int trimmedHeight;
     private volatile int lastRestoreTime = 0;
     private final Set<Long> prunableTransactions = new HashSet<>();
 
@@ -272,6 +297,9 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 int numberOfForkConfirmations = blockchain.getHeight() > Constants.LAST_CHECKSUM_BLOCK - 720 ?
                         defaultNumberOfForkConfirmations : Math.min(1, defaultNumberOfForkConfirmations);
                 connectedPublicPeers = Peers.getPublicPeers(Peer.State.CONNECTED, true);
+                if (Peers.enablePeerScoring) {
+                    connectedPublicPeers = Peers.sortByScore(connectedPublicPeers);
+                }
                 if (connectedPublicPeers.size() <= numberOfForkConfirmations) {
                     return;
                 }
@@ -343,8 +371,12 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                         return;
                     }
 
+                    // connectedPublicPeers may be sorted by score, ask the confirming peers in random order
+                    // so a group of highly scored peers can not become the only fork confirmers
+                    List<Peer> confirmationPeers = new ArrayList<>(connectedPublicPeers);
+                    Collections.shuffle(confirmationPeers, ThreadLocalRandom.current());
                     int confirmations = 0;
-                    for (Peer otherPeer : connectedPublicPeers) {
+                    for (Peer otherPeer : confirmationPeers) {
                         if (confirmations >= numberOfForkConfirmations) {
                             break;
                         }
@@ -447,6 +479,37 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         }
 
+        /**
+         * Find the number of leading block identifiers in a getNextBlockIds response that are on
+         * our chain.  The identifiers follow the match block on the peer chain, so the blocks are
+         * common up to the fork and the fork is found with a binary search of the chain index.
+         *
+         * @param   matchId             Block identifier preceding the response identifiers
+         * @param   nextBlockIds        Block identifiers returned by the peer
+         * @return                      Number of common blocks or -1 if the chain index is not available
+         */
+        private int getCommonBlockCount(long matchId, JSONArray nextBlockIds) {
+            if (!ChainIndex.isAvailable()) {
+                return -1;
+            }
+            int matchHeight = ChainIndex.getHeight(matchId);
+            if (matchHeight < 0) {
+                return 0;
+            }
+            int low = 0;
+            int high = nextBlockIds.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                long blockId = Convert.parseUnsignedLong((String)nextBlockIds.get(mid));
+                if (ChainIndex.getBlockId(matchHeight + 1 + mid) == blockId) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
         private List<Long> getBlockIdsAfterCommon(final Peer peer, final long startBlockId, final boolean countFromStart) {
             long matchId = startBlockId;
             List<Long> blockList = new ArrayList<>(1440); // compatibility with old BURST v1.2.x peers
@@ -471,12 +534,14 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     peer.blacklist("Too many nextBlockIds");
                     return Collections.emptyList();
                 }
+                int commonCount = getCommonBlockCount(matchId, nextBlockIds);
                 boolean matching = true;
                 int count = 0;
+                int index = 0;
                 for (Object nextBlockId : nextBlockIds) {
                     long blockId = Convert.parseUnsignedLong((String)nextBlockId);
                     if (matching) {
-                        if (BlockDb.hasBlock(blockId)) {
+                        if (commonCount >= 0 ? index++ < commonCount : BlockDb.hasBlock(blockId)) {
                             matchId = blockId;
                             matched = true;
                         } else {
@@ -523,7 +588,10 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             for (int start = 0; start < stop; start += segSize) {
                 getList.add(new GetNextBlocks(chainBlockIds, start, Math.min(start + segSize, stop)));
             }
-            int nextPeerIndex = ThreadLocalRandom.current().nextInt(connectedPublicPeers.size());
+            //
+            // The segments are spread over the peers starting with the best scored peers
+            //
+            int nextPeerIndex = Peers.enablePeerScoring ? 0 : ThreadLocalRandom.current().nextInt(connectedPublicPeers.size());
             long maxResponseTime = 0;
             Peer slowestPeer = null;
             //
@@ -619,7 +687,9 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     if (blockchain.getLastBlock().getId() == block.getPreviousBlockId()) {
                         try {
                             pushBlock(block);
+                            peerBlock.getPeer().getScore().blockAccepted();
                         } catch (BlockNotAcceptedException e) {
+                            peerBlock.getPeer().getScore().blockRejected();
                             peerBlock.getPeer().blacklist(e);
                         }
                     } else {
@@ -653,7 +723,9 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                         try {
                             pushBlock(block);
                             pushedForkBlocks += 1;
+                            peer.getScore().blockAccepted();
                         } catch (BlockNotAcceptedException e) {
+                            peer.getScore().blockRejected();
                             peer.blacklist(e);
                             break;
                         }
@@ -1067,11 +1139,17 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         blockListeners.addListener(block -> {
             if (trimDerivedTables && block.getHeight() % trimFrequency == 0 && !isTrimming) {
                 isTrimming = true;
-                networkService.submit(() -> {
-                    trimDerivedTables();
-                    isTrimming = false;
+                trimService.submit(() -> {
+                    try {
+                        trimDerivedTablesIncrementally();
+                    } catch (RuntimeException e) {
+                        Logger.logErrorMessage("Error trimming derived tables", e);
+                    } finally {
+                        isTrimming = false;
+                    }
                 });
             }
+            UndoJournal.trim(trimDerivedTables ? getMinRollbackHeight() : block.getHeight() - Constants.MAX_ROLLBACK);
             if (block.getHeight() % 5000 == 0) {
                 Logger.logMessage("received block " + block.getHeight());
                 if (!isDownloading || block.getHeight() % 50000 == 0) {
@@ -1082,6 +1160,10 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         blockListeners.addListener(checksumListener, Event.BLOCK_PUSHED);
 
+        Metrics.gauge("nxt_trim_height", "Height to which the derived tables have been trimmed", () -> trimmedHeight);
+        Metrics.gauge("nxt_trim_lag_blocks", "Blocks the derived table trimming is behind the rollback limit",
+                () -> trimDerivedTables ? Math.max(blockchain.getHeight() - Constants.MAX_ROLLBACK - trimmedHeight, 0) : 0);
+
         blockListeners.addListener(block -> Db.db.analyzeTables(), Event.RESCAN_END);
 
         ThreadPool.runBeforeStart(() -> {
@@ -1108,8 +1190,20 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     scan(height, validate);
                 }
             }
+            UndoJournal.reset(blockchain.getHeight());
         }, false);
 
+        String bootstrapArchive = Nxt.getStringProperty("nxt.bootstrapArchive");
+        if (bootstrapArchive != null) {
+            ThreadPool.runBeforeStart(() -> {
+                try {
+                    importBlockArchive(Paths.get(bootstrapArchive));
+                } catch (IOException | NxtException e) {
+                    Logger.logErrorMessage("Unable to import block archive " + bootstrapArchive + ": " + e.getMessage(), e);
+                }
+            }, false);
+        }
+
         if (!Constants.isLightClient && !Constants.isOffline) {
             ThreadPool.scheduleThread("GetMoreBlocks", getMoreBlocksThread, 1);
         }
@@ -1161,9 +1255,50 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     blockchain.readUnlock();
                 }
             }
+            trimmedHeight = lastTrimHeight;
         }
     }
 
+    /**
+     * Trim the derived tables in small batches.  Each batch runs in its own database
+     * transaction and holds the blockchain read lock only while the batch is running,
+     * so a block push waits for at most one batch.
+     */
+    private void trimDerivedTablesIncrementally() {
+        int trimHeight = Math.max(blockchain.getHeight() - Constants.MAX_ROLLBACK, 0);
+        if (trimHeight <= 0) {
+            return;
+        }
+        lastTrimHeight = trimHeight;
+        long startTime = System.currentTimeMillis();
+        for (DerivedDbTable table : derivedTables) {
+            table.prepareTrim();
+            boolean done = false;
+            while (!done) {
+                long batchStart = Metrics.startTimer();
+                try {
+                    Db.db.beginTransaction();
+                    blockchain.readLock();
+                    try {
+                        done = table.trim(trimHeight, trimBatchSize);
+                        Db.db.commitTransaction();
+                    } finally {
+                        blockchain.readUnlock();
+                    }
+                } catch (Exception e) {
+                    Db.db.rollbackTransaction();
+                    throw e;
+                } finally {
+                    Db.db.endTransaction();
+                }
+                trimBatchTime.observeSince(batchStart);
+            }
+        }
+        trimmedHeight = trimHeight;
+        Logger.logDebugMessage("Trimmed derived tables to height " + trimHeight + " in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
     List<DerivedDbTable> getDerivedTables() {
         return derivedTables;
     }
@@ -1205,10 +1340,39 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     @Override
     public void processPeerBlock(JSONObject request) throws NxtException {
+        processPeerBlock(request, null);
+    }
+
+    @Override
+    public void processPeerBlock(JSONObject request, Peer peer) throws NxtException {
         BlockImpl block = BlockImpl.parseBlock(request);
         BlockImpl lastBlock = blockchain.getLastBlock();
         if (block.getPreviousBlockId() == lastBlock.getId()) {
-            pushBlock(block);
+            boolean relayed;
+            try {
+                relayed = enableEarlyBlockRelay && relayBlock(block, lastBlock);
+            } catch (BlockNotAcceptedException | RuntimeException e) {
+                if (peer != null) {
+                    peer.getScore().blockRejected();
+                }
+                throw e;
+            }
+            try {
+                pushBlock(block, !relayed);
+                if (peer != null) {
+                    peer.getScore().blockAccepted();
+                }
+            } catch (BlockNotAcceptedException e) {
+                if (peer != null) {
+                    peer.getScore().blockRejected();
+                }
+                if (!relayed) {
+                    throw e;
+                }
+                // the sending peer may have relayed the block after checking only its header,
+                // the same as we did, so drop the block without blacklisting the peer
+                Logger.logDebugMessage("Relayed block " + block.getStringId() + " was not accepted: " + e.getMessage());
+            }
         } else if (block.getPreviousBlockId() == lastBlock.getPreviousBlockId() && block.getTimestamp() < lastBlock.getTimestamp()) {
             blockchain.writeLock();
             try {
@@ -1221,7 +1385,13 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     pushBlock(block);
                     TransactionProcessorImpl.getInstance().processLater(lastBlock.getTransactions());
                     Logger.logDebugMessage("Last block " + lastBlock.getStringId() + " was replaced by " + block.getStringId());
+                    if (peer != null) {
+                        peer.getScore().blockAccepted();
+                    }
                 } catch (BlockNotAcceptedException e) {
+                    if (peer != null) {
+                        peer.getScore().blockRejected();
+                    }
                     Logger.logDebugMessage("Replacement block failed to be accepted, pushing back our last block");
                     pushBlock(lastBlock);
                     TransactionProcessorImpl.getInstance().processLater(block.getTransactions());
@@ -1232,6 +1402,114 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         } // else ignore the block
     }
 
+    /**
+     * Validate the header of a block received from a peer and relay the block before it is applied
+     *
+     * The checks done here do not depend on the block transactions or modify the database, so
+     * the block can be relayed without waiting for it to be applied.  The caller must still push
+     * the block.  A block which passes the header checks but is not accepted when it is pushed
+     * is dropped without blacklisting the sending peer, since an honest peer relaying blocks
+     * early would have forwarded it as well.
+     *
+     * @param   block                   Block received from a peer
+     * @param   lastBlock               Last block when the block was received
+     * @return                          TRUE if the block has been relayed
+     * @throws  BlockNotAcceptedException   Block header is not valid
+     */
+    private boolean relayBlock(BlockImpl block, BlockImpl lastBlock) throws BlockNotAcceptedException {
+        int curTime = Nxt.getEpochTime();
+        if (block.getTimestamp() < curTime - 600) {
+            return false;
+        }
+        long startTime = Metrics.startTimer();
+        block.setHeight(lastBlock.getHeight() + 1);
+        block.preVerify();
+        blockchain.readLock();
+        try {
+            if (blockchain.getLastBlock().getId() != lastBlock.getId()) {
+                return false;
+            }
+            validateHeader(block, lastBlock, curTime);
+        } finally {
+            blockchain.readUnlock();
+        }
+        relayTime.observeSince(startTime);
+        if (relayedBlockIds.size() >= 100) {
+            relayedBlockIds.clear();
+        }
+        if (relayedBlockIds.add(block.getId())) {
+            Peers.sendToSomePeers(block);
+        }
+        return true;
+    }
+
+    @Override
+    public void processBlock(Block block) throws BlockNotAcceptedException {
+        pushBlock((BlockImpl)block);
+    }
+
+    @Override
+    public int importBlockArchive(Path path) throws IOException, NxtException {
+        int imported = 0;
+        long startTime = System.currentTimeMillis();
+        ExecutorService verifyService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try (BlockArchive.Reader reader = new BlockArchive.Reader(path)) {
+            String trustedKey = Nxt.getStringProperty("nxt.bootstrapArchivePublicKey");
+            if (trustedKey != null) {
+                if (!Arrays.equals(Convert.parseHexString(trustedKey), reader.getPublicKey())) {
+                    throw new NxtException.NotValidException("Block archive " + path + " is not signed by the trusted public key");
+                }
+            } else if (Nxt.getBooleanProperty("nxt.bootstrapArchiveAllowUntrusted")) {
+                Logger.logWarningMessage("Block archive " + path + " signed by account "
+                        + Convert.rsAccount(Account.getId(reader.getPublicKey())) + " is trusted since nxt.bootstrapArchiveAllowUntrusted is set");
+            } else {
+                throw new NxtException.NotValidException("Block archive " + path + " signed by account "
+                        + Convert.rsAccount(Account.getId(reader.getPublicKey())) + " is not trusted, set nxt.bootstrapArchivePublicKey to the public key of the signer");
+            }
+            List<BlockArchive.Checkpoint> checkpoints = reader.getCheckpoints();
+            Logger.logMessage("Importing block archive " + path + " with " + checkpoints.size() + " checkpoints");
+            for (int i = 0; i < checkpoints.size(); i++) {
+                int height = blockchain.getHeight();
+                if (checkpoints.get(i).getHeight() <= height) {
+                    continue;
+                }
+                List<BlockImpl> blocks = reader.readBlocks(i);
+                List<Future<BlockImpl>> verified = new ArrayList<>(blocks.size());
+                for (BlockImpl block : blocks) {
+                    if (block.getHeight() > height) {
+                        verified.add(verifyService.submit(() -> {
+                            block.preVerify();
+                            return block;
+                        }));
+                    }
+                }
+                for (Future<BlockImpl> future : verified) {
+                    BlockImpl block;
+                    try {
+                        block = future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof NxtException) {
+                            throw (NxtException)cause;
+                        }
+                        throw new RuntimeException(cause.toString(), cause);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("Block archive import interrupted", e);
+                    }
+                    pushBlock(block);
+                    imported++;
+                }
+                Logger.logMessage("Imported block archive to height " + blockchain.getHeight() + ", "
+                        + imported * 1000L / Math.max(1, System.currentTimeMillis() - startTime) + " blocks/sec");
+            }
+        } finally {
+            verifyService.shutdownNow();
+        }
+        Logger.logMessage("Imported " + imported + " blocks from block archive " + path);
+        return imported;
+    }
+
     @Override
     public List<BlockImpl> popOffTo(int height) {
         if (height <= 0) {
@@ -1362,12 +1640,14 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     void shutdown() {
         ThreadPool.shutdownExecutor("networkService", networkService, 5);
+        ThreadPool.shutdownExecutor("trimService", trimService, 5);
     }
 
     private void addBlock(BlockImpl block) {
         try (Connection con = Db.db.getConnection()) {
             BlockDb.saveBlock(con, block);
             blockchain.setLastBlock(block);
+            ChainIndex.add(block.getHeight(), block.getId());
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
@@ -1440,8 +1720,20 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     }
 
     private void pushBlock(BlockImpl block) throws BlockNotAcceptedException {
+        pushBlock(block, true);
+    }
+
+    /**
+     * Push a block
+     *
+     * @param   block                   Block
+     * @param   relay                   TRUE to send a recent block to peers once it has been pushed
+     * @throws  BlockNotAcceptedException   Block is not valid
+     */
+    private void pushBlock(BlockImpl block, boolean relay) throws BlockNotAcceptedException {
 
         int curTime = Nxt.getEpochTime();
+        long pushStart = Metrics.startTimer();
 
         blockchain.writeLock();
         try {
@@ -1449,36 +1741,30 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             try {
                 Db.db.beginTransaction();
                 previousLastBlock = blockchain.getLastBlock();
+                applyBlock(block, previousLastBlock, curTime);
 
-                block.setHeight(previousLastBlock.getHeight() + 1); // BURST: need to set the block's height so it can be validated
-                validate(block, previousLastBlock, curTime);
-
-                Map<TransactionType, Map<String, Integer>> duplicates = new HashMap<>();
-                List<TransactionImpl> validPhasedTransactions = new ArrayList<>();
-                List<TransactionImpl> invalidPhasedTransactions = new ArrayList<>();
-                validatePhasedTransactions(previousLastBlock.getHeight(), validPhasedTransactions, invalidPhasedTransactions, duplicates);
-                TransactionTotals totals = validateTransactions(block, previousLastBlock, curTime, duplicates, previousLastBlock.getHeight() >= Constants.LAST_CHECKSUM_BLOCK);
-
-                block.setPrevious(previousLastBlock);
-                blockListeners.notify(block, Event.BEFORE_BLOCK_ACCEPT);
-                TransactionProcessorImpl.getInstance().requeueAllUnconfirmedTransactions();
-                addBlock(block);
-                accept(block, totals, validPhasedTransactions, invalidPhasedTransactions, duplicates);
-
+                long phaseStart = Metrics.startTimer();
                 Db.db.commitTransaction();
+                commitTime.observeSince(phaseStart);
             } catch (Exception e) {
                 Db.db.rollbackTransaction();
                 blockchain.setLastBlock(previousLastBlock);
+                if (previousLastBlock != null) {
+                    UndoJournal.rolledBack(previousLastBlock.getHeight());
+                    BlockPayloadCache.truncate(previousLastBlock.getHeight());
+                }
                 throw e;
             } finally {
                 Db.db.endTransaction();
             }
+            BlockStore.blockPushed(block);
             blockListeners.notify(block, Event.AFTER_BLOCK_ACCEPT);
         } finally {
             blockchain.writeUnlock();
         }
+        pushTime.observeSince(pushStart);
 
-        if (block.getTimestamp() >= curTime - 600) {
+        if (relay && block.getTimestamp() >= curTime - 600) {
             Peers.sendToSomePeers(block);
         }
 
@@ -1486,6 +1772,29 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     }
 
+    private void applyBlock(BlockImpl block, BlockImpl previousLastBlock, int curTime) throws BlockNotAcceptedException {
+        long phaseStart = Metrics.startTimer();
+        block.setHeight(previousLastBlock.getHeight() + 1); // BURST: need to set the block's height so it can be validated
+        validate(block, previousLastBlock, curTime);
+        validateTime.observeSince(phaseStart);
+
+        phaseStart = Metrics.startTimer();
+        Map<TransactionType, Map<String, Integer>> duplicates = new HashMap<>();
+        List<TransactionImpl> validPhasedTransactions = new ArrayList<>();
+        List<TransactionImpl> invalidPhasedTransactions = new ArrayList<>();
+        validatePhasedTransactions(previousLastBlock.getHeight(), validPhasedTransactions, invalidPhasedTransactions, duplicates);
+        TransactionTotals totals = validateTransactions(block, previousLastBlock, curTime, duplicates, previousLastBlock.getHeight() >= Constants.LAST_CHECKSUM_BLOCK);
+        verifyTime.observeSince(phaseStart);
+
+        phaseStart = Metrics.startTimer();
+        block.setPrevious(previousLastBlock);
+        blockListeners.notify(block, Event.BEFORE_BLOCK_ACCEPT);
+        TransactionProcessorImpl.getInstance().requeueAllUnconfirmedTransactions();
+        addBlock(block);
+        accept(block, totals, validPhasedTransactions, invalidPhasedTransactions, duplicates);
+        acceptTime.observeSince(phaseStart);
+    }
+
     private void validatePhasedTransactions(int height, List<TransactionImpl> validPhasedTransactions, List<TransactionImpl> invalidPhasedTransactions,
                                             Map<TransactionType, Map<String, Integer>> duplicates) {
         if (height >= Constants.PHASING_BLOCK) {
@@ -1513,6 +1822,17 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     }
 
     private void validate(BlockImpl block, BlockImpl previousLastBlock, int curTime) throws BlockNotAcceptedException {
+        validateHeader(block, previousLastBlock, curTime);
+        if (!block.verifyBlockSignature()) {
+            throw new BlockNotAcceptedException("Block signature verification failed", block);
+        }
+    }
+
+    /**
+     * Validate the block header without modifying the database.  The block signature is
+     * checked but the generator public key is not set, which is done by validate().
+     */
+    private void validateHeader(BlockImpl block, BlockImpl previousLastBlock, int curTime) throws BlockNotAcceptedException {
         if (previousLastBlock.getId() != block.getPreviousBlockId()) {
             throw new BlockOutOfOrderException("Previous block id doesn't match", block);
         }
@@ -1540,7 +1860,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             long generatorBalance = generatorAccount == null ? 0 : generatorAccount.getEffectiveBalanceNXT();
             throw new BlockNotAcceptedException("Generation signature verification failed, effective balance " + generatorBalance, block);
         }
-        if (!block.verifyBlockSignature()) {
+        if (!block.checkSignature()) {
             throw new BlockNotAcceptedException("Block signature verification failed", block);
         }
         if (block.getTransactions().size() > Constants.MAX_NUMBER_OF_TRANSACTIONS) {
@@ -1735,7 +2055,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             if (block.getTransactions().size() > 0) {
                 TransactionProcessorImpl.getInstance().notifyListeners(block.getTransactions(), TransactionProcessor.Event.ADDED_CONFIRMED_TRANSACTIONS);
             }
-            AccountLedger.commitEntries();
+            AccountLedger.commitEntries(block.getHeight());
         } finally {
             isProcessingBlock = false;
             AccountLedger.clearEntries();
@@ -1782,9 +2102,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 }
                 Db.db.clearCache();
                 Db.db.commitTransaction();
+                UndoJournal.rolledBack(commonBlock.getHeight());
             } catch (RuntimeException e) {
                 Logger.logErrorMessage("Error popping off to " + commonBlock.getHeight() + ", " + e.toString());
                 Db.db.rollbackTransaction();
+                UndoJournal.invalidate();
                 BlockImpl lastBlock = BlockDb.findLastBlock();
                 blockchain.setLastBlock(lastBlock);
                 popOffTo(lastBlock);
@@ -1932,13 +2254,16 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         TransactionProcessorImpl.getInstance().processWaitingTransactions();
         SortedSet<UnconfirmedTransaction> sortedTransactions = selectUnconfirmedTransactions(duplicates, previousBlock, blockTimestamp);
         List<TransactionImpl> blockTransactions = new ArrayList<>();
+        for (UnconfirmedTransaction unconfirmedTransaction : sortedTransactions) {
+            blockTransactions.add(unconfirmedTransaction.getTransaction());
+        }
+        // BURST: block transactions must be sorted by id
+        blockTransactions.sort(Comparator.comparingLong(TransactionImpl::getId));
         MessageDigest digest = Crypto.sha256();
         long totalAmountNQT = 0;
         long totalFeeNQT = 0;
         int payloadLength = 0;
-        for (UnconfirmedTransaction unconfirmedTransaction : sortedTransactions) {
-            TransactionImpl transaction = unconfirmedTransaction.getTransaction();
-            blockTransactions.add(transaction);
+        for (TransactionImpl transaction : blockTransactions) {
             digest.update(transaction.bytes());
             totalAmountNQT += transaction.getAmountNQT();
             totalFeeNQT += transaction.getFeeNQT();
@@ -2027,6 +2352,56 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         scan(0, true, true);
     }
 
+    /**
+     * Apply the blocks above a height again without changing the database
+     *
+     * The derived tables are rolled back and the blocks are applied again in a database
+     * transaction which is then rolled back.  This rebuilds data which is collected while
+     * blocks are applied, such as account ledger entries, without rescanning the blockchain.
+     * No block events other than BEFORE_BLOCK_APPLY and AFTER_BLOCK_APPLY are sent.
+     *
+     * @param   height                  Height of the last block which is not applied again
+     */
+    void replay(int height) {
+        blockchain.writeLock();
+        try {
+            BlockImpl lastBlock = blockchain.getLastBlock();
+            if (height >= lastBlock.getHeight()) {
+                return;
+            }
+            if (height < getMinRollbackHeight() - 1) {
+                throw new IllegalArgumentException("Replay from height " + height + " is below the minimum rollback height");
+            }
+            Db.db.beginTransaction();
+            try {
+                for (DerivedDbTable table : derivedTables) {
+                    table.rollback(height);
+                }
+                Db.db.clearCache();
+                blockchain.setLastBlock(BlockDb.findBlockAtHeight(height));
+                for (int blockHeight = height + 1; blockHeight <= lastBlock.getHeight(); blockHeight++) {
+                    BlockImpl block = BlockDb.findBlockAtHeight(blockHeight);
+                    block.loadTransactions();
+                    Map<TransactionType, Map<String, Integer>> duplicates = new HashMap<>();
+                    List<TransactionImpl> validPhasedTransactions = new ArrayList<>();
+                    List<TransactionImpl> invalidPhasedTransactions = new ArrayList<>();
+                    validatePhasedTransactions(blockchain.getHeight(), validPhasedTransactions, invalidPhasedTransactions, duplicates);
+                    blockchain.setLastBlock(block);
+                    accept(block, null, validPhasedTransactions, invalidPhasedTransactions, duplicates);
+                }
+            } catch (NxtException e) {
+                throw new RuntimeException(e.toString(), e);
+            } finally {
+                Db.db.rollbackTransaction();
+                Db.db.endTransaction();
+                UndoJournal.reset(lastBlock.getHeight());
+                blockchain.setLastBlock(lastBlock);
+            }
+        } finally {
+            blockchain.writeUnlock();
+        }
+    }
+
     private void scan(int height, boolean validate, boolean shutdown) {
         blockchain.writeLock();
         try {
@@ -2084,6 +2459,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 }
                 Db.db.clearCache();
                 Db.db.commitTransaction();
+                UndoJournal.reset(height - 1);
                 Logger.logDebugMessage("Rolled back derived tables");
                 BlockImpl currentBlock = BlockDb.findBlockAtHeight(height);
                 blockListeners.notify(currentBlock, Event.RESCAN_BEGIN);
@@ -0,0 +1,328 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt;
+
+import nxt.db.TransactionalDb;
+import nxt.util.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory index of the main chain
+ *
+ * The block identifiers are kept in a long array indexed by height, and the
+ * heights are found through an open-addressing hash table which stores the
+ * height plus one for each block identifier (0 marks an empty slot).  This takes
+ * about 14 bytes per block, so block membership checks and height lookups for
+ * the peer networking code do not need a database query.
+ *
+ * The index follows the database: blocks are added when they are pushed and the
+ * index is truncated when blocks are deleted.  Blocks added by a database
+ * transaction which is rolled back are removed again.  If the index cannot be kept
+ * in step, it is discarded and reloaded from the database on the next lookup.
+ */
+final class ChainIndex {
+
+    /** Chain index enabled */
+    static final boolean enabled = Nxt.getBooleanProperty("nxt.enableChainIndex");
+
+    /** Block identifiers indexed by height */
+    private static long[] blockIds = new long[0];
+
+    /** Hash table containing the block height plus one */
+    private static int[] table = new int[0];
+
+    /** Number of indexed blocks */
+    private static int blockCount;
+
+    /** Index loaded from the database */
+    private static boolean loaded;
+
+    /** Index maintained for the main chain */
+    private static volatile boolean available;
+
+    /** Lowest height added by the current database transaction or -1 */
+    private static int pendingHeight = -1;
+
+    /** Indexed blocks replaced by the current database transaction */
+    private static boolean pendingReplaced;
+
+    /** Undo the additions made by a database transaction which is rolled back */
+    private static final TransactionalDb.TransactionCallback transactionCallback = new TransactionalDb.TransactionCallback() {
+
+        @Override
+        public void commit() {
+            synchronized (ChainIndex.class) {
+                pendingHeight = -1;
+                pendingReplaced = false;
+            }
+        }
+
+        @Override
+        public void rollback() {
+            synchronized (ChainIndex.class) {
+                if (pendingReplaced) {
+                    loaded = false;
+                } else if (pendingHeight >= 0) {
+                    truncate(pendingHeight - 1);
+                }
+                pendingHeight = -1;
+                pendingReplaced = false;
+            }
+        }
+    };
+
+    /**
+     * Load the chain index
+     */
+    static void init() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (ChainIndex.class) {
+            load();
+        }
+        Logger.logMessage("Chain index contains " + blockCount + " blocks");
+        available = true;
+    }
+
+    /**
+     * Check if lookups can be served by the index.  Lookups made while the node is
+     * starting go to the database.
+     *
+     * @return                          TRUE if the index is available
+     */
+    static boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Return the height of a block on the main chain
+     *
+     * @param   blockId                 Block identifier
+     * @return                          Block height or -1 if the block is not on the main chain
+     */
+    static synchronized int getHeight(long blockId) {
+        if (!loaded) {
+            load();
+        }
+        int mask = table.length - 1;
+        for (int slot = hash(blockId) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int height = table[slot] - 1;
+            if (blockIds[height] == blockId) {
+                return height;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the identifier of the main chain block at a height
+     *
+     * @param   height                  Block height
+     * @return                          Block identifier or 0 if the height is not indexed
+     */
+    static synchronized long getBlockId(int height) {
+        if (!loaded) {
+            load();
+        }
+        return height >= 0 && height < blockCount ? blockIds[height] : 0;
+    }
+
+    /**
+     * Return the identifiers of the main chain blocks following a block
+     *
+     * @param   blockId                 Block identifier
+     * @param   limit                   Maximum number of identifiers to return
+     * @return                          Block identifiers or null if the block is not on the main chain
+     */
+    static synchronized List<Long> getBlockIdsAfter(long blockId, int limit) {
+        int height = getHeight(blockId);
+        if (height < 0) {
+            return null;
+        }
+        int end = (int)Math.min((long)height + 1 + limit, blockCount);
+        List<Long> result = new ArrayList<>(Math.max(end - height - 1, 0));
+        for (int i = height + 1; i < end; i++) {
+            result.add(blockIds[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Add a block to the end of the chain.  A block at an indexed height replaces
+     * that block and all blocks above it.  A block added within a database transaction
+     * is removed if the transaction is rolled back.
+     *
+     * @param   height                  Block height
+     * @param   blockId                 Block identifier
+     */
+    static synchronized void add(int height, long blockId) {
+        if (!loaded) {
+            return;
+        }
+        if (height > blockCount) {
+            Logger.logDebugMessage("Block " + Long.toUnsignedString(blockId) + " at height " + height
+                    + " does not follow the chain index at height " + (blockCount - 1) + ", reloading the index");
+            loaded = false;
+            return;
+        }
+        if (height == blockCount - 1 && blockIds[height] == blockId) {
+            return;
+        }
+        if (Db.db.isInTransaction()) {
+            if (pendingHeight < 0 || height < pendingHeight) {
+                pendingHeight = height;
+            }
+            pendingReplaced |= height < blockCount;
+            Db.db.registerCallback(transactionCallback);
+        }
+        if (height < blockCount) {
+            truncate(height - 1);
+        }
+        if (blockCount == blockIds.length) {
+            blockIds = Arrays.copyOf(blockIds, Math.max(blockIds.length * 3 / 2, 1024));
+        }
+        if ((long)(blockCount + 1) * 4 > (long)table.length * 3) {
+            rehash(table.length * 2);
+        }
+        blockIds[blockCount] = blockId;
+        insert(blockCount);
+        blockCount++;
+    }
+
+    /**
+     * Remove all blocks above a height
+     *
+     * @param   height                  Last height to keep or -1 to remove all blocks
+     */
+    static synchronized void truncate(int height) {
+        if (!loaded) {
+            return;
+        }
+        while (blockCount > height + 1 && blockCount > 0) {
+            blockCount--;
+            remove(blockCount);
+            blockIds[blockCount] = 0;
+        }
+    }
+
+    /**
+     * Discard the index.  It will be reloaded from the database on the next lookup.
+     */
+    static synchronized void invalidate() {
+        loaded = false;
+    }
+
+    /**
+     * Load the index from the database
+     */
+    private static void load() {
+        long[] ids = new long[1024];
+        int count = 0;
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id, height FROM block ORDER BY height ASC");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                if (rs.getInt("height") != count) {
+                    throw new IllegalStateException("Block at height " + count + " not found in database");
+                }
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length * 3 / 2);
+                }
+                ids[count++] = rs.getLong("id");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        blockIds = ids;
+        blockCount = count;
+        rehash(tableSize(count));
+        loaded = true;
+    }
+
+    /**
+     * Return the hash table size for a block count, keeping the load factor below 0.75
+     *
+     * @param   count                   Block count
+     * @return                          Table size
+     */
+    private static int tableSize(int count) {
+        int size = 1024;
+        while ((long)count * 4 > (long)size * 3) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    private static void rehash(int size) {
+        table = new int[size];
+        for (int height = 0; height < blockCount; height++) {
+            insert(height);
+        }
+    }
+
+    private static void insert(int height) {
+        int mask = table.length - 1;
+        int slot = hash(blockIds[height]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = height + 1;
+    }
+
+    /**
+     * Remove a height from the hash table, moving back the entries following it in
+     * the probe sequence so that no lookup stops early at the freed slot
+     *
+     * @param   height                  Block height
+     */
+    private static void remove(int height) {
+        int mask = table.length - 1;
+        int slot = hash(blockIds[height]) & mask;
+        while (table[slot] != height + 1) {
+            if (table[slot] == 0) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int free = slot;
+        table[free] = 0;
+        for (slot = (free + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int home = hash(blockIds[table[slot] - 1]) & mask;
+            if (((slot - home) & mask) >= ((slot - free) & mask)) {
+                table[free] = table[slot];
+                table[slot] = 0;
+                free = slot;
+            }
+        }
+    }
+
+    private static int hash(long blockId) {
+        long h = blockId * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private ChainIndex() {} // never
+}
@@ -41,8 +41,11 @@ public final class Constants {
     public static final long MAX_BALANCE_NXT = 1000000000;
     public static final long ONE_NXT = 100000000;
     public static final long MAX_BALANCE_NQT = MAX_BALANCE_NXT * ONE_NXT;
-    public static final long INITIAL_BASE_TARGET = 18325193796L; // BURST
-    public static final long MAX_BASE_TARGET = 18325193796L; // BURST
+    // BURST: a test network can use a shorter block time and a higher base target, so that a local
+    // network of a few nodes forges blocks every few seconds from plots of a few nonces
+    public static final int BLOCK_TIME = isTestnet ? Math.max(Nxt.getIntProperty("nxt.testnetBlockTime", 240), 1) : 240;
+    public static final long INITIAL_BASE_TARGET = 18325193796L * (isTestnet ? Math.max(Nxt.getIntProperty("nxt.testnetBaseTargetMultiplier", 1), 1) : 1); // BURST
+    public static final long MAX_BASE_TARGET = INITIAL_BASE_TARGET; // BURST
     /* Following values not used in BURST
     public static final long MAX_BASE_TARGET_2 = isTestnet ? MAX_BASE_TARGET : INITIAL_BASE_TARGET * 50;
     public static final long MIN_BASE_TARGET = INITIAL_BASE_TARGET * 9 / 10;
@@ -155,7 +158,7 @@ public final class Constants {
     public static final int REFERENCED_TRANSACTION_FULL_HASH_BLOCK = 0;
     public static final int REFERENCED_TRANSACTION_FULL_HASH_BLOCK_TIMESTAMP = 0;
     public static final int MAX_REFERENCED_TRANSACTION_TIMESPAN = 60 * 1440 * 60;
-    public static final int DIGITAL_GOODS_STORE_BLOCK = isTestnet ? 2500 : 11800;
+    public static final int DIGITAL_GOODS_STORE_BLOCK = isTestnet ? Nxt.getIntProperty("nxt.testnetDigitalGoodsStoreBlock", 2500) : 11800;
     // Following values don't exist in old BURST 
     // so will probably need to be set to a nominal value (e.g. 360000) when hard forking to v1.11+
     public static final int BURST_REBASE_FORK_BLOCK = 360000;
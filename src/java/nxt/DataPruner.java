@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.db.DerivedDbTable;
+import nxt.db.PrunableDbTable;
+import nxt.util.Logger;
+import nxt.util.Metrics;
+import nxt.util.ThreadPool;
+
+/**
+ * Background pruning of expired prunable data
+ *
+ * Expired rows are deleted in chunks of at most nxt.pruneBatchSize rows.  Each chunk
+ * runs in its own database transaction and holds the blockchain read lock only while
+ * the chunk is deleted, and the pruner pauses nxt.pruneBatchDelay milliseconds between
+ * chunks, so a large number of expiring rows does not stall block processing.
+ */
+final class DataPruner {
+
+    /** Pruning interval in seconds */
+    private static final int pruneInterval = Math.max(Nxt.getIntProperty("nxt.pruneInterval", 600), 1);
+
+    /** Maximum number of rows deleted in a database transaction */
+    private static final int pruneBatchSize = Math.max(Nxt.getIntProperty("nxt.pruneBatchSize", 100), 1);
+
+    /** Delay between chunks in milliseconds */
+    private static final int pruneBatchDelay = Math.max(Nxt.getIntProperty("nxt.pruneBatchDelay", 100), 0);
+
+    private static final Metrics.Family<Metrics.Counter> prunedRows =
+            Metrics.counterFamily("nxt_pruned_rows_total", "Expired prunable rows deleted", "table");
+    private static final Metrics.Family<Metrics.Counter> prunedBytes =
+            Metrics.counterFamily("nxt_pruned_bytes_total", "Prunable data bytes reclaimed", "table");
+
+    static void init() {
+        if (Constants.ENABLE_PRUNING && Nxt.getBooleanProperty("nxt.trimDerivedTables")) {
+            ThreadPool.scheduleThread("PruneData", DataPruner::pruneTables, pruneInterval);
+        }
+    }
+
+    private static void pruneTables() {
+        try {
+            int expiration = Nxt.getEpochTime() - Constants.MAX_PRUNABLE_LIFETIME;
+            for (DerivedDbTable table : BlockchainProcessorImpl.getInstance().getDerivedTables()) {
+                if (table instanceof PrunableDbTable) {
+                    pruneTable((PrunableDbTable<?>)table, expiration);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Logger.logMessage("Error pruning expired prunable data", e);
+        }
+    }
+
+    private static void pruneTable(PrunableDbTable<?> table, int expiration) throws InterruptedException {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        long startTime = System.currentTimeMillis();
+        int rows = 0;
+        long bytes = 0;
+        PrunableDbTable.PruneResult result;
+        do {
+            if (rows > 0 && pruneBatchDelay > 0) {
+                Thread.sleep(pruneBatchDelay);
+            }
+            try {
+                Db.db.beginTransaction();
+                blockchain.readLock();
+                try {
+                    result = table.prune(expiration, pruneBatchSize);
+                    Db.db.commitTransaction();
+                } finally {
+                    blockchain.readUnlock();
+                }
+            } catch (Exception e) {
+                Db.db.rollbackTransaction();
+                throw e;
+            } finally {
+                Db.db.endTransaction();
+            }
+            rows += result.getRows();
+            bytes += result.getBytes();
+        } while (result.getRows() >= pruneBatchSize);
+        if (rows > 0) {
+            prunedRows.labels(table.toString()).add(rows);
+            prunedBytes.labels(table.toString()).add(bytes);
+            Logger.logMessage("Pruned " + rows + " expired rows from " + table + ", reclaimed " + bytes + " bytes in "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+        }
+    }
+
+    private DataPruner() {} // never
+}
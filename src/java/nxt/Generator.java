@@ -49,12 +49,10 @@ public final class Generator {
 
     private static final Listeners<Generator,Event> listeners = new Listeners<>();
 
-    private static long lastBlockId;
-
     private static volatile GeneratorState generatorState = null;
     private static final Object generatorLockObj = new Object();
 
-    private static final Runnable generateBlocksThread = new Runnable() {
+    static final Runnable generateBlocksThread = new Runnable() {
 
         private volatile boolean logged;
 
@@ -79,27 +77,27 @@ public final class Generator {
                             return;
                         }
 
-                        if (lastBlock.getId() != lastBlockId) {
-                            // last block's Id has changed so our generation state is invalid - discard it
-                            generatorState = null;
-                            lastBlockId = lastBlock.getId();
+                        GeneratorState state = generatorState;
+                        if (state == null) {
+                            // no usable nonce submitted so far - nothing to do
                             return;
                         }
 
-                        if (generatorState == null) {
-                            // no usable nonce submitted so far - nothing to do
+                        if (state.getLastBlockId() != lastBlock.getId()) {
+                            // nonce was submitted for a block that has since been replaced or popped off - discard it
+                            clearGeneratorState(state);
                             return;
                         }
 
                         int elapsedTime = Nxt.getEpochTime() - lastBlock.getTimestamp();
-                        if (BigInteger.valueOf(elapsedTime).compareTo(generatorState.getPOCTime()) < 0)
+                        if (BigInteger.valueOf(elapsedTime).compareTo(state.getPOCTime()) < 0)
                             return; // too soon
 
                         // OK to attempt forge
-                        generatorState.forge(lastBlock);
+                        state.forge(lastBlock);
                         
                         // success - we should be on new block so old state now invalid
-                        generatorState = null;
+                        clearGeneratorState(state);
                     } finally {
                         BlockchainImpl.getInstance().updateUnlock();
                     }
@@ -115,6 +113,19 @@ public final class Generator {
 
     };
 
+    /**
+     * Discard a generator state unless a nonce for a later block has replaced it
+     *
+     * @param   state                   Generator state
+     */
+    private static void clearGeneratorState(GeneratorState state) {
+        synchronized (generatorLockObj) {
+            if (generatorState == state) {
+                generatorState = null;
+            }
+        }
+    }
+
     static {
         if (!Constants.isLightClient) {
             ThreadPool.scheduleThread("GenerateBlocks", generateBlocksThread, 500, TimeUnit.MILLISECONDS);
@@ -166,7 +177,8 @@ public final class Generator {
         BigInteger newPOCTime = newState.getPOCTime();
         
         synchronized (generatorLockObj) {
-            if (generatorState == null || newPOCTime.compareTo(generatorState.getPOCTime()) < 0)
+            if (generatorState == null || generatorState.getLastBlockId() != newState.getLastBlockId()
+                    || newPOCTime.compareTo(generatorState.getPOCTime()) < 0)
                 generatorState = newState;
         }
 
@@ -207,6 +219,7 @@ public final class Generator {
         private final BigInteger POCTime;
         private final long nonce;
         private final int scoopNum;
+        private final long lastBlockId;
 
         public GeneratorState(String secretPhrase, long nonce, byte[] publicKey, long accountId) {
             this.secretPhrase = secretPhrase;
@@ -216,6 +229,7 @@ public final class Generator {
             this.nonce = nonce;
 
             Block lastBlock = Nxt.getBlockchain().getLastBlock();
+            this.lastBlockId = lastBlock.getId();
             byte[] lastGenSig = lastBlock.getGenerationSignature();
             long lastGeneratorId = lastBlock.getGeneratorId();
             byte[] newGenSig = calculateGenerationSignature(lastGenSig, lastGeneratorId);
@@ -236,6 +250,10 @@ public final class Generator {
             return POCTime;
         }
 
+        public long getLastBlockId() {
+            return lastBlockId;
+        }
+
         public void forge(Block lastBlock) throws BlockchainProcessor.BlockNotAcceptedException {
             int start = Nxt.getEpochTime();
             while (true) {
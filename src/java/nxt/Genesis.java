@@ -44,7 +44,7 @@ public final class Genesis {
     
     public static final BigInteger GENESIS_CUMULATIVE_DIFFICULTY = new BigInteger(0, new byte[] {});
     
-    public static final long GENESIS_BASE_TARGET = 18325193796L;
+    public static final long GENESIS_BASE_TARGET = Constants.INITIAL_BASE_TARGET;
 
     private Genesis() {} // never
 
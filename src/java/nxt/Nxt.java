@@ -320,7 +320,10 @@ public final class Nxt {
         FundingMonitor.shutdown();
         ThreadPool.shutdown();
         BlockchainProcessorImpl.getInstance().shutdown();
+        AnalyticsExport.shutdown();
+        AccountLedger.shutdown();
         Peers.shutdown();
+        BlockStore.shutdown();
         Db.shutdown();
         Logger.logShutdownMessage("Nxt server " + VERSION + " stopped.");
         Logger.shutdown();
@@ -344,6 +347,9 @@ public final class Nxt {
                 setServerStatus(ServerStatus.AFTER_DATABASE, null);
                 TransactionProcessorImpl.getInstance();
                 BlockchainProcessorImpl.getInstance();
+                BlockStore.init();
+                ChainIndex.init();
+                BlockPayloadCache.init();
                 Account.init();
                 AccountRestrictions.init();
                 AccountLedger.init();
@@ -373,6 +379,8 @@ public final class Nxt {
                 ShufflingParticipant.init();
                 PrunableMessage.init();
                 TaggedData.init();
+                DataPruner.init();
+                AnalyticsExport.init();
                 //FxtDistribution.init();
                 Peers.init();
                 APIProxy.init();
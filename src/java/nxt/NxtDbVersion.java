@@ -1207,6 +1207,28 @@ class NxtDbVersion extends DbVersion {
             case 489:
                 apply("CREATE INDEX IF NOT EXISTS asset_dividend_height_idx ON asset_dividend (height)");
             case 490:
+                apply("CREATE TABLE IF NOT EXISTS account_ledger_height (height INT NOT NULL)");
+            case 491:
+                apply("CREATE INDEX IF NOT EXISTS transaction_recipient_id_height_idx ON transaction (recipient_id, height, amount, id)");
+            case 492:
+                apply("DROP INDEX IF EXISTS transaction_recipient_id_idx");
+            case 493:
+                apply("CREATE INDEX IF NOT EXISTS block_generator_id_height_idx ON block (generator_id, height DESC)");
+            case 494:
+                apply("DROP INDEX IF EXISTS block_generator_id_idx");
+            case 495:
+                apply("CREATE INDEX IF NOT EXISTS shuffling_participant_account_id_idx ON shuffling_participant (account_id, latest, shuffling_id)");
+            case 496:
+                apply("CREATE INDEX IF NOT EXISTS phasing_poll_finish_height_idx ON phasing_poll (finish_height, id)");
+            case 497:
+                apply("ALTER TABLE peer ADD COLUMN IF NOT EXISTS host VARCHAR");
+            case 498:
+                apply("ALTER TABLE peer ADD COLUMN IF NOT EXISTS score DOUBLE");
+            case 499:
+                apply("ALTER TABLE peer ADD COLUMN IF NOT EXISTS last_connected INT NOT NULL DEFAULT 0");
+            case 500:
+                apply("ALTER TABLE peer ADD COLUMN IF NOT EXISTS blockchain_state INT");
+            case 501:
                 return;
             default:
                 throw new RuntimeException("Blockchain database inconsistent with code, at update " + nextUpdate
@@ -20,12 +20,22 @@ import nxt.AccountLedger.LedgerEvent;
 import nxt.db.DbClause;
 import nxt.db.DbIterator;
 import nxt.db.DbKey;
+import nxt.db.TransactionalDb;
 import nxt.db.VersionedEntityDbTable;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
 
 public abstract class Order {
 
@@ -66,6 +76,105 @@ public abstract class Order {
         Bid.init();
     }
 
+    /** Discard the order books loaded or changed in a database transaction which is rolled back */
+    private static final TransactionalDb.TransactionCallback orderBookCallback = new TransactionalDb.TransactionCallback() {
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            Ask.orderBook.clear();
+            Bid.orderBook.clear();
+        }
+    };
+
+    /** Time priority of orders with the same price */
+    private static final Comparator<Order> timeComparator = Comparator
+            .comparingInt(Order::getHeight)
+            .thenComparingInt(Order::getTransactionHeight)
+            .thenComparingInt(Order::getTransactionIndex)
+            .thenComparingLong(Order::getId);
+
+    /**
+     * In-memory order book
+     *
+     * The open orders of an asset are loaded from the database when the asset is first
+     * matched or queried, and are then kept sorted in price-time priority.  The books are
+     * changed only while the blockchain write lock is held, and are read under the
+     * blockchain read lock.  They are discarded when the order tables are rolled back or
+     * a database transaction which used them is rolled back.
+     */
+    private static final class OrderBook<T extends Order> {
+
+        /** Price-time priority */
+        private final Comparator<? super T> comparator;
+
+        /** Load the open orders of an asset */
+        private final LongFunction<List<T>> loader;
+
+        /** Order books by asset */
+        private final Map<Long, NavigableSet<T>> books = new ConcurrentHashMap<>();
+
+        private OrderBook(Comparator<? super T> comparator, LongFunction<List<T>> loader) {
+            this.comparator = comparator;
+            this.loader = loader;
+        }
+
+        private NavigableSet<T> getBook(long assetId) {
+            NavigableSet<T> book = books.get(assetId);
+            if (book == null) {
+                book = new TreeSet<>(comparator);
+                book.addAll(loader.apply(assetId));
+                if (Db.db.isInTransaction()) {
+                    Db.db.registerCallback(orderBookCallback);
+                }
+                NavigableSet<T> existing = books.putIfAbsent(assetId, book);
+                if (existing != null) {
+                    book = existing;
+                }
+            }
+            return book;
+        }
+
+        private T getFirst(long assetId) {
+            NavigableSet<T> book = getBook(assetId);
+            return book.isEmpty() ? null : book.first();
+        }
+
+        private void add(T order) {
+            getBook(order.getAssetId()).add(order);
+            Db.db.registerCallback(orderBookCallback);
+        }
+
+        private void remove(T order) {
+            getBook(order.getAssetId()).remove(order);
+            Db.db.registerCallback(orderBookCallback);
+        }
+
+        private List<T> getOrders(long assetId, int from, int to) {
+            List<T> orders = new ArrayList<>();
+            Nxt.getBlockchain().readLock();
+            try {
+                Iterator<T> it = getBook(assetId).iterator();
+                for (int i = 0; it.hasNext() && (to < 0 || i <= to); i++) {
+                    T order = it.next();
+                    if (i >= from) {
+                        orders.add(order);
+                    }
+                }
+            } finally {
+                Nxt.getBlockchain().readUnlock();
+            }
+            return orders;
+        }
+
+        private void clear() {
+            books.clear();
+        }
+    }
+
 
     private final long id;
     private final long accountId;
@@ -205,8 +314,30 @@ public abstract class Order {
                 return " ORDER BY creation_height DESC ";
             }
 
+            @Override
+            public void rollback(int height) {
+                super.rollback(height);
+                orderBook.clear();
+            }
+
+            @Override
+            public void truncate() {
+                super.truncate();
+                orderBook.clear();
+            }
+
         };
 
+        private static final OrderBook<Ask> orderBook = new OrderBook<>(
+                Comparator.comparingLong(Order::getPriceNQT).thenComparing(timeComparator),
+                assetId -> {
+                    List<Ask> orders = new ArrayList<>();
+                    try (DbIterator<Ask> it = askOrderTable.getManyBy(new DbClause.LongClause("asset_id", assetId), 0, -1)) {
+                        it.forEachRemaining(orders::add);
+                    }
+                    return orders;
+                });
+
         public static int getCount() {
             return askOrderTable.getCount();
         }
@@ -232,32 +363,25 @@ public abstract class Order {
             return askOrderTable.getManyBy(dbClause, from, to);
         }
 
-        public static DbIterator<Ask> getSortedOrders(long assetId, int from, int to) {
-            return askOrderTable.getManyBy(new DbClause.LongClause("asset_id", assetId), from, to,
-                    " ORDER BY price ASC, creation_height ASC, transaction_height ASC, transaction_index ASC ");
+        public static List<Ask> getSortedOrderList(long assetId, int from, int to) {
+            return orderBook.getOrders(assetId, from, to);
         }
 
         private static Ask getNextOrder(long assetId) {
-            try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM ask_order WHERE asset_id = ? "
-                         + "AND latest = TRUE ORDER BY price ASC, creation_height ASC, transaction_height ASC, transaction_index ASC LIMIT 1")) {
-                pstmt.setLong(1, assetId);
-                try (DbIterator<Ask> askOrders = askOrderTable.getManyBy(con, pstmt, true)) {
-                    return askOrders.hasNext() ? askOrders.next() : null;
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
-            }
+            return orderBook.getFirst(assetId);
         }
 
         static void addOrder(Transaction transaction, Attachment.ColoredCoinsAskOrderPlacement attachment) {
             Ask order = new Ask(transaction, attachment);
             askOrderTable.insert(order);
+            orderBook.add(order);
             matchOrders(attachment.getAssetId());
         }
 
         static void removeOrder(long orderId) {
-            askOrderTable.delete(getAskOrder(orderId));
+            Ask order = getAskOrder(orderId);
+            askOrderTable.delete(order);
+            orderBook.remove(order);
         }
 
         static void init() {}
@@ -285,6 +409,7 @@ public abstract class Order {
                 askOrderTable.insert(this);
             } else if (quantityQNT == 0) {
                 askOrderTable.delete(this);
+                orderBook.remove(this);
             } else {
                 throw new IllegalArgumentException("Negative quantity: " + quantityQNT
                         + " for order: " + Long.toUnsignedString(getId()));
@@ -334,8 +459,30 @@ public abstract class Order {
                 return " ORDER BY creation_height DESC ";
             }
 
+            @Override
+            public void rollback(int height) {
+                super.rollback(height);
+                orderBook.clear();
+            }
+
+            @Override
+            public void truncate() {
+                super.truncate();
+                orderBook.clear();
+            }
+
         };
 
+        private static final OrderBook<Bid> orderBook = new OrderBook<>(
+                Comparator.comparingLong(Order::getPriceNQT).reversed().thenComparing(timeComparator),
+                assetId -> {
+                    List<Bid> orders = new ArrayList<>();
+                    try (DbIterator<Bid> it = bidOrderTable.getManyBy(new DbClause.LongClause("asset_id", assetId), 0, -1)) {
+                        it.forEachRemaining(orders::add);
+                    }
+                    return orders;
+                });
+
         public static int getCount() {
             return bidOrderTable.getCount();
         }
@@ -361,32 +508,25 @@ public abstract class Order {
             return bidOrderTable.getManyBy(dbClause, from, to);
         }
 
-        public static DbIterator<Bid> getSortedOrders(long assetId, int from, int to) {
-            return bidOrderTable.getManyBy(new DbClause.LongClause("asset_id", assetId), from, to,
-                    " ORDER BY price DESC, creation_height ASC, transaction_height ASC, transaction_index ASC ");
+        public static List<Bid> getSortedOrderList(long assetId, int from, int to) {
+            return orderBook.getOrders(assetId, from, to);
         }
 
         private static Bid getNextOrder(long assetId) {
-            try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM bid_order WHERE asset_id = ? "
-                         + "AND latest = TRUE ORDER BY price DESC, creation_height ASC, transaction_height ASC, transaction_index ASC LIMIT 1")) {
-                pstmt.setLong(1, assetId);
-                try (DbIterator<Bid> bidOrders = bidOrderTable.getManyBy(con, pstmt, true)) {
-                    return bidOrders.hasNext() ? bidOrders.next() : null;
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
-            }
+            return orderBook.getFirst(assetId);
         }
 
         static void addOrder(Transaction transaction, Attachment.ColoredCoinsBidOrderPlacement attachment) {
             Bid order = new Bid(transaction, attachment);
             bidOrderTable.insert(order);
+            orderBook.add(order);
             matchOrders(attachment.getAssetId());
         }
 
         static void removeOrder(long orderId) {
-            bidOrderTable.delete(getBidOrder(orderId));
+            Bid order = getBidOrder(orderId);
+            bidOrderTable.delete(order);
+            orderBook.remove(order);
         }
 
         static void init() {}
@@ -414,6 +554,7 @@ public abstract class Order {
                 bidOrderTable.insert(this);
             } else if (quantityQNT == 0) {
                 bidOrderTable.delete(this);
+                orderBook.remove(this);
             } else {
                 throw new IllegalArgumentException("Negative quantity: " + quantityQNT
                         + " for order: " + Long.toUnsignedString(getId()));
@@ -437,6 +437,7 @@ public final class PhasingPoll extends AbstractPoll {
     void finish(long result) {
         PhasingPollResult phasingPollResult = new PhasingPollResult(this, result);
         resultTable.insert(phasingPollResult);
+        PhasingVote.removeVoteCount(id);
     }
 
     public long[] getWhitelist() {
@@ -485,16 +486,32 @@ public final class PhasingPoll extends AbstractPoll {
         if (voteWeighting.isBalanceIndependent()) {
             return PhasingVote.getVoteCount(this.id);
         }
-        VoteWeighting.VotingModel votingModel = voteWeighting.getVotingModel();
         long cumulativeWeight = 0;
+        long[] voterIds = new long[VoteWeighting.WEIGHT_BATCH_SIZE];
+        int count = 0;
         try (DbIterator<PhasingVote> votes = PhasingVote.getVotes(this.id, 0, Integer.MAX_VALUE)) {
             for (PhasingVote vote : votes) {
-                cumulativeWeight += votingModel.calcWeight(voteWeighting, vote.getVoterId(), height);
+                voterIds[count++] = vote.getVoterId();
+                if (count == voterIds.length) {
+                    cumulativeWeight += sumWeights(voterIds, height);
+                    count = 0;
+                }
             }
         }
+        if (count > 0) {
+            cumulativeWeight += sumWeights(Arrays.copyOf(voterIds, count), height);
+        }
         return cumulativeWeight;
     }
 
+    private long sumWeights(long[] voterIds, int height) {
+        long sum = 0;
+        for (long weight : voteWeighting.getVotingModel().calcWeights(voteWeighting, voterIds, height)) {
+            sum += weight;
+        }
+        return sum;
+    }
+
     boolean allowEarlyFinish() {
         return voteWeighting.isBalanceIndependent() && (whitelist.length > 0 || voteWeighting.getVotingModel() != VoteWeighting.VotingModel.ACCOUNT);
     }
@@ -20,11 +20,14 @@ import nxt.db.DbClause;
 import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.EntityDbTable;
+import nxt.db.TransactionalDb;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PhasingVote {
 
@@ -47,6 +50,39 @@ public class PhasingVote {
             vote.save(con);
         }
 
+        @Override
+        public void rollback(int height) {
+            super.rollback(height);
+            voteCounts.clear();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            voteCounts.clear();
+        }
+
+    };
+
+    /**
+     * Running vote counts of the phased transactions, maintained while blocks are applied
+     * so that an early finish check does not count all votes again for each new vote.
+     * The counts are discarded when a block is popped off or the database transaction
+     * is rolled back.
+     */
+    private static final Map<Long, Long> voteCounts = new ConcurrentHashMap<>();
+
+    /** Discard the vote counts changed in a database transaction which is rolled back */
+    private static final TransactionalDb.TransactionCallback voteCountCallback = new TransactionalDb.TransactionCallback() {
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            voteCounts.clear();
+        }
     };
 
     public static DbIterator<PhasingVote> getVotes(long phasedTransactionId, int from, int to) {
@@ -58,7 +94,22 @@ public class PhasingVote {
     }
 
     public static long getVoteCount(long phasedTransactionId) {
-        return phasingVoteTable.getCount(new DbClause.LongClause("transaction_id", phasedTransactionId));
+        if (!Db.db.isInTransaction()) {
+            return phasingVoteTable.getCount(new DbClause.LongClause("transaction_id", phasedTransactionId));
+        }
+        Long count = voteCounts.get(phasedTransactionId);
+        if (count == null) {
+            count = (long)phasingVoteTable.getCount(new DbClause.LongClause("transaction_id", phasedTransactionId));
+            voteCounts.put(phasedTransactionId, count);
+            Db.db.registerCallback(voteCountCallback);
+        }
+        return count;
+    }
+
+    static void removeVoteCount(long phasedTransactionId) {
+        if (voteCounts.remove(phasedTransactionId) != null) {
+            Db.db.registerCallback(voteCountCallback);
+        }
     }
 
     static void addVote(Transaction transaction, Account voter, long phasedTransactionId) {
@@ -66,6 +117,9 @@ public class PhasingVote {
         if (phasingVote == null) {
             phasingVote = new PhasingVote(transaction, voter, phasedTransactionId);
             phasingVoteTable.insert(phasingVote);
+            if (voteCounts.computeIfPresent(phasedTransactionId, (id, count) -> count + 1) != null) {
+                Db.db.registerCallback(voteCountCallback);
+            }
         }
     }
 
@@ -21,6 +21,7 @@ import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.DbUtils;
 import nxt.db.EntityDbTable;
+import nxt.db.TransactionalDb;
 import nxt.db.ValuesDbTable;
 import nxt.util.Logger;
 
@@ -29,8 +30,11 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class Poll extends AbstractPoll {
 
@@ -79,6 +83,40 @@ public final class Poll extends AbstractPoll {
         protected void save(Connection con, Poll poll) throws SQLException {
             poll.save(con);
         }
+
+        @Override
+        public void rollback(int height) {
+            super.rollback(height);
+            tallies.clear();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            tallies.clear();
+        }
+    };
+
+    /**
+     * Running results of the active polls whose vote weights are fixed when the vote is cast.
+     * The tallies are maintained while blocks are applied and are discarded when a block
+     * is popped off or the database transaction is rolled back.  A discarded tally is
+     * counted again from the vote table when the next vote for the poll is cast or
+     * when the poll finishes.
+     */
+    private static final Map<Long, OptionResult[]> tallies = new ConcurrentHashMap<>();
+
+    /** Discard the tallies changed in a database transaction which is rolled back */
+    private static final TransactionalDb.TransactionCallback tallyCallback = new TransactionalDb.TransactionCallback() {
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            tallies.clear();
+        }
     };
 
     private static final DbKey.LongKeyFactory<Poll> pollResultsDbKeyFactory = new DbKey.LongKeyFactory<Poll>("poll_id") {
@@ -157,6 +195,32 @@ public final class Poll extends AbstractPoll {
     static void addPoll(Transaction transaction, Attachment.MessagingPollCreation attachment) {
         Poll poll = new Poll(transaction, attachment);
         pollTable.insert(poll);
+        if (Poll.isPollsProcessing && poll.voteWeighting.isBalanceIndependent()) {
+            tallies.put(poll.id, new OptionResult[poll.options.length]);
+            Db.db.registerCallback(tallyCallback);
+        }
+    }
+
+    /**
+     * Add a vote to the running tally of its poll
+     *
+     * @param   vote                    Vote which has just been saved
+     */
+    static void tallyVote(Vote vote) {
+        if (!Poll.isPollsProcessing) {
+            return;
+        }
+        Poll poll = getPoll(vote.getPollId());
+        if (!poll.voteWeighting.isBalanceIndependent()) {
+            return;
+        }
+        OptionResult[] tally = tallies.get(poll.id);
+        if (tally == null) {
+            tallies.put(poll.id, poll.tally(poll.voteWeighting, Nxt.getBlockchain().getHeight()));
+        } else {
+            addResults(tally, poll.countVote(vote, 1), 1);
+        }
+        Db.db.registerCallback(tallyCallback);
     }
 
     static void init() {}
@@ -172,11 +236,12 @@ public final class Poll extends AbstractPoll {
         }
     }
 
-    private static void checkPolls(int currentHeight) {
+    static void checkPolls(int currentHeight) {
         try (DbIterator<Poll> polls = getPollsFinishingAt(currentHeight)) {
             for (Poll poll : polls) {
                 try {
-                    List<OptionResult> results = poll.countResults(poll.getVoteWeighting(), currentHeight);
+                    OptionResult[] tally = tallies.remove(poll.getId());
+                    List<OptionResult> results = tally != null ? Arrays.asList(tally) : poll.countResults(poll.getVoteWeighting(), currentHeight);
                     pollResultsTable.insert(poll, results);
                     Logger.logDebugMessage("Poll " + Long.toUnsignedString(poll.getId()) + " has been finished");
                 } catch (RuntimeException e) {
@@ -315,27 +380,51 @@ public final class Poll extends AbstractPoll {
     }
 
     private List<OptionResult> countResults(VoteWeighting voteWeighting, int height) {
+        return Arrays.asList(tally(voteWeighting, height));
+    }
+
+    private OptionResult[] tally(VoteWeighting voteWeighting, int height) {
         final OptionResult[] result = new OptionResult[options.length];
-        VoteWeighting.VotingModel votingModel = voteWeighting.getVotingModel();
+        List<Vote> batch = new ArrayList<>(VoteWeighting.WEIGHT_BATCH_SIZE);
         try (DbIterator<Vote> votes = Vote.getVotes(this.getId(), 0, -1)) {
             for (Vote vote : votes) {
-                long weight = votingModel.calcWeight(voteWeighting, vote.getVoterId(), height);
-                if (weight <= 0) {
-                    continue;
+                batch.add(vote);
+                if (batch.size() == VoteWeighting.WEIGHT_BATCH_SIZE) {
+                    countVotes(result, batch, voteWeighting, height);
+                    batch.clear();
                 }
-                long[] partialResult = countVote(vote, weight);
-                for (int i = 0; i < partialResult.length; i++) {
-                    if (partialResult[i] != Long.MIN_VALUE) {
-                        if (result[i] == null) {
-                            result[i] = new OptionResult(partialResult[i], weight);
-                        } else {
-                            result[i].add(partialResult[i], weight);
-                        }
-                    }
+            }
+        }
+        countVotes(result, batch, voteWeighting, height);
+        return result;
+    }
+
+    private void countVotes(OptionResult[] result, List<Vote> votes, VoteWeighting voteWeighting, int height) {
+        if (votes.isEmpty()) {
+            return;
+        }
+        long[] voterIds = new long[votes.size()];
+        for (int i = 0; i < voterIds.length; i++) {
+            voterIds[i] = votes.get(i).getVoterId();
+        }
+        long[] weights = voteWeighting.getVotingModel().calcWeights(voteWeighting, voterIds, height);
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] > 0) {
+                addResults(result, countVote(votes.get(i), weights[i]), weights[i]);
+            }
+        }
+    }
+
+    private static void addResults(OptionResult[] result, long[] partialResult, long weight) {
+        for (int i = 0; i < partialResult.length; i++) {
+            if (partialResult[i] != Long.MIN_VALUE) {
+                if (result[i] == null) {
+                    result[i] = new OptionResult(partialResult[i], weight);
+                } else {
+                    result[i].add(partialResult[i], weight);
                 }
             }
         }
-        return Arrays.asList(result);
     }
 
     private long[] countVote(Vote vote, long weight) {
@@ -57,6 +57,11 @@ public final class PrunableMessage {
             return " ORDER BY block_timestamp DESC, db_id DESC ";
         }
 
+        @Override
+        protected String[] getPrunableColumns() {
+            return new String[] {"message", "encrypted_message"};
+        }
+
     };
 
     public static int getCount() {
@@ -160,6 +160,11 @@ public final class ShufflingParticipant {
             shufflingData.save(con);
         }
 
+        @Override
+        protected String[] getPrunableColumns() {
+            return new String[] {"data"};
+        }
+
     };
 
     public static boolean addListener(Listener<ShufflingParticipant> listener, Event eventType) {
@@ -64,30 +64,36 @@ public class TaggedData {
             return " ORDER BY block_timestamp DESC, height DESC, db_id DESC ";
         }
 
+        private final Map<String,Integer> expiredTags = new HashMap<>();
+
         @Override
-        protected void prune() {
-            if (Constants.ENABLE_PRUNING) {
-                try (Connection con = db.getConnection();
-                     PreparedStatement pstmtSelect = con.prepareStatement("SELECT parsed_tags "
-                             + "FROM tagged_data WHERE transaction_timestamp < ? AND latest = TRUE ")) {
-                    int expiration = Nxt.getEpochTime() - Constants.MAX_PRUNABLE_LIFETIME;
-                    pstmtSelect.setInt(1, expiration);
-                    Map<String,Integer> expiredTags = new HashMap<>();
-                    try (ResultSet rs = pstmtSelect.executeQuery()) {
-                        while (rs.next()) {
-                            Object[] array = (Object[])rs.getArray("parsed_tags").getArray();
-                            for (Object tag : array) {
-                                Integer count = expiredTags.get(tag);
-                                expiredTags.put((String)tag, count != null ? count + 1 : 1);
-                            }
-                        }
-                    }
-                    Tag.delete(expiredTags);
-                } catch (SQLException e) {
-                    throw new RuntimeException(e.toString(), e);
+        protected String[] getPrunableColumns() {
+            return new String[] {"name", "description", "tags", "type", "data", "filename", "channel"};
+        }
+
+        @Override
+        protected void pruneRow(ResultSet rs) throws SQLException {
+            if (rs.getBoolean("latest")) {
+                Object[] array = (Object[])rs.getArray("parsed_tags").getArray();
+                for (Object tag : array) {
+                    expiredTags.merge((String)tag, 1, Integer::sum);
                 }
             }
-            super.prune();
+        }
+
+        @Override
+        protected void pruneRows(Connection con) throws SQLException {
+            Tag.delete(con, expiredTags);
+        }
+
+        @Override
+        public PruneResult prune(int expiration, int limit) {
+            // the expired tags only apply to the current chunk, even if the chunk fails
+            try {
+                return super.prune(expiration, limit);
+            } finally {
+                expiredTags.clear();
+            }
         }
 
     };
@@ -220,22 +226,20 @@ public class TaggedData {
             }
         }
 
-        private static void delete(Map<String,Integer> expiredTags) {
-            try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("UPDATE data_tag SET tag_count = tag_count - ? WHERE tag = ?");
+        private static void delete(Connection con, Map<String,Integer> expiredTags) throws SQLException {
+            if (expiredTags.isEmpty()) {
+                return;
+            }
+            try (PreparedStatement pstmt = con.prepareStatement("UPDATE data_tag SET tag_count = tag_count - ? WHERE tag = ?");
                  PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM data_tag WHERE tag_count <= 0")) {
                 for (Map.Entry<String,Integer> entry : expiredTags.entrySet()) {
                     pstmt.setInt(1, entry.getValue());
                     pstmt.setString(2, entry.getKey());
-                    pstmt.executeUpdate();
-                    Logger.logDebugMessage("Reduced tag count for " + entry.getKey() + " by " + entry.getValue());
+                    pstmt.addBatch();
                 }
+                pstmt.executeBatch();
                 int deleted = pstmtDelete.executeUpdate();
-                if (deleted > 0) {
-                    Logger.logDebugMessage("Deleted " + deleted + " tags");
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
+                Logger.logDebugMessage("Reduced tag counts for " + expiredTags.size() + " tags, deleted " + deleted + " tags");
             }
         }
 
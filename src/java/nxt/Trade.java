@@ -17,6 +17,7 @@
 package nxt;
 
 import nxt.db.DbClause;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.DbUtils;
@@ -86,6 +87,14 @@ public final class Trade {
         return tradeTable.getManyBy(new DbClause.LongClause("asset_id", assetId), from, to);
     }
 
+    public static DbIterator<Trade> getAssetTrades(long assetId, DbCursor cursor, int from, int to) {
+        DbClause dbClause = new DbClause.LongClause("asset_id", assetId);
+        if (cursor != null) {
+            dbClause = dbClause.and(cursor.getClause());
+        }
+        return tradeTable.getManyBy(dbClause, from, to).trackCursor();
+    }
+
     public static List<Trade> getLastTrades(long[] assetIds) {
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM trade WHERE asset_id = ? ORDER BY asset_id, height DESC LIMIT 1")) {
@@ -105,18 +114,30 @@ public final class Trade {
     }
 
     public static DbIterator<Trade> getAccountTrades(long accountId, int from, int to) {
+        return getAccountTrades(accountId, null, from, to);
+    }
+
+    public static DbIterator<Trade> getAccountTrades(long accountId, DbCursor cursor, int from, int to) {
         Connection con = null;
         try {
             con = Db.db.getConnection();
-            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM trade WHERE seller_id = ?"
-                    + " UNION ALL SELECT * FROM trade WHERE buyer_id = ? AND seller_id <> ? ORDER BY height DESC, db_id DESC"
+            String keyset = cursor != null ? " AND" + DbCursor.getCondition(null) : "";
+            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM trade WHERE seller_id = ?" + keyset
+                    + " UNION ALL SELECT * FROM trade WHERE buyer_id = ? AND seller_id <> ?" + keyset
+                    + " ORDER BY height DESC, db_id DESC"
                     + DbUtils.limitsClause(from, to));
-            int i = 0;
-            pstmt.setLong(++i, accountId);
-            pstmt.setLong(++i, accountId);
-            pstmt.setLong(++i, accountId);
-            DbUtils.setLimits(++i, pstmt, from, to);
-            return tradeTable.getManyBy(con, pstmt, false);
+            int i = 1;
+            pstmt.setLong(i++, accountId);
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, i);
+            }
+            pstmt.setLong(i++, accountId);
+            pstmt.setLong(i++, accountId);
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, i);
+            }
+            DbUtils.setLimits(i, pstmt, from, to);
+            return tradeTable.getManyBy(con, pstmt, false).trackCursor();
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
@@ -124,20 +145,32 @@ public final class Trade {
     }
 
     public static DbIterator<Trade> getAccountAssetTrades(long accountId, long assetId, int from, int to) {
+        return getAccountAssetTrades(accountId, assetId, null, from, to);
+    }
+
+    public static DbIterator<Trade> getAccountAssetTrades(long accountId, long assetId, DbCursor cursor, int from, int to) {
         Connection con = null;
         try {
             con = Db.db.getConnection();
-            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM trade WHERE seller_id = ? AND asset_id = ?"
-                    + " UNION ALL SELECT * FROM trade WHERE buyer_id = ? AND seller_id <> ? AND asset_id = ? ORDER BY height DESC, db_id DESC"
+            String keyset = cursor != null ? " AND" + DbCursor.getCondition(null) : "";
+            PreparedStatement pstmt = con.prepareStatement("SELECT * FROM trade WHERE seller_id = ? AND asset_id = ?" + keyset
+                    + " UNION ALL SELECT * FROM trade WHERE buyer_id = ? AND seller_id <> ? AND asset_id = ?" + keyset
+                    + " ORDER BY height DESC, db_id DESC"
                     + DbUtils.limitsClause(from, to));
-            int i = 0;
-            pstmt.setLong(++i, accountId);
-            pstmt.setLong(++i, assetId);
-            pstmt.setLong(++i, accountId);
-            pstmt.setLong(++i, accountId);
-            pstmt.setLong(++i, assetId);
-            DbUtils.setLimits(++i, pstmt, from, to);
-            return tradeTable.getManyBy(con, pstmt, false);
+            int i = 1;
+            pstmt.setLong(i++, accountId);
+            pstmt.setLong(i++, assetId);
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, i);
+            }
+            pstmt.setLong(i++, accountId);
+            pstmt.setLong(i++, accountId);
+            pstmt.setLong(i++, assetId);
+            if (cursor != null) {
+                i = cursor.setParameters(pstmt, i);
+            }
+            DbUtils.setLimits(i, pstmt, from, to);
+            return tradeTable.getManyBy(con, pstmt, false).trackCursor();
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
@@ -296,6 +296,12 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             ThreadPool.scheduleThread("RemoveUnconfirmedTransactions", removeUnconfirmedTransactionsThread, 20);
             ThreadPool.scheduleThread("ProcessWaitingTransactions", processWaitingTransactionsThread, 1);
         }
+        if (Metrics.enabled) {
+            Metrics.gauge("nxt_unconfirmed_transactions", "Unconfirmed transactions in the memory pool",
+                    unconfirmedTransactionTable::getCount);
+            Metrics.gauge("nxt_waiting_transactions", "Transactions waiting for their referenced transaction",
+                    waitingTransactions::size);
+        }
     }
 
     @Override
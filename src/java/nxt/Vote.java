@@ -83,6 +83,7 @@ public final class Vote {
     static Vote addVote(Transaction transaction, Attachment.MessagingVoteCasting attachment) {
         Vote vote = new Vote(transaction, attachment);
         voteTable.insert(vote);
+        Poll.tallyVote(vote);
         return vote;
     }
 
@@ -16,8 +16,13 @@
 
 package nxt;
 
+import java.util.Arrays;
+
 public final class VoteWeighting {
 
+    /** Maximum number of voters whose weights are calculated with a single balance query */
+    public static final int WEIGHT_BATCH_SIZE = 500;
+
     public enum VotingModel {
         NONE(-1) {
             @Override
@@ -39,6 +44,19 @@ public final class VoteWeighting {
                 return (voteWeighting.minBalance == 0 || voteWeighting.minBalanceModel.getBalance(voteWeighting, voterId, height) >= voteWeighting.minBalance) ? 1 : 0;
             }
             @Override
+            public final long[] calcWeights(VoteWeighting voteWeighting, long[] voterIds, int height) {
+                long[] weights = new long[voterIds.length];
+                if (voteWeighting.minBalance == 0) {
+                    Arrays.fill(weights, 1);
+                } else {
+                    long[] balances = voteWeighting.minBalanceModel.getBalances(voteWeighting, voterIds, height);
+                    for (int i = 0; i < balances.length; i++) {
+                        weights[i] = balances[i] >= voteWeighting.minBalance ? 1 : 0;
+                    }
+                }
+                return weights;
+            }
+            @Override
             public final MinBalanceModel getMinBalanceModel() {
                 return MinBalanceModel.NONE;
             }
@@ -50,6 +68,10 @@ public final class VoteWeighting {
                 return nqtBalance >= voteWeighting.minBalance ? nqtBalance : 0;
             }
             @Override
+            public final long[] calcWeights(VoteWeighting voteWeighting, long[] voterIds, int height) {
+                return balanceWeights(voteWeighting, getMinBalanceModel().getBalances(voteWeighting, voterIds, height));
+            }
+            @Override
             public final MinBalanceModel getMinBalanceModel() {
                 return MinBalanceModel.NQT;
             }
@@ -61,6 +83,10 @@ public final class VoteWeighting {
                 return qntBalance >= voteWeighting.minBalance ? qntBalance : 0;
             }
             @Override
+            public final long[] calcWeights(VoteWeighting voteWeighting, long[] voterIds, int height) {
+                return balanceWeights(voteWeighting, getMinBalanceModel().getBalances(voteWeighting, voterIds, height));
+            }
+            @Override
             public final MinBalanceModel getMinBalanceModel() {
                 return MinBalanceModel.ASSET;
             }
@@ -72,6 +98,10 @@ public final class VoteWeighting {
                 return units >= voteWeighting.minBalance ? units : 0;
             }
             @Override
+            public final long[] calcWeights(VoteWeighting voteWeighting, long[] voterIds, int height) {
+                return balanceWeights(voteWeighting, getMinBalanceModel().getBalances(voteWeighting, voterIds, height));
+            }
+            @Override
             public final MinBalanceModel getMinBalanceModel() {
                 return MinBalanceModel.CURRENCY;
             }
@@ -113,6 +143,23 @@ public final class VoteWeighting {
 
         public abstract long calcWeight(VoteWeighting voteWeighting, long voterId, int height);
 
+        /**
+         * Calculate the weights of a group of voters.  The balance-weighted models read
+         * all voter balances with a single query instead of one query per voter.
+         *
+         * @param   voteWeighting           Vote weighting
+         * @param   voterIds                Voter identifiers
+         * @param   height                  Weighting height
+         * @return                          Weights in the order of the voter identifiers
+         */
+        public long[] calcWeights(VoteWeighting voteWeighting, long[] voterIds, int height) {
+            long[] weights = new long[voterIds.length];
+            for (int i = 0; i < voterIds.length; i++) {
+                weights[i] = calcWeight(voteWeighting, voterIds[i], height);
+            }
+            return weights;
+        }
+
         public abstract MinBalanceModel getMinBalanceModel();
 
         public boolean acceptsVotes() {
@@ -135,24 +182,40 @@ public final class VoteWeighting {
             public final long getBalance(VoteWeighting voteWeighting, long voterId, int height) {
                 throw new UnsupportedOperationException();
             }
+            @Override
+            public final long[] getBalances(VoteWeighting voteWeighting, long[] voterIds, int height) {
+                throw new UnsupportedOperationException();
+            }
         },
         NQT(1) {
             @Override
             public final long getBalance(VoteWeighting voteWeighting, long voterId, int height) {
                 return Account.getAccount(voterId, height).getBalanceNQT();
             }
+            @Override
+            public final long[] getBalances(VoteWeighting voteWeighting, long[] voterIds, int height) {
+                return Account.getBalancesNQT(voterIds, height);
+            }
         },
         ASSET(2) {
             @Override
             public final long getBalance(VoteWeighting voteWeighting, long voterId, int height) {
                 return Account.getAssetBalanceQNT(voterId, voteWeighting.holdingId, height);
             }
+            @Override
+            public final long[] getBalances(VoteWeighting voteWeighting, long[] voterIds, int height) {
+                return Account.getAssetBalancesQNT(voterIds, voteWeighting.holdingId, height);
+            }
         },
         CURRENCY(3) {
             @Override
             public final long getBalance(VoteWeighting voteWeighting, long voterId, int height) {
                 return Account.getCurrencyUnits(voterId, voteWeighting.holdingId, height);
             }
+            @Override
+            public final long[] getBalances(VoteWeighting voteWeighting, long[] voterIds, int height) {
+                return Account.getCurrencyUnits(voterIds, voteWeighting.holdingId, height);
+            }
         };
 
         private final byte code;
@@ -167,6 +230,8 @@ public final class VoteWeighting {
 
         public abstract long getBalance(VoteWeighting voteWeighting, long voterId, int height);
 
+        public abstract long[] getBalances(VoteWeighting voteWeighting, long[] voterIds, int height);
+
         public static MinBalanceModel get(byte code) {
             for (MinBalanceModel minBalanceModel : values()) {
                 if (minBalanceModel.getCode() == code) {
@@ -253,6 +318,15 @@ public final class VoteWeighting {
         }
     }
 
+    private static long[] balanceWeights(VoteWeighting voteWeighting, long[] balances) {
+        for (int i = 0; i < balances.length; i++) {
+            if (balances[i] < voteWeighting.minBalance) {
+                balances[i] = 0;
+            }
+        }
+        return balances;
+    }
+
     public boolean isBalanceIndependent() {
         return (votingModel == VotingModel.ACCOUNT && minBalance == 0) || !votingModel.acceptsVotes() || votingModel == VotingModel.HASH;
     }
@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.db;
+
+import nxt.util.Convert;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Keyset pagination cursor
+ *
+ * A cursor records the (height, db_id) position of the last row returned for a
+ * history query ordered by height DESC, db_id DESC.  The next page is selected
+ * by a range condition on these columns instead of an OFFSET, so the cost of a
+ * page does not depend on how deep it is.  The cursor is passed to API clients
+ * as an opaque continuation token.
+ */
+public final class DbCursor {
+
+    /** Token length in bytes */
+    private static final int TOKEN_LENGTH = 4 + 8;
+
+    /** Height of the last returned row */
+    private final int height;
+
+    /** Database identifier of the last returned row */
+    private final long dbId;
+
+    /**
+     * Create a cursor
+     *
+     * @param   height              Height of the last returned row
+     * @param   dbId                Database identifier of the last returned row
+     */
+    public DbCursor(int height, long dbId) {
+        this.height = height;
+        this.dbId = dbId;
+    }
+
+    /**
+     * Parse a continuation token
+     *
+     * @param   token               Continuation token
+     * @return                      Cursor
+     * @throws  IllegalArgumentException  Token is not valid
+     */
+    public static DbCursor parse(String token) {
+        byte[] bytes;
+        try {
+            bytes = Convert.parseHexString(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+        if (bytes == null || bytes.length != TOKEN_LENGTH) {
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int height = buffer.getInt();
+        long dbId = buffer.getLong();
+        if (height < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+        return new DbCursor(height, dbId);
+    }
+
+    /**
+     * Return the height of the last returned row
+     *
+     * @return                      Height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Return the database identifier of the last returned row
+     *
+     * @return                      Database identifier
+     */
+    public long getDbId() {
+        return dbId;
+    }
+
+    /**
+     * Return the keyset condition selecting the rows after this cursor
+     *
+     * @param   table               Table name or alias used to qualify the columns, or null
+     * @return                      SQL condition with three parameters
+     */
+    public static String getCondition(String table) {
+        String prefix = table != null ? table + "." : "";
+        return " " + prefix + "height <= ? AND (" + prefix + "height < ? OR " + prefix + "db_id < ?) ";
+    }
+
+    /**
+     * Set the parameters of the keyset condition
+     *
+     * @param   pstmt               Prepared statement
+     * @param   index               Index of the first parameter
+     * @return                      Index of the next parameter
+     * @throws  SQLException        Unable to set the parameters
+     */
+    public int setParameters(PreparedStatement pstmt, int index) throws SQLException {
+        pstmt.setInt(index++, height);
+        pstmt.setInt(index++, height);
+        pstmt.setLong(index++, dbId);
+        return index;
+    }
+
+    /**
+     * Return the keyset condition as a database clause
+     *
+     * @return                      Database clause
+     */
+    public DbClause getClause() {
+        return new DbClause(getCondition(null)) {
+            @Override
+            protected int set(PreparedStatement pstmt, int index) throws SQLException {
+                return setParameters(pstmt, index);
+            }
+        };
+    }
+
+    /**
+     * Return the continuation token
+     *
+     * @return                      Continuation token
+     */
+    @Override
+    public String toString() {
+        return Convert.toHexString(ByteBuffer.allocate(TOKEN_LENGTH).putInt(height).putLong(dbId).array());
+    }
+}
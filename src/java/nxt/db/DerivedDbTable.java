@@ -64,6 +64,27 @@ public abstract class DerivedDbTable {
         //nothing to trim
     }
 
+    /**
+     * Prepare for incremental trimming.  This is called by the background trimmer
+     * without holding the blockchain lock.
+     */
+    public void prepareTrim() {
+        //nothing to prepare
+    }
+
+    /**
+     * Trim the table in bounded steps.  Tables which do not support incremental
+     * trimming are trimmed completely by the first call.
+     *
+     * @param   height                  Trim height
+     * @param   limit                   Maximum number of keys to trim
+     * @return                          TRUE if the table has been trimmed to the height
+     */
+    public boolean trim(int height, int limit) {
+        trim(height);
+        return true;
+    }
+
     public void createSearchIndex(Connection con) throws SQLException {
         //implemented in EntityDbTable only
     }
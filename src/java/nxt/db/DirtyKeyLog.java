@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.db;
+
+import nxt.Nxt;
+import nxt.util.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keys of a versioned table which have been changed since they were last trimmed
+ *
+ * A key is added with the current blockchain height whenever a new version of the
+ * entity is written.  The incremental trim visits each logged key, removes the versions
+ * which are no longer needed and drops the key from the log once it has no versions
+ * above the trim height.  The log is kept in memory, so it is seeded from the table
+ * before the first incremental trim after the server is started.
+ */
+final class DirtyKeyLog {
+
+    /** Trimmed rows */
+    private static final Metrics.Family<Metrics.Counter> rowsTrimmed =
+            Metrics.counterFamily("nxt_trim_rows_deleted_total", "Rows deleted by derived table trimming", "table");
+
+    /** Trimmed keys */
+    private static final Metrics.Family<Metrics.Counter> keysTrimmed =
+            Metrics.counterFamily("nxt_trim_keys_total", "Keys visited by derived table trimming", "table");
+
+    private final TransactionalDb db;
+    private final String table;
+    private final DbKey.Factory<?> dbKeyFactory;
+    private final Map<DbKey, Integer> keys = new ConcurrentHashMap<>();
+    private volatile boolean seeded;
+    private Iterator<Map.Entry<DbKey, Integer>> trimIterator;
+    private int trimHeight;
+
+    DirtyKeyLog(TransactionalDb db, String table, DbKey.Factory<?> dbKeyFactory) {
+        this.db = db;
+        this.table = table;
+        this.dbKeyFactory = dbKeyFactory;
+        Metrics.gauge("nxt_trim_dirty_keys", "Keys waiting to be trimmed", "table", table, keys::size);
+    }
+
+    /**
+     * Log a changed key
+     *
+     * @param   dbKey                   Database key
+     * @param   height                  Height of the new version
+     */
+    void add(DbKey dbKey, int height) {
+        keys.merge(dbKey, height, Math::max);
+    }
+
+    /**
+     * Remove the keys which have been trimmed by a full table trim
+     *
+     * @param   height                  Trim height
+     */
+    void trimmed(int height) {
+        if (seeded) {
+            keys.values().removeIf(keyHeight -> keyHeight < height);
+        }
+    }
+
+    /**
+     * Add every key having more than one version or no current version.  This does
+     * not change the table and can be called without holding the blockchain lock.
+     */
+    void seed() {
+        if (seeded) {
+            return;
+        }
+        int height = Nxt.getBlockchain().getHeight();
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT DISTINCT " + dbKeyFactory.getPKColumns()
+                     + " FROM " + table + " WHERE latest = FALSE")) {
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    add(dbKeyFactory.newKey(rs), height);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        seeded = true;
+    }
+
+    /**
+     * Trim logged keys.  Each call continues where the previous call for the same
+     * height stopped.
+     *
+     * @param   height                  Trim height
+     * @param   limit                   Maximum number of keys to trim
+     * @return                          TRUE if all logged keys have been trimmed to the height
+     */
+    boolean trim(int height, int limit) {
+        if (!db.isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        if (trimIterator == null || trimHeight != height) {
+            trimIterator = new ArrayList<>(keys.entrySet()).iterator();
+            trimHeight = height;
+        }
+        List<Map.Entry<DbKey, Integer>> trimmedKeys = new ArrayList<>(limit);
+        int deleted = 0;
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtSelect = con.prepareStatement("SELECT height, latest FROM " + table
+                     + dbKeyFactory.getPKClause() + " AND height < ? ORDER BY height DESC LIMIT 1");
+             PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table
+                     + dbKeyFactory.getPKClause() + " AND height < ? AND height >= 0")) {
+            while (trimmedKeys.size() < limit && trimIterator.hasNext()) {
+                Map.Entry<DbKey, Integer> entry = trimIterator.next();
+                DbKey dbKey = entry.getKey();
+                int keyHeight = entry.getValue();
+                int i = dbKey.setPK(pstmtSelect);
+                pstmtSelect.setInt(i, height);
+                try (ResultSet rs = pstmtSelect.executeQuery()) {
+                    if (rs.next()) {
+                        int maxHeight = rs.getInt("height");
+                        boolean deletedEntity = !rs.getBoolean("latest") && keyHeight < height;
+                        i = dbKey.setPK(pstmtDelete);
+                        pstmtDelete.setInt(i, deletedEntity ? height : maxHeight);
+                        deleted += pstmtDelete.executeUpdate();
+                    }
+                }
+                trimmedKeys.add(entry);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        for (Map.Entry<DbKey, Integer> entry : trimmedKeys) {
+            if (entry.getValue() < height) {
+                keys.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        rowsTrimmed.labels(table).add(deleted);
+        keysTrimmed.labels(table).add(trimmedKeys.size());
+        if (!trimIterator.hasNext()) {
+            trimIterator = null;
+            return true;
+        }
+        return false;
+    }
+}
@@ -24,6 +24,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 
 public abstract class EntityDbTable<T> extends DerivedDbTable {
 
@@ -31,6 +33,8 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     protected final DbKey.Factory<T> dbKeyFactory;
     private final String defaultSort;
     private final String fullTextSearchColumns;
+    final DirtyKeyLog dirtyKeys;
+    final UndoJournal undoJournal;
 
     protected EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
         this(table, dbKeyFactory, false, null);
@@ -46,6 +50,8 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         this.multiversion = multiversion;
         this.defaultSort = " ORDER BY " + (multiversion ? dbKeyFactory.getPKColumns() : " height DESC, db_id DESC ");
         this.fullTextSearchColumns = fullTextSearchColumns;
+        this.dirtyKeys = multiversion ? new DirtyKeyLog(db, table, dbKeyFactory) : null;
+        this.undoJournal = multiversion ? new UndoJournal() : null;
     }
 
     protected abstract T load(Connection con, ResultSet rs, DbKey dbKey) throws SQLException;
@@ -244,6 +250,57 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         }
     }
 
+    /**
+     * Return a numeric column of a group of entities at a given height using a single query.
+     * The identifiers are passed as a table parameter, which lets H2 look up each identifier
+     * in the key index instead of evaluating a long IN list for every row.
+     *
+     * @param   dbClause                Selection clause for the remaining key columns
+     * @param   idColumn                Identifier column
+     * @param   ids                     Identifiers
+     * @param   valueColumn             Value column
+     * @param   height                  Height or -1 for the current values
+     * @return                          Values by identifier, identifiers without an entity are not included
+     */
+    public final Map<Long, Long> getLongValues(DbClause dbClause, String idColumn, long[] ids, String valueColumn, int height) {
+        boolean current = height < 0 || doesNotExceed(height);
+        if (!current) {
+            checkAvailable(height);
+        }
+        Map<Long, Long> values = new HashMap<>();
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT a." + idColumn + ", a." + valueColumn
+                     + " FROM TABLE(x BIGINT = ?) AS t INNER JOIN " + table + " AS a ON a." + idColumn + " = t.x WHERE "
+                     + dbClause.getClause() + (current ? (multiversion ? " AND a.latest = TRUE" : "")
+                     : " AND a.height <= ?" + (multiversion ? " AND (a.latest = TRUE OR (a.latest = FALSE "
+                     + "AND EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause() + " AND b.height > ?) "
+                     + "AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
+                     + " AND b.height <= ? AND b.height > a.height)))" : "")))) {
+            Long[] idArray = new Long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                idArray[i] = ids[i];
+            }
+            int i = 0;
+            pstmt.setObject(++i, idArray);
+            i = dbClause.set(pstmt, ++i);
+            if (!current) {
+                pstmt.setInt(i, height);
+                if (multiversion) {
+                    pstmt.setInt(++i, height);
+                    pstmt.setInt(++i, height);
+                }
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    values.put(rs.getLong(1), rs.getLong(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        return values;
+    }
+
     public final DbIterator<T> getManyBy(Connection con, PreparedStatement pstmt, boolean cache) {
         final boolean doCache = cache && db.isInTransaction();
         return new DbIterator<>(con, pstmt, (connection, rs) -> {
@@ -422,11 +479,13 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         }
         try (Connection con = db.getConnection()) {
             if (multiversion) {
+                VersionedEntityDbTable.journal(con, table, dbKey, dbKeyFactory, undoJournal);
                 try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
                         + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
                     dbKey.setPK(pstmt);
                     pstmt.executeUpdate();
                 }
+                dirtyKeys.add(dbKey, Nxt.getBlockchain().getHeight());
             }
             save(con, t);
         } catch (SQLException e) {
@@ -437,7 +496,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     @Override
     public void rollback(int height) {
         if (multiversion) {
-            VersionedEntityDbTable.rollback(db, table, height, dbKeyFactory);
+            VersionedEntityDbTable.rollback(db, table, height, dbKeyFactory, undoJournal);
         } else {
             super.rollback(height);
         }
@@ -447,11 +506,27 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     public void trim(int height) {
         if (multiversion) {
             VersionedEntityDbTable.trim(db, table, height, dbKeyFactory);
+            dirtyKeys.trimmed(height);
         } else {
             super.trim(height);
         }
     }
 
+    @Override
+    public void prepareTrim() {
+        if (multiversion) {
+            dirtyKeys.seed();
+        }
+    }
+
+    @Override
+    public boolean trim(int height, int limit) {
+        if (multiversion) {
+            return dirtyKeys.trim(height, limit);
+        }
+        return super.trim(height, limit);
+    }
+
     @Override
     public final void createSearchIndex(Connection con) throws SQLException {
         if (fullTextSearchColumns != null) {
@@ -54,6 +54,27 @@ public class FilteredPreparedStatement extends FilteredStatement implements Prep
         return sql;
     }
 
+    /**
+     * Return the query plan chosen by the database for this statement.  The plan does not
+     * depend on the parameter values, so the parameters do not need to be set.
+     *
+     * @return                      Query plan
+     * @throws  SQLException        Database error occurred
+     */
+    public String explain() throws SQLException {
+        StringBuilder sb = new StringBuilder(512);
+        try (PreparedStatement pstmt = stmt.getConnection().prepareStatement("EXPLAIN " + sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(rs.getString(1));
+            }
+        }
+        return sb.toString();
+    }
+
     @Override
     public ResultSet executeQuery() throws SQLException {
         return stmt.executeQuery();
@@ -17,7 +17,9 @@
 package nxt.db;
 
 import nxt.Db;
+import nxt.Nxt;
 import nxt.util.Logger;
+import nxt.util.Metrics;
 import nxt.util.ReadWriteUpdateLock;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -55,7 +57,10 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 /**
@@ -94,6 +99,13 @@ import java.util.stream.Stream;
  *
  * The table index trigger is defined as follows:
  *   CREATE TRIGGER trigger_name AFTER INSERT,UPDATE,DELETE ON table_name FOR EACH ROW CALL "nxt.db.FullTextTrigger"
+ *
+ * Committed row changes are queued for a dedicated indexing thread, so a database
+ * commit does not wait for Lucene.  The indexing thread refreshes the near-real-time
+ * index reader after nxt.fullTextIndexBatchSize documents or when the oldest change is
+ * nxt.fullTextRefreshInterval milliseconds old, whichever comes first.  The index is
+ * committed to disk every nxt.fullTextCommitInterval seconds and when the database is
+ * closed.  Changes which are not yet searchable are reported by getIndexLag().
  */
 public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCallback {
 
@@ -127,6 +139,36 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
     /** Lucene analyzer (thread-safe) */
     private static final Analyzer analyzer = new StandardAnalyzer();
 
+    /** Committed table updates waiting to be indexed */
+    private static final BlockingQueue<TableUpdate> indexQueue = new LinkedBlockingQueue<>();
+
+    /** Maximum number of documents indexed before the index reader is refreshed */
+    private static final int indexBatchSize = Math.max(Nxt.getIntProperty("nxt.fullTextIndexBatchSize", 1000), 1);
+
+    /** Index reader refresh interval (milliseconds) */
+    private static final int refreshInterval = Math.max(Nxt.getIntProperty("nxt.fullTextRefreshInterval", 1000), 10);
+
+    /** Index commit interval (milliseconds) */
+    private static final long commitInterval = Math.max(Nxt.getIntProperty("nxt.fullTextCommitInterval", 30), 1) * 1000L;
+
+    /** Indexing thread */
+    private static Thread indexThread;
+
+    /** Queue entry telling the indexing thread to stop */
+    private static final TableUpdate stopUpdate = new TableUpdate(null, null, null, null);
+
+    /** Queue time of the oldest indexed update which is not searchable yet */
+    private static volatile long unrefreshedTime;
+
+    /** Number of indexed updates which are not searchable yet */
+    private static volatile int unrefreshedCount;
+
+    static {
+        Metrics.gauge("nxt_fulltext_index_lag_milliseconds", "Age of the oldest change not yet searchable",
+                FullTextTrigger::getIndexLag);
+        Metrics.gauge("nxt_fulltext_index_backlog", "Changes not yet searchable", FullTextTrigger::getIndexBacklog);
+    }
+
     /** Index trigger is enabled */
     private volatile boolean isEnabled = false;
 
@@ -163,10 +205,36 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         if (!active) {
             indexTriggers.values().forEach((trigger) -> trigger.isEnabled = false);
             indexTriggers.clear();
+            stopIndexThread();
             removeIndexAccess();
         }
     }
 
+    /**
+     * Return the index lag
+     *
+     * @return                      Milliseconds since the oldest committed change which is not yet searchable
+     */
+    public static long getIndexLag() {
+        long oldest = unrefreshedTime;
+        if (oldest == 0) {
+            TableUpdate update = indexQueue.peek();
+            if (update != null) {
+                oldest = update.getTime();
+            }
+        }
+        return oldest == 0 ? 0 : Math.max(System.currentTimeMillis() - oldest, 0);
+    }
+
+    /**
+     * Return the number of committed changes which are not yet searchable
+     *
+     * @return                      Number of changes
+     */
+    public static int getIndexBacklog() {
+        return indexQueue.size() + unrefreshedCount;
+    }
+
     /**
      * Initialize the fulltext support for a new database
      *
@@ -596,15 +664,10 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
             return;
         }
         //
-        // Commit the change immediately if we are not in a transaction
+        // Queue the change immediately if we are not in a transaction
         //
         if (!Db.db.isInTransaction()) {
-            try {
-                commitRow(oldRow, newRow);
-                commitIndex();
-            } catch (SQLException exc) {
-                Logger.logErrorMessage("Unable to update the Lucene index", exc);
-            }
+            queueUpdate(new TableUpdate(this, Thread.currentThread(), oldRow, newRow));
             return;
         }
         //
@@ -612,7 +675,7 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         // that the current thread is the application thread performing the update operation.
         //
         synchronized(tableUpdates) {
-            tableUpdates.add(new TableUpdate(Thread.currentThread(), oldRow, newRow));
+            tableUpdates.add(new TableUpdate(this, Thread.currentThread(), oldRow, newRow));
         }
         //
         // Register our transaction callback
@@ -626,32 +689,20 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
     @Override
     public void commit() {
         Thread thread = Thread.currentThread();
-        try {
-            //
-            // Update the Lucene index.  Note that a database transaction is associated
-            // with a single thread.  So we will commit just those updates generated
-            // by the current thread.
-            //
-            boolean commit = false;
-            synchronized(tableUpdates) {
-                Iterator<TableUpdate> updateIt = tableUpdates.iterator();
-                while (updateIt.hasNext()) {
-                    TableUpdate update = updateIt.next();
-                    if (update.getThread() == thread) {
-                        commitRow(update.getOldRow(), update.getNewRow());
-                        updateIt.remove();
-                        commit = true;
-                    }
+        //
+        // Queue the updates for the indexing thread.  Note that a database transaction
+        // is associated with a single thread.  So we will queue just those updates
+        // generated by the current thread.
+        //
+        synchronized(tableUpdates) {
+            Iterator<TableUpdate> updateIt = tableUpdates.iterator();
+            while (updateIt.hasNext()) {
+                TableUpdate update = updateIt.next();
+                if (update.getThread() == thread) {
+                    queueUpdate(update);
+                    updateIt.remove();
                 }
             }
-            //
-            // Commit the index updates
-            //
-            if (commit) {
-                commitIndex();
-            }
-        } catch (SQLException exc) {
-            Logger.logErrorMessage("Unable to update the Lucene index", exc);
         }
     }
 
@@ -672,6 +723,127 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         }
     }
 
+    /**
+     * Queue a committed table update for the indexing thread
+     *
+     * @param   update              Table update
+     */
+    private static void queueUpdate(TableUpdate update) {
+        update.setTime(System.currentTimeMillis());
+        indexQueue.add(update);
+        synchronized(indexQueue) {
+            if (indexThread == null && isActive) {
+                indexThread = new Thread(FullTextTrigger::runIndexThread, "FullTextIndexer");
+                indexThread.setDaemon(true);
+                indexThread.start();
+            }
+        }
+    }
+
+    /**
+     * Apply queued table updates to the Lucene index
+     *
+     * The index reader is refreshed when the batch size or the refresh interval has
+     * been reached.  Refreshing flushes a new index segment, so it is not done for each
+     * update when updates trickle in.  The index is committed to disk at the commit interval.
+     */
+    private static void runIndexThread() {
+        long lastCommitTime = System.currentTimeMillis();
+        boolean uncommitted = false;
+        while (true) {
+            try {
+                long timeout = (unrefreshedCount > 0 ?
+                        Math.max(unrefreshedTime + refreshInterval - System.currentTimeMillis(), 0) : refreshInterval);
+                TableUpdate update = indexQueue.poll(timeout, TimeUnit.MILLISECONDS);
+                if (update == stopUpdate) {
+                    break;
+                }
+                if (update != null) {
+                    if (unrefreshedCount == 0) {
+                        unrefreshedTime = update.getTime();
+                    }
+                    applyUpdate(update);
+                    unrefreshedCount++;
+                }
+                long now = System.currentTimeMillis();
+                if (unrefreshedCount > 0 && (unrefreshedCount >= indexBatchSize
+                        || now - unrefreshedTime >= refreshInterval)) {
+                    refreshIndex();
+                    unrefreshedCount = 0;
+                    unrefreshedTime = 0;
+                    uncommitted = true;
+                }
+                if (uncommitted && now - lastCommitTime >= commitInterval) {
+                    commitIndex();
+                    lastCommitTime = now;
+                    uncommitted = false;
+                }
+            } catch (InterruptedException exc) {
+                Logger.logDebugMessage("Lucene indexing thread interrupted, use stopIndexThread() to stop it");
+            } catch (SQLException exc) {
+                Logger.logErrorMessage("Unable to update the Lucene index", exc);
+            } catch (RuntimeException exc) {
+                Logger.logErrorMessage("Error in the Lucene indexing thread", exc);
+            }
+        }
+    }
+
+    /**
+     * Stop the indexing thread and apply the remaining updates
+     *
+     * The thread is stopped by queueing a stop entry behind the pending updates and is
+     * never interrupted, since an interrupt during Lucene file I/O closes the index files
+     * used by the index writer.
+     */
+    private static void stopIndexThread() {
+        Thread thread;
+        synchronized(indexQueue) {
+            thread = indexThread;
+            indexThread = null;
+        }
+        if (thread != null) {
+            indexQueue.add(stopUpdate);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException exc) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        TableUpdate update;
+        while ((update = indexQueue.poll()) != null) {
+            if (update != stopUpdate) {
+                applyUpdate(update);
+            }
+        }
+        unrefreshedCount = 0;
+        unrefreshedTime = 0;
+    }
+
+    /**
+     * Apply a table update to the Lucene index
+     *
+     * @param   update              Table update
+     */
+    private static void applyUpdate(TableUpdate update) {
+        indexLock.readLock().lock();
+        try {
+            if (indexWriter != null) {
+                update.getTrigger().commitRow(update.getOldRow(), update.getNewRow());
+            }
+        } catch (SQLException exc) {
+            Logger.logErrorMessage("Unable to update the Lucene index for " + update.getTrigger().tableName, exc);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
     /**
      * Update the Lucene index for a committed row
      *
@@ -789,16 +961,39 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
     private static void commitIndex() throws SQLException {
         indexLock.writeLock().lock();
         try {
+            if (indexWriter == null) {
+                return;
+            }
             indexWriter.commit();
-            DirectoryReader newReader = DirectoryReader.openIfChanged(indexReader);
+            refreshIndex();
+        } catch (IOException exc) {
+            Logger.logErrorMessage("Unable to commit Lucene index updates", exc);
+            throw new SQLException("Unable to commit Lucene index updates", exc);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Make the index updates visible to searches without committing them to disk
+     *
+     * @throws  SQLException        Unable to refresh the index reader
+     */
+    private static void refreshIndex() throws SQLException {
+        indexLock.writeLock().lock();
+        try {
+            if (indexWriter == null) {
+                return;
+            }
+            DirectoryReader newReader = DirectoryReader.openIfChanged(indexReader, indexWriter, true);
             if (newReader != null) {
                 indexReader.close();
                 indexReader = newReader;
                 indexSearcher = new IndexSearcher(indexReader);
             }
         } catch (IOException exc) {
-            Logger.logErrorMessage("Unable to commit Lucene index updates", exc);
-            throw new SQLException("Unable to commit Lucene index updates", exc);
+            Logger.logErrorMessage("Unable to refresh the Lucene index reader", exc);
+            throw new SQLException("Unable to refresh the Lucene index reader", exc);
         } finally {
             indexLock.writeLock().unlock();
         }
@@ -864,7 +1059,7 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
                         document.add(new StringField("_QUERY", "_CONTROL_DOCUMENT_", Field.Store.YES));
                         indexWriter.updateDocument(new Term("_QUERY", "_CONTROL_DOCUMENT_"), document);
                         indexWriter.commit();
-                        indexReader = DirectoryReader.open(directory);
+                        indexReader = DirectoryReader.open(indexWriter, true);
                         indexSearcher = new IndexSearcher(indexReader);
                     }
                 } finally {
@@ -946,6 +1141,9 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
      */
     private static class TableUpdate {
 
+        /** Index trigger */
+        private final FullTextTrigger trigger;
+
         /** Transaction thread */
         private final Thread thread;
 
@@ -955,19 +1153,51 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         /** New table row */
         private final Object[] newRow;
 
+        /** Time the update was queued for indexing */
+        private volatile long time;
+
         /**
          * Create the table update
          *
+         * @param   trigger         Index trigger
          * @param   thread          Transaction thread
          * @param   oldRow          Old table row or null
          * @param   newRow          New table row or null
          */
-        public TableUpdate(Thread thread, Object[] oldRow, Object[] newRow) {
+        public TableUpdate(FullTextTrigger trigger, Thread thread, Object[] oldRow, Object[] newRow) {
+            this.trigger = trigger;
             this.thread = thread;
             this.oldRow = oldRow;
             this.newRow = newRow;
         }
 
+        /**
+         * Return the index trigger
+         *
+         * @return                  Index trigger
+         */
+        public FullTextTrigger getTrigger() {
+            return trigger;
+        }
+
+        /**
+         * Return the time the update was queued
+         *
+         * @return                  Queue time
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Set the time the update was queued
+         *
+         * @param   time            Queue time
+         */
+        public void setTime(long time) {
+            this.time = time;
+        }
+
         /**
          * Return the transaction thread
          *
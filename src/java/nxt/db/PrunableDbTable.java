@@ -16,13 +16,13 @@
 
 package nxt.db;
 
-import nxt.Constants;
-import nxt.Nxt;
-import nxt.util.Logger;
-
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 public abstract class PrunableDbTable<T> extends PersistentDbTable<T> {
 
@@ -38,24 +38,116 @@ public abstract class PrunableDbTable<T> extends PersistentDbTable<T> {
         super(table, dbKeyFactory, multiversion, fullTextSearchColumns);
     }
 
-    @Override
-    public final void trim(int height) {
-        prune();
-        super.trim(height);
+    /**
+     * Return the columns holding the prunable data.  Their size is reported as the
+     * space reclaimed when the expired rows are deleted.
+     *
+     * @return                          Prunable column names
+     */
+    protected String[] getPrunableColumns() {
+        return new String[0];
     }
 
-    protected void prune() {
-        if (Constants.ENABLE_PRUNING) {
-            try (Connection con = db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("DELETE FROM " + table + " WHERE transaction_timestamp < ?")) {
-                pstmt.setInt(1, Nxt.getEpochTime() - Constants.MAX_PRUNABLE_LIFETIME);
-                int deleted = pstmt.executeUpdate();
-                if (deleted > 0) {
-                    Logger.logDebugMessage("Deleted " + deleted + " expired prunable data from " + table);
+    /**
+     * Delete a chunk of expired prunable data.  The expired rows are selected in index
+     * order with a LIMIT clause and are then deleted by primary key, so a chunk never
+     * touches more than the requested number of rows.
+     *
+     * @param   expiration              Rows with a transaction timestamp before this time are deleted
+     * @param   limit                   Maximum number of rows to delete
+     * @return                          Pruning result
+     */
+    public PruneResult prune(int expiration, int limit) {
+        if (!db.isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        String[] columns = getPrunableColumns();
+        List<Long> dbIds = new ArrayList<>();
+        long bytes = 0;
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtSelect = con.prepareStatement("SELECT * FROM " + table
+                     + " WHERE transaction_timestamp < ? LIMIT ?");
+             PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table + " WHERE db_id = ?")) {
+            pstmtSelect.setInt(1, expiration);
+            pstmtSelect.setInt(2, limit);
+            try (ResultSet rs = pstmtSelect.executeQuery()) {
+                while (rs.next()) {
+                    dbIds.add(rs.getLong("db_id"));
+                    for (String column : columns) {
+                        bytes += getSize(rs.getObject(column));
+                    }
+                    pruneRow(rs);
                 }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
             }
+            if (dbIds.isEmpty()) {
+                return new PruneResult(0, 0);
+            }
+            pruneRows(con);
+            for (Long dbId : dbIds) {
+                pstmtDelete.setLong(1, dbId);
+                pstmtDelete.addBatch();
+            }
+            pstmtDelete.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        return new PruneResult(dbIds.size(), bytes);
+    }
+
+    /**
+     * Process an expired row before it is deleted
+     *
+     * @param   rs                      Result set positioned on the expired row
+     * @throws  SQLException            SQL error occurred
+     */
+    protected void pruneRow(ResultSet rs) throws SQLException {
+    }
+
+    /**
+     * Complete the processing of the expired rows of the current chunk before they are deleted
+     *
+     * @param   con                     Database connection
+     * @throws  SQLException            SQL error occurred
+     */
+    protected void pruneRows(Connection con) throws SQLException {
+    }
+
+    private static long getSize(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[])value).length;
+        }
+        if (value instanceof String) {
+            return ((String)value).getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (value instanceof Object[]) {
+            long size = 0;
+            for (Object element : (Object[])value) {
+                size += getSize(element);
+            }
+            return size;
+        }
+        return 0;
+    }
+
+    /**
+     * Result of pruning a chunk of expired data
+     */
+    public static final class PruneResult {
+
+        private final int rows;
+        private final long bytes;
+
+        PruneResult(int rows, long bytes) {
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
         }
     }
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.db;
+
+import nxt.Nxt;
+import nxt.util.Logger;
+import nxt.util.Metrics;
+
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Query plan audit
+ *
+ * If nxt.dbQueryAudit is set, the query plan of each distinct prepared statement is
+ * obtained the first time the statement is executed and each execution of a statement
+ * whose plan contains a full table scan is counted against the scanned table.  The scan
+ * counts and the statements responsible for them are logged with the database transaction
+ * statistics, and statements exceeding nxt.statementLogThreshold are logged together
+ * with their query plan.
+ */
+final class QueryAudit {
+
+    /** Query plan audit enabled */
+    static final boolean enabled = Nxt.getBooleanProperty("nxt.dbQueryAudit");
+
+    /** Maximum number of distinct statements tracked */
+    private static final int MAX_STATEMENTS = 4096;
+
+    /** Number of statements listed for each scanned table */
+    private static final int MAX_LISTED_STATEMENTS = 3;
+
+    private static final Pattern tableScanPattern = Pattern.compile("/\\* PUBLIC\\.(\\w+)\\.tableScan \\*/");
+    private static final String[] NO_TABLES = new String[0];
+
+    private static final Metrics.Family<Metrics.Counter> tableScans =
+            Metrics.counterFamily("nxt_db_table_scans_total", "Statement executions using a full table scan", "table");
+
+    /** Tables scanned by each statement */
+    private static final ConcurrentMap<String, String[]> scannedTables = new ConcurrentHashMap<>();
+
+    /** Executions of each statement using a full table scan since the last report */
+    private static final ConcurrentMap<String, LongAdder> scanCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Record the execution of a prepared statement
+     *
+     * @param   stmt                Prepared statement
+     */
+    static void executed(FilteredPreparedStatement stmt) {
+        String sql = stmt.getSQL();
+        String[] tables = scannedTables.get(sql);
+        if (tables == null) {
+            tables = getScannedTables(stmt);
+            if (scannedTables.size() < MAX_STATEMENTS) {
+                scannedTables.put(sql, tables);
+            }
+        }
+        if (tables.length > 0) {
+            scanCounts.computeIfAbsent(sql, k -> new LongAdder()).increment();
+            for (String table : tables) {
+                tableScans.labels(table).increment();
+            }
+        }
+    }
+
+    /**
+     * Return the query plan of a prepared statement for the slow statement log
+     *
+     * @param   stmt                Prepared statement
+     * @return                      Query plan or an error description
+     */
+    static String explain(FilteredPreparedStatement stmt) {
+        try {
+            return stmt.explain();
+        } catch (SQLException e) {
+            return "Query plan not available: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Log the table scans since the last report and reset the counts
+     */
+    static void logSummary() {
+        Map<String, Long> tableTotals = new HashMap<>();
+        Map<String, List<Map.Entry<String, Long>>> tableStatements = new HashMap<>();
+        for (String sql : new ArrayList<>(scanCounts.keySet())) {
+            LongAdder adder = scanCounts.remove(sql);
+            String[] tables = scannedTables.get(sql);
+            if (adder == null || tables == null) {
+                continue;
+            }
+            long count = adder.sum();
+            for (String table : tables) {
+                tableTotals.merge(table, count, Long::sum);
+                tableStatements.computeIfAbsent(table, k -> new ArrayList<>()).add(new AbstractMap.SimpleEntry<>(sql, count));
+            }
+        }
+        if (tableTotals.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("Full table scans since the last report:");
+        tableTotals.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> {
+                    sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+                    tableStatements.get(entry.getKey()).stream()
+                            .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                            .limit(MAX_LISTED_STATEMENTS)
+                            .forEach(stmt -> sb.append("\n    ").append(stmt.getValue()).append(" x ").append(stmt.getKey()));
+                });
+        Logger.logDebugMessage(sb.toString());
+    }
+
+    private static String[] getScannedTables(FilteredPreparedStatement stmt) {
+        String plan;
+        try {
+            plan = stmt.explain();
+        } catch (SQLException e) {
+            Logger.logDebugMessage("Unable to obtain query plan for " + stmt.getSQL() + ": " + e.getMessage());
+            return NO_TABLES;
+        }
+        Set<String> tables = new LinkedHashSet<>();
+        Matcher matcher = tableScanPattern.matcher(plan);
+        while (matcher.find()) {
+            tables.add(matcher.group(1).toLowerCase());
+        }
+        return tables.isEmpty() ? NO_TABLES : tables.toArray(new String[tables.size()]);
+    }
+
+    private QueryAudit() {} // never
+}
@@ -18,6 +18,7 @@ package nxt.db;
 
 import nxt.Nxt;
 import nxt.util.Logger;
+import nxt.util.Metrics;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -28,6 +29,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class TransactionalDb extends BasicDb {
 
@@ -41,6 +46,12 @@ public class TransactionalDb extends BasicDb {
         txThreshold = (temp=Nxt.getIntProperty("nxt.transactionLogThreshold")) != 0 ? temp : 5000;
         txInterval = (temp=Nxt.getIntProperty("nxt.transactionLogInterval")) != 0 ? temp*60*1000 : 15*60*1000;
     }
+    private static final Metrics.Family<Metrics.Histogram> statementTimes =
+            Metrics.histogramFamily("nxt_db_statement_seconds", "Prepared statement execution time", "table");
+    private static final Metrics.Histogram transactionTime =
+            Metrics.histogram("nxt_db_transaction_seconds", "Database transaction time");
+    private static final Pattern tableNamePattern = Pattern.compile("\\b(?:FROM|INTO|UPDATE)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final ConcurrentMap<String, String> tableNames = new ConcurrentHashMap<>();
 
     private final ThreadLocal<DbConnection> localConnection = new ThreadLocal<>();
     private final ThreadLocal<Map<String,Map<DbKey,Object>>> transactionCaches = new ThreadLocal<>();
@@ -128,6 +139,9 @@ public class TransactionalDb extends BasicDb {
         transactionCaches.set(null);
         long now = System.currentTimeMillis();
         long elapsed = now - ((DbConnection)con).txStart;
+        if (Metrics.enabled) {
+            transactionTime.observeNanos(elapsed * 1000000L);
+        }
         if (elapsed >= txThreshold) {
             logThreshold(String.format("Database transaction required %.3f seconds at height %d",
                                        (double)elapsed/1000.0, Nxt.getBlockchain().getHeight()));
@@ -144,9 +158,12 @@ public class TransactionalDb extends BasicDb {
                     statsTime = now;
                 }
             }
-            if (logStats)
+            if (logStats) {
                 Logger.logDebugMessage(String.format("Average database transaction time is %.3f seconds",
                                                      (double)times/1000.0/(double)count));
+                if (QueryAudit.enabled)
+                    QueryAudit.logSummary();
+            }
         }
         DbUtils.close(con);
     }
@@ -183,6 +200,24 @@ public class TransactionalDb extends BasicDb {
         transactionCaches.get().values().forEach(Map::clear);
     }
 
+    /**
+     * Return the name of the table accessed by a SQL statement
+     *
+     * @param   sql                 SQL statement
+     * @return                      Table name or "other"
+     */
+    private static String getTableName(String sql) {
+        String tableName = tableNames.get(sql);
+        if (tableName == null) {
+            Matcher matcher = tableNamePattern.matcher(sql);
+            tableName = matcher.find() ? matcher.group(1).toLowerCase() : "other";
+            if (tableNames.size() < 4096) {
+                tableNames.put(sql, tableName);
+            }
+        }
+        return tableName;
+    }
+
     private static void logThreshold(String msg) {
         StringBuilder sb = new StringBuilder(512);
         sb.append(msg).append('\n');
@@ -295,40 +330,62 @@ public class TransactionalDb extends BasicDb {
     }
 
     private static final class DbPreparedStatement extends FilteredPreparedStatement {
+
+        private final Metrics.Histogram statementTime;
+
         private DbPreparedStatement(PreparedStatement stmt, String sql) {
             super(stmt, sql);
+            statementTime = Metrics.enabled ? statementTimes.labels(getTableName(sql)) : null;
         }
 
         @Override
         public boolean execute() throws SQLException {
             long start = System.currentTimeMillis();
+            long nanoStart = Metrics.startTimer();
             boolean b = super.execute();
             long elapsed = System.currentTimeMillis() - start;
+            if (statementTime != null)
+                statementTime.observeSince(nanoStart);
+            if (QueryAudit.enabled)
+                QueryAudit.executed(this);
             if (elapsed > stmtThreshold)
                 logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
-                                           (double)elapsed/1000.0, Nxt.getBlockchain().getHeight(), getSQL()));
+                                           (double)elapsed/1000.0, Nxt.getBlockchain().getHeight(),
+                                           QueryAudit.enabled ? getSQL() + "\nQuery plan:\n" + QueryAudit.explain(this) : getSQL()));
             return b;
         }
 
         @Override
         public ResultSet executeQuery() throws SQLException {
             long start = System.currentTimeMillis();
+            long nanoStart = Metrics.startTimer();
             ResultSet r = super.executeQuery();
             long elapsed = System.currentTimeMillis() - start;
+            if (statementTime != null)
+                statementTime.observeSince(nanoStart);
+            if (QueryAudit.enabled)
+                QueryAudit.executed(this);
             if (elapsed > stmtThreshold)
                 logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
-                                           (double)elapsed/1000.0, Nxt.getBlockchain().getHeight(), getSQL()));
+                                           (double)elapsed/1000.0, Nxt.getBlockchain().getHeight(),
+                                           QueryAudit.enabled ? getSQL() + "\nQuery plan:\n" + QueryAudit.explain(this) : getSQL()));
             return r;
         }
 
         @Override
         public int executeUpdate() throws SQLException {
             long start = System.currentTimeMillis();
+            long nanoStart = Metrics.startTimer();
             int c = super.executeUpdate();
             long elapsed = System.currentTimeMillis() - start;
+            if (statementTime != null)
+                statementTime.observeSince(nanoStart);
+            if (QueryAudit.enabled)
+                QueryAudit.executed(this);
             if (elapsed > stmtThreshold)
                 logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
-                                           (double)elapsed/1000.0, Nxt.getBlockchain().getHeight(), getSQL()));
+                                           (double)elapsed/1000.0, Nxt.getBlockchain().getHeight(),
+                                           QueryAudit.enabled ? getSQL() + "\nQuery plan:\n" + QueryAudit.explain(this) : getSQL()));
             return c;
         }
     }
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.db;
+
+import nxt.util.Metrics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Undo journal for a versioned table
+ *
+ * The journal records, for each height, the keys written at that height together with
+ * the height of the version which was current before the first write at that height.
+ * A rollback then deletes the newer rows and marks the recorded versions as current
+ * again, without searching the table for the affected keys.
+ *
+ * The journals are kept in memory.  They cover the heights above the journal start
+ * height, which is set when the server is started or the blockchain is rescanned,
+ * and are trimmed together with the derived tables.  A rollback to a height which is
+ * not covered uses the table scan instead.
+ */
+public final class UndoJournal {
+
+    /** Journal rollbacks */
+    private static final Metrics.Counter journalRollbacks = Metrics.counter("nxt_rollback_journal_total",
+            "Table rollbacks replayed from the undo journal");
+
+    /** Scan rollbacks */
+    private static final Metrics.Counter scanRollbacks = Metrics.counter("nxt_rollback_scan_total",
+            "Table rollbacks not covered by the undo journal");
+
+    /** All journals */
+    private static final List<UndoJournal> journals = new CopyOnWriteArrayList<>();
+
+    /** Journals cover the heights above this height */
+    private static volatile int startHeight = Integer.MAX_VALUE;
+
+    /** Journal entries have been discarded up to this height */
+    private static volatile int trimHeight = -1;
+
+    /**
+     * Discard all journal entries and start journaling above a height
+     *
+     * @param   height                  Current blockchain height
+     */
+    public static void reset(int height) {
+        journals.forEach(journal -> journal.entries.clear());
+        trimHeight = -1;
+        startHeight = height;
+    }
+
+    /**
+     * Disable the journals until the next reset.  This is used when the journals may
+     * no longer match the database.
+     */
+    public static void invalidate() {
+        startHeight = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Discard the journal entries for the heights above a completed rollback
+     *
+     * @param   height                  Rollback height
+     */
+    public static void rolledBack(int height) {
+        journals.forEach(journal -> journal.entries.tailMap(height, false).clear());
+        if (startHeight != Integer.MAX_VALUE) {
+            startHeight = Math.min(startHeight, height);
+        }
+    }
+
+    /**
+     * Discard journal entries which are no longer needed
+     *
+     * @param   height                  Minimum rollback height
+     */
+    public static void trim(int height) {
+        if (height > trimHeight) {
+            journals.forEach(journal -> journal.entries.headMap(height, true).clear());
+            trimHeight = height;
+        }
+    }
+
+    private final ConcurrentSkipListMap<Integer, Map<DbKey, Integer>> entries = new ConcurrentSkipListMap<>();
+
+    UndoJournal() {
+        journals.add(this);
+    }
+
+    /**
+     * Check if a key has already been recorded at a height
+     *
+     * @param   dbKey                   Database key
+     * @param   height                  Height
+     * @return                          TRUE if the key has been recorded
+     */
+    boolean contains(DbKey dbKey, int height) {
+        Map<DbKey, Integer> keys = entries.get(height);
+        return keys != null && keys.containsKey(dbKey);
+    }
+
+    /**
+     * Record a key before its first write at a height
+     *
+     * @param   dbKey                   Database key
+     * @param   height                  Height of the new version
+     * @param   previousHeight          Height of the current version or -1 if there is none
+     */
+    void add(DbKey dbKey, int height, int previousHeight) {
+        entries.computeIfAbsent(height, h -> new HashMap<>()).putIfAbsent(dbKey, previousHeight);
+    }
+
+    /**
+     * Return the versions which were current at a height for all keys written above the height
+     *
+     * @param   height                  Rollback height
+     * @return                          Version heights by key or null if the height is not covered
+     */
+    Map<DbKey, Integer> getPrevious(int height) {
+        if (height < startHeight || height < trimHeight) {
+            scanRollbacks.increment();
+            return null;
+        }
+        Map<DbKey, Integer> previous = new HashMap<>();
+        for (Map<DbKey, Integer> keys : entries.tailMap(height, false).values()) {
+            keys.forEach(previous::putIfAbsent);
+        }
+        journalRollbacks.increment();
+        return previous;
+    }
+}
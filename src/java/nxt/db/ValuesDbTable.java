@@ -16,6 +16,8 @@
 
 package nxt.db;
 
+import nxt.Nxt;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -27,6 +29,8 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
 
     private final boolean multiversion;
     protected final DbKey.Factory<T> dbKeyFactory;
+    private final DirtyKeyLog dirtyKeys;
+    private final UndoJournal undoJournal;
 
     protected ValuesDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
         this(table, dbKeyFactory, false);
@@ -36,6 +40,8 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
         super(table);
         this.dbKeyFactory = dbKeyFactory;
         this.multiversion = multiversion;
+        this.dirtyKeys = multiversion ? new DirtyKeyLog(db, table, dbKeyFactory) : null;
+        this.undoJournal = multiversion ? new UndoJournal() : null;
     }
 
     protected abstract V load(Connection con, ResultSet rs) throws SQLException;
@@ -93,11 +99,13 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
         db.getCache(table).put(dbKey, values);
         try (Connection con = db.getConnection()) {
             if (multiversion) {
+                VersionedEntityDbTable.journal(con, table, dbKey, dbKeyFactory, undoJournal);
                 try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
                         + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE")) {
                     dbKey.setPK(pstmt);
                     pstmt.executeUpdate();
                 }
+                dirtyKeys.add(dbKey, Nxt.getBlockchain().getHeight());
             }
             for (V v : values) {
                 save(con, t, v);
@@ -110,7 +118,7 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
     @Override
     public final void rollback(int height) {
         if (multiversion) {
-            VersionedEntityDbTable.rollback(db, table, height, dbKeyFactory);
+            VersionedEntityDbTable.rollback(db, table, height, dbKeyFactory, undoJournal);
         } else {
             super.rollback(height);
         }
@@ -120,9 +128,25 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
     public final void trim(int height) {
         if (multiversion) {
             VersionedEntityDbTable.trim(db, table, height, dbKeyFactory);
+            dirtyKeys.trimmed(height);
         } else {
             super.trim(height);
         }
     }
 
+    @Override
+    public final void prepareTrim() {
+        if (multiversion) {
+            dirtyKeys.seed();
+        }
+    }
+
+    @Override
+    public final boolean trim(int height, int limit) {
+        if (multiversion) {
+            return dirtyKeys.trim(height, limit);
+        }
+        return super.trim(height, limit);
+    }
+
 }
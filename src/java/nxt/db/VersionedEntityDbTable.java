@@ -25,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
 
@@ -55,12 +56,14 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
             pstmtCount.setInt(i, Nxt.getBlockchain().getHeight());
             try (ResultSet rs = pstmtCount.executeQuery()) {
                 if (rs.next()) {
+                    journal(con, table, dbKey, dbKeyFactory, undoJournal);
                     try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
                             + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
                         dbKey.setPK(pstmt);
                         pstmt.executeUpdate();
                         save(con, t);
                         pstmt.executeUpdate(); // delete after the save
+                        dirtyKeys.add(dbKey, Nxt.getBlockchain().getHeight());
                     }
                     return true;
                 } else {
@@ -79,10 +82,30 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
         }
     }
 
-    static void rollback(final TransactionalDb db, final String table, final int height, final DbKey.Factory dbKeyFactory) {
+    static void journal(Connection con, String table, DbKey dbKey, DbKey.Factory<?> dbKeyFactory, UndoJournal undoJournal)
+            throws SQLException {
+        int height = Nxt.getBlockchain().getHeight();
+        if (!undoJournal.contains(dbKey, height)) {
+            try (PreparedStatement pstmt = con.prepareStatement("SELECT height FROM " + table
+                    + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
+                dbKey.setPK(pstmt);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    undoJournal.add(dbKey, height, rs.next() ? rs.getInt("height") : -1);
+                }
+            }
+        }
+    }
+
+    static void rollback(final TransactionalDb db, final String table, final int height, final DbKey.Factory<?> dbKeyFactory,
+                         final UndoJournal undoJournal) {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
+        Map<DbKey, Integer> previous = undoJournal.getPrevious(height);
+        if (previous != null) {
+            rollback(db, table, height, dbKeyFactory, previous);
+            return;
+        }
         try (Connection con = db.getConnection();
              PreparedStatement pstmtSelectToDelete = con.prepareStatement("SELECT DISTINCT " + dbKeyFactory.getPKColumns()
                      + " FROM " + table + " WHERE height > ?");
@@ -122,7 +145,28 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
         }
     }
 
-    static void trim(final TransactionalDb db, final String table, final int height, final DbKey.Factory dbKeyFactory) {
+    private static void rollback(final TransactionalDb db, final String table, final int height, final DbKey.Factory<?> dbKeyFactory,
+                                 final Map<DbKey, Integer> previous) {
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table
+                     + " WHERE height > ?");
+             PreparedStatement pstmtSetLatest = con.prepareStatement("UPDATE " + table
+                     + " SET latest = TRUE " + dbKeyFactory.getPKClause() + " AND height = ?")) {
+            pstmtDelete.setInt(1, height);
+            pstmtDelete.executeUpdate();
+            for (Map.Entry<DbKey, Integer> entry : previous.entrySet()) {
+                if (entry.getValue() >= 0) {
+                    int i = entry.getKey().setPK(pstmtSetLatest);
+                    pstmtSetLatest.setInt(i, entry.getValue());
+                    pstmtSetLatest.executeUpdate();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    static void trim(final TransactionalDb db, final String table, final int height, final DbKey.Factory<?> dbKeyFactory) {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
@@ -27,6 +27,8 @@ public abstract class VersionedPersistentDbTable<T> extends VersionedPrunableDbT
     }
 
     @Override
-    protected final void prune() {}
+    public final PruneResult prune(int expiration, int limit) {
+        return new PruneResult(0, 0);
+    }
 
 }
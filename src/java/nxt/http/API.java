@@ -20,6 +20,7 @@ import nxt.Constants;
 import nxt.Nxt;
 import nxt.util.Convert;
 import nxt.util.Logger;
+import nxt.util.Metrics;
 import nxt.util.ThreadPool;
 import nxt.util.UPnP;
 import org.eclipse.jetty.security.ConstraintMapping;
@@ -256,6 +257,10 @@ public final class API {
 
             apiHandler.addServlet(DbShellServlet.class, "/dbshell");
 
+            if (Metrics.enabled) {
+                apiHandler.addServlet(MetricsServlet.class, "/metrics");
+            }
+
             if (apiServerCORS) {
                 FilterHolder filterHolder = apiHandler.addFilter(CrossOriginFilter.class, "/*", null);
                 filterHolder.setInitParameter("allowedHeaders", "*");
@@ -23,6 +23,7 @@ import nxt.NxtException;
 import nxt.addons.AddOns;
 import nxt.util.JSON;
 import nxt.util.Logger;
+import nxt.util.Metrics;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
@@ -122,6 +123,8 @@ public final class APIServlet extends HttpServlet {
     }
 
     private static final boolean enforcePost = Nxt.getBooleanProperty("nxt.apiServerEnforcePOST");
+    private static final Metrics.Family<Metrics.Histogram> requestTimes =
+            Metrics.histogramFamily("nxt_api_request_seconds", "API request processing time", "requestType");
     static final Map<String,APIRequestHandler> apiRequestHandlers;
     static final Map<String,APIRequestHandler> disabledRequestHandlers;
 
@@ -248,7 +251,11 @@ public final class APIServlet extends HttpServlet {
                         response = REQUIRED_LAST_BLOCK_NOT_FOUND;
                         return;
                     }
+                    long processStart = Metrics.startTimer();
                     response = apiRequestHandler.processRequest(req, resp);
+                    if (Metrics.enabled) {
+                        requestTimes.labels(requestType).observeSince(processStart);
+                    }
                     if (requireLastBlockId == 0 && requireBlockId != 0 && response instanceof JSONObject) {
                         ((JSONObject) response).put("lastBlock", Nxt.getBlockchain().getLastBlock().getStringId());
                     }
@@ -21,6 +21,7 @@ import nxt.AccountLedger.LedgerEntry;
 import nxt.AccountLedger.LedgerEvent;
 import nxt.AccountLedger.LedgerHolding;
 import nxt.NxtException;
+import nxt.db.DbCursor;
 import nxt.util.Convert;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -228,7 +229,7 @@ public class GetAccountLedger extends APIServlet.APIRequestHandler {
      * Create the GetAccountLedger instance
      */
     private GetAccountLedger() {
-        super(new APITag[] {APITag.ACCOUNTS}, "account", "firstIndex", "lastIndex",
+        super(new APITag[] {APITag.ACCOUNTS}, "account", "firstIndex", "lastIndex", "cursor",
                 "eventType", "event", "holdingType", "holding", "includeTransactions", "includeHoldingInfo");
     }
 
@@ -245,8 +246,13 @@ public class GetAccountLedger extends APIServlet.APIRequestHandler {
         // Process the request parameters
         //
         long accountId = ParameterParser.getAccountId(req, "account", false);
+        DbCursor cursor = ParameterParser.getCursor(req);
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
+        if (cursor != null) {
+            lastIndex -= firstIndex;
+            firstIndex = 0;
+        }
         String eventType = Convert.emptyToNull(req.getParameter("eventType"));
         LedgerEvent event = null;
         long eventId = 0;
@@ -276,7 +282,7 @@ public class GetAccountLedger extends APIServlet.APIRequestHandler {
         // Get the ledger entries
         //
         List<LedgerEntry> ledgerEntries = AccountLedger.getEntries(accountId, event, eventId,
-                                                                   holding, holdingId, firstIndex, lastIndex);
+                                                                   holding, holdingId, cursor, firstIndex, lastIndex);
         //
         // Return the response
         //
@@ -288,6 +294,10 @@ public class GetAccountLedger extends APIServlet.APIRequestHandler {
         });
         JSONObject response = new JSONObject();
         response.put("entries", responseEntries);
+        if (ledgerEntries.size() > lastIndex - firstIndex) {
+            LedgerEntry lastEntry = ledgerEntries.get(ledgerEntries.size() - 1);
+            response.put("nextCursor", new DbCursor(lastEntry.getHeight(), lastEntry.getLedgerId()).toString());
+        }
         return response;
     }
 }
@@ -18,6 +18,7 @@ package nxt.http;
 
 import nxt.AssetTransfer;
 import nxt.NxtException;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import nxt.db.DbUtils;
 import org.json.simple.JSONArray;
@@ -31,7 +32,7 @@ public final class GetAssetTransfers extends APIServlet.APIRequestHandler {
     static final GetAssetTransfers instance = new GetAssetTransfers();
 
     private GetAssetTransfers() {
-        super(new APITag[] {APITag.AE}, "asset", "account", "firstIndex", "lastIndex", "timestamp", "includeAssetInfo");
+        super(new APITag[] {APITag.AE}, "asset", "account", "firstIndex", "lastIndex", "cursor", "timestamp", "includeAssetInfo");
     }
 
     @Override
@@ -43,8 +44,13 @@ public final class GetAssetTransfers extends APIServlet.APIRequestHandler {
             return JSONResponses.MISSING_ASSET_ACCOUNT;
         }
         int timestamp = ParameterParser.getTimestamp(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
+        if (cursor != null) {
+            lastIndex -= firstIndex;
+            firstIndex = 0;
+        }
         boolean includeAssetInfo = "true".equalsIgnoreCase(req.getParameter("includeAssetInfo"));
 
         JSONObject response = new JSONObject();
@@ -52,11 +58,11 @@ public final class GetAssetTransfers extends APIServlet.APIRequestHandler {
         DbIterator<AssetTransfer> transfers = null;
         try {
             if (accountId == 0) {
-                transfers = AssetTransfer.getAssetTransfers(assetId, firstIndex, lastIndex);
+                transfers = AssetTransfer.getAssetTransfers(assetId, cursor, firstIndex, lastIndex);
             } else if (assetId == 0) {
-                transfers = AssetTransfer.getAccountAssetTransfers(accountId, firstIndex, lastIndex);
+                transfers = AssetTransfer.getAccountAssetTransfers(accountId, cursor, firstIndex, lastIndex);
             } else {
-                transfers = AssetTransfer.getAccountAssetTransfers(accountId, assetId, firstIndex, lastIndex);
+                transfers = AssetTransfer.getAccountAssetTransfers(accountId, assetId, cursor, firstIndex, lastIndex);
             }
             while (transfers.hasNext()) {
                 AssetTransfer assetTransfer = transfers.next();
@@ -65,6 +71,9 @@ public final class GetAssetTransfers extends APIServlet.APIRequestHandler {
                 }
                 transfersData.add(JSONData.assetTransfer(assetTransfer, includeAssetInfo));
             }
+            if (transfersData.size() > lastIndex - firstIndex) {
+                response.put("nextCursor", transfers.getCursor().toString());
+            }
         } finally {
             DbUtils.close(transfers);
         }
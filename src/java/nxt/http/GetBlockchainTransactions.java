@@ -19,6 +19,7 @@ package nxt.http;
 import nxt.Nxt;
 import nxt.NxtException;
 import nxt.Transaction;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -32,7 +33,7 @@ public final class GetBlockchainTransactions extends APIServlet.APIRequestHandle
 
     private GetBlockchainTransactions() {
         super(new APITag[] {APITag.ACCOUNTS, APITag.TRANSACTIONS}, "account", "timestamp", "type", "subtype",
-                "firstIndex", "lastIndex", "numberOfConfirmations", "withMessage", "phasedOnly", "nonPhasedOnly",
+                "firstIndex", "lastIndex", "cursor", "numberOfConfirmations", "withMessage", "phasedOnly", "nonPhasedOnly",
                 "includeExpiredPrunable", "includePhasingResult", "executedOnly");
     }
 
@@ -62,21 +63,31 @@ public final class GetBlockchainTransactions extends APIServlet.APIRequestHandle
             subtype = -1;
         }
 
+        DbCursor cursor = ParameterParser.getCursor(req);
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
+        if (cursor != null) {
+            lastIndex -= firstIndex;
+            firstIndex = 0;
+        }
 
         JSONArray transactions = new JSONArray();
+        DbCursor nextCursor;
         try (DbIterator<? extends Transaction> iterator = Nxt.getBlockchain().getTransactions(accountId, numberOfConfirmations,
-                type, subtype, timestamp, withMessage, phasedOnly, nonPhasedOnly, firstIndex, lastIndex,
+                type, subtype, timestamp, withMessage, phasedOnly, nonPhasedOnly, cursor, firstIndex, lastIndex,
                 includeExpiredPrunable, executedOnly)) {
             while (iterator.hasNext()) {
                 Transaction transaction = iterator.next();
                 transactions.add(JSONData.transaction(transaction, includePhasingResult));
             }
+            nextCursor = transactions.size() > lastIndex - firstIndex ? iterator.getCursor() : null;
         }
 
         JSONObject response = new JSONObject();
         response.put("transactions", transactions);
+        if (nextCursor != null) {
+            response.put("nextCursor", nextCursor.toString());
+        }
         return response;
 
     }
@@ -18,6 +18,7 @@ package nxt.http;
 
 import nxt.NxtException;
 import nxt.Trade;
+import nxt.db.DbCursor;
 import nxt.db.DbIterator;
 import nxt.db.DbUtils;
 import org.json.simple.JSONArray;
@@ -31,7 +32,7 @@ public final class GetTrades extends APIServlet.APIRequestHandler {
     static final GetTrades instance = new GetTrades();
 
     private GetTrades() {
-        super(new APITag[] {APITag.AE}, "asset", "account", "firstIndex", "lastIndex", "timestamp", "includeAssetInfo");
+        super(new APITag[] {APITag.AE}, "asset", "account", "firstIndex", "lastIndex", "cursor", "timestamp", "includeAssetInfo");
     }
 
     @Override
@@ -44,8 +45,13 @@ public final class GetTrades extends APIServlet.APIRequestHandler {
         }
 
         int timestamp = ParameterParser.getTimestamp(req);
+        DbCursor cursor = ParameterParser.getCursor(req);
         int firstIndex = ParameterParser.getFirstIndex(req);
         int lastIndex = ParameterParser.getLastIndex(req);
+        if (cursor != null) {
+            lastIndex -= firstIndex;
+            firstIndex = 0;
+        }
         boolean includeAssetInfo = "true".equalsIgnoreCase(req.getParameter("includeAssetInfo"));
 
         JSONObject response = new JSONObject();
@@ -53,11 +59,11 @@ public final class GetTrades extends APIServlet.APIRequestHandler {
         DbIterator<Trade> trades = null;
         try {
             if (accountId == 0) {
-                trades = Trade.getAssetTrades(assetId, firstIndex, lastIndex);
+                trades = Trade.getAssetTrades(assetId, cursor, firstIndex, lastIndex);
             } else if (assetId == 0) {
-                trades = Trade.getAccountTrades(accountId, firstIndex, lastIndex);
+                trades = Trade.getAccountTrades(accountId, cursor, firstIndex, lastIndex);
             } else {
-                trades = Trade.getAccountAssetTrades(accountId, assetId, firstIndex, lastIndex);
+                trades = Trade.getAccountAssetTrades(accountId, assetId, cursor, firstIndex, lastIndex);
             }
             while (trades.hasNext()) {
                 Trade trade = trades.next();
@@ -66,6 +72,9 @@ public final class GetTrades extends APIServlet.APIRequestHandler {
                 }
                 tradesData.add(JSONData.trade(trade, includeAssetInfo));
             }
+            if (tradesData.size() > lastIndex - firstIndex) {
+                response.put("nextCursor", trades.getCursor().toString());
+            }
         } finally {
             DbUtils.close(trades);
         }
@@ -28,6 +28,7 @@ import nxt.AssetDividend;
 import nxt.AssetTransfer;
 import nxt.Attachment;
 import nxt.Block;
+import nxt.BlockPayloadCache;
 import nxt.Constants;
 import nxt.Currency;
 import nxt.CurrencyExchangeOffer;
@@ -61,6 +62,7 @@ import nxt.crypto.EncryptedData;
 import nxt.db.DbIterator;
 import nxt.peer.Hallmark;
 import nxt.peer.Peer;
+import nxt.peer.PeerScore;
 import nxt.util.Convert;
 import nxt.util.Filter;
 import org.json.simple.JSONArray;
@@ -406,6 +408,33 @@ public final class JSONData {
     }
 
     static JSONObject block(Block block, boolean includeTransactions, boolean includeExecutedPhased) {
+        JSONObject json = BlockPayloadCache.getAPIJSON(block, JSONData::blockFields);
+        if (block.getNextBlockId() != 0) {
+            json.put("nextBlock", Long.toUnsignedString(block.getNextBlockId()));
+        }
+        if (includeTransactions) {
+            JSONArray transactions = new JSONArray();
+            block.getTransactions().forEach(transaction -> transactions.add(transaction(transaction)));
+            json.put("transactions", transactions);
+        }
+        if (includeExecutedPhased) {
+            JSONArray phasedTransactions = new JSONArray();
+            try (DbIterator<PhasingPoll.PhasingPollResult> phasingPollResults = PhasingPoll.getApproved(block.getHeight())) {
+                for (PhasingPoll.PhasingPollResult phasingPollResult : phasingPollResults) {
+                    long phasedTransactionId = phasingPollResult.getId();
+                    if (includeTransactions) {
+                        phasedTransactions.add(transaction(Nxt.getBlockchain().getTransaction(phasedTransactionId)));
+                    } else {
+                        phasedTransactions.add(Long.toUnsignedString(phasedTransactionId));
+                    }
+                }
+            }
+            json.put("executedPhasedTransactions", phasedTransactions);
+        }
+        return json;
+    }
+
+    private static JSONObject blockFields(Block block) {
         JSONObject json = new JSONObject();
         json.put("block", block.getStringId());
         json.put("height", block.getHeight());
@@ -422,9 +451,6 @@ public final class JSONData {
         if (block.getPreviousBlockId() != 0) {
             json.put("previousBlock", Long.toUnsignedString(block.getPreviousBlockId()));
         }
-        if (block.getNextBlockId() != 0) {
-            json.put("nextBlock", Long.toUnsignedString(block.getNextBlockId()));
-        }
         json.put("payloadHash", Convert.toHexString(block.getPayloadHash()));
         json.put("generationSignature", Convert.toHexString(block.getGenerationSignature()));
         if (block.getVersion() > 1) {
@@ -432,26 +458,8 @@ public final class JSONData {
         }
         json.put("blockSignature", Convert.toHexString(block.getBlockSignature()));
         JSONArray transactions = new JSONArray();
-        if (includeTransactions) {
-            block.getTransactions().forEach(transaction -> transactions.add(transaction(transaction)));
-        } else {
-            block.getTransactions().forEach(transaction -> transactions.add(transaction.getStringId()));
-        }
+        block.getTransactions().forEach(transaction -> transactions.add(transaction.getStringId()));
         json.put("transactions", transactions);
-        if (includeExecutedPhased) {
-            JSONArray phasedTransactions = new JSONArray();
-            try (DbIterator<PhasingPoll.PhasingPollResult> phasingPollResults = PhasingPoll.getApproved(block.getHeight())) {
-                for (PhasingPoll.PhasingPollResult phasingPollResult : phasingPollResults) {
-                    long phasedTransactionId = phasingPollResult.getId();
-                    if (includeTransactions) {
-                        phasedTransactions.add(transaction(Nxt.getBlockchain().getTransaction(phasedTransactionId)));
-                    } else {
-                        phasedTransactions.add(Long.toUnsignedString(phasedTransactionId));
-                    }
-                }
-            }
-            json.put("executedPhasedTransactions", phasedTransactions);
-        }
         return json;
     }
 
@@ -551,6 +559,13 @@ public final class JSONData {
         }
         json.put("services", servicesArray);
         json.put("blockchainState", peer.getBlockchainState());
+        PeerScore score = peer.getScore();
+        json.put("score", score.getValue());
+        json.put("latency", score.getLatency());
+        json.put("throughput", score.getThroughput());
+        json.put("errorRate", score.getErrorRate());
+        json.put("blocksAccepted", score.getBlocksAccepted());
+        json.put("blocksRejected", score.getBlocksRejected());
         return json;
     }
 
@@ -34,6 +34,7 @@ import nxt.Shuffling;
 import nxt.Transaction;
 import nxt.crypto.Crypto;
 import nxt.crypto.EncryptedData;
+import nxt.db.DbCursor;
 import nxt.util.Convert;
 import nxt.util.Logger;
 import nxt.util.Search;
@@ -508,6 +509,18 @@ public final class ParameterParser {
         return lastIndex;
     }
 
+    public static DbCursor getCursor(HttpServletRequest req) throws ParameterException {
+        String cursor = Convert.emptyToNull(req.getParameter("cursor"));
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return DbCursor.parse(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new ParameterException(JSONResponses.incorrect("cursor"));
+        }
+    }
+
     public static int getNumberOfConfirmations(HttpServletRequest req) throws ParameterException {
         return getInt(req, "numberOfConfirmations", 0, Nxt.getBlockchain().getHeight(), false);
     }
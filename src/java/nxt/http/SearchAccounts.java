@@ -18,6 +18,7 @@ package nxt.http;
 
 import nxt.Account;
 import nxt.db.DbIterator;
+import nxt.db.FullTextTrigger;
 import nxt.util.Convert;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -58,6 +59,7 @@ public final class SearchAccounts extends APIServlet.APIRequestHandler {
             }
         }
         response.put("accounts", accountsJSONArray);
+        response.put("indexLag", FullTextTrigger.getIndexLag());
         return response;
     }
 
@@ -18,6 +18,7 @@ package nxt.http;
 
 import nxt.Asset;
 import nxt.db.DbIterator;
+import nxt.db.FullTextTrigger;
 import nxt.util.Convert;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -51,6 +52,7 @@ public final class SearchAssets extends APIServlet.APIRequestHandler {
             }
         }
         response.put("assets", assetsJSONArray);
+        response.put("indexLag", FullTextTrigger.getIndexLag());
         return response;
     }
 
@@ -18,6 +18,7 @@ package nxt.http;
 
 import nxt.Currency;
 import nxt.db.DbIterator;
+import nxt.db.FullTextTrigger;
 import nxt.util.Convert;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -51,6 +52,7 @@ public final class SearchCurrencies extends APIServlet.APIRequestHandler {
             }
         }
         response.put("currencies", jsonArray);
+        response.put("indexLag", FullTextTrigger.getIndexLag());
         return response;
     }
 
@@ -21,6 +21,7 @@ import nxt.NxtException;
 import nxt.db.DbIterator;
 import nxt.db.DbUtils;
 import nxt.db.FilteringIterator;
+import nxt.db.FullTextTrigger;
 import nxt.util.Filter;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -69,6 +70,7 @@ public final class SearchDGSGoods extends APIServlet.APIRequestHandler {
             DbUtils.close(iterator);
         }
 
+        response.put("indexLag", FullTextTrigger.getIndexLag());
         return response;
     }
 
@@ -19,6 +19,7 @@ package nxt.http;
 import nxt.NxtException;
 import nxt.TaggedData;
 import nxt.db.DbIterator;
+import nxt.db.FullTextTrigger;
 import nxt.util.Convert;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -52,6 +53,7 @@ public final class SearchTaggedData extends APIServlet.APIRequestHandler {
             }
         }
 
+        response.put("indexLag", FullTextTrigger.getIndexLag());
         return response;
     }
 
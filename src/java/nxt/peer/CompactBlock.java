@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.peer;
+
+import nxt.Block;
+import nxt.Nxt;
+import nxt.NxtException;
+import nxt.Transaction;
+import nxt.crypto.Crypto;
+import nxt.util.Convert;
+import nxt.util.JSON;
+import nxt.util.Logger;
+import nxt.util.Metrics;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact block relay
+ *
+ * A compact block contains the block header, the AT bytes and the identifiers of the
+ * block transactions instead of the transactions themselves.  The receiver rebuilds the
+ * block from its unconfirmed transaction pool and requests any transactions it does not
+ * have from the sending peer, so a new block can be relayed without sending transactions
+ * which are already known throughout the network.
+ *
+ * The rebuilt transaction list is checked against the block payload hash before the block
+ * is processed.  A block which can not be rebuilt is ignored and will be obtained by the
+ * normal blockchain download instead.
+ */
+final class CompactBlock {
+
+    private static final Metrics.Family<Metrics.Counter> compactBlocks =
+            Metrics.counterFamily("nxt_compact_blocks_total", "Compact blocks received", "result");
+    private static final Metrics.Counter missingTransactions =
+            Metrics.counter("nxt_compact_block_missing_transactions_total", "Compact block transactions requested from the sending peer");
+
+    /**
+     * Create the compact block request from the block JSON
+     *
+     * @param   block                   Block
+     * @param   blockRequest            Block JSON, which is not modified
+     * @return                          Compact block request
+     */
+    static JSONObject getRequest(Block block, JSONObject blockRequest) {
+        JSONObject request = new JSONObject();
+        request.putAll(blockRequest);
+        request.remove("transactions");
+        JSONArray transactionIds = new JSONArray();
+        block.getTransactions().forEach(transaction -> transactionIds.add(Long.toUnsignedString(transaction.getId())));
+        request.put("transactionIds", transactionIds);
+        request.put("requestType", "processCompactBlock");
+        return request;
+    }
+
+    /**
+     * Rebuild the full block from a compact block
+     *
+     * @param   request                 Compact block request
+     * @param   peer                    Sending peer
+     * @return                          Full block or null if the block could not be rebuilt
+     * @throws  NxtException.NotValidException  Transaction returned by the peer is not valid
+     */
+    static JSONObject getBlock(JSONObject request, Peer peer) throws NxtException.NotValidException {
+        JSONArray transactionIds = (JSONArray)request.get("transactionIds");
+        if (transactionIds == null) {
+            throw new NxtException.NotValidException("Compact block does not contain transaction identifiers");
+        }
+        Transaction[] transactions = new Transaction[transactionIds.size()];
+        JSONArray missingIds = new JSONArray();
+        for (int i = 0; i < transactions.length; i++) {
+            long transactionId = Convert.parseUnsignedLong((String)transactionIds.get(i));
+            transactions[i] = Nxt.getTransactionProcessor().getUnconfirmedTransaction(transactionId);
+            if (transactions[i] == null) {
+                missingIds.add(transactionIds.get(i));
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            missingTransactions.add(missingIds.size());
+            Map<Long, Transaction> fetched = getTransactions(peer, missingIds);
+            for (int i = 0; i < transactions.length; i++) {
+                if (transactions[i] == null) {
+                    transactions[i] = fetched.get(Convert.parseUnsignedLong((String)transactionIds.get(i)));
+                    if (transactions[i] == null) {
+                        Logger.logDebugMessage("Unable to rebuild compact block from " + peer.getHost()
+                                + ", transaction " + transactionIds.get(i) + " not available");
+                        compactBlocks.labels("failed").increment();
+                        return null;
+                    }
+                }
+            }
+        }
+        MessageDigest digest = Crypto.sha256();
+        for (Transaction transaction : transactions) {
+            digest.update(transaction.getBytes());
+        }
+        if (!Arrays.equals(digest.digest(), Convert.parseHexString((String)request.get("payloadHash")))) {
+            Logger.logDebugMessage("Unable to rebuild compact block from " + peer.getHost() + ", payload hash does not match");
+            compactBlocks.labels("failed").increment();
+            return null;
+        }
+        JSONObject blockData = new JSONObject();
+        blockData.putAll(request);
+        blockData.remove("transactionIds");
+        blockData.remove("requestType");
+        JSONArray transactionsData = new JSONArray();
+        for (Transaction transaction : transactions) {
+            // processPeerBlock expects the value types of a parsed message
+            transactionsData.add(JSONValue.parse(transaction.getJSONObject().toJSONString()));
+        }
+        blockData.put("transactions", transactionsData);
+        compactBlocks.labels(missingIds.isEmpty() ? "rebuilt" : "fetched").increment();
+        return blockData;
+    }
+
+    /**
+     * Request transactions from a peer
+     *
+     * @param   peer                    Peer
+     * @param   transactionIds          Transaction identifiers
+     * @return                          Transactions returned by the peer
+     * @throws  NxtException.NotValidException  Transaction returned by the peer is not valid
+     */
+    private static Map<Long, Transaction> getTransactions(Peer peer, JSONArray transactionIds)
+            throws NxtException.NotValidException {
+        Map<Long, Transaction> transactions = new HashMap<>();
+        JSONObject request = new JSONObject();
+        request.put("requestType", "getTransactions");
+        request.put("transactionIds", transactionIds);
+        JSONObject response = peer.send(JSON.prepareRequest(request), Peers.MAX_MESSAGE_SIZE);
+        if (response == null || response.get("transactions") == null) {
+            return transactions;
+        }
+        for (Object transactionData : (JSONArray)response.get("transactions")) {
+            Transaction transaction = Nxt.newTransactionBuilder((JSONObject)transactionData).build();
+            transactions.put(transaction.getId(), transaction);
+        }
+        return transactions;
+    }
+
+    private CompactBlock() {} // never
+}
@@ -27,8 +27,11 @@ final class Errors {
     final static String SEQUENCE_ERROR = "Peer request received before 'getInfo' request";
     final static String MAX_INBOUND_CONNECTIONS = "Maximum number of inbound connections exceeded";
     final static String TOO_MANY_BLOCKS_REQUESTED = "Too many blocks requested";
+    final static String TOO_MANY_TRANSACTIONS_REQUESTED = "Too many transactions requested";
     final static String DOWNLOADING = "Blockchain download in progress";
     final static String LIGHT_CLIENT = "Peer is in light mode";
+    final static String BUSY = "Peer is busy";
+    final static String RATE_LIMITED = "Request rate exceeded";
 
     private Errors() {} // never
 }
@@ -44,4 +44,9 @@ final class GetCumulativeDifficulty extends PeerServlet.PeerRequestHandler {
         return true;
     }
 
+    @Override
+    PeerRequestScheduler.Priority getPriority() {
+        return PeerRequestScheduler.Priority.BLOCK;
+    }
+
 }
@@ -54,4 +54,9 @@ final class GetNextBlockIds extends PeerServlet.PeerRequestHandler {
         return true;
     }
 
+    @Override
+    PeerRequestScheduler.Priority getPriority() {
+        return PeerRequestScheduler.Priority.SYNC;
+    }
+
 }
@@ -17,10 +17,10 @@
 package nxt.peer;
 
 import nxt.Block;
+import nxt.BlockPayloadCache;
 import nxt.Nxt;
 import nxt.util.Convert;
 import nxt.util.JSON;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
@@ -44,8 +44,6 @@ final class GetNextBlocks extends PeerServlet.PeerRequestHandler {
     @Override
     JSONStreamAware processRequest(JSONObject request, Peer peer) {
 
-        JSONObject response = new JSONObject();
-        JSONArray nextBlocksArray = new JSONArray();
         List<? extends Block> blocks;
         long blockId = Convert.parseUnsignedLong((String) request.get("blockId"));
         List<String> stringList = (List<String>)request.get("blockIds");
@@ -63,10 +61,13 @@ final class GetNextBlocks extends PeerServlet.PeerRequestHandler {
             }
             blocks = Nxt.getBlockchain().getBlocksAfter(blockId, limit > 0 ? (int)limit : 36);
         }
-        blocks.forEach(block -> nextBlocksArray.add(block.getJSONObject()));
-        response.put("nextBlocks", nextBlocksArray);
-
-        return response;
+        List<JSONStreamAware> nextBlocks = new ArrayList<>(blocks.size());
+        blocks.forEach(block -> nextBlocks.add(BlockPayloadCache.getJSON(block)));
+        return out -> {
+            out.write("{\"nextBlocks\":");
+            BlockPayloadCache.writeJSONArray(nextBlocks, out);
+            out.write('}');
+        };
     }
 
     @Override
@@ -74,4 +75,9 @@ final class GetNextBlocks extends PeerServlet.PeerRequestHandler {
         return true;
     }
 
+    @Override
+    PeerRequestScheduler.Priority getPriority() {
+        return PeerRequestScheduler.Priority.SYNC;
+    }
+
 }
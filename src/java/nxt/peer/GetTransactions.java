@@ -20,6 +20,7 @@ import nxt.Blockchain;
 import nxt.Constants;
 import nxt.Nxt;
 import nxt.Transaction;
+import nxt.util.JSON;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -31,16 +32,26 @@ public class GetTransactions extends PeerServlet.PeerRequestHandler {
 
     static final GetTransactions instance = new GetTransactions();
 
+    static final JSONStreamAware TOO_MANY_TRANSACTIONS_REQUESTED;
+    static {
+        JSONObject response = new JSONObject();
+        response.put("error", Errors.TOO_MANY_TRANSACTIONS_REQUESTED);
+        TOO_MANY_TRANSACTIONS_REQUESTED = JSON.prepare(response);
+    }
+
     private GetTransactions() {}
 
     @Override
     JSONStreamAware processRequest(JSONObject request, Peer peer) {
-        if (!Constants.INCLUDE_EXPIRED_PRUNABLE) {
+        if (!Constants.INCLUDE_EXPIRED_PRUNABLE && !Peers.enableCompactBlocks) {
             return PeerServlet.UNSUPPORTED_REQUEST_TYPE;
         }
+        JSONArray transactionIds = (JSONArray)request.get("transactionIds");
+        if (transactionIds != null && transactionIds.size() > Constants.MAX_NUMBER_OF_TRANSACTIONS) {
+            return TOO_MANY_TRANSACTIONS_REQUESTED;
+        }
         JSONObject response = new JSONObject();
         JSONArray transactionArray = new JSONArray();
-        JSONArray transactionIds = (JSONArray)request.get("transactionIds");
         Blockchain blockchain = Nxt.getBlockchain();
         //
         // Return the transactions to the caller
@@ -49,8 +60,12 @@ public class GetTransactions extends PeerServlet.PeerRequestHandler {
             transactionIds.forEach(transactionId -> {
                 long id = Long.parseUnsignedLong((String)transactionId);
                 Transaction transaction = blockchain.getTransaction(id);
+                if (transaction == null) {
+                    // The transactions of a compact block may be back in the unconfirmed pool after a block pop-off
+                    transaction = Nxt.getTransactionProcessor().getUnconfirmedTransaction(id);
+                }
                 if (transaction != null) {
-                    transaction.getAppendages(true);
+                    transaction.getAppendages(Constants.INCLUDE_EXPIRED_PRUNABLE);
                     JSONObject transactionJSON = transaction.getJSONObject();
                     transactionArray.add(transactionJSON);
                 }
@@ -64,4 +79,9 @@ public class GetTransactions extends PeerServlet.PeerRequestHandler {
     boolean rejectWhileDownloading() {
         return true;
     }
+
+    @Override
+    PeerRequestScheduler.Priority getPriority() {
+        return PeerRequestScheduler.Priority.TRANSACTION;
+    }
 }
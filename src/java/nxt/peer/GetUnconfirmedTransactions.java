@@ -60,4 +60,9 @@ final class GetUnconfirmedTransactions extends PeerServlet.PeerRequestHandler {
         return true;
     }
 
+    @Override
+    PeerRequestScheduler.Priority getPriority() {
+        return PeerRequestScheduler.Priority.TRANSACTION;
+    }
+
 }
@@ -21,6 +21,7 @@ import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public interface Peer extends Comparable<Peer> {
 
@@ -33,7 +34,8 @@ public interface Peer extends Comparable<Peer> {
         PRUNABLE(2),                    // Stores expired prunable messages
         API(4),                         // Provides open API access over http
         API_SSL(8),                     // Provides open API access over https
-        CORS(16);                       // API CORS enabled
+        CORS(16),                       // API CORS enabled
+        COMPACT_BLOCKS(32);             // Accepts compact block announcements
 
         private final long code;        // Service code - must be a power of 2
 
@@ -127,4 +129,8 @@ public interface Peer extends Comparable<Peer> {
 
     JSONObject send(JSONStreamAware request, int maxResponseSize);
 
+    CompletableFuture<JSONObject> sendAsync(JSONStreamAware request, int maxResponseSize);
+
+    PeerScore getScore();
+
 }
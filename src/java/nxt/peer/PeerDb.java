@@ -22,6 +22,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -32,11 +33,24 @@ final class PeerDb {
         private final String address;
         private final long services;
         private final int lastUpdated;
+        private final String host;
+        private final double score;
+        private final int lastConnected;
+        private final int blockchainState;
 
         Entry(String address, long services, int lastUpdated) {
+            this(address, services, lastUpdated, null, -1, 0, -1);
+        }
+
+        Entry(String address, long services, int lastUpdated, String host, double score, int lastConnected,
+              int blockchainState) {
             this.address = address;
             this.services = services;
             this.lastUpdated = lastUpdated;
+            this.host = host;
+            this.score = score;
+            this.lastConnected = lastConnected;
+            this.blockchainState = blockchainState;
         }
 
         public String getAddress() {
@@ -51,6 +65,22 @@ final class PeerDb {
             return lastUpdated;
         }
 
+        public String getHost() {
+            return host;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public int getLastConnected() {
+            return lastConnected;
+        }
+
+        public int getBlockchainState() {
+            return blockchainState;
+        }
+
         @Override
         public int hashCode() {
             return address.hashCode();
@@ -68,7 +98,16 @@ final class PeerDb {
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM peer");
              ResultSet rs = pstmt.executeQuery()) {
             while (rs.next()) {
-                peers.add(new Entry(rs.getString("address"), rs.getLong("services"), rs.getInt("last_updated")));
+                double score = rs.getDouble("score");
+                if (rs.wasNull()) {
+                    score = -1;
+                }
+                int blockchainState = rs.getInt("blockchain_state");
+                if (rs.wasNull()) {
+                    blockchainState = -1;
+                }
+                peers.add(new Entry(rs.getString("address"), rs.getLong("services"), rs.getInt("last_updated"),
+                        rs.getString("host"), score, rs.getInt("last_connected"), blockchainState));
             }
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -77,40 +116,49 @@ final class PeerDb {
     }
 
     static void deletePeers(Collection<Entry> peers) {
+        if (peers.isEmpty()) {
+            return;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("DELETE FROM peer WHERE address = ?")) {
             for (Entry peer : peers) {
                 pstmt.setString(1, peer.getAddress());
-                pstmt.executeUpdate();
+                pstmt.addBatch();
             }
+            pstmt.executeBatch();
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
     }
 
     static void updatePeers(Collection<Entry> peers) {
+        if (peers.isEmpty()) {
+            return;
+        }
         try (Connection con = Db.db.getConnection();
                 PreparedStatement pstmt = con.prepareStatement("MERGE INTO peer "
-                        + "(address, services, last_updated) KEY(address) VALUES(?, ?, ?)")) {
+                        + "(address, services, last_updated, host, score, last_connected, blockchain_state) "
+                        + "KEY(address) VALUES(?, ?, ?, ?, ?, ?, ?)")) {
             for (Entry peer : peers) {
-                pstmt.setString(1, peer.getAddress());
-                pstmt.setLong(2, peer.getServices());
-                pstmt.setInt(3, peer.getLastUpdated());
-                pstmt.executeUpdate();
+                int i = 0;
+                pstmt.setString(++i, peer.getAddress());
+                pstmt.setLong(++i, peer.getServices());
+                pstmt.setInt(++i, peer.getLastUpdated());
+                pstmt.setString(++i, peer.getHost());
+                if (peer.getScore() >= 0) {
+                    pstmt.setDouble(++i, peer.getScore());
+                } else {
+                    pstmt.setNull(++i, Types.DOUBLE);
+                }
+                pstmt.setInt(++i, peer.getLastConnected());
+                if (peer.getBlockchainState() >= 0) {
+                    pstmt.setInt(++i, peer.getBlockchainState());
+                } else {
+                    pstmt.setNull(++i, Types.INTEGER);
+                }
+                pstmt.addBatch();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e.toString(), e);
-        }
-    }
-
-    static void updatePeer(PeerImpl peer) {
-        try (Connection con = Db.db.getConnection();
-                PreparedStatement pstmt = con.prepareStatement("MERGE INTO peer "
-                        + "(address, services, last_updated) KEY(address) VALUES(?, ?, ?)")) {
-            pstmt.setString(1, peer.getAnnouncedAddress());
-            pstmt.setLong(2, peer.getServices());
-            pstmt.setInt(3, peer.getLastUpdated());
-            pstmt.executeUpdate();
+            pstmt.executeBatch();
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
@@ -24,40 +24,52 @@ import nxt.NxtException;
 import nxt.http.API;
 import nxt.http.APIEnum;
 import nxt.util.Convert;
-import nxt.util.CountingInputReader;
-import nxt.util.CountingInputStream;
-import nxt.util.CountingOutputWriter;
 import nxt.util.JSON;
 import nxt.util.Logger;
+import nxt.util.Metrics;
+import org.eclipse.jetty.client.HttpResponseException;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 import org.json.simple.JSONValue;
 import org.json.simple.parser.ParseException;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.StringWriter;
-import java.io.Writer;
-import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 final class PeerImpl implements Peer {
 
+    private static final Metrics.Histogram requestTime =
+            Metrics.histogram("nxt_peer_request_seconds", "Peer request round-trip time");
+    private static final Metrics.Counter uploadedBytes =
+            Metrics.counter("nxt_peer_sent_bytes_total", "Bytes sent to peers");
+    private static final Metrics.Counter downloadedBytes =
+            Metrics.counter("nxt_peer_received_bytes_total", "Bytes received from peers");
+    private static final Metrics.Counter rejectedRequests =
+            Metrics.counter("nxt_peer_requests_rejected_total", "Peer requests rejected by the in-flight limit");
+
     private final String host;
     private final PeerWebSocket webSocket;
     private volatile PeerWebSocket inboundSocket;
@@ -82,11 +94,15 @@ final class PeerImpl implements Peer {
     private volatile long uploadedVolume;
     private volatile int lastUpdated;
     private volatile int lastConnectAttempt;
+    private volatile int lastConnected;
     private volatile int lastInboundRequest;
     private volatile long hallmarkBalance = -1;
     private volatile int hallmarkBalanceHeight;
     private volatile long services;
     private volatile BlockchainState blockchainState;
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final PeerScore score = new PeerScore();
+    private final PeerRequestScheduler.TokenBucket requestBucket = new PeerRequestScheduler.TokenBucket();
 
     PeerImpl(String host, String announcedAddress) {
         this.host = host;
@@ -139,6 +155,7 @@ final class PeerImpl implements Peer {
         synchronized (this) {
             downloadedVolume += volume;
         }
+        downloadedBytes.add(volume);
         Peers.notifyListeners(this, Peers.Event.DOWNLOADED_VOLUME);
     }
 
@@ -151,6 +168,7 @@ final class PeerImpl implements Peer {
         synchronized (this) {
             uploadedVolume += volume;
         }
+        uploadedBytes.add(volume);
         Peers.notifyListeners(this, Peers.Event.UPLOADED_VOLUME);
     }
 
@@ -451,6 +469,14 @@ final class PeerImpl implements Peer {
         return lastConnectAttempt;
     }
 
+    int getLastConnected() {
+        return lastConnected;
+    }
+
+    void setLastConnected(int lastConnected) {
+        this.lastConnected = lastConnected;
+    }
+
     @Override
     public JSONObject send(final JSONStreamAware request) {
         return send(request, Peers.MAX_RESPONSE_SIZE);
@@ -458,148 +484,217 @@ final class PeerImpl implements Peer {
 
     @Override
     public JSONObject send(final JSONStreamAware request, int maxResponseSize) {
-        JSONObject response = null;
-        String log = null;
-        boolean showLog = false;
-        HttpURLConnection connection = null;
-        int communicationLoggingMask = Peers.communicationLoggingMask;
-
         try {
+            return sendAsync(request, maxResponseSize).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Logger.logDebugMessage("Error sending request to peer " + host, e);
+        }
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<JSONObject> sendAsync(final JSONStreamAware request, int maxResponseSize) {
+        //
+        // Don't queue more requests than the peer can reasonably handle.  The request is
+        // rejected without deactivating the peer, the same as a request which wasn't answered.
+        //
+        if (inFlightRequests.incrementAndGet() > PeerTransport.maxRequestsInFlight) {
+            inFlightRequests.decrementAndGet();
+            rejectedRequests.increment();
+            return CompletableFuture.completedFuture(null);
+        }
+        long startTime = Metrics.startTimer();
+        long sendTime = System.nanoTime();
+        String requestString = JSON.toString(request);
+        boolean isWebSocket = useWebSocket;
+        CompletableFuture<String> responseFuture;
+        if (isWebSocket) {
             //
-            // Create a new WebSocket session if we don't have one
-            //
-            if (useWebSocket && !webSocket.isOpen())
-                useWebSocket = webSocket.startClient(URI.create("ws://" + host + ":" + getPort() + "/burst"));
-            //
-            // Send the request and process the response
+            // Create a new WebSocket session if we don't have one and send the request
+            // using the WebSocket session.  HTTP is used if the peer doesn't support WebSockets.
             //
-            if (useWebSocket) {
-                //
-                // Send the request using the WebSocket session
-                //
-                StringWriter wsWriter = new StringWriter(1000);
-                request.writeJSONString(wsWriter);
-                String wsRequest = wsWriter.toString();
-                if (communicationLoggingMask != 0)
-                    log = "WebSocket " + host + ": " + wsRequest;
-                String wsResponse = webSocket.doPost(wsRequest);
-                updateUploadedVolume(wsRequest.length());
-                if (maxResponseSize > 0) {
-                    if ((communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
-                        log += " >>> " + wsResponse;
-                        showLog = true;
-                    }
-                    if (wsResponse.length() > maxResponseSize)
-                        throw new NxtException.NxtIOException("Maximum size exceeded: " + wsResponse.length());
-                    response = (JSONObject)JSONValue.parseWithException(wsResponse);
-                    updateDownloadedVolume(wsResponse.length());
-                }
-            } else {
-                //
-                // Send the request using HTTP
-                //
-                URL url = new URL("http://" + host + ":" + getPort() + "/burst");
-                if (communicationLoggingMask != 0)
-                    log = "\"" + url.toString() + "\": " + JSON.toString(request);
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setDoOutput(true);
-                connection.setConnectTimeout(Peers.connectTimeout);
-                connection.setReadTimeout(Peers.readTimeout);
-                connection.setRequestProperty("Accept-Encoding", "gzip");
-                connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
-                try (Writer writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), "UTF-8"))) {
-                    CountingOutputWriter cow = new CountingOutputWriter(writer);
-                    request.writeJSONString(cow);
-                    updateUploadedVolume(cow.getCount());
-                }
-                if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    if (maxResponseSize > 0) {
-                        if ((communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
-                            CountingInputStream cis = new CountingInputStream(connection.getInputStream(), maxResponseSize);
-                            InputStream responseStream = cis;
-                            if ("gzip".equals(connection.getHeaderField("Content-Encoding")))
-                                responseStream = new GZIPInputStream(cis);
-                            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                            byte[] buffer = new byte[1024];
-                            int numberOfBytes;
-                            try (InputStream inputStream = responseStream) {
-                                while ((numberOfBytes = inputStream.read(buffer, 0, buffer.length)) > 0)
-                                    byteArrayOutputStream.write(buffer, 0, numberOfBytes);
+            responseFuture = webSocket.startClient(URI.create("ws://" + host + ":" + getPort() + "/burst"))
+                    .thenCompose(isOpen -> {
+                        useWebSocket = isOpen;
+                        return isOpen ? webSocket.doPost(requestString) : httpPost(requestString, maxResponseSize);
+                    });
+        } else {
+            responseFuture = httpPost(requestString, maxResponseSize);
+        }
+        updateUploadedVolume(requestString.length());
+        return responseFuture.handle((responseString, failure) -> {
+            inFlightRequests.decrementAndGet();
+            JSONObject response = processResponse(request, requestString, isWebSocket, responseString, failure,
+                    maxResponseSize, System.nanoTime() - sendTime);
+            requestTime.observeSince(startTime);
+            return response;
+        });
+    }
+
+    /**
+     * Send a request using HTTP
+     *
+     * The request is sent using the shared HTTP client, which reuses the connections
+     * to the peer and decompresses the response.  The returned future is completed by
+     * the transport when the response has been received.
+     *
+     * @param   request             Request message
+     * @param   maxResponseSize     Maximum response size
+     * @return                      Response future
+     */
+    private CompletableFuture<String> httpPost(String request, int maxResponseSize) {
+        CompletableFuture<String> responseFuture = new CompletableFuture<>();
+        int limit = maxResponseSize > 0 ? maxResponseSize : Peers.MAX_RESPONSE_SIZE;
+        try {
+            PeerTransport.httpClient.newRequest("http://" + host + ":" + getPort() + "/burst")
+                    .method(HttpMethod.POST)
+                    .idleTimeout(Peers.readTimeout, TimeUnit.MILLISECONDS)
+                    .content(new StringContentProvider("text/plain; charset=UTF-8", request, StandardCharsets.UTF_8))
+                    .send(new BufferingResponseListener(limit) {
+
+                        private int received;
+
+                        @Override
+                        public void onHeaders(Response response) {
+                            long length = response.getHeaders().getLongField(HttpHeader.CONTENT_LENGTH.asString());
+                            if (length > limit) {
+                                response.abort(new NxtException.NxtIOException("Maximum size exceeded: " + length));
+                                return;
                             }
-                            String responseValue = byteArrayOutputStream.toString("UTF-8");
-                            if (responseValue.length() > 0 && responseStream instanceof GZIPInputStream)
-                                log += String.format("[length: %d, compression ratio: %.2f]",
-                                              cis.getCount(), (double)cis.getCount()/(double) responseValue.length());
-                            log += " >>> " + responseValue;
-                            showLog = true;
-                            response = (JSONObject) JSONValue.parseWithException(responseValue);
-                            updateDownloadedVolume(responseValue.length());
-                        } else {
-                            InputStream responseStream = connection.getInputStream();
-                            if ("gzip".equals(connection.getHeaderField("Content-Encoding")))
-                                responseStream = new GZIPInputStream(responseStream);
-                            try (Reader reader = new BufferedReader(new InputStreamReader(responseStream, "UTF-8"))) {
-                                CountingInputReader cir = new CountingInputReader(reader, maxResponseSize);
-                                response = (JSONObject)JSONValue.parseWithException(cir);
-                                updateDownloadedVolume(cir.getCount());
+                            super.onHeaders(response);
+                        }
+
+                        @Override
+                        public void onContent(Response response, ByteBuffer content) {
+                            received += content.remaining();
+                            if (received > limit) {
+                                response.abort(new NxtException.NxtIOException("Maximum size exceeded: " + received));
+                                return;
                             }
+                            super.onContent(response, content);
                         }
-                    }
-                } else {
-                    if ((communicationLoggingMask & Peers.LOGGING_MASK_NON200_RESPONSES) != 0) {
-                        log += " >>> Peer responded with HTTP " + connection.getResponseCode() + " code!";
-                        showLog = true;
-                    }
-                    Logger.logDebugMessage("Peer " + host + " responded with HTTP " + connection.getResponseCode());
-                    deactivate();
-                    connection.disconnect();
-                }
+
+                        @Override
+                        public void onComplete(Result result) {
+                            if (result.isFailed()) {
+                                responseFuture.completeExceptionally(result.getFailure());
+                            } else if (result.getResponse().getStatus() != HttpStatus.OK_200) {
+                                responseFuture.completeExceptionally(new HttpResponseException(
+                                        "Peer responded with HTTP " + result.getResponse().getStatus(), result.getResponse()));
+                            } else {
+                                responseFuture.complete(getContentAsString(StandardCharsets.UTF_8));
+                            }
+                        }
+                    });
+        } catch (RuntimeException e) {
+            responseFuture.completeExceptionally(e);
+        }
+        return responseFuture;
+    }
+
+    /**
+     * Process a peer response
+     *
+     * @param   request             Request
+     * @param   requestString       Request message
+     * @param   isWebSocket         TRUE if the request was sent using the WebSocket session
+     * @param   responseString      Response message or null if the request failed
+     * @param   failure             Request failure or null if the request was successful
+     * @param   maxResponseSize     Maximum response size or 0 if no response is expected
+     * @param   nanos               Request time in nanoseconds
+     * @return                      Parsed response or null
+     */
+    private JSONObject processResponse(JSONStreamAware request, String requestString, boolean isWebSocket,
+                                       String responseString, Throwable failure, int maxResponseSize, long nanos) {
+        JSONObject response = null;
+        String log = null;
+        boolean showLog = false;
+        int communicationLoggingMask = Peers.communicationLoggingMask;
+        if (communicationLoggingMask != 0) {
+            log = (isWebSocket ? "WebSocket " + host : "\"http://" + host + ":" + getPort() + "/burst\"") +
+                    ": " + requestString;
+        }
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure == null && maxResponseSize > 0) {
+            if ((communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
+                log += " >>> " + responseString;
+                showLog = true;
             }
-            //
-            // Check for an error response
-            //
-            if (response != null && response.get("error") != null) {
-                deactivate();
-                if (Errors.SEQUENCE_ERROR.equals(response.get("error")) && request != Peers.getMyPeerInfoRequest()) {
-                    Logger.logDebugMessage("Sequence error, reconnecting to " + host);
-                    connect();
-                } else {
-                    Logger.logDebugMessage("Peer " + host + " version " + version + " returned error: " +
-                            response.toJSONString() + ", request was: " + JSON.toString(request) +
-                            ", disconnecting");
-                    if (connection != null) {
-                        connection.disconnect();
-                    }
-                }
+            try {
+                if (responseString.length() > maxResponseSize)
+                    throw new NxtException.NxtIOException("Maximum size exceeded: " + responseString.length());
+                response = (JSONObject)JSONValue.parseWithException(responseString);
+                updateDownloadedVolume(responseString.length());
+            } catch (NxtException.NxtIOException | ParseException | RuntimeException e) {
+                failure = e;
             }
-        } catch (NxtException.NxtIOException e) {
-            blacklist(e);
-            if (connection != null) {
-                connection.disconnect();
+        }
+        if (failure instanceof HttpResponseException) {
+            int status = ((HttpResponseException)failure).getResponse().getStatus();
+            if ((communicationLoggingMask & Peers.LOGGING_MASK_NON200_RESPONSES) != 0) {
+                log += " >>> Peer responded with HTTP " + status + " code!";
+                showLog = true;
             }
-        } catch (RuntimeException|ParseException|IOException e) {
-            if (!(e instanceof UnknownHostException || e instanceof SocketTimeoutException ||
-                                        e instanceof SocketException || Errors.END_OF_FILE.equals(e.getMessage()))) {
+            Logger.logDebugMessage("Peer " + host + " responded with HTTP " + status);
+            deactivate();
+        } else if (failure instanceof NxtException.NxtIOException) {
+            blacklist((NxtException.NxtIOException)failure);
+        } else if (failure != null) {
+            if (!(failure instanceof UnknownHostException || failure instanceof SocketTimeoutException ||
+                    failure instanceof TimeoutException || failure instanceof SocketException ||
+                    failure instanceof EOFException || Errors.END_OF_FILE.equals(failure.getMessage()))) {
                 Logger.logDebugMessage(String.format("Error sending request to peer %s: %s",
-                                       host, e.getMessage()!=null ? e.getMessage() : e.toString()));
+                                       host, failure.getMessage()!=null ? failure.getMessage() : failure.toString()));
             }
             if ((communicationLoggingMask & Peers.LOGGING_MASK_EXCEPTIONS) != 0) {
-                log += " >>> " + e.toString();
+                log += " >>> " + failure.toString();
                 showLog = true;
             }
             deactivate();
-            if (connection != null) {
-                connection.disconnect();
+        } else if (response != null && (Errors.BUSY.equals(response.get("error"))
+                || Errors.RATE_LIMITED.equals(response.get("error")))) {
+            //
+            // The peer is shedding load, so keep the connection and try again later
+            //
+            Logger.logDebugMessage("Peer " + host + " did not process the request: " + response.get("error"));
+        } else if (response != null && response.get("error") != null) {
+            //
+            // Check for an error response
+            //
+            deactivate();
+            if (Errors.SEQUENCE_ERROR.equals(response.get("error")) && request != Peers.getMyPeerInfoRequest()) {
+                Logger.logDebugMessage("Sequence error, reconnecting to " + host);
+                connectAsync();
+            } else {
+                Logger.logDebugMessage("Peer " + host + " version " + version + " returned error: " +
+                        response.toJSONString() + ", request was: " + JSON.toString(request) +
+                        ", disconnecting");
             }
         }
+        if (failure != null || (response != null && response.get("error") != null)) {
+            score.requestFailed();
+        } else {
+            score.requestCompleted(nanos, responseString != null ? responseString.length() : 0);
+        }
         if (showLog) {
             Logger.logMessage(log + "\n");
         }
-
         return response;
     }
 
+    @Override
+    public PeerScore getScore() {
+        return score;
+    }
+
+    PeerRequestScheduler.TokenBucket getRequestBucket() {
+        return requestBucket;
+    }
+
     @Override
     public int compareTo(Peer o) {
         if (getWeight() > o.getWeight()) {
@@ -611,7 +706,45 @@ final class PeerImpl implements Peer {
     }
 
     void connect() {
+        try {
+            connectAsync().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Logger.logDebugMessage("Error connecting to peer " + host, e);
+        }
+    }
+
+    /**
+     * Connect to the peer without blocking the calling thread
+     *
+     * The announced address check and the peer information processing may need
+     * DNS lookups, so they are run by the peers service while the peer information
+     * request itself is handled by the peer transport.
+     *
+     * @return                      Future completed when the connection attempt is finished
+     */
+    CompletableFuture<Void> connectAsync() {
         lastConnectAttempt = Nxt.getEpochTime();
+        return CompletableFuture.supplyAsync(this::checkAnnouncedAddress, Peers.peersService)
+                .thenCompose(peer -> {
+                    if (peer == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    if (peer != this) {
+                        return peer.connectAsync();
+                    }
+                    return sendAsync(Peers.getMyPeerInfoRequest(), Peers.MAX_RESPONSE_SIZE)
+                            .thenAcceptAsync(this::processPeerInfo, Peers.peersService);
+                });
+    }
+
+    /**
+     * Check that the announced address still points to this peer
+     *
+     * @return                      This peer, the peer replacing it, or null if the peer should not be connected
+     */
+    private PeerImpl checkAnnouncedAddress() {
         try {
             if (!Peers.ignorePeerAnnouncedAddress && announcedAddress != null) {
                 try {
@@ -623,16 +756,28 @@ final class PeerImpl implements Peer {
                         PeerImpl newPeer = Peers.findOrCreatePeer(inetAddress, announcedAddress, true);
                         if (newPeer != null) {
                             Peers.addPeer(newPeer);
-                            newPeer.connect();
                         }
-                        return;
+                        return newPeer;
                     }
                 } catch (URISyntaxException | UnknownHostException e) {
                     blacklist(e);
-                    return;
+                    return null;
                 }
             }
-            JSONObject response = send(Peers.getMyPeerInfoRequest());
+            return this;
+        } catch (RuntimeException e) {
+            blacklist(e);
+            return null;
+        }
+    }
+
+    /**
+     * Process the peer information returned by the peer
+     *
+     * @param   response            Peer information or null if the peer didn't respond
+     */
+    private void processPeerInfo(JSONObject response) {
+        try {
             if (response != null) {
                 if (response.get("error") != null) {
                     setState(State.NON_CONNECTED);
@@ -695,6 +840,7 @@ final class PeerImpl implements Peer {
                 
                 if (!isOldVersion) {
                     setState(State.CONNECTED);
+                    lastConnected = lastConnectAttempt;
                     if (services != origServices) {
                         Peers.notifyListeners(this, Peers.Event.CHANGED_SERVICES);
                     }
@@ -0,0 +1,399 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.peer;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+
+import java.io.EOFException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * WebSocket message framing
+ *
+ * Each message consists of a 20-byte header (version, request identifier, flags and
+ * uncompressed length) followed by the UTF-8 message, which is GZIP-compressed when
+ * the compressed flag is set.  Messages are built in pooled buffers: compression writes
+ * directly into the buffer that is sent and decompression reads directly from the
+ * received message, using pooled Deflater and Inflater instances.  The decompression
+ * buffer grows with the decompressed data rather than being sized by the length in
+ * the message header, which is supplied by the peer.  Short messages are not compressed
+ * and are decoded in place.
+ */
+final class PeerMessageCodec {
+
+    /** Message header size */
+    static final int HEADER_SIZE = 20;
+
+    /** Compressed message flag */
+    static final int FLAG_COMPRESSED = 1;
+
+    /** Smallest pooled buffer */
+    private static final int MIN_BUFFER_SIZE = 1024;
+
+    /** Expected compression ratio used to size the initial decompression buffer */
+    private static final int INFLATE_RATIO = 4;
+
+    /** GZIP header written by GZIPOutputStream */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    /** GZIP trailer size */
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    /** GZIP header flags */
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    /** Buffer pool */
+    private final ByteBufferPool bufferPool;
+
+    /** Idle compressors */
+    private final BlockingQueue<Deflater> deflaters;
+
+    /** Idle decompressors */
+    private final BlockingQueue<Inflater> inflaters;
+
+    /**
+     * Create a message codec
+     *
+     * @param   bufferPool          Buffer pool
+     * @param   poolSize            Maximum number of idle compressors and decompressors
+     */
+    PeerMessageCodec(ByteBufferPool bufferPool, int poolSize) {
+        this.bufferPool = bufferPool;
+        this.deflaters = new ArrayBlockingQueue<>(poolSize);
+        this.inflaters = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Encode a message
+     *
+     * The returned buffer is ready to be sent and must be returned to the pool
+     * by calling release() once the message has been written.
+     *
+     * @param   version             Message version
+     * @param   requestId           Request identifier
+     * @param   message             Message
+     * @param   compress            TRUE to compress messages of at least Peers.MIN_COMPRESS_SIZE bytes
+     * @return                      Message buffer
+     * @throws  ProtocolException   Message exceeds the maximum message size
+     */
+    ByteBuffer encode(int version, long requestId, String message, boolean compress) throws ProtocolException {
+        ByteBuffer buf;
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        if (compress && messageBytes.length >= Peers.MIN_COMPRESS_SIZE) {
+            buf = acquire(HEADER_SIZE + GZIP_HEADER.length + deflateBound(messageBytes.length) + GZIP_TRAILER_SIZE);
+            buf.putInt(version)
+               .putLong(requestId)
+               .putInt(FLAG_COMPRESSED)
+               .putInt(messageBytes.length)
+               .put(GZIP_HEADER);
+            buf = deflate(messageBytes, buf);
+            CRC32 crc = new CRC32();
+            crc.update(messageBytes, 0, messageBytes.length);
+            buf = ensureCapacity(buf, GZIP_TRAILER_SIZE);
+            putIntLE(buf, (int)crc.getValue());
+            putIntLE(buf, messageBytes.length);
+        } else {
+            buf = acquire(HEADER_SIZE + messageBytes.length);
+            buf.putInt(version)
+               .putLong(requestId)
+               .putInt(0)
+               .putInt(messageBytes.length)
+               .put(messageBytes);
+        }
+        buf.flip();
+        if (buf.limit() > Peers.MAX_MESSAGE_SIZE) {
+            release(buf);
+            throw new ProtocolException("WebSocket message length exceeds max message size");
+        }
+        return buf;
+    }
+
+    /**
+     * Decode a message
+     *
+     * @param   inbuf               Message buffer
+     * @param   off                 Starting offset
+     * @param   len                 Message length
+     * @return                      Decoded message
+     * @throws  ProtocolException   Message is not valid
+     * @throws  EOFException        Message is truncated
+     */
+    Message decode(byte[] inbuf, int off, int len) throws ProtocolException, EOFException {
+        if (len < HEADER_SIZE) {
+            throw new EOFException("WebSocket message header is truncated");
+        }
+        ByteBuffer header = ByteBuffer.wrap(inbuf, off, HEADER_SIZE);
+        int version = header.getInt();
+        long requestId = header.getLong();
+        int flags = header.getInt();
+        int length = header.getInt();
+        if (length < 0 || length > Peers.MAX_MESSAGE_SIZE) {
+            throw new ProtocolException("WebSocket message length " + length + " is not valid");
+        }
+        String message;
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            ByteBuffer buf = inflate(inbuf, off + HEADER_SIZE, len - HEADER_SIZE, length);
+            try {
+                message = new String(buf.array(), buf.arrayOffset(), length, StandardCharsets.UTF_8);
+            } finally {
+                release(buf);
+            }
+        } else {
+            if (length > len - HEADER_SIZE) {
+                throw new EOFException("WebSocket message is truncated");
+            }
+            message = new String(inbuf, off + HEADER_SIZE, length, StandardCharsets.UTF_8);
+        }
+        return new Message(version, requestId, message);
+    }
+
+    /**
+     * Return a message buffer to the pool
+     *
+     * @param   buf                 Message buffer
+     */
+    void release(ByteBuffer buf) {
+        bufferPool.release(buf);
+    }
+
+    /**
+     * Compress the message into the message buffer, replacing the buffer if it is too small
+     *
+     * @param   messageBytes        Message bytes
+     * @param   buf                 Message buffer
+     * @return                      Message buffer
+     */
+    private ByteBuffer deflate(byte[] messageBytes, ByteBuffer buf) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            deflater.setInput(messageBytes);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (!buf.hasRemaining()) {
+                    buf = ensureCapacity(buf, buf.capacity());
+                }
+                int count = deflater.deflate(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+                buf.position(buf.position() + count);
+            }
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+        return buf;
+    }
+
+    /**
+     * Decompress a GZIP stream
+     *
+     * The returned buffer holds the uncompressed data starting at the beginning of its
+     * backing array and must be returned to the pool by calling release().  The buffer
+     * starts at a size based on the compressed length and grows as data is decompressed.
+     *
+     * @param   inbuf               Compressed data
+     * @param   off                 Starting offset
+     * @param   len                 Compressed data length
+     * @param   length              Uncompressed data length
+     * @return                      Uncompressed data buffer
+     * @throws  ProtocolException   Compressed data is not valid
+     * @throws  EOFException        Compressed data is truncated
+     */
+    private ByteBuffer inflate(byte[] inbuf, int off, int len, int length) throws ProtocolException, EOFException {
+        int end = off + len;
+        int pos = skipGzipHeader(inbuf, off, end);
+        ByteBuffer buf = acquire((int)Math.min(length, (long)len * INFLATE_RATIO));
+        boolean success = false;
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setInput(inbuf, pos, end - pos);
+            while (buf.position() < length) {
+                if (!buf.hasRemaining()) {
+                    buf = ensureCapacity(buf, Math.min(buf.capacity(), length - buf.position()));
+                }
+                int count = inflater.inflate(buf.array(), buf.arrayOffset() + buf.position(),
+                        Math.min(buf.remaining(), length - buf.position()));
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("End-of-data reading compressed data");
+                }
+                buf.position(buf.position() + count);
+            }
+            //
+            // The end of the deflate stream may not have been processed yet, but it
+            // must not produce any more data
+            //
+            if (!inflater.finished() && (inflater.inflate(new byte[1]) != 0 || !inflater.finished())) {
+                throw new ProtocolException("Uncompressed data exceeds message length");
+            }
+            int trailer = end - inflater.getRemaining();
+            if (end - trailer < GZIP_TRAILER_SIZE) {
+                throw new EOFException("GZIP trailer is truncated");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), buf.arrayOffset(), length);
+            if (getIntLE(inbuf, trailer) != (int)crc.getValue() || getIntLE(inbuf, trailer + 4) != length) {
+                throw new ProtocolException("Corrupt GZIP trailer");
+            }
+            success = true;
+            return buf;
+        } catch (DataFormatException exc) {
+            throw new ProtocolException("Invalid compressed data: " + exc.getMessage());
+        } finally {
+            if (!success) {
+                release(buf);
+            }
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Skip the GZIP header
+     *
+     * @param   buf                 Compressed data
+     * @param   pos                 Starting offset
+     * @param   end                 Ending offset
+     * @return                      Offset of the deflate stream
+     * @throws  ProtocolException   Header is not valid
+     * @throws  EOFException        Header is truncated
+     */
+    private static int skipGzipHeader(byte[] buf, int pos, int end) throws ProtocolException, EOFException {
+        if (end - pos < GZIP_HEADER.length) {
+            throw new EOFException("GZIP header is truncated");
+        }
+        if (buf[pos] != GZIP_HEADER[0] || buf[pos + 1] != GZIP_HEADER[1]) {
+            throw new ProtocolException("Not in GZIP format");
+        }
+        if (buf[pos + 2] != Deflater.DEFLATED) {
+            throw new ProtocolException("Unsupported compression method");
+        }
+        int flags = buf[pos + 3] & 0xff;
+        pos += GZIP_HEADER.length;
+        if ((flags & FEXTRA) != 0) {
+            if (end - pos < 2) {
+                throw new EOFException("GZIP header is truncated");
+            }
+            pos += 2 + ((buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            while (pos < end && buf[pos++] != 0) ;
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (pos < end && buf[pos++] != 0) ;
+        }
+        if ((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        if (pos > end) {
+            throw new EOFException("GZIP header is truncated");
+        }
+        return pos;
+    }
+
+    /**
+     * Acquire a heap buffer from the pool
+     *
+     * The buffer size is rounded up to a power of 2 so the pool only keeps
+     * buffers of a few distinct sizes.
+     *
+     * @param   size                Minimum buffer size
+     * @return                      Buffer ready to be filled
+     */
+    private ByteBuffer acquire(int size) {
+        int capacity = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(Math.max(size - 1, 1)) << 1);
+        ByteBuffer buf = bufferPool.acquire(capacity, false);
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Make sure the buffer has room for additional data
+     *
+     * @param   buf                 Buffer
+     * @param   needed              Number of bytes needed
+     * @return                      Original buffer or a larger copy
+     */
+    private ByteBuffer ensureCapacity(ByteBuffer buf, int needed) {
+        if (buf.remaining() >= needed) {
+            return buf;
+        }
+        ByteBuffer newBuf = acquire(buf.position() + needed);
+        buf.flip();
+        newBuf.put(buf);
+        release(buf);
+        return newBuf;
+    }
+
+    /**
+     * Return an upper bound for the size of a raw deflate stream
+     *
+     * @param   length              Uncompressed length
+     * @return                      Maximum compressed length
+     */
+    private static int deflateBound(int length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+    }
+
+    private static void putIntLE(ByteBuffer buf, int value) {
+        buf.put((byte)value).put((byte)(value >> 8)).put((byte)(value >> 16)).put((byte)(value >> 24));
+    }
+
+    private static int getIntLE(byte[] buf, int pos) {
+        return (buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8) | ((buf[pos + 2] & 0xff) << 16) | ((buf[pos + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Decoded message
+     */
+    static final class Message {
+
+        /** Message version */
+        final int version;
+
+        /** Request identifier */
+        final long requestId;
+
+        /** Message */
+        final String message;
+
+        private Message(int version, long requestId, String message) {
+            this.version = version;
+            this.requestId = requestId;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.peer;
+
+import nxt.Nxt;
+import nxt.util.Logger;
+import nxt.util.Metrics;
+import nxt.util.QueuedThreadPool;
+import nxt.util.ThreadPool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Inbound peer request scheduler
+ *
+ * Peer requests are assigned a priority class when they are received.  Each peer has
+ * a token bucket and a request is refused when the peer has used up its tokens, with
+ * the more expensive blockchain download requests using more tokens.  Accepted requests
+ * are placed in a bounded queue for their class and are processed by a fixed number
+ * of worker threads, always taking the request from the highest priority queue that
+ * is below its concurrency limit.  One worker is reserved for block propagation and the
+ * download and peer exchange classes may only use part of the other workers, so block
+ * propagation always finds a free worker while transactions are relayed and sync peers
+ * are served.  A request is shed when its queue is full or when it has waited longer
+ * than the maximum queue time.
+ */
+final class PeerRequestScheduler {
+
+    /**
+     * Request priority classes in decreasing priority
+     */
+    enum Priority {
+        /** Block propagation */
+        BLOCK(1, 1.0),
+        /** Transaction relay */
+        TRANSACTION(1, 1.0),
+        /** Blockchain download requests */
+        SYNC(4, 0.5),
+        /** Peer exchange */
+        PEER(1, 0.25);
+
+        /** Number of tokens used by a request */
+        private final int cost;
+
+        /** Fraction of the worker threads available to the class, excluding the block worker */
+        private final double share;
+
+        Priority(int cost, double share) {
+            this.cost = cost;
+            this.share = share;
+        }
+    }
+
+    /** Scheduler enabled */
+    static final boolean enabled = Nxt.getBooleanProperty("nxt.enablePeerRequestScheduler");
+
+    /** Number of worker threads */
+    private static final int workerCount;
+
+    /** Number of worker threads available to the classes below BLOCK */
+    private static final int sharedCount;
+
+    /** Maximum number of queued requests for each priority class */
+    private static final int queueSize = Nxt.getIntProperty("nxt.peerRequestQueueSize", 200);
+
+    /** Maximum time in milliseconds that a request can wait in the queue */
+    private static final long maxWait = Nxt.getIntProperty("nxt.peerRequestMaxWait", 10000);
+
+    /** Token refill rate in tokens per second */
+    private static final int requestRate = Nxt.getIntProperty("nxt.peerRequestRate", 20);
+
+    /** Token bucket size */
+    private static final int requestBurst = Nxt.getIntProperty("nxt.peerRequestBurst", 100);
+
+    /** Request queues indexed by priority */
+    private static final List<ArrayDeque<Task>> queues;
+
+    /** Concurrency limits indexed by priority */
+    private static final int[] limits;
+
+    /** Running requests indexed by priority */
+    private static final int[] running;
+
+    /** Running requests */
+    private static int runningCount;
+
+    /** Worker threads */
+    private static final ExecutorService workers;
+
+    /** Shed request counters indexed by priority */
+    private static final Metrics.Counter[] shedCounters;
+
+    /** Rate limited request counters indexed by priority */
+    private static final Metrics.Counter[] rateLimitedCounters;
+
+    static {
+        int threads = Nxt.getIntProperty("nxt.peerRequestThreads");
+        workerCount = threads > 0 ? Math.max(threads, 2) : Math.max(Runtime.getRuntime().availableProcessors() * 2, 4);
+        sharedCount = workerCount - 1;
+        Priority[] priorities = Priority.values();
+        queues = new ArrayList<>(priorities.length);
+        limits = new int[priorities.length];
+        running = new int[priorities.length];
+        shedCounters = new Metrics.Counter[priorities.length];
+        rateLimitedCounters = new Metrics.Counter[priorities.length];
+        Metrics.Family<Metrics.Counter> shedFamily = Metrics.counterFamily("nxt_peer_requests_shed_total",
+                "Inbound peer requests shed because the queue was full or the request waited too long", "class");
+        Metrics.Family<Metrics.Counter> rateLimitedFamily = Metrics.counterFamily("nxt_peer_requests_rate_limited_total",
+                "Inbound peer requests refused because the peer exceeded its request rate", "class");
+        for (Priority priority : priorities) {
+            int i = priority.ordinal();
+            queues.add(new ArrayDeque<>());
+            limits[i] = priority == Priority.BLOCK ? workerCount : Math.max((int)(sharedCount * priority.share), 1);
+            String label = priority.name().toLowerCase();
+            shedCounters[i] = shedFamily.labels(label);
+            rateLimitedCounters[i] = rateLimitedFamily.labels(label);
+            Metrics.gauge("nxt_peer_request_queue_depth", "Inbound peer requests waiting for a worker", "class", label,
+                    () -> queueDepth(priority));
+        }
+        workers = new QueuedThreadPool(workerCount, workerCount);
+    }
+
+    /**
+     * Scheduled request
+     */
+    abstract static class Task {
+
+        /** Time the request was queued */
+        private long queueTime;
+
+        /**
+         * Process the request
+         */
+        abstract void run();
+
+        /**
+         * Reject the request without processing it
+         *
+         * @param   error               Error message
+         */
+        abstract void reject(String error);
+    }
+
+    /**
+     * Per-peer token bucket
+     */
+    static final class TokenBucket {
+
+        private double tokens = requestBurst;
+        private long lastRefill = System.nanoTime();
+
+        /**
+         * Take tokens from the bucket
+         *
+         * @param   cost                Number of tokens
+         * @return                      TRUE if the tokens were available
+         */
+        synchronized boolean take(int cost) {
+            long now = System.nanoTime();
+            tokens = Math.min(tokens + (double)(now - lastRefill) * requestRate / 1_000_000_000L, requestBurst);
+            lastRefill = now;
+            if (tokens < cost) {
+                return false;
+            }
+            tokens -= cost;
+            return true;
+        }
+    }
+
+    /**
+     * Schedule a peer request.  The task is rejected immediately if the peer has exceeded
+     * its request rate or the queue for the priority class is full.
+     *
+     * @param   peer                    Requesting peer
+     * @param   priority                Request priority
+     * @param   task                    Request task
+     */
+    static void submit(PeerImpl peer, Priority priority, Task task) {
+        int i = priority.ordinal();
+        if (!peer.getRequestBucket().take(priority.cost)) {
+            rateLimitedCounters[i].increment();
+            task.reject(Errors.RATE_LIMITED);
+            return;
+        }
+        synchronized (queues) {
+            if (queues.get(i).size() < queueSize) {
+                task.queueTime = System.currentTimeMillis();
+                queues.get(i).add(task);
+                dispatch();
+                return;
+            }
+        }
+        shedCounters[i].increment();
+        task.reject(Errors.BUSY);
+    }
+
+    /**
+     * Start workers for the queued requests.  The caller must hold the queue lock.
+     */
+    private static void dispatch() {
+        int block = Priority.BLOCK.ordinal();
+        while (runningCount < workerCount) {
+            int i = 0;
+            while (i < queues.size() && (queues.get(i).isEmpty() || running[i] >= limits[i]
+                    || (i != block && runningCount - running[block] >= sharedCount))) {
+                i++;
+            }
+            if (i == queues.size()) {
+                return;
+            }
+            Task task = queues.get(i).poll();
+            running[i]++;
+            runningCount++;
+            final int index = i;
+            workers.execute(() -> execute(index, task));
+        }
+    }
+
+    /**
+     * Process a request on a worker thread
+     *
+     * @param   index                   Priority index
+     * @param   task                    Request task
+     */
+    private static void execute(int index, Task task) {
+        try {
+            if (System.currentTimeMillis() - task.queueTime > maxWait) {
+                shedCounters[index].increment();
+                task.reject(Errors.BUSY);
+            } else {
+                task.run();
+            }
+        } catch (RuntimeException e) {
+            Logger.logDebugMessage("Error processing peer request", e);
+        } finally {
+            synchronized (queues) {
+                running[index]--;
+                runningCount--;
+                dispatch();
+            }
+        }
+    }
+
+    private static long queueDepth(Priority priority) {
+        synchronized (queues) {
+            return queues.get(priority.ordinal()).size();
+        }
+    }
+
+    /**
+     * Stop the worker threads
+     */
+    static void shutdown() {
+        synchronized (queues) {
+            for (ArrayDeque<Task> queue : queues) {
+                queue.clear();
+            }
+        }
+        ThreadPool.shutdownExecutor("peerRequestWorkers", workers, 5);
+    }
+
+    private PeerRequestScheduler() {} // never
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.peer;
+
+/**
+ * Measured peer quality
+ *
+ * The score combines exponentially weighted moving averages of the request latency,
+ * the response throughput and the request error rate with the fraction of the blocks
+ * received from the peer that were accepted.  The score ranges from 0 to 1, where a
+ * peer without any measurements has a score of 0.5.
+ */
+public final class PeerScore {
+
+    /** Weight of a new sample in the moving averages */
+    private static final double ALPHA = 0.2;
+
+    /** Latency (milliseconds) which halves the latency factor */
+    private static final double REFERENCE_LATENCY = 1000;
+
+    /** Throughput (bytes/second) which halves the throughput factor */
+    private static final double REFERENCE_THROUGHPUT = 64 * 1024;
+
+    /** Smallest response used to measure the throughput */
+    private static final int MIN_THROUGHPUT_SIZE = 4096;
+
+    /** Smallest score used when selecting peers, so every peer can still be selected */
+    static final double MIN_SCORE = 0.01;
+
+    /** Average latency in milliseconds or -1 if not measured */
+    private double latency = -1;
+
+    /** Average throughput in bytes/second or -1 if not measured */
+    private double throughput = -1;
+
+    /** Average error rate */
+    private double errorRate;
+
+    /** Number of accepted blocks */
+    private long blocksAccepted;
+
+    /** Number of rejected blocks */
+    private long blocksRejected;
+
+    /** Score saved by an earlier run or -1 */
+    private double savedValue = -1;
+
+    PeerScore() {
+    }
+
+    /**
+     * Record a successful request
+     *
+     * @param   nanos               Request time in nanoseconds
+     * @param   bytes               Number of bytes received
+     */
+    synchronized void requestCompleted(long nanos, long bytes) {
+        double millis = (double)nanos / 1_000_000;
+        latency = latency < 0 ? millis : latency + ALPHA * (millis - latency);
+        if (bytes >= MIN_THROUGHPUT_SIZE && nanos > 0) {
+            double rate = (double)bytes * 1_000_000_000 / nanos;
+            throughput = throughput < 0 ? rate : throughput + ALPHA * (rate - throughput);
+        }
+        errorRate -= ALPHA * errorRate;
+    }
+
+    /**
+     * Set the score saved by an earlier run.  The saved score is used until the
+     * peer has been measured.
+     *
+     * @param   value               Saved score
+     */
+    synchronized void restore(double value) {
+        savedValue = value;
+    }
+
+    /**
+     * Record a failed request
+     */
+    synchronized void requestFailed() {
+        errorRate += ALPHA * (1 - errorRate);
+    }
+
+    /**
+     * Record a block received from the peer that was accepted
+     */
+    public synchronized void blockAccepted() {
+        blocksAccepted++;
+    }
+
+    /**
+     * Record a block received from the peer that was not accepted
+     */
+    public synchronized void blockRejected() {
+        blocksRejected++;
+    }
+
+    /**
+     * Return the peer score
+     *
+     * @return                      Score between 0 and 1
+     */
+    public synchronized double getValue() {
+        if (savedValue >= 0 && latency < 0 && errorRate == 0 && blocksAccepted + blocksRejected == 0) {
+            return savedValue;
+        }
+        double latencyFactor = latency < 0 ? 0.5 : REFERENCE_LATENCY / (REFERENCE_LATENCY + latency);
+        double throughputFactor = throughput < 0 ? 0.5 : throughput / (REFERENCE_THROUGHPUT + throughput);
+        double validity = (double)(blocksAccepted + 1) / (blocksAccepted + blocksRejected + 1);
+        return (1 - errorRate) * validity * (latencyFactor + throughputFactor) / 2;
+    }
+
+    /**
+     * Return the average request latency
+     *
+     * @return                      Latency in milliseconds or -1 if not measured
+     */
+    public synchronized long getLatency() {
+        return Math.round(latency);
+    }
+
+    /**
+     * Return the average response throughput
+     *
+     * @return                      Throughput in bytes/second or -1 if not measured
+     */
+    public synchronized long getThroughput() {
+        return Math.round(throughput);
+    }
+
+    /**
+     * Return the average request error rate
+     *
+     * @return                      Error rate between 0 and 1
+     */
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Return the number of accepted blocks
+     *
+     * @return                      Accepted blocks
+     */
+    public synchronized long getBlocksAccepted() {
+        return blocksAccepted;
+    }
+
+    /**
+     * Return the number of rejected blocks
+     *
+     * @return                      Rejected blocks
+     */
+    public synchronized long getBlocksRejected() {
+        return blocksRejected;
+    }
+}
@@ -33,6 +33,7 @@ import org.json.simple.JSONStreamAware;
 import org.json.simple.JSONValue;
 import org.json.simple.parser.ParseException;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -44,12 +45,16 @@ import java.net.InetSocketAddress;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public final class PeerServlet extends WebSocketServlet {
 
     abstract static class PeerRequestHandler {
         abstract JSONStreamAware processRequest(JSONObject request, Peer peer);
         abstract boolean rejectWhileDownloading();
+        PeerRequestScheduler.Priority getPriority() {
+            return PeerRequestScheduler.Priority.PEER;
+        }
     }
 
     private static final Map<String,PeerRequestHandler> peerRequestHandlers;
@@ -66,6 +71,7 @@ public final class PeerServlet extends WebSocketServlet {
         map.put("getTransactions", GetTransactions.instance);
         map.put("getUnconfirmedTransactions", GetUnconfirmedTransactions.instance);
         map.put("processBlock", ProcessBlock.instance);
+        map.put("processCompactBlock", ProcessCompactBlock.instance);
         map.put("processTransactions", ProcessTransactions.instance);
         peerRequestHandlers = Collections.unmodifiableMap(map);
     }
@@ -119,6 +125,20 @@ public final class PeerServlet extends WebSocketServlet {
         LIGHT_CLIENT = JSON.prepare(response);
     }
 
+    private static final JSONStreamAware BUSY;
+    static {
+        JSONObject response = new JSONObject();
+        response.put("error", Errors.BUSY);
+        BUSY = JSON.prepare(response);
+    }
+
+    private static final JSONStreamAware RATE_LIMITED;
+    static {
+        JSONObject response = new JSONObject();
+        response.put("error", Errors.RATE_LIMITED);
+        RATE_LIMITED = JSON.prepare(response);
+    }
+
     private static final BlockchainProcessor blockchainProcessor = Nxt.getBlockchainProcessor();
 
     static JSONStreamAware error(Exception e) {
@@ -149,19 +169,38 @@ public final class PeerServlet extends WebSocketServlet {
      */
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        JSONStreamAware jsonResponse;
         //
         // Process the peer request
         //
         PeerImpl peer = Peers.findOrCreatePeer(req.getRemoteAddr());
         if (peer == null) {
-            jsonResponse = UNKNOWN_PEER;
+            sendResponse(null, resp, UNKNOWN_PEER);
+        } else if (PeerRequestScheduler.enabled) {
+            //
+            // The response is returned by the scheduler worker once the request has been processed
+            //
+            AsyncContext asyncContext = req.startAsync();
+            asyncContext.setTimeout(0);
+            process(peer, req.getReader(), jsonResponse -> {
+                try {
+                    sendResponse(peer, (HttpServletResponse)asyncContext.getResponse(), jsonResponse);
+                } finally {
+                    asyncContext.complete();
+                }
+            });
         } else {
-            jsonResponse = process(peer, req.getReader());
+            process(peer, req.getReader(), jsonResponse -> sendResponse(peer, resp, jsonResponse));
         }
-        //
-        // Return the response
-        //
+    }
+
+    /**
+     * Return the HTTP response
+     *
+     * @param   peer                Peer or null
+     * @param   resp                HTTP response
+     * @param   jsonResponse        JSON response
+     */
+    private void sendResponse(PeerImpl peer, HttpServletResponse resp, JSONStreamAware jsonResponse) {
         resp.setContentType("text/plain; charset=UTF-8");
         try (CountingOutputWriter writer = new CountingOutputWriter(resp.getWriter())) {
             JSON.writeJSONString(jsonResponse, writer);
@@ -169,18 +208,27 @@ public final class PeerServlet extends WebSocketServlet {
                 peer.updateUploadedVolume(writer.getCount());
             }
         } catch (RuntimeException | IOException e) {
-            if (peer != null) {
-                if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_EXCEPTIONS) != 0) {
-                    if (e instanceof RuntimeException) {
-                        Logger.logDebugMessage("Error sending response to peer " + peer.getHost(), e);
-                    } else {
-                        Logger.logDebugMessage(String.format("Error sending response to peer %s: %s",
-                            peer.getHost(), e.getMessage() != null ? e.getMessage() : e.toString()));
-                    }
+            sendFailed(peer, e);
+        }
+    }
+
+    /**
+     * Handle a failure to return a response
+     *
+     * @param   peer                Peer or null
+     * @param   e                   Exception
+     */
+    private void sendFailed(PeerImpl peer, Exception e) {
+        if (peer != null) {
+            if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_EXCEPTIONS) != 0) {
+                if (e instanceof RuntimeException) {
+                    Logger.logDebugMessage("Error sending response to peer " + peer.getHost(), e);
+                } else {
+                    Logger.logDebugMessage(String.format("Error sending response to peer %s: %s",
+                        peer.getHost(), e.getMessage() != null ? e.getMessage() : e.toString()));
                 }
-                peer.blacklist(e);
             }
-            throw e;
+            peer.blacklist(e);
         }
     }
 
@@ -192,7 +240,6 @@ public final class PeerServlet extends WebSocketServlet {
      * @param   request             Request message
      */
     void doPost(PeerWebSocket webSocket, long requestId, String request) {
-        JSONStreamAware jsonResponse;
         //
         // Process the peer request
         //
@@ -203,14 +250,22 @@ public final class PeerServlet extends WebSocketServlet {
         String remoteAddress = socketAddress.getHostString();
         PeerImpl peer = Peers.findOrCreatePeer(remoteAddress);
         if (peer == null) {
-            jsonResponse = UNKNOWN_PEER;
+            sendResponse(null, webSocket, requestId, UNKNOWN_PEER);
         } else {
             peer.setInboundWebSocket(webSocket);
-            jsonResponse = process(peer, new StringReader(request));
+            process(peer, new StringReader(request), jsonResponse -> sendResponse(peer, webSocket, requestId, jsonResponse));
         }
-        //
-        // Return the response
-        //
+    }
+
+    /**
+     * Return the WebSocket response
+     *
+     * @param   peer                Peer or null
+     * @param   webSocket           WebSocket for the connection
+     * @param   requestId           Request identifier
+     * @param   jsonResponse        JSON response
+     */
+    private void sendResponse(PeerImpl peer, PeerWebSocket webSocket, long requestId, JSONStreamAware jsonResponse) {
         try {
             StringWriter writer = new StringWriter(1000);
             JSON.writeJSONString(jsonResponse, writer);
@@ -220,17 +275,7 @@ public final class PeerServlet extends WebSocketServlet {
                 peer.updateUploadedVolume(response.length());
             }
         } catch (RuntimeException | IOException e) {
-            if (peer != null) {
-                if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_EXCEPTIONS) != 0) {
-                    if (e instanceof RuntimeException) {
-                        Logger.logDebugMessage("Error sending response to peer " + peer.getHost(), e);
-                    } else {
-                        Logger.logDebugMessage(String.format("Error sending response to peer %s: %s",
-                            peer.getHost(), e.getMessage() != null ? e.getMessage() : e.toString()));
-                    }
-                }
-                peer.blacklist(e);
-            }
+            sendFailed(peer, e);
         }
     }
 
@@ -239,9 +284,61 @@ public final class PeerServlet extends WebSocketServlet {
      *
      * @param   peer                Peer
      * @param   inputReader         Input reader
-     * @return                      JSON response
+     * @param   responder           Receives the JSON response
+     */
+    private void process(PeerImpl peer, Reader inputReader, Consumer<JSONStreamAware> responder) {
+        //
+        // Check the request
+        //
+        JSONObject request;
+        PeerRequestHandler peerRequestHandler;
+        try (CountingInputReader cr = new CountingInputReader(inputReader, Peers.MAX_REQUEST_SIZE)) {
+            JSONStreamAware error = checkPeer(peer);
+            if (error != null) {
+                responder.accept(error);
+                return;
+            }
+            request = (JSONObject)JSONValue.parseWithException(cr);
+            peer.updateDownloadedVolume(cr.getCount());
+            error = checkRequest(peer, request);
+            if (error != null) {
+                responder.accept(error);
+                return;
+            }
+            peerRequestHandler = peerRequestHandlers.get((String)request.get("requestType"));
+        } catch (RuntimeException|ParseException|IOException e) {
+            Logger.logDebugMessage("Error processing POST request: " + e.toString());
+            peer.blacklist(e);
+            responder.accept(error(e));
+            return;
+        }
+        //
+        // Process the request
+        //
+        if (PeerRequestScheduler.enabled) {
+            PeerRequestScheduler.submit(peer, peerRequestHandler.getPriority(), new PeerRequestScheduler.Task() {
+                @Override
+                void run() {
+                    responder.accept(processRequest(peer, peerRequestHandler, request));
+                }
+
+                @Override
+                void reject(String error) {
+                    responder.accept(Errors.RATE_LIMITED.equals(error) ? RATE_LIMITED : BUSY);
+                }
+            });
+        } else {
+            responder.accept(processRequest(peer, peerRequestHandler, request));
+        }
+    }
+
+    /**
+     * Check the requesting peer before the request is read
+     *
+     * @param   peer                Peer
+     * @return                      Error response or null
      */
-    private JSONStreamAware process(PeerImpl peer, Reader inputReader) {
+    private JSONStreamAware checkPeer(PeerImpl peer) {
         //
         // Check for blacklisted peer
         //
@@ -252,43 +349,61 @@ public final class PeerServlet extends WebSocketServlet {
             return jsonObject;
         }
         Peers.addPeer(peer);
-        //
-        // Process the request
-        //
-        try (CountingInputReader cr = new CountingInputReader(inputReader, Peers.MAX_REQUEST_SIZE)) {
-            JSONObject request = (JSONObject)JSONValue.parseWithException(cr);
-            peer.updateDownloadedVolume(cr.getCount());
-            if (request.get("protocol") == null || !request.get("protocol").equals("B1")) {
-                Logger.logDebugMessage("Unsupported protocol " + request.get("protocol"));
-                return UNSUPPORTED_PROTOCOL;
-            }
-            PeerRequestHandler peerRequestHandler = peerRequestHandlers.get((String)request.get("requestType"));
-            if (peerRequestHandler == null) {
-                return UNSUPPORTED_REQUEST_TYPE;
-            }
-            if (peer.getState() == Peer.State.DISCONNECTED) {
-                peer.setState(Peer.State.CONNECTED);
-            }
-            if (peer.getVersion() == null && !"getInfo".equals(request.get("requestType"))) {
-                return SEQUENCE_ERROR;
+        return null;
+    }
+
+    /**
+     * Check the request
+     *
+     * @param   peer                Peer
+     * @param   request             Request
+     * @return                      Error response or null
+     */
+    private JSONStreamAware checkRequest(PeerImpl peer, JSONObject request) {
+        if (request.get("protocol") == null || !request.get("protocol").equals("B1")) {
+            Logger.logDebugMessage("Unsupported protocol " + request.get("protocol"));
+            return UNSUPPORTED_PROTOCOL;
+        }
+        PeerRequestHandler peerRequestHandler = peerRequestHandlers.get((String)request.get("requestType"));
+        if (peerRequestHandler == null) {
+            return UNSUPPORTED_REQUEST_TYPE;
+        }
+        if (peer.getState() == Peer.State.DISCONNECTED) {
+            peer.setState(Peer.State.CONNECTED);
+        }
+        if (peer.getVersion() == null && !"getInfo".equals(request.get("requestType"))) {
+            return SEQUENCE_ERROR;
+        }
+        if (!peer.isInbound()) {
+            if (Peers.hasTooManyInboundPeers()) {
+                return MAX_INBOUND_CONNECTIONS;
             }
-            if (!peer.isInbound()) {
-                if (Peers.hasTooManyInboundPeers()) {
-                    return MAX_INBOUND_CONNECTIONS;
-                }
-                Peers.notifyListeners(peer, Peers.Event.ADD_INBOUND);
+            Peers.notifyListeners(peer, Peers.Event.ADD_INBOUND);
+        }
+        peer.setLastInboundRequest(Nxt.getEpochTime());
+        if (peerRequestHandler.rejectWhileDownloading()) {
+            if (blockchainProcessor.isDownloading()) {
+                return DOWNLOADING;
             }
-            peer.setLastInboundRequest(Nxt.getEpochTime());
-            if (peerRequestHandler.rejectWhileDownloading()) {
-                if (blockchainProcessor.isDownloading()) {
-                    return DOWNLOADING;
-                }
-                if (Constants.isLightClient) {
-                    return LIGHT_CLIENT;
-                }
+            if (Constants.isLightClient) {
+                return LIGHT_CLIENT;
             }
+        }
+        return null;
+    }
+
+    /**
+     * Process the request
+     *
+     * @param   peer                Peer
+     * @param   peerRequestHandler  Request handler
+     * @param   request             Request
+     * @return                      JSON response
+     */
+    private JSONStreamAware processRequest(PeerImpl peer, PeerRequestHandler peerRequestHandler, JSONObject request) {
+        try {
             return peerRequestHandler.processRequest(request, peer);
-        } catch (RuntimeException|ParseException|IOException e) {
+        } catch (RuntimeException e) {
             Logger.logDebugMessage("Error processing POST request: " + e.toString());
             peer.blacklist(e);
             return error(e);
@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.peer;
+
+import nxt.Nxt;
+import nxt.util.Logger;
+import nxt.util.Metrics;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpProxy;
+import org.eclipse.jetty.client.Socks4Proxy;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Shared asynchronous transport for outbound peer requests
+ *
+ * All outbound HTTP requests and WebSocket connections share one selector-driven
+ * client, thread pool, buffer pool and scheduler.  Requests complete through callbacks,
+ * so no thread is blocked while waiting for a peer to respond, and HTTP connections
+ * are kept alive and reused for each peer.
+ */
+final class PeerTransport {
+
+    /** Threads used to run the transport callbacks */
+    static final int transportThreads = Math.max(4, Nxt.getIntProperty("nxt.peerTransportThreads", 16));
+
+    /** Maximum number of pooled HTTP connections to a single peer */
+    static final int maxConnectionsPerPeer = Math.max(1, Nxt.getIntProperty("nxt.maxPeerConnections", 2));
+
+    /** Maximum number of outstanding requests to a single peer */
+    static final int maxRequestsInFlight = Math.max(1, Nxt.getIntProperty("nxt.maxPeerRequestsInFlight", 8));
+
+    /** Shared transport thread pool */
+    static final QueuedThreadPool executor;
+
+    /** Shared buffer pool, keeping at most 64 idle buffers of each size */
+    static final ByteBufferPool bufferPool = new MappedByteBufferPool(1024, 64);
+
+    /** Shared timer for request timeouts */
+    static final Scheduler scheduler;
+
+    /** Shared HTTP client */
+    static final HttpClient httpClient;
+
+    /**
+     * Local address for outbound connections or null to let the system choose.  Loopback
+     * peers are told apart by their address, so each node of a local test network listens
+     * on its own loopback address and also connects from it.
+     */
+    static final InetSocketAddress bindAddress;
+
+    static {
+        String peerServerHost = Nxt.getStringProperty("nxt.peerServerHost");
+        bindAddress = Peers.allowLoopbackPeers && peerServerHost != null && !peerServerHost.equals("0.0.0.0") ?
+                new InetSocketAddress(peerServerHost, 0) : null;
+        executor = new QueuedThreadPool(transportThreads, 2);
+        executor.setName("PeerTransport");
+        executor.setDaemon(true);
+        scheduler = new ScheduledExecutorScheduler("PeerTransport-scheduler", true);
+        httpClient = new HttpClient();
+        httpClient.setExecutor(executor);
+        httpClient.setScheduler(scheduler);
+        httpClient.setByteBufferPool(bufferPool);
+        httpClient.setConnectTimeout(Peers.connectTimeout);
+        httpClient.setBindAddress(bindAddress);
+        //
+        // Close idle connections before the remote peer server does, so we don't
+        // send a request on a connection that is being closed by the peer
+        //
+        httpClient.setIdleTimeout(Math.max(1000, Nxt.getIntProperty("nxt.peerServerIdleTimeout") / 2));
+        httpClient.setMaxConnectionsPerDestination(maxConnectionsPerPeer);
+        httpClient.setMaxRequestsQueuedPerDestination(maxRequestsInFlight);
+        httpClient.setFollowRedirects(false);
+        httpClient.setRemoveIdleDestinations(true);
+        String proxyHost = System.getProperty("http.proxyHost");
+        if (proxyHost != null) {
+            httpClient.getProxyConfiguration().getProxies().add(
+                    new HttpProxy(proxyHost, Integer.getInteger("http.proxyPort", 80)));
+        } else if ((proxyHost = System.getProperty("socksProxyHost")) != null) {
+            httpClient.getProxyConfiguration().getProxies().add(
+                    new Socks4Proxy(proxyHost, Integer.getInteger("socksProxyPort", 1080)));
+        }
+        try {
+            executor.start();
+            scheduler.start();
+            httpClient.start();
+        } catch (Exception exc) {
+            throw new RuntimeException(exc.toString(), exc);
+        }
+        Metrics.gauge("nxt_thread_pool_queue_depth", "Tasks waiting for a thread", "pool", "PeerTransport",
+                executor::getQueueSize);
+    }
+
+    /**
+     * Stop the transport
+     */
+    static void shutdown() {
+        try {
+            httpClient.stop();
+            scheduler.stop();
+            executor.stop();
+        } catch (Exception exc) {
+            Logger.logShutdownMessage("Failed to stop peer transport", exc);
+        }
+    }
+
+    private PeerTransport() {} // never
+}
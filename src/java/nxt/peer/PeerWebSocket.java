@@ -18,38 +18,32 @@ package nxt.peer;
 
 import nxt.util.Logger;
 import nxt.util.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.Scheduler;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.UpgradeException;
 import org.eclipse.jetty.websocket.api.WebSocketException;
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketError;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
 import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ProtocolException;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.nio.ByteBuffer;
-import java.util.Map;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * PeerWebSocket represents an HTTP/HTTPS upgraded connection
@@ -57,9 +51,6 @@ import java.util.zip.GZIPOutputStream;
 @WebSocket
 public class PeerWebSocket {
 
-    /** Compressed message flag */
-    private static final int FLAG_COMPRESSED = 1;
-
     /** Our WebSocket message version */
     private static final int VERSION = 1;
 
@@ -67,10 +58,11 @@ public class PeerWebSocket {
     private static WebSocketClient peerClient;
     static {
         try {
-            peerClient = new WebSocketClient();
+            peerClient = new WebSocketClient(null, PeerTransport.executor, PeerTransport.bufferPool);
             peerClient.getPolicy().setIdleTimeout(Peers.webSocketIdleTimeout);
             peerClient.getPolicy().setMaxBinaryMessageSize(Peers.MAX_MESSAGE_SIZE);
             peerClient.setConnectTimeout(Peers.connectTimeout);
+            peerClient.setBindAddress(PeerTransport.bindAddress);
             peerClient.start();
         } catch (Exception exc) {
             Logger.logErrorMessage("Unable to start WebSocket client", exc);
@@ -78,6 +70,10 @@ public class PeerWebSocket {
         }
     }
 
+    /** Message codec */
+    private static final PeerMessageCodec codec = new PeerMessageCodec(PeerTransport.bufferPool,
+                Runtime.getRuntime().availableProcessors() * 2);
+
     /** Negotiated WebSocket message version */
     private int version = VERSION;
 
@@ -96,7 +92,10 @@ public class PeerWebSocket {
     private final ReentrantLock lock = new ReentrantLock();
 
     /** Pending POST request map */
-    private final ConcurrentHashMap<Long, PostRequest> requestMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, CompletableFuture<String>> requestMap = new ConcurrentHashMap<>();
+
+    /** Pending client connection */
+    private CompletableFuture<Boolean> pendingConnect;
 
     /** Next POST request identifier */
     private long nextRequestId = 0;
@@ -123,61 +122,79 @@ public class PeerWebSocket {
     /**
      * Start a client session
      *
+     * The returned future completes with TRUE when the WebSocket connection is established,
+     * with FALSE if the peer does not support WebSocket connections, or exceptionally if
+     * an I/O error occurred.  The calling thread is not blocked while the connection is made.
+     *
      * @param   uri                 Server URI
-     * @return                      TRUE if the WebSocket connection was completed
-     * @throws  IOException         I/O error occurred
+     * @return                      Connection future
      */
-    public boolean startClient(URI uri) throws IOException {
+    public CompletableFuture<Boolean> startClient(URI uri) {
         if (peerClient == null) {
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
         String address = String.format("%s:%d", uri.getHost(), uri.getPort());
-        boolean useWebSocket = false;
+        CompletableFuture<Boolean> connectFuture;
         //
-        // Create a WebSocket connection.  We need to serialize the connection requests
-        // since the NRS server will issue multiple concurrent requests to the same peer.
-        // After a successful connection, the subsequent connection requests will return
-        // immediately.  After an unsuccessful connection, a new connect attempt will not
-        // be done until 60 seconds have passed.
+        // Create a WebSocket connection.  The NRS server will issue multiple concurrent
+        // requests to the same peer, so all requests made while the connection is pending
+        // share the same connection future.  After an unsuccessful connection, a new
+        // connect attempt will not be done until 10 seconds have passed.
         //
         lock.lock();
         try {
             if (session != null) {
-                useWebSocket = true;
-            } else if (System.currentTimeMillis() > connectTime + 10 * 1000) {
-                connectTime = System.currentTimeMillis();
-                ClientUpgradeRequest req = new ClientUpgradeRequest();
-                Future<Session> conn = peerClient.connect(this, uri, req);
-                conn.get(Peers.connectTimeout + 100, TimeUnit.MILLISECONDS);
-                useWebSocket = true;
+                return CompletableFuture.completedFuture(true);
             }
-        } catch (ExecutionException exc) {
-            if (exc.getCause() instanceof UpgradeException) {
-                // We will use HTTP
-            } else if (exc.getCause() instanceof IOException) {
-                // Report I/O exception
-                throw (IOException)exc.getCause();
-            } else {
-                // We will use HTTP
-                Logger.logDebugMessage(String.format("WebSocket connection to %s failed", address), exc);
+            if (pendingConnect != null) {
+                return pendingConnect;
             }
-        } catch (TimeoutException exc) {
-            throw new SocketTimeoutException(String.format("WebSocket connection to %s timed out", address));
+            if (System.currentTimeMillis() <= connectTime + 10 * 1000) {
+                return CompletableFuture.completedFuture(false);
+            }
+            connectTime = System.currentTimeMillis();
+            connectFuture = new CompletableFuture<>();
+            pendingConnect = connectFuture;
+            peerClient.connect(this, uri, new ClientUpgradeRequest());
         } catch (IllegalStateException exc) {
+            pendingConnect = null;
             if (! peerClient.isStarted()) {
                 Logger.logDebugMessage("WebSocket client not started or shutting down");
-                throw exc;
+                CompletableFuture<Boolean> failedFuture = new CompletableFuture<>();
+                failedFuture.completeExceptionally(exc);
+                return failedFuture;
             }
             Logger.logDebugMessage(String.format("WebSocket connection to %s failed", address), exc);
+            return CompletableFuture.completedFuture(false);
         } catch (Exception exc) {
+            pendingConnect = null;
             Logger.logDebugMessage(String.format("WebSocket connection to %s failed", address), exc);
+            return CompletableFuture.completedFuture(false);
         } finally {
-            if (!useWebSocket) {
-                close();
+            lock.unlock();
+        }
+        PeerTransport.scheduler.schedule(() -> {
+            if (!connectFuture.isDone()) {
+                onError(new SocketTimeoutException(String.format("WebSocket connection to %s timed out", address)));
             }
+        }, Peers.connectTimeout + 100, TimeUnit.MILLISECONDS);
+        return connectFuture;
+    }
+
+    /**
+     * Complete a pending client connection
+     *
+     * @return                      Connection future or null if there is no pending connection
+     */
+    private CompletableFuture<Boolean> completeConnect() {
+        lock.lock();
+        try {
+            CompletableFuture<Boolean> connectFuture = pendingConnect;
+            pendingConnect = null;
+            return connectFuture;
+        } finally {
             lock.unlock();
         }
-        return useWebSocket;
     }
 
     /**
@@ -188,6 +205,10 @@ public class PeerWebSocket {
     @OnWebSocketConnect
     public void onConnect(Session session) {
         this.session = session;
+        CompletableFuture<Boolean> connectFuture = completeConnect();
+        if (connectFuture != null) {
+            connectFuture.complete(true);
+        }
         if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
             Logger.logDebugMessage(String.format("%s WebSocket connection with %s completed",
                     peerServlet != null ? "Inbound" : "Outbound",
@@ -195,6 +216,32 @@ public class PeerWebSocket {
         }
     }
 
+    /**
+     * WebSocket error
+     *
+     * A pending client connection is completed with FALSE if the peer does not accept
+     * the WebSocket upgrade, so that HTTP will be used instead, and exceptionally if
+     * an I/O error occurred.
+     *
+     * @param   cause               Error cause
+     */
+    @OnWebSocketError
+    public void onError(Throwable cause) {
+        CompletableFuture<Boolean> connectFuture = completeConnect();
+        if (connectFuture == null) {
+            return;
+        }
+        if (cause instanceof UpgradeException) {
+            connectFuture.complete(false);
+        } else if (cause instanceof IOException) {
+            connectFuture.completeExceptionally(cause);
+        } else {
+            Logger.logDebugMessage("WebSocket connection failed", cause);
+            connectFuture.complete(false);
+        }
+        close();
+    }
+
     /**
      * Check if we have a WebSocket connection
      *
@@ -216,18 +263,20 @@ public class PeerWebSocket {
     }
 
     /**
-     * Process a POST request by sending the request message and then
-     * waiting for a response.  This method is used by the connection
-     * originator.
+     * Process a POST request by sending the request message.  The returned
+     * future is completed when the response is received or exceptionally if
+     * an I/O error occurs or the read timeout expires.  This method is used
+     * by the connection originator.
      *
      * @param   request             Request message
-     * @return                      Response message
-     * @throws  IOException         I/O error occurred
+     * @return                      Response future
      */
-    public String doPost(String request) throws IOException {
+    public CompletableFuture<String> doPost(String request) {
+        CompletableFuture<String> postRequest = new CompletableFuture<>();
         long requestId;
         //
-        // Send the POST request
+        // Send the POST request.  The request is registered before it is sent
+        // so a fast response is not lost.
         //
         lock.lock();
         try {
@@ -235,45 +284,41 @@ public class PeerWebSocket {
                 throw new IOException("WebSocket session is not open");
             }
             requestId = nextRequestId++;
-            byte[] requestBytes = request.getBytes("UTF-8");
-            int requestLength = requestBytes.length;
-            int flags = 0;
-            if (Peers.isGzipEnabled && requestLength >= Peers.MIN_COMPRESS_SIZE) {
-                flags |= FLAG_COMPRESSED;
-                ByteArrayOutputStream outStream = new ByteArrayOutputStream(requestLength);
-                try (GZIPOutputStream gzipStream = new GZIPOutputStream(outStream)) {
-                    gzipStream.write(requestBytes);
+            ByteBuffer buf = codec.encode(version, requestId, request, Peers.isGzipEnabled);
+            requestMap.put(requestId, postRequest);
+            session.getRemote().sendBytes(buf, new WriteCallback() {
+                @Override
+                public void writeFailed(Throwable exc) {
+                    codec.release(buf);
+                    if (requestMap.remove(requestId) != null) {
+                        postRequest.completeExceptionally(new SocketException(exc.getMessage()));
+                    }
                 }
-                requestBytes = outStream.toByteArray();
-            }
-            ByteBuffer buf = ByteBuffer.allocate(requestBytes.length + 20);
-            buf.putInt(version)
-               .putLong(requestId)
-               .putInt(flags)
-               .putInt(requestLength)
-               .put(requestBytes)
-               .flip();
-            if (buf.limit() > Peers.MAX_MESSAGE_SIZE) {
-                throw new ProtocolException("POST request length exceeds max message size");
-            }
-            session.getRemote().sendBytes(buf);
+
+                @Override
+                public void writeSuccess() {
+                    codec.release(buf);
+                }
+            });
         } catch (WebSocketException exc) {
-            throw new SocketException(exc.getMessage());
+            postRequest.completeExceptionally(new SocketException(exc.getMessage()));
+            return postRequest;
+        } catch (IOException exc) {
+            postRequest.completeExceptionally(exc);
+            return postRequest;
         } finally {
             lock.unlock();
         }
         //
-        // Get the response
+        // Fail the request if the response is not received in time
         //
-        String response;
-        try {
-            PostRequest postRequest = new PostRequest();
-            requestMap.put(requestId, postRequest);
-            response = postRequest.get(Peers.readTimeout, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException exc) {
-            throw new SocketTimeoutException("WebSocket POST interrupted");
-        }
-        return response;
+        Scheduler.Task timeout = PeerTransport.scheduler.schedule(() -> {
+            if (requestMap.remove(requestId) != null) {
+                postRequest.completeExceptionally(new SocketTimeoutException("WebSocket read timeout exceeded"));
+            }
+        }, Peers.readTimeout, TimeUnit.MILLISECONDS);
+        postRequest.whenComplete((response, exc) -> timeout.cancel());
+        return postRequest;
     }
 
     /**
@@ -289,28 +334,9 @@ public class PeerWebSocket {
         lock.lock();
         try {
             if (session != null && session.isOpen()) {
-                byte[] responseBytes = response.getBytes("UTF-8");
-                int responseLength = responseBytes.length;
-                int flags = 0;
-                if (Peers.isGzipEnabled && responseLength >= Peers.MIN_COMPRESS_SIZE) {
-                    flags |= FLAG_COMPRESSED;
-                    ByteArrayOutputStream outStream = new ByteArrayOutputStream(responseLength);
-                    try (GZIPOutputStream gzipStream = new GZIPOutputStream(outStream)) {
-                        gzipStream.write(responseBytes);
-                    }
-                    responseBytes = outStream.toByteArray();
-                }
-                ByteBuffer buf = ByteBuffer.allocate(responseBytes.length + 20);
-                buf.putInt(version)
-                   .putLong(requestId)
-                   .putInt(flags)
-                   .putInt(responseLength)
-                   .put(responseBytes)
-                   .flip();
-                if (buf.limit() > Peers.MAX_MESSAGE_SIZE) {
-                    throw new ProtocolException("POST response length exceeds max message size");
-                }
+                ByteBuffer buf = codec.encode(version, requestId, response, Peers.isGzipEnabled);
                 session.getRemote().sendBytes(buf);
+                codec.release(buf);
             }
         } catch (WebSocketException exc) {
             throw new SocketException(exc.getMessage());
@@ -330,34 +356,16 @@ public class PeerWebSocket {
     public void onMessage(byte[] inbuf, int off, int len) {
         lock.lock();
         try {
-            ByteBuffer buf = ByteBuffer.wrap(inbuf, off, len);
-            version = Math.min(buf.getInt(), VERSION);
-            Long requestId = buf.getLong();
-            int flags = buf.getInt();
-            int length = buf.getInt();
-            byte[] msgBytes = new byte[buf.remaining()];
-            buf.get(msgBytes);
-            if ((flags&FLAG_COMPRESSED) != 0) {
-                ByteArrayInputStream inStream = new ByteArrayInputStream(msgBytes);
-                try (GZIPInputStream gzipStream = new GZIPInputStream(inStream, 1024)) {
-                    msgBytes = new byte[length];
-                    int offset = 0;
-                    while (offset < msgBytes.length) {
-                        int count = gzipStream.read(msgBytes, offset, msgBytes.length - offset);
-                        if (count < 0) {
-                            throw new EOFException("End-of-data reading compressed data");
-                        }
-                        offset += count;
-                    }
-                }
-            }
-            String message = new String(msgBytes, "UTF-8");
+            PeerMessageCodec.Message msg = codec.decode(inbuf, off, len);
+            version = Math.min(msg.version, VERSION);
+            long requestId = msg.requestId;
+            String message = msg.message;
             if (peerServlet != null) {
                 threadPool.execute(() -> peerServlet.doPost(this, requestId, message));
             } else {
-                PostRequest postRequest = requestMap.remove(requestId);
+                CompletableFuture<String> postRequest = requestMap.remove(requestId);
                 if (postRequest != null) {
-                    postRequest.complete(message);
+                    PeerTransport.executor.execute(() -> postRequest.complete(message));
                 }
             }
         } catch (Exception exc) {
@@ -375,6 +383,7 @@ public class PeerWebSocket {
      */
     @OnWebSocketClose
     public void onClose(int statusCode, String reason) {
+        List<CompletableFuture<String>> requests;
         lock.lock();
         try {
             if (session != null) {
@@ -385,13 +394,13 @@ public class PeerWebSocket {
                 }
                 session = null;
             }
-            SocketException exc = new SocketException("WebSocket connection closed");
-            Set<Map.Entry<Long, PostRequest>> requests = requestMap.entrySet();
-            requests.forEach((entry) -> entry.getValue().complete(exc));
+            requests = new ArrayList<>(requestMap.values());
             requestMap.clear();
         } finally {
             lock.unlock();
         }
+        SocketException exc = new SocketException("WebSocket connection closed");
+        requests.forEach(request -> request.completeExceptionally(exc));
     }
 
     /**
@@ -409,70 +418,4 @@ public class PeerWebSocket {
             lock.unlock();
         }
     }
-
-    /**
-     * POST request
-     */
-    private class PostRequest {
-
-        /** Request latch */
-        private final CountDownLatch latch = new CountDownLatch(1);
-
-        /** Response message */
-        private volatile String response;
-
-        /** Socket exception */
-        private volatile IOException exception;
-
-        /**
-         * Create a post request
-         */
-        public PostRequest() {
-        }
-
-        /**
-         * Wait for the response
-         *
-         * The caller must hold the lock for the request condition
-         *
-         * @param   timeout                 Wait timeout
-         * @param   unit                    Time unit
-         * @return                          Response message
-         * @throws  InterruptedException    Wait interrupted
-         * @throws  IOException             I/O error occurred
-         */
-        public String get(long timeout, TimeUnit unit) throws InterruptedException, IOException {
-            if (!latch.await(timeout, unit)) {
-                throw new SocketTimeoutException("WebSocket read timeout exceeded");
-            }
-            if (exception != null) {
-                throw exception;
-            }
-            return response;
-        }
-
-        /**
-         * Complete the request with a response message
-         *
-         * The caller must hold the lock for the request condition
-         *
-         * @param   response                Response message
-         */
-        public void complete(String response) {
-            this.response = response;
-            latch.countDown();
-        }
-
-        /**
-         * Complete the request with an exception
-         *
-         * The caller must hold the lock for the request condition
-         *
-         * @param   exception             I/O exception
-         */
-        public void complete(IOException exception) {
-            this.exception = exception;
-            latch.countDown();
-        }
-    }
 }
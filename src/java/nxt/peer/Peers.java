@@ -18,6 +18,7 @@ package nxt.peer;
 
 import nxt.Account;
 import nxt.Block;
+import nxt.BlockPayloadCache;
 import nxt.Constants;
 import nxt.Db;
 import nxt.Nxt;
@@ -30,6 +31,7 @@ import nxt.util.JSON;
 import nxt.util.Listener;
 import nxt.util.Listeners;
 import nxt.util.Logger;
+import nxt.util.Metrics;
 import nxt.util.QueuedThreadPool;
 import nxt.util.ThreadPool;
 import nxt.util.UPnP;
@@ -56,14 +58,17 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
@@ -71,6 +76,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -123,13 +129,20 @@ public final class Peers {
     private static final int sendToPeersLimit;
     private static final boolean usePeersDb;
     private static final boolean savePeers;
+    private static final int savePeersInterval;
+    private static final double SAVED_SCORE_CHANGE = 0.05;
+    private static final Map<String, PeerDb.Entry> savedPeers = new HashMap<>();
+    private static volatile boolean peersLoaded;
     static final boolean ignorePeerAnnouncedAddress;
     static final boolean cjdnsOnly;
+    static final boolean allowLoopbackPeers = Constants.isTestnet && Nxt.getBooleanProperty("nxt.testnetAllowLoopbackPeers");
     static final int MAX_VERSION_LENGTH = 10;
     static final int MAX_APPLICATION_LENGTH = 20;
     static final int MAX_PLATFORM_LENGTH = 30;
     static final int MAX_ANNOUNCED_ADDRESS_LENGTH = 100;
     static final boolean hideErrorDetails = Nxt.getBooleanProperty("nxt.hideErrorDetails");
+    static final boolean enableCompactBlocks = Nxt.getBooleanProperty("nxt.enableCompactBlocks");
+    public static final boolean enablePeerScoring = Nxt.getBooleanProperty("nxt.enablePeerScoring");
 
     private static final JSONObject myPeerInfo;
     private static final List<Peer.Service> myServices;
@@ -263,6 +276,9 @@ public final class Peers {
         if (!Constants.ENABLE_PRUNING && Constants.INCLUDE_EXPIRED_PRUNABLE) {
             servicesList.add(Peer.Service.PRUNABLE);
         }
+        if (Peers.enableCompactBlocks) {
+            servicesList.add(Peer.Service.COMPACT_BLOCKS);
+        }
         if (API.openAPIPort > 0) {
             json.put("apiPort", API.openAPIPort);
             servicesList.add(Peer.Service.API);
@@ -337,6 +353,7 @@ public final class Peers {
         sendToPeersLimit = Nxt.getIntProperty("nxt.sendToPeersLimit");
         usePeersDb = Nxt.getBooleanProperty("nxt.usePeersDb") && ! Constants.isOffline;
         savePeers = usePeersDb && Nxt.getBooleanProperty("nxt.savePeers");
+        savePeersInterval = Nxt.getIntProperty("nxt.savePeersInterval", 120);
         getMorePeers = Nxt.getBooleanProperty("nxt.getMorePeers");
         cjdnsOnly = Nxt.getBooleanProperty("nxt.cjdnsOnly");
         ignorePeerAnnouncedAddress = Nxt.getBooleanProperty("nxt.ignorePeerAnnouncedAddress");
@@ -345,6 +362,7 @@ public final class Peers {
         }
 
         final List<Future<String>> unresolvedPeers = Collections.synchronizedList(new ArrayList<>());
+        final List<PeerImpl> warmStartPeers = Collections.synchronizedList(new ArrayList<>());
 
         if (!Constants.isOffline) {
             ThreadPool.runBeforeStart(new Runnable() {
@@ -360,6 +378,9 @@ public final class Peers {
                         defaultPeers.forEach(address -> entries.add(new PeerDb.Entry(address, 0, now)));
                         if (savePeers) {
                             List<PeerDb.Entry> dbPeers = PeerDb.loadPeers();
+                            synchronized (savedPeers) {
+                                dbPeers.forEach(entry -> savedPeers.put(entry.getAddress(), entry));
+                            }
                             dbPeers.forEach(entry -> {
                                 if (!entries.add(entry)) {
                                     // Database entries override entries from nxt.properties
@@ -369,12 +390,39 @@ public final class Peers {
                             });
                         }
                     }
+                    //
+                    // Peers connected during an earlier run are added using their saved host address,
+                    // so they can be connected without waiting for their announced addresses to be resolved
+                    //
+                    List<PeerDb.Entry> warmEntries = new ArrayList<>();
+                    entries.forEach(entry -> {
+                        if (entry.getHost() != null && entry.getLastConnected() > 0) {
+                            warmEntries.add(entry);
+                        }
+                    });
+                    warmEntries.sort(Comparator.comparingDouble(PeerDb.Entry::getScore)
+                            .thenComparingInt(PeerDb.Entry::getLastConnected).reversed());
+                    for (PeerDb.Entry entry : warmEntries) {
+                        PeerImpl peer;
+                        try {
+                            peer = Peers.findOrCreatePeer(InetAddress.getByName(entry.getHost()),
+                                    addressWithPort(entry.getAddress()), true);
+                        } catch (UnknownHostException e) {
+                            continue;
+                        }
+                        if (peer != null) {
+                            restorePeer(peer, entry);
+                            if (Peers.addPeer(peer) && warmStartPeers.size() < maxNumberOfConnectedPublicPeers) {
+                                warmStartPeers.add(peer);
+                            }
+                            entries.remove(entry);
+                        }
+                    }
                     entries.forEach(entry -> {
                         Future<String> unresolvedAddress = peersService.submit(() -> {
                             PeerImpl peer = Peers.findOrCreatePeer(entry.getAddress(), true);
                             if (peer != null) {
-                                peer.setLastUpdated(entry.getLastUpdated());
-                                peer.setServices(entry.getServices());
+                                restorePeer(peer, entry);
                                 Peers.addPeer(peer);
                                 return null;
                             }
@@ -386,6 +434,13 @@ public final class Peers {
             }, false);
         }
 
+        ThreadPool.runAfterStart(() -> {
+            if (!warmStartPeers.isEmpty()) {
+                Logger.logDebugMessage("Connecting to " + warmStartPeers.size() + " previously connected peers");
+                warmStartPeers.forEach(PeerImpl::connectAsync);
+            }
+        });
+
         ThreadPool.runAfterStart(() -> {
             for (Future<String> unresolvedPeer : unresolvedPeers) {
                 try {
@@ -401,6 +456,7 @@ public final class Peers {
                 }
             }
             Logger.logDebugMessage("Known peers: " + peers.size());
+            peersLoaded = true;
         });
 
     }
@@ -425,6 +481,7 @@ public final class Peers {
                 ctxHandler.setContextPath("/");
 
                 ServletHolder peerServletHolder = new ServletHolder(new PeerServlet());
+                peerServletHolder.setAsyncSupported(true);
                 ctxHandler.addServlet(peerServletHolder, "/*");
 
                 if (Nxt.getBooleanProperty("nxt.enablePeerServerDoSFilter")) {
@@ -505,7 +562,7 @@ public final class Peers {
 
                     final int now = Nxt.getEpochTime();
                     if (!hasEnoughConnectedPublicPeers(Peers.maxNumberOfConnectedPublicPeers)) {
-                        List<Future<?>> futures = new ArrayList<>();
+                        List<CompletableFuture<Void>> futures = new ArrayList<>();
                         List<Peer> hallmarkedPeers = getPeers(peer -> !peer.isBlacklisted()
                                 && peer.getAnnouncedAddress() != null
                                 && peer.getState() != Peer.State.CONNECTED
@@ -527,21 +584,18 @@ public final class Peers {
                                 } else {
                                     peerList = (ThreadLocalRandom.current().nextInt(2) == 0 ? hallmarkedPeers : nonhallmarkedPeers);
                                 }
-                                connectSet.add((PeerImpl)peerList.get(ThreadLocalRandom.current().nextInt(peerList.size())));
+                                connectSet.add((PeerImpl)(enablePeerScoring ? getScoredPeer(peerList) :
+                                        peerList.get(ThreadLocalRandom.current().nextInt(peerList.size()))));
                             }
-                            connectSet.forEach(peer -> futures.add(peersService.submit(() -> {
-                                peer.connect();
+                            connectSet.forEach(peer -> futures.add(peer.connectAsync().thenRun(() -> {
                                 if (peer.getState() == Peer.State.CONNECTED &&
                                             enableHallmarkProtection && peer.getWeight() == 0 &&
                                             hasTooManyOutboundConnections()) {
                                     Logger.logDebugMessage("Too many outbound connections, deactivating peer " + peer.getHost());
                                     peer.deactivate();
                                 }
-                                return null;
                             })));
-                            for (Future<?> future : futures) {
-                                future.get();
-                            }
+                            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
                         }
                     }
 
@@ -549,7 +603,7 @@ public final class Peers {
                         if (peer.getState() == Peer.State.CONNECTED
                                 && now - peer.getLastUpdated() > 3600
                                 && now - peer.getLastConnectAttempt() > 600) {
-                            peersService.submit(peer::connect);
+                            peer.connectAsync();
                         }
                         if (peer.getLastInboundRequest() != 0 &&
                                 now - peer.getLastInboundRequest() > Peers.webSocketIdleTimeout / 1000) {
@@ -587,10 +641,9 @@ public final class Peers {
                     for (String wellKnownPeer : wellKnownPeers) {
                         PeerImpl peer = findOrCreatePeer(wellKnownPeer, true);
                         if (peer != null && now - peer.getLastUpdated() > 3600 && now - peer.getLastConnectAttempt() > 600) {
-                            peersService.submit(() -> {
-                                addPeer(peer);
-                                connectPeer(peer);
-                            });
+                            addPeer(peer);
+                            peer.unBlacklist();
+                            peer.connectAsync();
                         }
                     }
 
@@ -615,8 +668,6 @@ public final class Peers {
             getPeersRequest = JSON.prepareRequest(request);
         }
 
-        private volatile boolean updatedPeer;
-
         @Override
         public void run() {
 
@@ -645,7 +696,6 @@ public final class Peers {
                             if (newPeer != null) {
                                 if (now - newPeer.getLastUpdated() > 24 * 3600) {
                                     newPeer.setLastUpdated(now);
-                                    updatedPeer = true;
                                 }
                                 if (Peers.addPeer(newPeer) && setServices) {
                                     newPeer.setServices(Long.parseUnsignedLong((String)services.get(i)));
@@ -656,10 +706,6 @@ public final class Peers {
                                 }
                             }
                         }
-                        if (savePeers && updatedPeer) {
-                            updateSavedPeers();
-                            updatedPeer = false;
-                        }
                     }
 
                     JSONArray myPeers = new JSONArray();
@@ -691,37 +737,50 @@ public final class Peers {
 
         }
 
-        private void updateSavedPeers() {
-            int now = Nxt.getEpochTime();
-            //
-            // Load the current database entries and map announced address to database entry
-            //
-            List<PeerDb.Entry> oldPeers = PeerDb.loadPeers();
-            Map<String, PeerDb.Entry> oldMap = new HashMap<>(oldPeers.size());
-            oldPeers.forEach(entry -> oldMap.put(entry.getAddress(), entry));
-            //
-            // Create the current peer map (note that there can be duplicate peer entries with
-            // the same announced address)
-            //
-            Map<String, PeerDb.Entry> currentPeers = new HashMap<>();
-            Peers.peers.values().forEach(peer -> {
-                if (peer.getAnnouncedAddress() != null && !peer.isBlacklisted() && now - peer.getLastUpdated() < 7*24*3600) {
-                    currentPeers.put(peer.getAnnouncedAddress(),
-                            new PeerDb.Entry(peer.getAnnouncedAddress(), peer.getServices(), peer.getLastUpdated()));
-                }
-            });
+    };
+
+    private static final Runnable savePeersThread = () -> {
+        try {
+            if (peersLoaded) {
+                updateSavedPeers();
+            }
+        } catch (Exception e) {
+            Logger.logErrorMessage("Unable to update peer database", e);
+        }
+    };
+
+    /**
+     * Write the known peers to the peer database.  The entries that have changed since they were
+     * last saved are written in a single batch, and the entries for peers that are no longer known
+     * are deleted.
+     */
+    private static void updateSavedPeers() {
+        int now = Nxt.getEpochTime();
+        //
+        // Create the current peer map (note that there can be duplicate peer entries with
+        // the same announced address)
+        //
+        Map<String, PeerDb.Entry> currentPeers = new HashMap<>();
+        Peers.peers.values().forEach(peer -> {
+            if (peer.getAnnouncedAddress() != null && !peer.isBlacklisted() && now - peer.getLastUpdated() < 7*24*3600) {
+                currentPeers.put(peer.getAnnouncedAddress(),
+                        new PeerDb.Entry(peer.getAnnouncedAddress(), peer.getServices(), peer.getLastUpdated(),
+                                peer.getHost(), peer.getScore().getValue(), peer.getLastConnected(),
+                                peer.getBlockchainState().ordinal()));
+            }
+        });
+        synchronized (savedPeers) {
             //
             // Build toDelete and toUpdate lists
             //
-            List<PeerDb.Entry> toDelete = new ArrayList<>(oldPeers.size());
-            oldPeers.forEach(entry -> {
+            List<PeerDb.Entry> toDelete = new ArrayList<>();
+            savedPeers.values().forEach(entry -> {
                 if (currentPeers.get(entry.getAddress()) == null)
                     toDelete.add(entry);
             });
-            List<PeerDb.Entry> toUpdate = new ArrayList<>(currentPeers.size());
+            List<PeerDb.Entry> toUpdate = new ArrayList<>();
             currentPeers.values().forEach(entry -> {
-                PeerDb.Entry oldEntry = oldMap.get(entry.getAddress());
-                if (oldEntry == null || entry.getLastUpdated() - oldEntry.getLastUpdated() > 24*3600)
+                if (isChanged(entry, savedPeers.get(entry.getAddress())))
                     toUpdate.add(entry);
             });
             //
@@ -743,25 +802,32 @@ public final class Peers {
             } finally {
                 Db.db.endTransaction();
             }
+            toDelete.forEach(entry -> savedPeers.remove(entry.getAddress()));
+            toUpdate.forEach(entry -> savedPeers.put(entry.getAddress(), entry));
+            Logger.logDebugMessage("Saved " + toUpdate.size() + " peers, deleted " + toDelete.size() + " peers");
         }
+    }
 
-    };
+    private static boolean isChanged(PeerDb.Entry entry, PeerDb.Entry oldEntry) {
+        return oldEntry == null
+                || entry.getLastUpdated() - oldEntry.getLastUpdated() > 24*3600
+                || entry.getServices() != oldEntry.getServices()
+                || entry.getLastConnected() != oldEntry.getLastConnected()
+                || entry.getBlockchainState() != oldEntry.getBlockchainState()
+                || !Objects.equals(entry.getHost(), oldEntry.getHost())
+                || Math.abs(entry.getScore() - oldEntry.getScore()) >= SAVED_SCORE_CHANGE;
+    }
 
-    static {
-        Peers.addListener(peer -> peersService.submit(() -> {
-            if (peer.getAnnouncedAddress() != null && !peer.isBlacklisted()) {
-                try {
-                    Db.db.beginTransaction();
-                    PeerDb.updatePeer((PeerImpl)peer);
-                    Db.db.commitTransaction();
-                } catch (RuntimeException e) {
-                    Logger.logErrorMessage("Unable to update peer database", e);
-                    Db.db.rollbackTransaction();
-                } finally {
-                    Db.db.endTransaction();
-                }
-            }
-        }), Peers.Event.CHANGED_SERVICES);
+    private static void restorePeer(PeerImpl peer, PeerDb.Entry entry) {
+        peer.setLastUpdated(entry.getLastUpdated());
+        peer.setServices(entry.getServices());
+        peer.setLastConnected(entry.getLastConnected());
+        if (entry.getScore() >= 0) {
+            peer.getScore().restore(entry.getScore());
+        }
+        if (entry.getBlockchainState() >= 0) {
+            peer.setBlockchainState(entry.getBlockchainState());
+        }
     }
 
     static {
@@ -772,10 +838,23 @@ public final class Peers {
         }), Account.Event.BALANCE);
     }
 
+    static {
+        if (Metrics.enabled) {
+            Metrics.gauge("nxt_thread_pool_queue_depth", "Tasks waiting for a thread", "pool", "peersService",
+                    ((QueuedThreadPool)peersService)::getPendingTaskCount);
+            Metrics.gauge("nxt_thread_pool_queue_depth", "Tasks waiting for a thread", "pool", "sendingService",
+                    () -> ((ThreadPoolExecutor)sendingService).getQueue().size());
+            Metrics.gauge("nxt_active_peers", "Connected peers", () -> getActivePeers().size());
+        }
+    }
+
     static {
         if (! Constants.isOffline) {
             ThreadPool.scheduleThread("PeerConnecting", Peers.peerConnectingThread, 20);
             ThreadPool.scheduleThread("PeerUnBlacklisting", Peers.peerUnBlacklistingThread, 60);
+            if (Peers.savePeers) {
+                ThreadPool.scheduleThread("SavePeers", Peers.savePeersThread, Peers.savePeersInterval);
+            }
             if (Peers.getMorePeers) {
                 ThreadPool.scheduleThread("GetMorePeers", Peers.getMorePeersThread, 20);
             }
@@ -801,8 +880,21 @@ public final class Peers {
                 Logger.logShutdownMessage("Failed to stop peer server", e);
             }
         }
+        if (savePeers && peersLoaded) {
+            try {
+                updateSavedPeers();
+            } catch (Exception e) {
+                Logger.logShutdownMessage("Unable to update peer database", e);
+            }
+        }
+        if (PeerRequestScheduler.enabled) {
+            PeerRequestScheduler.shutdown();
+        }
         ThreadPool.shutdownExecutor("sendingService", sendingService, 2);
         ThreadPool.shutdownExecutor("peersService", peersService, 5);
+        if (!Constants.isOffline) {
+            PeerTransport.shutdown();
+        }
     }
 
     public static boolean addListener(Listener<Peer> listener, Event eventType) {
@@ -912,7 +1004,8 @@ public final class Peers {
 
     static PeerImpl findOrCreatePeer(final InetAddress inetAddress, final String announcedAddress, final boolean create) {
 
-        if (inetAddress.isAnyLocalAddress() || inetAddress.isLoopbackAddress() || inetAddress.isLinkLocalAddress()) {
+        if (inetAddress.isAnyLocalAddress() || inetAddress.isLinkLocalAddress()
+                || (inetAddress.isLoopbackAddress() && !allowLoopbackPeers)) {
             return null;
         }
 
@@ -1000,9 +1093,10 @@ public final class Peers {
     }
 
     public static void sendToSomePeers(Block block) {
-        JSONObject request = block.getJSONObject();
-        request.put("requestType", "processBlock");
-        sendToSomePeers(request);
+        JSONStreamAware request = BlockPayloadCache.getRequest(block, "processBlock");
+        JSONStreamAware compactRequest = enableCompactBlocks ?
+                JSON.prepareRequest(CompactBlock.getRequest(block, BlockPayloadCache.getJSONObject(block))) : null;
+        sendToSomePeers(request, compactRequest);
     }
 
     private static final int sendTransactionsBatchSize = 10;
@@ -1017,18 +1111,22 @@ public final class Peers {
             }
             request.put("requestType", "processTransactions");
             request.put("transactions", transactionsData);
-            sendToSomePeers(request);
+            sendToSomePeers(JSON.prepareRequest(request), null);
             nextBatchStart += sendTransactionsBatchSize;
         }
     }
 
-    private static void sendToSomePeers(final JSONObject request) {
+    /**
+     * Send a request to some peers
+     *
+     * @param   request                 Prepared request
+     * @param   compactRequest          Prepared request sent instead to peers providing the COMPACT_BLOCKS service or null
+     */
+    private static void sendToSomePeers(final JSONStreamAware request, final JSONStreamAware compactRequest) {
         sendingService.submit(() -> {
-            final JSONStreamAware jsonRequest = JSON.prepareRequest(request);
-
             int successful = 0;
             List<Future<JSONObject>> expectedResponses = new ArrayList<>();
-            for (final Peer peer : peers.values()) {
+            for (final Peer peer : enablePeerScoring ? sortByScore(peers.values()) : peers.values()) {
 
                 if (Peers.enableHallmarkProtection && peer.getWeight() < Peers.pushThreshold) {
                     continue;
@@ -1036,7 +1134,9 @@ public final class Peers {
 
                 if (!peer.isBlacklisted() && peer.getState() == Peer.State.CONNECTED && peer.getAnnouncedAddress() != null
                         && peer.getBlockchainState() != Peer.BlockchainState.LIGHT_CLIENT) {
-                    Future<JSONObject> futureResponse = peersService.submit(() -> peer.send(jsonRequest));
+                    JSONStreamAware peerRequest = compactRequest != null && peer.providesService(Peer.Service.COMPACT_BLOCKS) ?
+                            compactRequest : request;
+                    Future<JSONObject> futureResponse = peer.sendAsync(peerRequest, MAX_RESPONSE_SIZE);
                     expectedResponses.add(futureResponse);
                 }
                 if (expectedResponses.size() >= Peers.sendToPeersLimit - successful) {
@@ -1076,7 +1176,8 @@ public final class Peers {
             return null;
         }
         if (! Peers.enableHallmarkProtection || ThreadLocalRandom.current().nextInt(3) == 0) {
-            return selectedPeers.get(ThreadLocalRandom.current().nextInt(selectedPeers.size()));
+            return enablePeerScoring ? getScoredPeer(selectedPeers) :
+                    selectedPeers.get(ThreadLocalRandom.current().nextInt(selectedPeers.size()));
         }
         long totalWeight = 0;
         for (Peer peer : selectedPeers) {
@@ -1099,6 +1200,45 @@ public final class Peers {
         return null;
     }
 
+    /**
+     * Select a peer at random, with each peer weighted by its score
+     *
+     * @param   selectedPeers           Candidate peers
+     * @return                          Selected peer or null if there are no candidates
+     */
+    public static <P extends Peer> P getScoredPeer(List<P> selectedPeers) {
+        if (selectedPeers.isEmpty()) {
+            return null;
+        }
+        double[] scores = new double[selectedPeers.size()];
+        double totalScore = 0;
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = Math.max(selectedPeers.get(i).getScore().getValue(), PeerScore.MIN_SCORE);
+            totalScore += scores[i];
+        }
+        double hit = ThreadLocalRandom.current().nextDouble(totalScore);
+        for (int i = 0; i < scores.length; i++) {
+            if ((hit -= scores[i]) < 0) {
+                return selectedPeers.get(i);
+            }
+        }
+        return selectedPeers.get(scores.length - 1);
+    }
+
+    /**
+     * Sort peers by decreasing score
+     *
+     * @param   peers                   Peers to sort
+     * @return                          Sorted list
+     */
+    public static <P extends Peer> List<P> sortByScore(Collection<P> peers) {
+        Map<P, Double> scores = new HashMap<>();
+        peers.forEach(peer -> scores.put(peer, peer.getScore().getValue()));
+        List<P> sortedPeers = new ArrayList<>(scores.keySet());
+        sortedPeers.sort((peer1, peer2) -> Double.compare(scores.get(peer2), scores.get(peer1)));
+        return sortedPeers;
+    }
+
     static String addressWithPort(String address) {
         if (address == null) {
             return null;
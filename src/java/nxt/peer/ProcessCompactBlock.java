@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.peer;
+
+import nxt.Block;
+import nxt.Nxt;
+import nxt.NxtException;
+import nxt.util.Convert;
+import nxt.util.JSON;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+/**
+ * Process a compact block announcement
+ */
+final class ProcessCompactBlock extends PeerServlet.PeerRequestHandler {
+
+    static final ProcessCompactBlock instance = new ProcessCompactBlock();
+
+    private ProcessCompactBlock() {}
+
+    @Override
+    JSONStreamAware processRequest(final JSONObject request, final Peer peer) {
+        String previousBlockId = (String)request.get("previousBlock");
+        Block lastBlock = Nxt.getBlockchain().getLastBlock();
+        if (lastBlock.getStringId().equals(previousBlockId) ||
+                (Convert.parseUnsignedLong(previousBlockId) == lastBlock.getPreviousBlockId()
+                        && lastBlock.getTimestamp() > Convert.parseLong(request.get("timestamp")))) {
+            Peers.peersService.submit(() -> {
+                try {
+                    JSONObject blockData = CompactBlock.getBlock(request, peer);
+                    if (blockData != null) {
+                        Nxt.getBlockchainProcessor().processPeerBlock(blockData, peer);
+                    }
+                } catch (NxtException | RuntimeException e) {
+                    if (peer != null) {
+                        peer.blacklist(e);
+                    }
+                }
+            });
+        }
+        return JSON.emptyJSON;
+    }
+
+    @Override
+    boolean rejectWhileDownloading() {
+        return true;
+    }
+
+    @Override
+    PeerRequestScheduler.Priority getPriority() {
+        return PeerRequestScheduler.Priority.BLOCK;
+    }
+
+}
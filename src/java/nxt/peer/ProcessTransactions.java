@@ -48,4 +48,9 @@ final class ProcessTransactions extends PeerServlet.PeerRequestHandler {
         return true;
     }
 
+    @Override
+    PeerRequestScheduler.Priority getPriority() {
+        return PeerRequestScheduler.Priority.TRANSACTION;
+    }
+
 }
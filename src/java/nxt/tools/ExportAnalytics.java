@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.tools;
+
+import nxt.AnalyticsExport;
+import nxt.Constants;
+import nxt.Nxt;
+import nxt.util.Logger;
+
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Export chain data from the NRS database to compressed column files for offline
+ * analytics.  The NRS application must not be running.
+ *
+ * To export the chain data on Linux or Mac:
+ *
+ *   java -cp "classes:lib/*:conf" nxt.tools.ExportAnalytics analytics [fromHeight [toHeight]]
+ *
+ * One file is written for each dataset and each range of nxt.analyticsExportRange blocks.
+ * Only complete ranges at least Constants.MAX_ROLLBACK blocks below the last block are
+ * exported unless an ending height is specified.  Ranges which have already been exported
+ * are skipped.
+ */
+public class ExportAnalytics {
+
+    /**
+     * Export the chain data
+     *
+     * @param   args                Command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Usage: ExportAnalytics <output-dir> [from-height [to-height]]");
+            System.exit(1);
+        }
+        int exitCode = 0;
+        try {
+            Properties properties = new Properties();
+            properties.setProperty("nxt.isOffline", "true");
+            properties.setProperty("nxt.enableAPIServer", "false");
+            properties.setProperty("nxt.disableGenerateBlocksThread", "true");
+            properties.setProperty("nxt.analyticsExportDir", "");
+            Nxt.init(properties);
+            Nxt.getBlockchainProcessor().setGetMoreBlocks(false);
+            int height = Nxt.getBlockchain().getHeight();
+            int fromHeight = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+            int toHeight = args.length > 2 ? Math.min(Integer.parseInt(args[2]), height) : height - Constants.MAX_ROLLBACK;
+            Logger.logInfoMessage("Exporting analytics data for heights " + fromHeight + " to " + toHeight + " to " + args[0]);
+            long start = System.currentTimeMillis();
+            int lastHeight = AnalyticsExport.export(Paths.get(args[0]), fromHeight, toHeight);
+            Logger.logInfoMessage(String.format("Exported analytics data through height %d in %.3f seconds", lastHeight,
+                    (double)(System.currentTimeMillis() - start) / 1000.0));
+        } catch (Throwable exc) {
+            Logger.logErrorMessage("Unable to export analytics data", exc);
+            exitCode = 1;
+        }
+        Nxt.shutdown();
+        System.exit(exitCode);
+    }
+}
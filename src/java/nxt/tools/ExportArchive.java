@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.tools;
+
+import nxt.Block;
+import nxt.BlockArchive;
+import nxt.Db;
+import nxt.Nxt;
+import nxt.crypto.Crypto;
+import nxt.db.DbIterator;
+import nxt.util.Convert;
+import nxt.util.Logger;
+
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Export the blockchain to a signed block archive.  The NRS application must not
+ * be running.  The archive can be imported by a new node by setting nxt.bootstrapArchive
+ * to the archive path and nxt.bootstrapArchivePublicKey to the public key of the signing
+ * account.  The secret phrase used to sign the archive is read from the console or from
+ * standard input.
+ *
+ * To export the blockchain on Linux or Mac:
+ *
+ *   java -cp "classes:lib/*:conf" nxt.tools.ExportArchive blocks.brsa [checkpointInterval]
+ *
+ * A checkpoint is written every 10000 blocks unless a checkpoint interval is specified.
+ */
+public class ExportArchive {
+
+    /**
+     * Export the blockchain
+     *
+     * @param   args                Command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: ExportArchive <archive-file> [checkpoint-interval]");
+            System.exit(1);
+        }
+        int exitCode = 0;
+        try {
+            int checkpointInterval = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+            String secretPhrase;
+            Console console = System.console();
+            if (console == null) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
+                    secretPhrase = reader.readLine();
+                }
+            } else {
+                secretPhrase = new String(console.readPassword("Secret phrase: "));
+            }
+            Properties properties = new Properties();
+            properties.setProperty("nxt.isOffline", "true");
+            properties.setProperty("nxt.enableAPIServer", "false");
+            properties.setProperty("nxt.disableGenerateBlocksThread", "true");
+            Nxt.init(properties);
+            Nxt.getBlockchainProcessor().setGetMoreBlocks(false);
+            exportArchive(args[0], checkpointInterval, secretPhrase);
+        } catch (Throwable exc) {
+            Logger.logErrorMessage("Unable to export block archive", exc);
+            exitCode = 1;
+        }
+        Nxt.shutdown();
+        System.exit(exitCode);
+    }
+
+    /**
+     * Export the blockchain starting at height 1
+     *
+     * @param   fileName            Archive file name
+     * @param   checkpointInterval  Number of blocks between checkpoints
+     * @param   secretPhrase        Secret phrase used to sign the archive
+     * @throws  IOException         I/O error occurred
+     * @throws  SQLException        Database error occurred
+     */
+    private static void exportArchive(String fileName, int checkpointInterval, String secretPhrase)
+                                        throws IOException, SQLException {
+        int toHeight = Nxt.getBlockchain().getHeight();
+        Logger.logInfoMessage("Exporting blocks 1 to " + toHeight + " to " + fileName);
+        long start = System.currentTimeMillis();
+        try (BlockArchive.Writer writer = new BlockArchive.Writer(Paths.get(fileName), checkpointInterval, secretPhrase)) {
+            for (int height = 1; height <= toHeight; height += 1000) {
+                Connection con = Db.db.getConnection();
+                PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height >= ? AND height <= ? ORDER BY height");
+                pstmt.setInt(1, height);
+                pstmt.setInt(2, Math.min(height + 999, toHeight));
+                try (DbIterator<? extends Block> blocks = Nxt.getBlockchain().getBlocks(con, pstmt)) {
+                    for (Block block : blocks) {
+                        writer.write(block);
+                    }
+                }
+                Logger.logInfoMessage("Exported " + writer.getBlockCount() + " blocks");
+            }
+            writer.finish();
+            Logger.logInfoMessage(String.format("Exported %d blocks in %.3f seconds, archive signed by %s",
+                    writer.getBlockCount(), (double)(System.currentTimeMillis() - start) / 1000.0,
+                    Convert.toHexString(Crypto.getPublicKey(secretPhrase))));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.tools;
+
+import nxt.Block;
+import nxt.BlockFile;
+import nxt.Db;
+import nxt.Nxt;
+import nxt.db.DbIterator;
+import nxt.util.Logger;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Export blocks from the NRS database to a block file.  The NRS application
+ * must not be running.  The block file can be replayed using ReplayBlocks.
+ *
+ * To export the blocks on Linux or Mac:
+ *
+ *   java -cp "classes:lib/*:conf" nxt.tools.ExportBlocks blocks.bin [fromHeight [toHeight]]
+ *
+ * The first block exported is at height 1 unless a starting height is specified.
+ * The last block exported is the last block in the blockchain unless an ending
+ * height is specified.
+ */
+public class ExportBlocks {
+
+    /**
+     * Export the blocks
+     *
+     * @param   args                Command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Usage: ExportBlocks <block-file> [from-height [to-height]]");
+            System.exit(1);
+        }
+        int exitCode = 0;
+        try {
+            Properties properties = new Properties();
+            properties.setProperty("nxt.isOffline", "true");
+            properties.setProperty("nxt.enableAPIServer", "false");
+            properties.setProperty("nxt.disableGenerateBlocksThread", "true");
+            Nxt.init(properties);
+            Nxt.getBlockchainProcessor().setGetMoreBlocks(false);
+            int fromHeight = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+            int toHeight = args.length > 2 ? Integer.parseInt(args[2]) : Nxt.getBlockchain().getHeight();
+            exportBlocks(args[0], Math.max(fromHeight, 1), Math.min(toHeight, Nxt.getBlockchain().getHeight()));
+        } catch (Throwable exc) {
+            Logger.logErrorMessage("Unable to export blocks", exc);
+            exitCode = 1;
+        }
+        Nxt.shutdown();
+        System.exit(exitCode);
+    }
+
+    /**
+     * Export a range of blocks
+     *
+     * @param   fileName            Block file name
+     * @param   fromHeight          First block height
+     * @param   toHeight            Last block height
+     * @throws  IOException         I/O error occurred
+     * @throws  SQLException        Database error occurred
+     */
+    private static void exportBlocks(String fileName, int fromHeight, int toHeight) throws IOException, SQLException {
+        Logger.logInfoMessage("Exporting blocks " + fromHeight + " to " + toHeight + " to " + fileName);
+        long start = System.currentTimeMillis();
+        try (BlockFile.Writer writer = new BlockFile.Writer(Paths.get(fileName))) {
+            for (int height = fromHeight; height <= toHeight; height += 1000) {
+                Connection con = Db.db.getConnection();
+                PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height >= ? AND height <= ? ORDER BY height");
+                pstmt.setInt(1, height);
+                pstmt.setInt(2, Math.min(height + 999, toHeight));
+                try (DbIterator<? extends Block> blocks = Nxt.getBlockchain().getBlocks(con, pstmt)) {
+                    for (Block block : blocks) {
+                        writer.write(block);
+                    }
+                }
+                Logger.logInfoMessage("Exported " + writer.getBlockCount() + " blocks");
+            }
+            Logger.logInfoMessage(String.format("Exported %d blocks in %.3f seconds", writer.getBlockCount(),
+                    (double)(System.currentTimeMillis() - start) / 1000.0));
+        }
+    }
+}
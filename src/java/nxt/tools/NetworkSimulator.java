@@ -0,0 +1,815 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.tools;
+
+import fr.cryptohash.Shabal256;
+import nxt.util.Convert;
+import nxt.util.MiningPlot;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run a local test network and measure its throughput and block propagation.
+ *
+ * The simulator starts a number of nodes as separate processes on the local machine.
+ * Each node runs on testnet with its own loopback address (127.0.0.2, 127.0.0.3, ...),
+ * its own database and its own nxt.properties in a sub-directory of the simulator
+ * directory, and knows all the other nodes as well known peers.  The base target of
+ * the network is set so that the nonces mined by the simulator produce the requested
+ * average block time.
+ *
+ * To run a simulation on Linux or Mac:
+ *
+ *   java -cp "classes:lib/*:conf" -Dnxt.simulator.nodes=4 nxt.tools.NetworkSimulator sim_dir
+ *
+ * The simulator directory must not exist.  The simulation is controlled by these
+ * system properties:
+ *
+ *   nxt.simulator.nodes        Number of nodes (4)
+ *   nxt.simulator.duration     Measured time in seconds (300)
+ *   nxt.simulator.tps          Transactions submitted per second (5)
+ *   nxt.simulator.blockTime    Average block time in seconds (10)
+ *   nxt.simulator.nonces       Nonces mined for each node (4)
+ *   nxt.simulator.properties   Properties file added to the properties of each node
+ *   nxt.simulator.javaOptions  JVM options for the nodes ("-Xmx512m")
+ *
+ * Each node mines with its own account.  The simulator computes the deadlines of the
+ * account nonces for each new block and submits the best nonce to the node through the
+ * SubmitNonce API, so the plots are only generated once.  After a warm-up period, in
+ * which the mining accounts earn the block rewards, the simulator signs the payment
+ * transactions for the whole run and then submits them at the requested rate through
+ * the BroadcastTransaction API of a random node.
+ *
+ * The report contains the submitted and confirmed transactions per second, the orphan
+ * rate, the block propagation latency percentiles and the CPU time used by each node.
+ * The propagation latency of a block is the time between the BLOCK_PUSHED events of the
+ * generating node and of each other node, as received through the EventWait API.
+ * The node logs are kept in the simulator directory.
+ */
+public final class NetworkSimulator {
+
+    /** Initial base target of the real network */
+    private static final long INITIAL_BASE_TARGET = 18325193796L;
+
+    /** Testnet API port */
+    private static final int API_PORT = 6876;
+
+    /** Transaction amount and fee */
+    private static final long ONE_NXT = 100000000L;
+
+    /** Block confirmations required before a mining reward is spent */
+    private static final int CONFIRMATIONS = 3;
+
+    private final Path dir;
+    private final int nodeCount;
+    private final int duration;
+    private final int tps;
+    private final int blockTime;
+    private final int nonceCount;
+    private final String extraProperties;
+    private final String javaOptions;
+    private final List<Node> nodes = new ArrayList<>();
+
+    /** Blocks seen by the nodes */
+    private final Map<String, BlockInfo> blocks = new ConcurrentHashMap<>();
+
+    /** Simulation stopped */
+    private volatile boolean stopped;
+
+    /**
+     * Run the simulation
+     *
+     * @param   args                Command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: NetworkSimulator <simulator-directory>");
+            System.exit(1);
+        }
+        int exitCode = 0;
+        NetworkSimulator simulator = new NetworkSimulator(Paths.get(args[0]));
+        try {
+            System.out.println(simulator.run());
+        } catch (Exception exc) {
+            System.out.println("Simulation failed: " + exc);
+            exc.printStackTrace();
+            exitCode = 1;
+        } finally {
+            simulator.stop();
+        }
+        System.exit(exitCode);
+    }
+
+    private NetworkSimulator(Path dir) {
+        this.dir = dir.toAbsolutePath();
+        this.nodeCount = Math.max(Integer.getInteger("nxt.simulator.nodes", 4), 2);
+        this.duration = Math.max(Integer.getInteger("nxt.simulator.duration", 300), 1);
+        this.tps = Math.max(Integer.getInteger("nxt.simulator.tps", 5), 0);
+        this.blockTime = Math.max(Integer.getInteger("nxt.simulator.blockTime", 10), 1);
+        this.nonceCount = Math.max(Integer.getInteger("nxt.simulator.nonces", 4), 1);
+        this.extraProperties = System.getProperty("nxt.simulator.properties");
+        this.javaOptions = System.getProperty("nxt.simulator.javaOptions", "-Xmx512m");
+    }
+
+    /**
+     * Run the simulation
+     *
+     * @return                      Simulation report
+     * @throws  Exception           Simulation failed
+     */
+    private String run() throws Exception {
+        if (Files.exists(dir)) {
+            throw new IllegalArgumentException("Simulator directory " + dir + " already exists");
+        }
+        //
+        // The expected minimum deadline of n nonces is the maximum deadline divided by n + 1
+        //
+        long multiplier = Math.max(1, BigInteger.ONE.shiftLeft(64)
+                .divide(BigInteger.valueOf(INITIAL_BASE_TARGET * blockTime * (nodeCount * nonceCount + 1))).longValue());
+        if (multiplier > Long.MAX_VALUE / 12 / INITIAL_BASE_TARGET) {
+            throw new IllegalArgumentException("Block time is too short for " + nodeCount * nonceCount + " nonces");
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            Node node = new Node(i);
+            node.start((int)multiplier);
+            nodes.add(node);
+        }
+        log("Started %d nodes with base target multiplier %d", nodeCount, multiplier);
+        for (Node node : nodes) {
+            node.waitForStart();
+            node.accountId = (String)node.get("getAccountId", "secretPhrase", node.secretPhrase).get("account");
+            log("Node %d API is at %s, mining account %s", node.index, node.apiUrl, node.accountId);
+        }
+        for (Node node : nodes) {
+            node.connectPeers();
+        }
+        for (Node node : nodes) {
+            node.plots = new MiningPlot[nonceCount];
+            for (int i = 0; i < nonceCount; i++) {
+                node.plots[i] = new MiningPlot(Long.parseUnsignedLong(node.accountId), i);
+            }
+        }
+        for (Node node : nodes) {
+            startThread("mining-" + node.index, () -> mine(node));
+            startThread("events-" + node.index, () -> listen(node));
+        }
+        //
+        // Mine until the accounts have earned enough to pay for the transactions
+        //
+        int transactionCount = tps * duration;
+        List<String> transactions = new ArrayList<>(transactionCount);
+        if (transactionCount > 0) {
+            long required = 2 * ONE_NXT * transactionCount;
+            long available;
+            while ((available = getAvailableBalance()) < required + nodeCount * 10 * ONE_NXT) {
+                log("Warming up at height %d, balance %d of %d BURST", nodes.get(0).getHeight(),
+                        available / ONE_NXT, required / ONE_NXT);
+                Thread.sleep(blockTime * 1000L);
+            }
+            log("Signing %d transactions", transactionCount);
+            signTransactions(transactions, transactionCount);
+        } else {
+            while (nodes.get(0).getHeight() < 2) {
+                Thread.sleep(1000);
+            }
+        }
+        //
+        // Submit the transactions at the requested rate
+        //
+        Map<Node, Long> startCpu = new HashMap<>();
+        for (Node node : nodes) {
+            startCpu.put(node, node.getCpuTime());
+        }
+        int startHeight = nodes.get(0).getHeight();
+        int startTime = nodes.get(0).getEpochTime();
+        log("Measuring from height %d for %d seconds", startHeight, duration);
+        long start = System.nanoTime();
+        int submitted = 0;
+        int rejected = 0;
+        Set<Object> rejections = new HashSet<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            long delay = start + i * 1_000_000_000L / tps - System.nanoTime();
+            if (delay > 0) {
+                Thread.sleep(delay / 1_000_000, (int)(delay % 1_000_000));
+            }
+            Node node = nodes.get(ThreadLocalRandom.current().nextInt(nodeCount));
+            JSONObject response = node.post("broadcastTransaction", "transactionBytes", transactions.get(i));
+            if (response.get("transaction") != null) {
+                submitted++;
+            } else {
+                rejected++;
+                if (rejections.add(response.get("errorDescription"))) {
+                    log("Transaction rejected by node %d: %s", node.index, response.get("errorDescription"));
+                }
+            }
+        }
+        long remaining = start + duration * 1_000_000_000L - System.nanoTime();
+        if (remaining > 0) {
+            Thread.sleep(remaining / 1_000_000);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int endTime = nodes.get(0).getEpochTime();
+        Map<Node, Long> endCpu = new HashMap<>();
+        for (Node node : nodes) {
+            endCpu.put(node, node.getCpuTime());
+        }
+        //
+        // Let the network settle before taking node 0 as the reference chain
+        //
+        log("Waiting for the network to settle");
+        Thread.sleep(3 * blockTime * 1000L);
+        stopped = true;
+        Node reference = nodes.get(0);
+        int endHeight = reference.getHeight();
+        Set<String> chain = new HashSet<>();
+        int chainBlocks = 0;
+        int confirmed = 0;
+        int firstTime = 0;
+        int lastTime = 0;
+        for (int height = startHeight + 1; height <= endHeight; height++) {
+            String blockId = (String)reference.get("getBlockId", "height", Integer.toString(height)).get("block");
+            chain.add(blockId);
+            JSONObject block = reference.get("getBlock", "block", blockId);
+            int timestamp = ((Number)block.get("timestamp")).intValue();
+            if (timestamp <= endTime) {
+                chainBlocks++;
+                confirmed += ((Number)block.get("numberOfTransactions")).intValue();
+                firstTime = firstTime == 0 ? timestamp : firstTime;
+                lastTime = timestamp;
+            }
+        }
+        int orphaned = 0;
+        int seen = 0;
+        List<Long> latencies = new ArrayList<>();
+        for (Map.Entry<String, BlockInfo> entry : blocks.entrySet()) {
+            BlockInfo info = entry.getValue();
+            if (info.height <= startHeight || info.height > endHeight || info.timestamp > endTime) {
+                continue;
+            }
+            seen++;
+            if (!chain.contains(entry.getKey())) {
+                orphaned++;
+            }
+            Long generated = info.pushed.get(info.generator);
+            if (generated == null) {
+                continue;
+            }
+            info.pushed.forEach((node, pushed) -> {
+                if (node != info.generator) {
+                    latencies.add(Math.max(0, pushed - generated));
+                }
+            });
+        }
+        Collections.sort(latencies);
+        //
+        // Create the report
+        //
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append(String.format("Nodes:               %d, %d nonces each, %d second block time%n", nodeCount, nonceCount, blockTime));
+        sb.append(String.format("Measured time:       %.1f seconds, height %d to %d%n", seconds, startHeight + 1, endHeight));
+        sb.append(String.format("Blocks:              %d main chain, %d orphaned of %d seen, %.1f%% orphan rate%n",
+                chainBlocks, orphaned, seen, seen > 0 ? orphaned * 100.0 / seen : 0.0));
+        sb.append(String.format("Average block time:  %.1f seconds%n",
+                chainBlocks > 1 ? (double)(lastTime - firstTime) / (chainBlocks - 1) : 0.0));
+        sb.append(String.format("Transactions:        %d submitted (%.1f/sec), %d rejected, %d confirmed (%.1f/sec)%n",
+                submitted, submitted / seconds, rejected, confirmed, confirmed / (double)Math.max(endTime - startTime, 1)));
+        sb.append(String.format("Propagation latency: p50 %d ms, p90 %d ms, p99 %d ms, max %d ms (%d samples)%n",
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                percentile(latencies, 100), latencies.size()));
+        for (Node node : nodes) {
+            long cpu = endCpu.get(node) - startCpu.get(node);
+            sb.append(String.format("Node %-3d CPU:        %.1f seconds, %.1f%%%n", node.index, cpu / 1000.0,
+                    cpu / (seconds * 10)));
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Stop the simulation and the nodes
+     */
+    private void stop() {
+        stopped = true;
+        for (Node node : nodes) {
+            node.stop();
+        }
+    }
+
+    /**
+     * Submit the best nonce of the node account for each new block
+     *
+     * @param   node                Node
+     */
+    private void mine(Node node) {
+        String lastSignature = null;
+        while (!stopped) {
+            try {
+                JSONObject miningInfo = node.get("getMiningInfo");
+                String signature = (String)miningInfo.get("generationSignature");
+                if (signature != null && !signature.equals(lastSignature)) {
+                    byte[] generationSignature = Convert.parseHexString(signature);
+                    long height = Long.parseLong((String)miningInfo.get("height"));
+                    BigInteger baseTarget = new BigInteger((String)miningInfo.get("baseTarget"));
+                    int scoop = getScoop(generationSignature, height);
+                    int bestNonce = 0;
+                    BigInteger bestDeadline = null;
+                    for (int i = 0; i < node.plots.length; i++) {
+                        BigInteger deadline = getHit(generationSignature, node.plots[i].getScoop(scoop)).divide(baseTarget);
+                        if (bestDeadline == null || deadline.compareTo(bestDeadline) < 0) {
+                            bestDeadline = deadline;
+                            bestNonce = i;
+                        }
+                    }
+                    node.post("submitNonce", "secretPhrase", node.secretPhrase, "nonce", Integer.toString(bestNonce));
+                    lastSignature = signature;
+                }
+                Thread.sleep(200);
+            } catch (InterruptedException exc) {
+                return;
+            } catch (Exception exc) {
+                if (!stopped) {
+                    log("Node %d mining failed: %s", node.index, exc);
+                    sleep(1000);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record the blocks pushed by the node
+     *
+     * @param   node                Node
+     */
+    private void listen(Node node) {
+        try {
+            node.post("eventRegister", "event", "Block.BLOCK_PUSHED");
+            while (!stopped) {
+                JSONObject response = node.post("eventWait", "timeout", "5");
+                long now = System.nanoTime() / 1_000_000;
+                JSONArray events = (JSONArray)response.get("events");
+                if (events == null) {
+                    continue;
+                }
+                for (Object event : events) {
+                    for (Object id : (JSONArray)((JSONObject)event).get("ids")) {
+                        String blockId = (String)id;
+                        BlockInfo info = blocks.get(blockId);
+                        if (info == null) {
+                            JSONObject block = node.get("getBlock", "block", blockId);
+                            if (block.get("height") == null) {
+                                continue;
+                            }
+                            info = new BlockInfo(((Number)block.get("height")).intValue(),
+                                    ((Number)block.get("timestamp")).intValue(), getNode((String)block.get("generator")));
+                            BlockInfo previous = blocks.putIfAbsent(blockId, info);
+                            info = previous != null ? previous : info;
+                        }
+                        info.pushed.putIfAbsent(node, now);
+                    }
+                }
+            }
+        } catch (Exception exc) {
+            if (!stopped) {
+                log("Node %d event listener failed: %s", node.index, exc);
+            }
+        }
+    }
+
+    /**
+     * Sign the payment transactions between the node accounts
+     *
+     * @param   transactions        Signed transaction bytes
+     * @param   count               Number of transactions
+     * @throws  IOException         Node API request failed
+     */
+    private void signTransactions(List<String> transactions, int count) throws IOException {
+        int height = getConfirmedHeight();
+        Map<Node, Long> balances = new HashMap<>();
+        for (Node node : nodes) {
+            balances.put(node, getConfirmedBalance(node, height));
+        }
+        int index = 0;
+        while (transactions.size() < count) {
+            Node sender = nodes.get(index++ % nodeCount);
+            long balance = balances.get(sender);
+            if (balance < 3 * ONE_NXT) {
+                continue;
+            }
+            Node recipient = nodes.get((sender.index + 1 + ThreadLocalRandom.current().nextInt(nodeCount - 1)) % nodeCount);
+            //
+            // Transactions signed within the same second are identical unless the amount differs
+            //
+            JSONObject response = sender.post("sendMoney", "secretPhrase", sender.secretPhrase,
+                    "recipient", recipient.accountId, "amountNQT", Long.toString(ONE_NXT - transactions.size()),
+                    "feeNQT", Long.toString(ONE_NXT), "deadline", "1440", "broadcast", "false");
+            String bytes = (String)response.get("transactionBytes");
+            if (bytes == null) {
+                throw new IOException("Unable to sign transaction: " + response);
+            }
+            transactions.add(bytes);
+            balances.put(sender, balance - 2 * ONE_NXT);
+        }
+    }
+
+    /**
+     * Return the balance of the node accounts which can be spent
+     *
+     * @return                      Balance in NQT
+     * @throws  IOException         Node API request failed
+     */
+    private long getAvailableBalance() throws IOException {
+        int height = getConfirmedHeight();
+        long balance = 0;
+        for (Node node : nodes) {
+            balance += Math.max(getConfirmedBalance(node, height) - 3 * ONE_NXT, 0);
+        }
+        return balance;
+    }
+
+    /**
+     * Return the height which has the required number of confirmations on all nodes
+     *
+     * @return                      Confirmed height or -1 if there is none yet
+     * @throws  IOException         Node API request failed
+     */
+    private int getConfirmedHeight() throws IOException {
+        int height = Integer.MAX_VALUE;
+        for (Node node : nodes) {
+            height = Math.min(height, node.getHeight());
+        }
+        return height - CONFIRMATIONS;
+    }
+
+    /**
+     * Return the balance of a node account at a confirmed height
+     *
+     * The lowest balance reported by any node is used, so that a transaction spending
+     * it is accepted by every node even when the nodes are on different forks
+     *
+     * @param   account             Node mining the account
+     * @param   height              Confirmed height
+     * @return                      Balance in NQT
+     * @throws  IOException         Node API request failed
+     */
+    private long getConfirmedBalance(Node account, int height) throws IOException {
+        if (height < 0) {
+            return 0;
+        }
+        long balance = Long.MAX_VALUE;
+        for (Node node : nodes) {
+            balance = Math.min(balance, node.getBalance(account.accountId, height));
+        }
+        return balance;
+    }
+
+    /**
+     * Return the node mining an account
+     *
+     * @param   accountId           Account identifier
+     * @return                      Node or null
+     */
+    private Node getNode(String accountId) {
+        for (Node node : nodes) {
+            if (node.accountId.equals(accountId)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static int getScoop(byte[] generationSignature, long height) {
+        Shabal256 md = new Shabal256();
+        md.update(ByteBuffer.allocate(32 + 8).put(generationSignature).putLong(height).array());
+        return new BigInteger(1, md.digest()).mod(BigInteger.valueOf(MiningPlot.SCOOPS_PER_PLOT)).intValue();
+    }
+
+    private static BigInteger getHit(byte[] generationSignature, byte[] scoopData) {
+        Shabal256 md = new Shabal256();
+        md.update(generationSignature);
+        md.update(scoopData);
+        byte[] hash = md.digest();
+        return new BigInteger(1, new byte[] {hash[7], hash[6], hash[5], hash[4], hash[3], hash[2], hash[1], hash[0]});
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get(Math.min(sorted.size() - 1, (int)Math.ceil(sorted.size() * percentile / 100.0) - 1));
+    }
+
+    private static void startThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void log(String format, Object... args) {
+        System.out.println(String.format("%tT %s", System.currentTimeMillis(), String.format(format, args)));
+    }
+
+    /**
+     * Block seen by the nodes
+     */
+    private static final class BlockInfo {
+
+        /** Block height */
+        private final int height;
+
+        /** Block timestamp */
+        private final int timestamp;
+
+        /** Generating node or null if the block was not forged by a simulator node */
+        private final Node generator;
+
+        /** Time in milliseconds at which each node pushed the block */
+        private final Map<Node, Long> pushed = new ConcurrentHashMap<>();
+
+        private BlockInfo(int height, int timestamp, Node generator) {
+            this.height = height;
+            this.timestamp = timestamp;
+            this.generator = generator;
+        }
+    }
+
+    /**
+     * Simulated node
+     */
+    private final class Node {
+
+        /** Node index */
+        private final int index;
+
+        /** Loopback address */
+        private final String address;
+
+        /** API URL */
+        private final String apiUrl;
+
+        /** Mining account secret phrase */
+        private final String secretPhrase;
+
+        /** Mining account identifier */
+        private volatile String accountId;
+
+        /** Mining account plots */
+        private volatile MiningPlot[] plots;
+
+        /** Node process */
+        private Process process;
+
+        private Node(int index) {
+            this.index = index;
+            this.address = "127.0.0." + (index + 2);
+            this.apiUrl = "http://" + address + ":" + API_PORT + "/burst";
+            this.secretPhrase = "nxt-simulator-" + index;
+        }
+
+        /**
+         * Create the node directory and start the node process
+         *
+         * @param   multiplier      Base target multiplier
+         * @throws  IOException     Unable to start the node
+         */
+        private void start(int multiplier) throws IOException {
+            Path nodeDir = dir.resolve("node-" + index);
+            Files.createDirectories(nodeDir.resolve("logs"));
+            Path propertiesFile = nodeDir.resolve("nxt.properties");
+            List<String> peers = new ArrayList<>();
+            for (int i = 0; i < nodeCount; i++) {
+                if (i != index) {
+                    peers.add("127.0.0." + (i + 2));
+                }
+            }
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(propertiesFile, StandardCharsets.UTF_8))) {
+                writer.println("nxt.isTestnet=true");
+                writer.println("nxt.testnetBlockTime=" + blockTime);
+                writer.println("nxt.testnetBaseTargetMultiplier=" + multiplier);
+                writer.println("nxt.testnetDigitalGoodsStoreBlock=0");
+                writer.println("nxt.testnetAllowLoopbackPeers=true");
+                writer.println("nxt.myAddress=" + address);
+                writer.println("nxt.peerServerHost=" + address);
+                writer.println("nxt.apiServerHost=" + address);
+                writer.println("nxt.disableAdminPassword=true");
+                writer.println("nxt.testnetPeers=" + String.join("; ", peers));
+                writer.println("nxt.defaultTestnetPeers=");
+                writer.println("nxt.testnetNumberOfForkConfirmations=0");
+                writer.println("nxt.enablePeerUPnP=false");
+                writer.println("nxt.enableMetrics=true");
+                if (extraProperties != null) {
+                    writer.println(new String(Files.readAllBytes(Paths.get(extraProperties)), StandardCharsets.UTF_8));
+                }
+            }
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            for (String option : javaOptions.trim().split("\\s+")) {
+                if (!option.isEmpty()) {
+                    command.add(option);
+                }
+            }
+            command.add("-Dnxt.properties=" + propertiesFile);
+            List<String> classPath = new ArrayList<>();
+            for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                classPath.add(new File(entry).getAbsolutePath());
+            }
+            command.add("-cp");
+            command.add(String.join(File.pathSeparator, classPath));
+            command.add("nxt.Nxt");
+            process = new ProcessBuilder(command)
+                    .directory(nodeDir.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(nodeDir.resolve("console.log").toFile())
+                    .start();
+        }
+
+        /**
+         * Wait until the node API is available
+         *
+         * @throws  Exception       Node did not start
+         */
+        private void waitForStart() throws Exception {
+            long timeout = System.currentTimeMillis() + 300_000;
+            while (true) {
+                if (!process.isAlive()) {
+                    throw new IOException("Node " + index + " stopped, see " + dir.resolve("node-" + index));
+                }
+                try {
+                    get("getBlockchainStatus");
+                    return;
+                } catch (IOException exc) {
+                    if (System.currentTimeMillis() > timeout) {
+                        throw new IOException("Node " + index + " did not start", exc);
+                    }
+                    Thread.sleep(1000);
+                }
+            }
+        }
+
+        /**
+         * Connect the node to the other nodes
+         *
+         * A node which started before the others has already failed to connect to them
+         * and would not try again for ten minutes
+         *
+         * @throws  Exception       Node is not able to connect
+         */
+        private void connectPeers() throws Exception {
+            long timeout = System.currentTimeMillis() + 60_000;
+            while (true) {
+                JSONArray connected = (JSONArray)get("getPeers", "state", "CONNECTED").get("peers");
+                if (connected != null && connected.size() >= nodes.size() - 1) {
+                    return;
+                }
+                if (System.currentTimeMillis() > timeout) {
+                    throw new IOException("Node " + index + " is not connected to the other nodes");
+                }
+                for (Node node : nodes) {
+                    if (node != this && (connected == null || !connected.contains(node.address))) {
+                        post("addPeer", "peer", node.address);
+                    }
+                }
+                Thread.sleep(1000);
+            }
+        }
+
+        /**
+         * Stop the node process
+         */
+        private void stop() {
+            if (process == null) {
+                return;
+            }
+            process.destroy();
+            try {
+                if (!process.waitFor(60, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException exc) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private int getHeight() throws IOException {
+            return ((Number)get("getBlockchainStatus").get("numberOfBlocks")).intValue() - 1;
+        }
+
+        private int getEpochTime() throws IOException {
+            return ((Number)get("getBlockchainStatus").get("time")).intValue();
+        }
+
+        private long getBalance(String account, int height) throws IOException {
+            Object balance = get("getBalance", "account", account, "height", Integer.toString(height)).get("balanceNQT");
+            return balance != null ? Long.parseLong((String)balance) : 0;
+        }
+
+        /**
+         * Return the CPU time used by the node process from the node metrics
+         *
+         * @return                  CPU time in milliseconds
+         * @throws  IOException     Node request failed
+         */
+        private long getCpuTime() throws IOException {
+            HttpURLConnection connection = open("http://" + address + ":" + API_PORT + "/metrics");
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("nxt_process_cpu_milliseconds ")) {
+                        return Long.parseLong(line.substring(line.indexOf(' ') + 1).trim());
+                    }
+                }
+            }
+            return 0;
+        }
+
+        private JSONObject get(String requestType, String... params) throws IOException {
+            return getResponse(open(apiUrl + "?" + getQuery(requestType, params)));
+        }
+
+        private JSONObject post(String requestType, String... params) throws IOException {
+            HttpURLConnection connection = open(apiUrl);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(getQuery(requestType, params).getBytes(StandardCharsets.UTF_8));
+            }
+            return getResponse(connection);
+        }
+
+        private HttpURLConnection open(String url) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(60000);
+            return connection;
+        }
+
+        private String getQuery(String requestType, String... params) throws IOException {
+            StringBuilder sb = new StringBuilder("requestType=").append(requestType);
+            for (int i = 0; i < params.length; i += 2) {
+                sb.append('&').append(params[i]).append('=').append(URLEncoder.encode(params[i + 1], "UTF-8"));
+            }
+            return sb.toString();
+        }
+
+        private JSONObject getResponse(HttpURLConnection connection) throws IOException {
+            try (Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+                Object response = JSONValue.parse(reader);
+                if (!(response instanceof JSONObject)) {
+                    throw new IOException("Invalid response from node " + index);
+                }
+                return (JSONObject)response;
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.tools;
+
+import nxt.Block;
+import nxt.BlockFile;
+import nxt.BlockchainProcessor;
+import nxt.Nxt;
+import nxt.util.Logger;
+import nxt.util.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Replay a block file created by ExportBlocks into a new database.  No network
+ * access is performed, so the replay is deterministic and can be used to measure
+ * block processing performance.
+ *
+ * To replay the blocks on Linux or Mac:
+ *
+ *   java -cp "classes:lib/*:conf" nxt.tools.ReplayBlocks blocks.bin replay_db
+ *
+ * The database is created in the specified directory.  An existing replay database
+ * is continued from its last block.  The block processing rate, the time spent in each
+ * block processing phase and the final database size are reported when the replay
+ * is complete.
+ */
+public class ReplayBlocks {
+
+    /** Block processing phases */
+    private static final String[] PHASES = {"validate", "verify", "accept", "commit"};
+
+    /**
+     * Replay the blocks
+     *
+     * @param   args                Command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: ReplayBlocks <block-file> <database-directory>");
+            System.exit(1);
+        }
+        String dbDir = new File(args[1], "nxt").getPath();
+        int exitCode = 0;
+        String report = null;
+        try {
+            Properties properties = new Properties();
+            properties.setProperty("nxt.isOffline", "true");
+            properties.setProperty("nxt.enableAPIServer", "false");
+            properties.setProperty("nxt.disableGenerateBlocksThread", "true");
+            properties.setProperty("nxt.enableMetrics", "true");
+            properties.setProperty("nxt.dbUrl", "");
+            properties.setProperty("nxt.testDbUrl", "");
+            properties.setProperty("nxt.dbDir", dbDir);
+            properties.setProperty("nxt.testDbDir", dbDir);
+            Nxt.init(properties);
+            Nxt.getBlockchainProcessor().setGetMoreBlocks(false);
+            report = replayBlocks(Paths.get(args[0]));
+        } catch (Throwable exc) {
+            Logger.logErrorMessage("Unable to replay blocks", exc);
+            exitCode = 1;
+        }
+        Nxt.shutdown();
+        if (report != null) {
+            try {
+                System.out.println(report);
+                System.out.println(String.format("Database size:   %,d bytes", getDirectorySize(Paths.get(args[1]))));
+            } catch (IOException exc) {
+                System.out.println("Unable to determine the database size: " + exc);
+            }
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * Push the blocks in the block file
+     *
+     * @param   path                Block file path
+     * @return                      Replay report
+     * @throws  Exception           Unable to replay the blocks
+     */
+    private static String replayBlocks(Path path) throws Exception {
+        BlockchainProcessor blockchainProcessor = Nxt.getBlockchainProcessor();
+        int startHeight = Nxt.getBlockchain().getHeight();
+        int blockCount = 0;
+        int transactionCount = 0;
+        long start = System.nanoTime();
+        try (BlockFile.Reader reader = new BlockFile.Reader(path)) {
+            Block block;
+            while ((block = reader.read()) != null) {
+                if (block.getHeight() <= startHeight) {
+                    continue;
+                }
+                blockchainProcessor.processBlock(block);
+                blockCount++;
+                transactionCount += block.getTransactions().size();
+                if (blockCount % 1000 == 0) {
+                    Logger.logInfoMessage(String.format("Replayed %d blocks, height %d, %.1f blocks/sec",
+                            blockCount, block.getHeight(), blockCount / ((System.nanoTime() - start) / 1e9)));
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        StringBuilder sb = new StringBuilder(512);
+        sb.append(String.format("Replayed blocks: %d (height %d to %d), %d transactions%n", blockCount,
+                startHeight + 1, Nxt.getBlockchain().getHeight(), transactionCount));
+        sb.append(String.format("Elapsed time:    %.3f seconds%n", seconds));
+        sb.append(String.format("Throughput:      %.1f blocks/sec, %.1f transactions/sec%n",
+                blockCount / seconds, transactionCount / seconds));
+        Metrics.Family<Metrics.Histogram> phases =
+                Metrics.histogramFamily("nxt_block_push_phase_seconds", "Block push time by processing phase", "phase");
+        for (String phase : PHASES) {
+            Metrics.Histogram histogram = phases.labels(phase);
+            double phaseSeconds = histogram.getSumNanos() / 1e9;
+            sb.append(String.format("Phase %-9s  %.3f seconds, %.3f ms/block, %.1f%%%n", phase + ':', phaseSeconds,
+                    histogram.getCount() > 0 ? phaseSeconds * 1000 / histogram.getCount() : 0.0,
+                    seconds > 0 ? phaseSeconds * 100 / seconds : 0.0));
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Return the total size of the files in a directory tree
+     *
+     * @param   dir                 Directory
+     * @return                      Size in bytes
+     * @throws  IOException         I/O error occurred
+     */
+    private static long getDirectorySize(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compressed columnar data file
+ *
+ * The file starts with a header containing the file magic, the format version, the
+ * row count and a descriptor for each column (name, type and compressed length).
+ * This is followed by the column data, each column stored as a separate deflate
+ * stream so a reader can load a single column without decompressing the others.
+ * Each value is preceded by a presence flag, so all column types can hold nulls.
+ */
+public final class ColumnFile {
+
+    /** File magic ("BRSC") */
+    private static final int MAGIC = 0x42525343;
+
+    /** File format version */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Column types
+     */
+    public enum Type {
+        LONG, INT, BOOLEAN, BYTES, STRING
+    }
+
+    /**
+     * Column file writer
+     *
+     * The column streams are compressed in memory as rows are added and the file is
+     * written by commit().  The file is first written to a temporary file and then renamed,
+     * so a partially written file is never visible under its final name.  Closing a writer
+     * which has not been committed discards the rows and does not create the file.
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final Path path;
+        private final String[] names;
+        private final Type[] types;
+        private final ByteArrayOutputStream[] buffers;
+        private final Deflater[] deflaters;
+        private final DataOutputStream[] columns;
+        private final Path tempPath;
+        private int rowCount;
+        private boolean committed;
+        private boolean closed;
+
+        /**
+         * Create a new column file
+         *
+         * @param   path                    File path
+         * @param   names                   Column names
+         * @param   types                   Column types
+         */
+        public Writer(Path path, String[] names, Type[] types) {
+            if (names.length != types.length) {
+                throw new IllegalArgumentException("Column name and type counts do not match");
+            }
+            this.path = path;
+            this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+            this.names = names.clone();
+            this.types = types.clone();
+            buffers = new ByteArrayOutputStream[names.length];
+            deflaters = new Deflater[names.length];
+            columns = new DataOutputStream[names.length];
+            for (int i = 0; i < names.length; i++) {
+                buffers[i] = new ByteArrayOutputStream(64 * 1024);
+                deflaters[i] = new Deflater(Deflater.BEST_COMPRESSION);
+                columns[i] = new DataOutputStream(new BufferedOutputStream(
+                        new DeflaterOutputStream(buffers[i], deflaters[i], 8192), 8192));
+            }
+        }
+
+        /**
+         * Add a row
+         *
+         * @param   values                  Column values in column order
+         * @throws  IOException             I/O error occurred
+         */
+        public void addRow(Object... values) throws IOException {
+            if (committed || closed) {
+                throw new IllegalStateException("Column file writer is no longer open");
+            }
+            if (values.length != names.length) {
+                throw new IllegalArgumentException("Expected " + names.length + " values, got " + values.length);
+            }
+            for (int i = 0; i < values.length; i++) {
+                DataOutputStream out = columns[i];
+                Object value = values[i];
+                if (value == null) {
+                    out.writeBoolean(false);
+                    continue;
+                }
+                out.writeBoolean(true);
+                switch (types[i]) {
+                    case LONG:
+                        out.writeLong(((Number)value).longValue());
+                        break;
+                    case INT:
+                        out.writeInt(((Number)value).intValue());
+                        break;
+                    case BOOLEAN:
+                        out.writeBoolean((Boolean)value);
+                        break;
+                    case BYTES:
+                        byte[] bytes = (byte[])value;
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                        break;
+                    case STRING:
+                        byte[] chars = value.toString().getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(chars.length);
+                        out.write(chars);
+                        break;
+                }
+            }
+            rowCount++;
+        }
+
+        /**
+         * Return the number of rows added so far
+         *
+         * @return                          Row count
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Write the file
+         *
+         * @throws  IOException             I/O error occurred
+         */
+        public void commit() throws IOException {
+            if (committed || closed) {
+                throw new IllegalStateException("Column file writer is no longer open");
+            }
+            for (DataOutputStream column : columns) {
+                column.close();
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), 1024 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(rowCount);
+                out.writeInt(names.length);
+                for (int i = 0; i < names.length; i++) {
+                    out.writeUTF(names[i]);
+                    out.writeByte(types[i].ordinal());
+                    out.writeInt(buffers[i].size());
+                }
+                for (ByteArrayOutputStream buffer : buffers) {
+                    buffer.writeTo(out);
+                }
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        /**
+         * Close the writer
+         *
+         * The rows are discarded if the file has not been committed.
+         *
+         * @throws  IOException             I/O error occurred
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Deflater deflater : deflaters) {
+                deflater.end();
+            }
+            if (!committed) {
+                Files.deleteIfExists(tempPath);
+            }
+        }
+    }
+
+    /**
+     * Column file reader
+     */
+    public static final class Reader {
+
+        private final Path path;
+        private final int rowCount;
+        private final String[] names;
+        private final Type[] types;
+        private final long[] offsets;
+        private final int[] lengths;
+
+        /**
+         * Open a column file and read the header
+         *
+         * @param   path                    File path
+         * @throws  IOException             I/O error occurred
+         */
+        public Reader(Path path) throws IOException {
+            this.path = path;
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(path)), Long.MAX_VALUE);
+            try (DataInputStream in = new DataInputStream(counter)) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("File " + path + " is not a column file");
+                }
+                int version = in.readInt();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Column file version " + version + " is not supported");
+                }
+                rowCount = in.readInt();
+                int columnCount = in.readInt();
+                names = new String[columnCount];
+                types = new Type[columnCount];
+                offsets = new long[columnCount];
+                lengths = new int[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    names[i] = in.readUTF();
+                    types[i] = Type.values()[in.readUnsignedByte()];
+                    lengths[i] = in.readInt();
+                }
+                long offset = counter.getCount();
+                for (int i = 0; i < columnCount; i++) {
+                    offsets[i] = offset;
+                    offset += lengths[i];
+                }
+            }
+        }
+
+        /**
+         * Return the number of rows
+         *
+         * @return                          Row count
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Return the column names
+         *
+         * @return                          Column names
+         */
+        public List<String> getColumnNames() {
+            return Arrays.asList(names.clone());
+        }
+
+        /**
+         * Return the column type
+         *
+         * @param   name                    Column name
+         * @return                          Column type
+         */
+        public Type getType(String name) {
+            return types[indexOf(name)];
+        }
+
+        /**
+         * Read all values of a column
+         *
+         * LONG and INT columns are returned as Long and Integer, BOOLEAN columns as Boolean,
+         * BYTES columns as byte[] and STRING columns as String.  Missing values are null.
+         *
+         * @param   name                    Column name
+         * @return                          Column values in row order
+         * @throws  IOException             I/O error occurred
+         */
+        public List<Object> readColumn(String name) throws IOException {
+            int index = indexOf(name);
+            List<Object> values = new ArrayList<>(rowCount);
+            try (InputStream file = Files.newInputStream(path)) {
+                long skipped = 0;
+                while (skipped < offsets[index]) {
+                    long n = file.skip(offsets[index] - skipped);
+                    if (n <= 0) {
+                        throw new IOException("Column file " + path + " is truncated");
+                    }
+                    skipped += n;
+                }
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new InflaterInputStream(new BoundedInputStream(file, lengths[index])), 8192));
+                for (int row = 0; row < rowCount; row++) {
+                    if (!in.readBoolean()) {
+                        values.add(null);
+                        continue;
+                    }
+                    switch (types[index]) {
+                        case LONG:
+                            values.add(in.readLong());
+                            break;
+                        case INT:
+                            values.add(in.readInt());
+                            break;
+                        case BOOLEAN:
+                            values.add(in.readBoolean());
+                            break;
+                        case BYTES:
+                            byte[] bytes = new byte[in.readInt()];
+                            in.readFully(bytes);
+                            values.add(bytes);
+                            break;
+                        case STRING:
+                            byte[] chars = new byte[in.readInt()];
+                            in.readFully(chars);
+                            values.add(new String(chars, StandardCharsets.UTF_8));
+                            break;
+                    }
+                }
+            }
+            return values;
+        }
+
+        private int indexOf(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Column " + name + " not found");
+        }
+    }
+
+    /**
+     * Input stream limited to the compressed length of a single column
+     */
+    private static final class BoundedInputStream extends InputStream {
+
+        private final InputStream in;
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int)Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+
+    private ColumnFile() {} // never
+}
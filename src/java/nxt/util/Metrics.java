@@ -0,0 +1,390 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.util;
+
+import nxt.Nxt;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics registry
+ *
+ * Metrics are registered once, usually in a static initializer, and are then
+ * updated from the hot paths without any allocation.  All updates are no-ops
+ * unless nxt.enableMetrics is set, so call sites only pay for a static field check.
+ * The registry is exposed in the Prometheus text format by the API server.
+ */
+public final class Metrics {
+
+    /** Metrics collection enabled */
+    public static final boolean enabled = Nxt.getBooleanProperty("nxt.enableMetrics");
+
+    /** Default latency buckets in seconds */
+    static final double[] LATENCY_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    /** Registered metric families sorted by name */
+    private static final ConcurrentMap<String, Family<?>> families = new ConcurrentSkipListMap<>();
+
+    static {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            gauge("nxt_process_cpu_milliseconds", "CPU time used by the node process",
+                    () -> ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime() / 1_000_000);
+        }
+    }
+
+    /**
+     * Return the start time for a timed operation
+     *
+     * @return                          Current nanosecond time or 0 if metrics are disabled
+     */
+    public static long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Register an unlabeled histogram
+     *
+     * @param   name                    Metric name
+     * @param   help                    Metric description
+     * @return                          Histogram
+     */
+    public static Histogram histogram(String name, String help) {
+        return histogramFamily(name, help, null).labels("");
+    }
+
+    /**
+     * Register a labeled histogram
+     *
+     * @param   name                    Metric name
+     * @param   help                    Metric description
+     * @param   labelName               Label name
+     * @param   labelValue              Label value
+     * @return                          Histogram
+     */
+    public static Histogram histogram(String name, String help, String labelName, String labelValue) {
+        return histogramFamily(name, help, labelName).labels(labelValue);
+    }
+
+    /**
+     * Register a histogram family whose label values are resolved at run time
+     *
+     * @param   name                    Metric name
+     * @param   help                    Metric description
+     * @param   labelName               Label name or null
+     * @return                          Histogram family
+     */
+    public static Family<Histogram> histogramFamily(String name, String help, String labelName) {
+        return register(name, help, "histogram", labelName, label -> new Histogram(LATENCY_BUCKETS));
+    }
+
+    /**
+     * Register an unlabeled counter
+     *
+     * @param   name                    Metric name
+     * @param   help                    Metric description
+     * @return                          Counter
+     */
+    public static Counter counter(String name, String help) {
+        return counterFamily(name, help, null).labels("");
+    }
+
+    /**
+     * Register a counter family
+     *
+     * @param   name                    Metric name
+     * @param   help                    Metric description
+     * @param   labelName               Label name or null
+     * @return                          Counter family
+     */
+    public static Family<Counter> counterFamily(String name, String help, String labelName) {
+        return register(name, help, "counter", labelName, label -> new Counter());
+    }
+
+    /**
+     * Register an unlabeled gauge.  The supplier is called only when the metrics are scraped.
+     *
+     * @param   name                    Metric name
+     * @param   help                    Metric description
+     * @param   supplier                Gauge value supplier
+     */
+    public static void gauge(String name, String help, LongSupplier supplier) {
+        gauge(name, help, null, "", supplier);
+    }
+
+    /**
+     * Register a labeled gauge.  The supplier is called only when the metrics are scraped.
+     *
+     * @param   name                    Metric name
+     * @param   help                    Metric description
+     * @param   labelName               Label name
+     * @param   labelValue              Label value
+     * @param   supplier                Gauge value supplier
+     */
+    public static void gauge(String name, String help, String labelName, String labelValue, LongSupplier supplier) {
+        Family<Gauge> family = register(name, help, "gauge", labelName, null);
+        family.children.put(labelValue, new Gauge(supplier));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M extends Metric> Family<M> register(String name, String help, String type, String labelName,
+                                                         Function<String, M> factory) {
+        Family<?> family = families.computeIfAbsent(name, n -> new Family<>(n, help, type, labelName, factory));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " already registered as a " + family.type);
+        }
+        return (Family<M>)family;
+    }
+
+    /**
+     * Write all registered metrics in the Prometheus text exposition format
+     *
+     * @param   writer                  Output writer
+     * @throws  IOException             I/O error occurred
+     */
+    public static void writeTo(Writer writer) throws IOException {
+        StringBuilder sb = new StringBuilder(8192);
+        for (Family<?> family : families.values()) {
+            family.write(sb);
+        }
+        writer.write(sb.toString());
+    }
+
+    /**
+     * Metric family sharing a name, description and label name
+     */
+    public static final class Family<M extends Metric> {
+
+        private final String name;
+        private final String help;
+        private final String type;
+        private final String labelName;
+        private final Function<String, M> factory;
+        private final ConcurrentMap<String, M> children = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, String type, String labelName, Function<String, M> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelName = labelName;
+            this.factory = factory;
+        }
+
+        /**
+         * Return the metric for a label value, creating it if necessary
+         *
+         * @param   labelValue          Label value
+         * @return                      Metric
+         */
+        public M labels(String labelValue) {
+            M metric = children.get(labelValue);
+            return metric != null ? metric : children.computeIfAbsent(labelValue, factory);
+        }
+
+        void write(StringBuilder sb) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Map.Entry<String, M> entry : children.entrySet()) {
+                String labels = labelName == null ? "" : labelName + "=\"" + escape(entry.getKey()) + "\"";
+                entry.getValue().write(sb, name, labels);
+            }
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+
+    /**
+     * Base class for all metrics
+     */
+    public abstract static class Metric {
+
+        abstract void write(StringBuilder sb, String name, String labels);
+
+        static void appendSample(StringBuilder sb, String name, String labels, String extraLabel, String value) {
+            sb.append(name);
+            if (!labels.isEmpty() || extraLabel != null) {
+                sb.append('{').append(labels);
+                if (extraLabel != null) {
+                    if (!labels.isEmpty()) {
+                        sb.append(',');
+                    }
+                    sb.append(extraLabel);
+                }
+                sb.append('}');
+            }
+            sb.append(' ').append(value).append('\n');
+        }
+    }
+
+    /**
+     * Latency histogram with fixed buckets
+     */
+    public static final class Histogram extends Metric {
+
+        private final double[] buckets;
+        private final long[] bucketNanos;
+        private final AtomicLongArray counts;
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(double[] buckets) {
+            this.buckets = buckets;
+            this.bucketNanos = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                bucketNanos[i] = (long)(buckets[i] * 1_000_000_000L);
+            }
+            this.counts = new AtomicLongArray(buckets.length + 1);
+        }
+
+        /**
+         * Record the time elapsed since a start time obtained from {@link Metrics#startTimer()}
+         *
+         * @param   startTime           Start time
+         */
+        public void observeSince(long startTime) {
+            if (enabled) {
+                observeNanos(System.nanoTime() - startTime);
+            }
+        }
+
+        /**
+         * Record an observation
+         *
+         * @param   nanos               Elapsed time in nanoseconds
+         */
+        public void observeNanos(long nanos) {
+            int i = 0;
+            while (i < bucketNanos.length && nanos > bucketNanos[i]) {
+                i++;
+            }
+            counts.incrementAndGet(i);
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Return the number of observations
+         *
+         * @return                      Observation count
+         */
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * Return the sum of all observations
+         *
+         * @return                      Total elapsed time in nanoseconds
+         */
+        public long getSumNanos() {
+            return sumNanos.sum();
+        }
+
+        @Override
+        void write(StringBuilder sb, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += counts.get(i);
+                appendSample(sb, name + "_bucket", labels, "le=\"" + buckets[i] + "\"", Long.toString(cumulative));
+            }
+            cumulative += counts.get(buckets.length);
+            appendSample(sb, name + "_bucket", labels, "le=\"+Inf\"", Long.toString(cumulative));
+            appendSample(sb, name + "_sum", labels, null, Double.toString((double)sumNanos.sum() / 1_000_000_000.0));
+            appendSample(sb, name + "_count", labels, null, Long.toString(cumulative));
+        }
+    }
+
+    /**
+     * Monotonic counter
+     */
+    public static final class Counter extends Metric {
+
+        private final LongAdder value = new LongAdder();
+
+        /**
+         * Add to the counter
+         *
+         * @param   delta               Amount to add
+         */
+        public void add(long delta) {
+            if (enabled) {
+                value.add(delta);
+            }
+        }
+
+        /**
+         * Increment the counter
+         */
+        public void increment() {
+            add(1);
+        }
+
+        /**
+         * Return the counter value
+         *
+         * @return                      Counter value
+         */
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        void write(StringBuilder sb, String name, String labels) {
+            appendSample(sb, name, labels, null, Long.toString(value.sum()));
+        }
+    }
+
+    /**
+     * Gauge evaluated when the metrics are scraped
+     */
+    public static final class Gauge extends Metric {
+
+        private final LongSupplier supplier;
+
+        Gauge(LongSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        void write(StringBuilder sb, String name, String labels) {
+            long value;
+            try {
+                value = supplier.getAsLong();
+            } catch (RuntimeException e) {
+                Logger.logDebugMessage("Unable to evaluate gauge " + name, e);
+                return;
+            }
+            appendSample(sb, name, labels, null, Long.toString(value));
+        }
+    }
+
+    private Metrics() {} // never
+}
@@ -95,6 +95,15 @@ public class QueuedThreadPool extends ThreadPoolExecutor {
         this.maxSize = maxSize;
     }
 
+    /**
+     * Return the number of tasks waiting for an available thread
+     *
+     * @return                          Pending task count
+     */
+    public int getPendingTaskCount() {
+        return pendingQueue.size();
+    }
+
     /**
      * Execute a task
      *
@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.crypto.Crypto;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/**
+ * Base class for tests which need a running node
+ *
+ * The node is started once for each JVM on a testnet database in a temporary
+ * directory.  It is offline, does not forge on its own and uses a base target
+ * high enough for every nonce to meet its deadline within BLOCK_SPACING seconds,
+ * so tests forge blocks on demand with forge().  The blocks forged by a test are
+ * popped off when the test ends.
+ */
+public abstract class AbstractNodeTest {
+
+    /** Secret phrase of the forging account */
+    protected static final String FORGER_SECRET_PHRASE = "nxt-test-forger";
+
+    /** Seconds between forged blocks */
+    protected static final int BLOCK_SPACING = 30;
+
+    protected static BlockchainImpl blockchain;
+    protected static BlockchainProcessorImpl blockchainProcessor;
+
+    private static boolean started;
+
+    private int startHeight;
+
+    @BeforeClass
+    public static void startNode() throws Exception {
+        synchronized (AbstractNodeTest.class) {
+            if (started) {
+                return;
+            }
+            File dir = Files.createTempDirectory("nxt-test").toFile();
+            Properties properties = new Properties();
+            properties.setProperty("nxt.isTestnet", "true");
+            properties.setProperty("nxt.isOffline", "true");
+            properties.setProperty("nxt.enableAPIServer", "false");
+            properties.setProperty("nxt.disableGenerateBlocksThread", "true");
+            properties.setProperty("nxt.testUnconfirmedTransactions", "true");
+            properties.setProperty("nxt.testnetBlockTime", Integer.toString(BLOCK_SPACING));
+            properties.setProperty("nxt.testnetBaseTargetMultiplier", "40000000");
+            properties.setProperty("nxt.testnetDigitalGoodsStoreBlock", "0");
+            properties.setProperty("nxt.testDbDir", new File(dir, "nxt").getPath());
+            properties.setProperty("nxt.testBlockStoreDir", new File(dir, "blocks").getPath());
+            Nxt.init(properties);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                Nxt.shutdown();
+                delete(dir);
+            }));
+            blockchain = BlockchainImpl.getInstance();
+            blockchainProcessor = BlockchainProcessorImpl.getInstance();
+            blockchainProcessor.setGetMoreBlocks(false);
+            // popping off to the genesis block does a full reset, keep one block below the tests
+            forge(FORGER_SECRET_PHRASE);
+            started = true;
+        }
+    }
+
+    @Before
+    public void saveHeight() {
+        startHeight = blockchain.getHeight();
+    }
+
+    @After
+    public void popOffTestBlocks() {
+        TransactionProcessorImpl.getInstance().clearUnconfirmedTransactions();
+        blockchainProcessor.popOffTo(startHeight);
+    }
+
+    /**
+     * Forge a block on top of the last block using nonce 0
+     *
+     * @param   secretPhrase            Secret phrase of the forging account
+     * @return                          The new last block
+     * @throws  BlockchainProcessor.BlockNotAcceptedException  Block not accepted
+     */
+    protected static Block forge(String secretPhrase) throws BlockchainProcessor.BlockNotAcceptedException {
+        blockchainProcessor.generateBlock(secretPhrase, Crypto.getPublicKey(secretPhrase), 0, nextTimestamp());
+        return Nxt.getBlockchain().getLastBlock();
+    }
+
+    /**
+     * Broadcast a payment.  The transaction has the timestamp of the next forged block.
+     *
+     * @param   secretPhrase            Secret phrase of the sender
+     * @param   recipientId             Recipient account identifier
+     * @param   amountNQT               Amount
+     * @return                          Transaction
+     * @throws  NxtException.ValidationException  Transaction not valid
+     */
+    protected static Transaction sendMoney(String secretPhrase, long recipientId, long amountNQT)
+            throws NxtException.ValidationException {
+        Transaction transaction = Nxt.newTransactionBuilder(Crypto.getPublicKey(secretPhrase),
+                amountNQT, Constants.ONE_NXT, (short)1440, Attachment.ORDINARY_PAYMENT)
+                .recipientId(recipientId)
+                .timestamp(nextTimestamp())
+                .build(secretPhrase);
+        Nxt.getTransactionProcessor().broadcast(transaction);
+        return transaction;
+    }
+
+    /**
+     * Return the timestamp of the next forged block.  The blocks above the genesis
+     * block are spaced BLOCK_SPACING seconds apart starting 1000 blocks in the past,
+     * so transactions created for them are not yet expired.
+     *
+     * @return                          Block timestamp
+     */
+    protected static int nextTimestamp() {
+        Block lastBlock = Nxt.getBlockchain().getLastBlock();
+        return lastBlock.getHeight() == 0 ? Nxt.getEpochTime() - 1000 * BLOCK_SPACING
+                : lastBlock.getTimestamp() + BLOCK_SPACING;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.AccountLedger.LedgerEntry;
+import nxt.util.Listener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AccountLedgerTest extends AbstractNodeTest {
+
+    private final List<LedgerEntry> addedEntries = new ArrayList<>();
+
+    private final Listener<LedgerEntry> listener = addedEntries::add;
+
+    @Before
+    public void addListener() {
+        AccountLedger.addListener(listener, AccountLedger.Event.ADD_ENTRY);
+    }
+
+    @After
+    public void removeListener() {
+        AccountLedger.removeListener(listener, AccountLedger.Event.ADD_ENTRY);
+    }
+
+    @Test
+    public void entriesAddedWhenBlockCommits() throws Exception {
+        sendMoney(FORGER_SECRET_PHRASE, 1, Constants.ONE_NXT);
+        Block block = forge(FORGER_SECRET_PHRASE);
+        Assert.assertFalse(addedEntries.isEmpty());
+        for (LedgerEntry entry : addedEntries) {
+            Assert.assertEquals(block.getHeight(), entry.getHeight());
+            Assert.assertTrue(entry.getLedgerId() > 0);
+        }
+        waitForWrite(addedEntries.get(addedEntries.size() - 1));
+        for (LedgerEntry entry : addedEntries) {
+            LedgerEntry savedEntry = AccountLedger.getEntry(entry.getLedgerId());
+            Assert.assertNotNull(savedEntry);
+            Assert.assertEquals(entry.getChange(), savedEntry.getChange());
+            Assert.assertEquals(entry.getBalance(), savedEntry.getBalance());
+        }
+    }
+
+    @Test
+    public void rebuildEntries() throws Exception {
+        int height = blockchain.getHeight();
+        for (int i = 1; i <= 3; i++) {
+            sendMoney(FORGER_SECRET_PHRASE, i, i * Constants.ONE_NXT);
+            forge(FORGER_SECRET_PHRASE);
+        }
+        List<LedgerEntry> entries = new ArrayList<>(addedEntries);
+        Assert.assertFalse(entries.isEmpty());
+        waitForWrite(entries.get(entries.size() - 1));
+
+        // lose the entries above the starting height, as in a crash before they were written
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmtEntries = con.prepareStatement("DELETE FROM account_ledger WHERE height > ?");
+             PreparedStatement pstmtHeight = con.prepareStatement("UPDATE account_ledger_height SET height = ?")) {
+            pstmtEntries.setInt(1, height);
+            pstmtEntries.executeUpdate();
+            pstmtHeight.setInt(1, height);
+            pstmtHeight.executeUpdate();
+        }
+        Account account = Account.getAccount(entries.get(0).getAccountId());
+        long balance = account.getBalanceNQT();
+        addedEntries.clear();
+
+        AccountLedger.rebuildEntries(height);
+        Assert.assertEquals(entries.size(), addedEntries.size());
+        Assert.assertEquals(balance, Account.getAccount(account.getId()).getBalanceNQT());
+        Assert.assertEquals(height + 3, blockchain.getHeight());
+        waitForWrite(addedEntries.get(addedEntries.size() - 1));
+        for (int i = 0; i < entries.size(); i++) {
+            LedgerEntry entry = entries.get(i);
+            LedgerEntry savedEntry = AccountLedger.getEntry(addedEntries.get(i).getLedgerId());
+            Assert.assertNotNull(savedEntry);
+            Assert.assertEquals(entry.getAccountId(), savedEntry.getAccountId());
+            Assert.assertEquals(entry.getEvent(), savedEntry.getEvent());
+            Assert.assertEquals(entry.getEventId(), savedEntry.getEventId());
+            Assert.assertEquals(entry.getHeight(), savedEntry.getHeight());
+            Assert.assertEquals(entry.getChange(), savedEntry.getChange());
+            Assert.assertEquals(entry.getBalance(), savedEntry.getBalance());
+        }
+    }
+
+    private static void waitForWrite(LedgerEntry entry) throws InterruptedException {
+        for (int i = 0; i < 100 && AccountLedger.getEntry(entry.getLedgerId()) == null; i++) {
+            Thread.sleep(50);
+        }
+    }
+}
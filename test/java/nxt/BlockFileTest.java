@@ -0,0 +1,33 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class BlockFileTest {
+
+    @Test(expected = NxtException.NotValidException.class)
+    public void lengthBeyondRecordIsRejected() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putInt(1).putInt(3).putInt(0).putLong(0).putLong(0).putLong(0).putInt(0);
+        buffer.putInt(Integer.MAX_VALUE);
+        buffer.flip();
+        BlockFile.decodeBlock(buffer);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockPayloadCacheTest extends AbstractNodeTest {
+
+    @Before
+    public void checkEnabled() {
+        Assert.assertTrue(BlockPayloadCache.enabled);
+    }
+
+    @Test
+    public void blockIsCached() throws Exception {
+        Block block = forge(FORGER_SECRET_PHRASE);
+        Assert.assertSame(BlockPayloadCache.getJSONObject(block), BlockPayloadCache.getJSONObject(block));
+    }
+
+    @Test
+    public void poppedBlockIsRemoved() throws Exception {
+        Block block = forge(FORGER_SECRET_PHRASE);
+        BlockPayloadCache.getJSONObject(block);
+        blockchainProcessor.popOffTo(block.getHeight() - 1);
+        Assert.assertNotSame(BlockPayloadCache.getJSONObject(block), BlockPayloadCache.getJSONObject(block));
+    }
+
+    @Test
+    public void truncateRemovesHigherBlocks() throws Exception {
+        Block block1 = forge(FORGER_SECRET_PHRASE);
+        Block block2 = forge(FORGER_SECRET_PHRASE);
+        Object json1 = BlockPayloadCache.getJSONObject(block1);
+        Object json2 = BlockPayloadCache.getJSONObject(block2);
+        BlockPayloadCache.truncate(block1.getHeight());
+        Assert.assertSame(json1, BlockPayloadCache.getJSONObject(block1));
+        Object newJson2 = BlockPayloadCache.getJSONObject(block2);
+        Assert.assertNotSame(json2, newJson2);
+        Assert.assertEquals(json2, newJson2);
+    }
+}
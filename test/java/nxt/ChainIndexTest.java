@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.crypto.Crypto;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ChainIndexTest extends AbstractNodeTest {
+
+    @Test
+    public void lookups() throws Exception {
+        Assert.assertTrue(ChainIndex.isAvailable());
+        Block first = forge(FORGER_SECRET_PHRASE);
+        Block second = forge(FORGER_SECRET_PHRASE);
+        Block third = forge(FORGER_SECRET_PHRASE);
+        for (Block block : Arrays.asList(first, second, third)) {
+            Assert.assertEquals(block.getHeight(), ChainIndex.getHeight(block.getId()));
+            Assert.assertEquals(block.getId(), ChainIndex.getBlockId(block.getHeight()));
+            Assert.assertTrue(BlockDb.hasBlock(block.getId()));
+        }
+        Assert.assertEquals(Arrays.asList(second.getId(), third.getId()), ChainIndex.getBlockIdsAfter(first.getId(), 10));
+        Assert.assertEquals(Collections.singletonList(second.getId()), ChainIndex.getBlockIdsAfter(first.getId(), 1));
+        Assert.assertEquals(Collections.emptyList(), ChainIndex.getBlockIdsAfter(third.getId(), 10));
+        Assert.assertNull(ChainIndex.getBlockIdsAfter(123456789L, 10));
+        Assert.assertEquals(-1, ChainIndex.getHeight(123456789L));
+        Assert.assertEquals(0, ChainIndex.getBlockId(third.getHeight() + 1));
+    }
+
+    @Test
+    public void poppedBlocks() throws Exception {
+        Block first = forge(FORGER_SECRET_PHRASE);
+        Block second = forge(FORGER_SECRET_PHRASE);
+        blockchainProcessor.popOffTo(first.getHeight());
+        Assert.assertEquals(-1, ChainIndex.getHeight(second.getId()));
+        Assert.assertEquals(0, ChainIndex.getBlockId(second.getHeight()));
+        Assert.assertFalse(BlockDb.hasBlock(second.getId()));
+        Assert.assertEquals(first.getHeight(), ChainIndex.getHeight(first.getId()));
+
+        Block replacement = forge(FORGER_SECRET_PHRASE);
+        Assert.assertEquals(replacement.getId(), ChainIndex.getBlockId(second.getHeight()));
+        Assert.assertEquals(Collections.singletonList(replacement.getId()), ChainIndex.getBlockIdsAfter(first.getId(), 10));
+    }
+
+    @Test
+    public void rejectedBlock() throws Exception {
+        Block lastBlock = forge(FORGER_SECRET_PHRASE);
+        // the block total amount is only checked after the block has been added
+        BlockImpl block = newBlock(lastBlock, 1);
+        JSONObject blockJSON = (JSONObject)JSONValue.parse(block.getJSONObject().toJSONString());
+        try {
+            blockchainProcessor.processPeerBlock(blockJSON);
+            Assert.fail("Block with an invalid total amount was accepted");
+        } catch (BlockchainProcessor.BlockNotAcceptedException expected) {
+        }
+        Assert.assertEquals(lastBlock.getId(), blockchain.getLastBlock().getId());
+        Assert.assertEquals(-1, ChainIndex.getHeight(block.getId()));
+        Assert.assertEquals(0, ChainIndex.getBlockId(lastBlock.getHeight() + 1));
+        Assert.assertFalse(BlockDb.hasBlock(block.getId()));
+        Assert.assertEquals(Collections.emptyList(), ChainIndex.getBlockIdsAfter(lastBlock.getId(), 10));
+
+        Block next = forge(FORGER_SECRET_PHRASE);
+        Assert.assertEquals(lastBlock.getHeight() + 1, ChainIndex.getHeight(next.getId()));
+    }
+
+    /**
+     * Create a block without transactions on top of a block
+     *
+     * @param   previousBlock           Previous block
+     * @param   totalAmountNQT          Block total amount
+     * @return                          Signed block
+     * @throws  NxtException.NotValidException  Block not valid
+     */
+    private static BlockImpl newBlock(Block previousBlock, long totalAmountNQT) throws NxtException.NotValidException {
+        byte[] publicKey = Crypto.getPublicKey(FORGER_SECRET_PHRASE);
+        byte[] generationSignature = Generator.calculateGenerationSignature(previousBlock.getGenerationSignature(), previousBlock.getGeneratorId());
+        List<TransactionImpl> transactions = Collections.emptyList();
+        return new BlockImpl(previousBlock.getVersion(), nextTimestamp(), previousBlock.getId(), totalAmountNQT, 0, 0,
+                Crypto.sha256().digest(), publicKey, generationSignature, Crypto.sha256().digest(previousBlock.getBytes()),
+                transactions, FORGER_SECRET_PHRASE, 0L, null);
+    }
+}
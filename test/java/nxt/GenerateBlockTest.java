@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class GenerateBlockTest extends AbstractNodeTest {
+
+    @Test
+    public void transactionsSortedById() throws Exception {
+        for (int i = 1; i <= 8; i++) {
+            sendMoney(FORGER_SECRET_PHRASE, i, i * Constants.ONE_NXT);
+        }
+        int height = blockchain.getHeight();
+        Block block = forge(FORGER_SECRET_PHRASE);
+        Assert.assertEquals(height + 1, block.getHeight());
+        List<? extends Transaction> transactions = block.getTransactions();
+        Assert.assertEquals(8, transactions.size());
+        for (int i = 1; i < transactions.size(); i++) {
+            Assert.assertTrue(transactions.get(i - 1).getId() < transactions.get(i).getId());
+        }
+    }
+}
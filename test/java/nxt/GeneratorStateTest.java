@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.crypto.Crypto;
+import nxt.util.Convert;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+public class GeneratorStateTest extends AbstractNodeTest {
+
+    private static final String SECRET_PHRASE = "nxt-test-miner";
+
+    @Test
+    public void staleNonceIsDiscarded() throws Exception {
+        Generator.submitNonce(SECRET_PHRASE, 0);
+        forge(FORGER_SECRET_PHRASE);
+        int height = blockchain.getHeight();
+        Generator.generateBlocksThread.run();
+        Generator.generateBlocksThread.run();
+        Assert.assertEquals(height, blockchain.getHeight());
+    }
+
+    @Test
+    public void nonceForNewBlockReplacesBetterStaleNonce() throws Exception {
+        long bestNonce = 0;
+        BigInteger bestDeadline = null;
+        for (long nonce = 0; nonce < 8; nonce++) {
+            BigInteger deadline = deadline(nonce);
+            if (bestDeadline == null || deadline.compareTo(bestDeadline) < 0) {
+                bestNonce = nonce;
+                bestDeadline = deadline;
+            }
+        }
+        Generator.submitNonce(SECRET_PHRASE, bestNonce);
+        forge(FORGER_SECRET_PHRASE);
+        int height = blockchain.getHeight();
+
+        long nonce = 0;
+        while (deadline(nonce).compareTo(bestDeadline) <= 0) {
+            nonce++;
+        }
+        Generator.submitNonce(SECRET_PHRASE, nonce);
+        Generator.generateBlocksThread.run();
+        Assert.assertEquals(height + 1, blockchain.getHeight());
+        Assert.assertEquals(nonce, blockchain.getLastBlock().getNonce().longValue());
+        Assert.assertEquals(accountId(), blockchain.getLastBlock().getGeneratorId());
+    }
+
+    private static BigInteger deadline(long nonce) {
+        Block lastBlock = blockchain.getLastBlock();
+        byte[] generationSignature = Generator.calculateGenerationSignature(lastBlock.getGenerationSignature(), lastBlock.getGeneratorId());
+        int scoop = Generator.calculateScoopNum(generationSignature, lastBlock.getHeight() + 1);
+        return Generator.calculatePOCTime(accountId(), nonce, generationSignature, scoop, lastBlock.getBaseTarget());
+    }
+
+    private static long accountId() {
+        return Convert.fullHashToId(Crypto.sha256().digest(Crypto.getPublicKey(SECRET_PHRASE)));
+    }
+}
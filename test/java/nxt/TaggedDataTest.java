@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import nxt.db.DbIterator;
+import nxt.db.DbUtils;
+import nxt.db.DerivedDbTable;
+import nxt.db.PrunableDbTable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Tag counts of pruned tagged data
+ *
+ * Tagged data transactions are not enabled, so the tagged data and tag rows are
+ * inserted directly in a database transaction which is rolled back when the test ends.
+ */
+public class TaggedDataTest extends AbstractNodeTest {
+
+    private int expiration;
+
+    @Before
+    public void insertTaggedData() throws SQLException {
+        Db.db.beginTransaction();
+        expiration = Nxt.getEpochTime();
+        insertTag("tag-alpha", 1);
+        insertTag("tag-beta", 2);
+        insertTaggedData(1, new String[] {"tag-alpha", "tag-beta"}, expiration - 10);
+        insertTaggedData(2, new String[] {"tag-beta"}, expiration);
+    }
+
+    @After
+    public void rollback() {
+        Db.db.rollbackTransaction();
+        Db.db.endTransaction();
+    }
+
+    @Test
+    public void tagCounts() {
+        Assert.assertEquals(1, getTable().prune(expiration, 100).getRows());
+        Assert.assertEquals(0, getTagCount("tag-alpha"));
+        Assert.assertEquals(1, getTagCount("tag-beta"));
+    }
+
+    @Test
+    public void failedPruneDoesNotReduceTagCountsTwice() throws SQLException {
+        // a row without parsed tags fails the chunk after the tags of the older rows have been collected
+        insertTaggedData(3, null, expiration - 20);
+        try {
+            getTable().prune(expiration, 100);
+            Assert.fail("Prune did not fail");
+        } catch (RuntimeException expected) {
+        }
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("DELETE FROM tagged_data WHERE id = 3")) {
+            pstmt.executeUpdate();
+        }
+        Assert.assertEquals(1, getTable().prune(expiration, 100).getRows());
+        Assert.assertEquals(0, getTagCount("tag-alpha"));
+        Assert.assertEquals(1, getTagCount("tag-beta"));
+    }
+
+    private static void insertTag(String tag, int count) throws SQLException {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("INSERT INTO data_tag (tag, tag_count, height) VALUES (?, ?, ?)")) {
+            pstmt.setString(1, tag);
+            pstmt.setInt(2, count);
+            pstmt.setInt(3, blockchain.getHeight());
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static void insertTaggedData(long id, String[] tags, int timestamp) throws SQLException {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("INSERT INTO tagged_data (id, account_id, name, parsed_tags, data, "
+                     + "is_text, block_timestamp, transaction_timestamp, height) VALUES (?, 1, 'test', ?, X'00', FALSE, ?, ?, ?)")) {
+            pstmt.setLong(1, id);
+            DbUtils.setArray(pstmt, 2, tags);
+            pstmt.setInt(3, timestamp);
+            pstmt.setInt(4, timestamp);
+            pstmt.setInt(5, blockchain.getHeight());
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static PrunableDbTable<?> getTable() {
+        for (DerivedDbTable table : blockchainProcessor.getDerivedTables()) {
+            if (table instanceof PrunableDbTable && table.toString().equals("tagged_data")) {
+                return (PrunableDbTable<?>)table;
+            }
+        }
+        throw new IllegalStateException("Tagged data table not found");
+    }
+
+    private static int getTagCount(String tag) {
+        try (DbIterator<TaggedData.Tag> tags = TaggedData.Tag.getTagsLike(tag, 0, -1)) {
+            for (TaggedData.Tag dataTag : tags) {
+                if (dataTag.getTag().equals(tag)) {
+                    return dataTag.getCount();
+                }
+            }
+        }
+        return 0;
+    }
+}
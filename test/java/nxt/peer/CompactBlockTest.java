@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import nxt.AbstractNodeTest;
+import nxt.Block;
+import nxt.Constants;
+import nxt.Nxt;
+import nxt.Transaction;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompactBlockTest extends AbstractNodeTest {
+
+    @Test
+    public void rebuildFromUnconfirmedPool() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            sendMoney(FORGER_SECRET_PHRASE, i, i * Constants.ONE_NXT);
+        }
+        Block block = forge(FORGER_SECRET_PHRASE);
+        Assert.assertEquals(3, block.getTransactions().size());
+        JSONObject request = receive(CompactBlock.getRequest(block, block.getJSONObject()));
+        Assert.assertNull(request.get("transactions"));
+
+        Nxt.getBlockchainProcessor().popOffTo(block.getHeight() - 1);
+        for (Transaction transaction : block.getTransactions()) {
+            Nxt.getTransactionProcessor().broadcast(transaction);
+            Assert.assertNotNull(Nxt.getTransactionProcessor().getUnconfirmedTransaction(transaction.getId()));
+        }
+
+        JSONObject blockData = CompactBlock.getBlock(request, null);
+        Assert.assertNotNull(blockData);
+        Nxt.getBlockchainProcessor().processPeerBlock(blockData);
+        Assert.assertEquals(block.getId(), Nxt.getBlockchain().getLastBlock().getId());
+        Assert.assertEquals(3, Nxt.getBlockchain().getLastBlock().getTransactions().size());
+    }
+
+    @Test
+    public void payloadHashMismatch() throws Exception {
+        sendMoney(FORGER_SECRET_PHRASE, 1, Constants.ONE_NXT);
+        Block block = forge(FORGER_SECRET_PHRASE);
+        JSONObject request = receive(CompactBlock.getRequest(block, block.getJSONObject()));
+        request.put("payloadHash", "00000000000000000000000000000000000000000000000000000000000000ff");
+        Nxt.getBlockchainProcessor().popOffTo(block.getHeight() - 1);
+        Assert.assertNull(CompactBlock.getBlock(request, new PeerImpl("127.0.0.1", null)));
+    }
+
+    /**
+     * Return a message as the receiving peer sees it
+     */
+    private static JSONObject receive(JSONObject message) {
+        return (JSONObject)JSONValue.parse(message.toJSONString());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import nxt.AbstractNodeTest;
+import nxt.Db;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class PeerDbTest extends AbstractNodeTest {
+
+    @Before
+    public void beginTransaction() {
+        Db.db.beginTransaction();
+    }
+
+    @After
+    public void rollbackTransaction() {
+        Db.db.rollbackTransaction();
+        Db.db.endTransaction();
+    }
+
+    @Test
+    public void savePeers() {
+        PeerDb.updatePeers(Arrays.asList(
+                new PeerDb.Entry("peer1.example.com:8123", 1, 1000, "192.0.2.1", 0.75, 900,
+                        Peer.BlockchainState.UP_TO_DATE.ordinal()),
+                new PeerDb.Entry("peer2.example.com", 0, 2000)));
+
+        PeerDb.Entry peer1 = load("peer1.example.com:8123");
+        Assert.assertEquals(1, peer1.getServices());
+        Assert.assertEquals(1000, peer1.getLastUpdated());
+        Assert.assertEquals("192.0.2.1", peer1.getHost());
+        Assert.assertEquals(0.75, peer1.getScore(), 0);
+        Assert.assertEquals(900, peer1.getLastConnected());
+        Assert.assertEquals(Peer.BlockchainState.UP_TO_DATE.ordinal(), peer1.getBlockchainState());
+
+        PeerDb.Entry peer2 = load("peer2.example.com");
+        Assert.assertNull(peer2.getHost());
+        Assert.assertEquals(-1, peer2.getScore(), 0);
+        Assert.assertEquals(0, peer2.getLastConnected());
+        Assert.assertEquals(-1, peer2.getBlockchainState());
+    }
+
+    @Test
+    public void updateAndDeletePeers() {
+        PeerDb.Entry entry = new PeerDb.Entry("peer3.example.com", 0, 1000, "192.0.2.3", 0.5, 1000,
+                Peer.BlockchainState.DOWNLOADING.ordinal());
+        PeerDb.updatePeers(Collections.singletonList(entry));
+        PeerDb.updatePeers(Collections.singletonList(new PeerDb.Entry("peer3.example.com", 0, 3000, "192.0.2.4", 0.25, 3000,
+                Peer.BlockchainState.UP_TO_DATE.ordinal())));
+        PeerDb.Entry saved = load("peer3.example.com");
+        Assert.assertEquals(3000, saved.getLastUpdated());
+        Assert.assertEquals("192.0.2.4", saved.getHost());
+        Assert.assertEquals(0.25, saved.getScore(), 0);
+        Assert.assertEquals(Peer.BlockchainState.UP_TO_DATE.ordinal(), saved.getBlockchainState());
+
+        PeerDb.deletePeers(Collections.singletonList(entry));
+        Assert.assertNull(load("peer3.example.com"));
+    }
+
+    private static PeerDb.Entry load(String address) {
+        for (PeerDb.Entry entry : PeerDb.loadPeers()) {
+            if (entry.getAddress().equals(address)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+
+package nxt.peer;
+
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PeerMessageCodecTest {
+
+    private final PeerMessageCodec codec = new PeerMessageCodec(new MappedByteBufferPool(), 2);
+
+    @Test
+    public void roundTripUncompressed() throws Exception {
+        String message = "{\"requestType\":\"getInfo\",\"text\":\"é中\"}";
+        ByteBuffer buf = codec.encode(1, 42, message, true);
+        assertEquals(0, buf.getInt(12));
+        assertEquals(message.getBytes(StandardCharsets.UTF_8).length, buf.getInt(16));
+        PeerMessageCodec.Message msg = decode(buf);
+        assertEquals(1, msg.version);
+        assertEquals(42, msg.requestId);
+        assertEquals(message, msg.message);
+    }
+
+    @Test
+    public void roundTripCompressed() throws Exception {
+        String message = largeMessage(100000);
+        ByteBuffer buf = codec.encode(1, 7, message, true);
+        assertEquals(PeerMessageCodec.FLAG_COMPRESSED, buf.getInt(12));
+        assertEquals(message, decode(buf).message);
+        buf = codec.encode(1, 8, message, false);
+        assertEquals(0, buf.getInt(12));
+        assertEquals(message, decode(buf).message);
+    }
+
+    @Test
+    public void compressedMessageIsGzip() throws Exception {
+        String message = largeMessage(5000);
+        byte[] bytes = toArray(codec.encode(1, 1, message, true));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes, 20, bytes.length - 20))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            int count;
+            while ((count = in.read(chunk)) > 0) {
+                out.write(chunk, 0, count);
+            }
+            assertArrayEquals(message.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void decodeGzipStream() throws Exception {
+        String message = largeMessage(5000);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(outStream)) {
+            gzipStream.write(messageBytes);
+        }
+        byte[] compressed = outStream.toByteArray();
+        ByteBuffer buf = ByteBuffer.allocate(compressed.length + 20);
+        buf.putInt(1).putLong(3).putInt(PeerMessageCodec.FLAG_COMPRESSED).putInt(messageBytes.length).put(compressed);
+        assertEquals(message, codec.decode(buf.array(), 0, buf.capacity()).message);
+    }
+
+    @Test(expected = EOFException.class)
+    public void decodeTruncatedMessage() throws Exception {
+        byte[] bytes = toArray(codec.encode(1, 1, largeMessage(5000), true));
+        codec.decode(Arrays.copyOf(bytes, bytes.length - 100), 0, bytes.length - 100);
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeWrongLength() throws Exception {
+        byte[] bytes = toArray(codec.encode(1, 1, largeMessage(5000), true));
+        ByteBuffer.wrap(bytes).putInt(16, 4000);
+        codec.decode(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void declaredLengthDoesNotSizeBuffer() throws Exception {
+        int[] maxSize = new int[1];
+        PeerMessageCodec sizingCodec = new PeerMessageCodec(new MappedByteBufferPool() {
+            @Override
+            public ByteBuffer acquire(int size, boolean direct) {
+                maxSize[0] = Math.max(maxSize[0], size);
+                return super.acquire(size, direct);
+            }
+        }, 2);
+        byte[] bytes = toArray(codec.encode(1, 1, largeMessage(5000), true));
+        ByteBuffer.wrap(bytes).putInt(16, Peers.MAX_MESSAGE_SIZE);
+        try {
+            sizingCodec.decode(bytes, 0, bytes.length);
+            fail("Message with a wrong length was decoded");
+        } catch (IOException expected) {
+        }
+        assertTrue("Acquired " + maxSize[0] + " bytes", maxSize[0] <= 64 * 1024);
+    }
+
+    private PeerMessageCodec.Message decode(ByteBuffer buf) throws IOException {
+        byte[] bytes = toArray(buf);
+        byte[] padded = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, padded, 5, bytes.length);
+        return codec.decode(padded, 5, bytes.length);
+    }
+
+    private byte[] toArray(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        codec.release(buf);
+        return bytes;
+    }
+
+    private static String largeMessage(int length) {
+        StringBuilder sb = new StringBuilder(length + 32);
+        sb.append("{\"transactions\":[");
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append("{\"id\":\"").append(Long.toUnsignedString(i * 0x9E3779B97F4A7C15L)).append("\"},");
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.append("]}").toString();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import nxt.AbstractNodeTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PeerRequestSchedulerTest extends AbstractNodeTest {
+
+    @Test
+    public void blockRequestRunsWhenOtherClassesSaturateWorkers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (PeerRequestScheduler.Priority priority : new PeerRequestScheduler.Priority[] {
+                    PeerRequestScheduler.Priority.TRANSACTION, PeerRequestScheduler.Priority.SYNC,
+                    PeerRequestScheduler.Priority.PEER}) {
+                for (int i = 0; i < 64; i++) {
+                    submit(priority, new BlockingTask(release));
+                }
+            }
+            CountDownLatch blockRun = new CountDownLatch(1);
+            submit(PeerRequestScheduler.Priority.BLOCK, new PeerRequestScheduler.Task() {
+                @Override
+                void run() {
+                    blockRun.countDown();
+                }
+
+                @Override
+                void reject(String error) {
+                    Assert.fail("Block request rejected: " + error);
+                }
+            });
+            Assert.assertTrue("Block request was not processed", blockRun.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static void submit(PeerRequestScheduler.Priority priority, PeerRequestScheduler.Task task) {
+        // each request comes from a separate peer so the flood is not rate limited
+        PeerRequestScheduler.submit(new PeerImpl("127.0.0.1", null), priority, task);
+    }
+
+    private static final class BlockingTask extends PeerRequestScheduler.Task {
+
+        private final CountDownLatch release;
+
+        private BlockingTask(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        void run() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        void reject(String error) {
+        }
+    }
+}
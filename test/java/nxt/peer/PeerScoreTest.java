@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PeerScoreTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void unmeasuredPeer() {
+        PeerScore score = new PeerScore();
+        Assert.assertEquals(0.5, score.getValue(), DELTA);
+        Assert.assertEquals(-1, score.getLatency());
+        Assert.assertEquals(-1, score.getThroughput());
+    }
+
+    @Test
+    public void fastPeerScoresHigherThanSlowPeer() {
+        PeerScore fast = new PeerScore();
+        PeerScore slow = new PeerScore();
+        for (int i = 0; i < 10; i++) {
+            fast.requestCompleted(50_000_000L, 1024 * 1024);
+            slow.requestCompleted(2_000_000_000L, 8 * 1024);
+        }
+        Assert.assertEquals(50, fast.getLatency());
+        Assert.assertEquals(2000, slow.getLatency());
+        Assert.assertTrue(fast.getThroughput() > slow.getThroughput());
+        Assert.assertTrue(fast.getValue() > 0.5);
+        Assert.assertTrue(slow.getValue() < 0.5);
+    }
+
+    @Test
+    public void smallResponsesDoNotMeasureThroughput() {
+        PeerScore score = new PeerScore();
+        score.requestCompleted(1_000_000L, 100);
+        Assert.assertEquals(1, score.getLatency());
+        Assert.assertEquals(-1, score.getThroughput());
+    }
+
+    @Test
+    public void errorsReduceScore() {
+        PeerScore score = new PeerScore();
+        score.requestCompleted(100_000_000L, 64 * 1024);
+        double value = score.getValue();
+        score.requestFailed();
+        Assert.assertEquals(0.2, score.getErrorRate(), DELTA);
+        Assert.assertEquals(value * 0.8, score.getValue(), DELTA);
+        score.requestCompleted(100_000_000L, 64 * 1024);
+        Assert.assertEquals(0.16, score.getErrorRate(), DELTA);
+    }
+
+    @Test
+    public void rejectedBlocksReduceScore() {
+        PeerScore score = new PeerScore();
+        score.blockAccepted();
+        score.blockRejected();
+        score.blockRejected();
+        Assert.assertEquals(1, score.getBlocksAccepted());
+        Assert.assertEquals(2, score.getBlocksRejected());
+        Assert.assertEquals(0.5 * 2 / 4, score.getValue(), DELTA);
+    }
+
+    @Test
+    public void savedScoreUsedUntilMeasured() {
+        PeerScore score = new PeerScore();
+        score.restore(0.9);
+        Assert.assertEquals(0.9, score.getValue(), DELTA);
+        score.requestFailed();
+        Assert.assertEquals(0.5 * 0.8, score.getValue(), DELTA);
+    }
+}
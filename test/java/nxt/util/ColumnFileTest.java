@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class ColumnFileTest {
+
+    private static final String[] names = {"id", "name"};
+    private static final ColumnFile.Type[] types = {ColumnFile.Type.LONG, ColumnFile.Type.STRING};
+
+    @Test
+    public void commit() throws Exception {
+        Path dir = Files.createTempDirectory("nxt-test");
+        Path path = dir.resolve("test.col");
+        try {
+            try (ColumnFile.Writer writer = new ColumnFile.Writer(path, names, types)) {
+                writer.addRow(1L, "one");
+                writer.addRow(2L, null);
+                writer.commit();
+            }
+            ColumnFile.Reader reader = new ColumnFile.Reader(path);
+            Assert.assertEquals(2, reader.getRowCount());
+            Assert.assertEquals(Arrays.asList(1L, 2L), reader.readColumn("id"));
+            Assert.assertEquals(Arrays.asList("one", null), reader.readColumn("name"));
+            Assert.assertFalse(Files.exists(dir.resolve("test.col.tmp")));
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void closeWithoutCommit() throws Exception {
+        Path dir = Files.createTempDirectory("nxt-test");
+        Path path = dir.resolve("test.col");
+        try {
+            try (ColumnFile.Writer writer = new ColumnFile.Writer(path, names, types)) {
+                writer.addRow(1L, "one");
+                throw new IOException("Export failed");
+            } catch (IOException e) {
+                Assert.assertEquals("Export failed", e.getMessage());
+            }
+            Assert.assertFalse(Files.exists(path));
+            Assert.assertFalse(Files.exists(dir.resolve("test.col.tmp")));
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+public class MetricsTest {
+
+    @Test
+    public void histogram() throws Exception {
+        Metrics.Histogram histogram = Metrics.histogram("test_histogram_seconds", "Test histogram", "phase", "one");
+        histogram.observeNanos(200_000L);
+        histogram.observeNanos(3_000_000L);
+        histogram.observeNanos(60_000_000_000L);
+        Assert.assertEquals(3, histogram.getCount());
+        Assert.assertSame(histogram, Metrics.histogram("test_histogram_seconds", "Test histogram", "phase", "one"));
+
+        StringWriter writer = new StringWriter();
+        Metrics.writeTo(writer);
+        String text = writer.toString();
+        Assert.assertTrue(text.contains("# TYPE test_histogram_seconds histogram\n"));
+        Assert.assertTrue(text.contains("test_histogram_seconds_bucket{phase=\"one\",le=\"5.0E-4\"} 1\n"));
+        Assert.assertTrue(text.contains("test_histogram_seconds_bucket{phase=\"one\",le=\"0.005\"} 2\n"));
+        Assert.assertTrue(text.contains("test_histogram_seconds_bucket{phase=\"one\",le=\"+Inf\"} 3\n"));
+        Assert.assertTrue(text.contains("test_histogram_seconds_count{phase=\"one\"} 3\n"));
+    }
+
+    @Test
+    public void gauge() throws Exception {
+        Metrics.gauge("test_gauge", "Test gauge", "pool", "a", () -> 5);
+        Metrics.gauge("test_gauge", "Test gauge", "pool", "b", () -> 7);
+        StringWriter writer = new StringWriter();
+        Metrics.writeTo(writer);
+        String text = writer.toString();
+        Assert.assertTrue(text.contains("test_gauge{pool=\"a\"} 5\n"));
+        Assert.assertTrue(text.contains("test_gauge{pool=\"b\"} 7\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void typeMismatch() {
+        Metrics.counter("test_mismatch", "Test counter");
+        Metrics.histogram("test_mismatch", "Test histogram");
+    }
+}